@@ -9,20 +9,29 @@ import java.io.File;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.joda.time.DateTime;
+import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.TupleQueryResultHandler;
+import org.openrdf.query.impl.EmptyBindingSet;
 import org.openrdf.query.parser.ParsedQuery;
 
 import fi.uef.envi.emrooz.api.DataStore;
 import fi.uef.envi.emrooz.api.KnowledgeStore;
+import fi.uef.envi.emrooz.api.PagedQueryHandler;
 import fi.uef.envi.emrooz.api.QueryHandler;
 import fi.uef.envi.emrooz.api.ResultSet;
 import fi.uef.envi.emrooz.entity.ComponentPropertyValueVisitor;
@@ -55,14 +64,27 @@ import fi.uef.envi.emrooz.entity.ssn.SensorObservation;
 import fi.uef.envi.emrooz.entity.ssn.SensorOutput;
 import fi.uef.envi.emrooz.entity.time.Instant;
 import fi.uef.envi.emrooz.entity.time.TemporalEntity;
+import fi.uef.envi.emrooz.query.CancellableQueryHandler;
+import fi.uef.envi.emrooz.query.Cursor;
 import fi.uef.envi.emrooz.query.DatasetObservationQuery;
 import fi.uef.envi.emrooz.query.EmptyResultSet;
+import fi.uef.envi.emrooz.query.PagedResultSet;
+import fi.uef.envi.emrooz.query.PreparedQuery;
+import fi.uef.envi.emrooz.query.QueryAdmissionPolicy;
+import fi.uef.envi.emrooz.query.QueryContext;
+import fi.uef.envi.emrooz.query.QueryCost;
 import fi.uef.envi.emrooz.query.QueryFactory;
+import fi.uef.envi.emrooz.query.QueryRejectedException;
 import fi.uef.envi.emrooz.query.SensorObservationQuery;
 import fi.uef.envi.emrooz.query.SensorObservationQueryRewriter;
+import fi.uef.envi.emrooz.query.StatementTemplate;
+import fi.uef.envi.emrooz.query.StatementTemplateQueryHandler;
+import fi.uef.envi.emrooz.query.TimeBucketAggregation;
+import fi.uef.envi.emrooz.query.TimeBucketFunction;
 import fi.uef.envi.emrooz.rdf.RDFEntityRepresenter;
 import fi.uef.envi.emrooz.vocabulary.SDMXDimension;
 import fi.uef.envi.emrooz.vocabulary.SDMXMetadata;
+import fi.uef.envi.emrooz.vocabulary.SSN;
 
 /**
  * <p>
@@ -86,21 +108,54 @@ public class Emrooz {
 	private KnowledgeStore ks;
 	private DataStore ds;
 
-	private Map<URI, Property> properties;
-	private Map<URI, FeatureOfInterest> features;
-	private Map<URI, Map<URI, Sensor>> sensors;
-	private Map<URI, Sensor> sensorsById;
-	private Map<URI, Dataset> datasets;
-
-	private DateTime instant = null;
-	private Entity entity = null;
-	private final EntityVisitor entityVisitor;
-	private final ComponentPropertyValueVisitor componentPropertyValueVisitor;
-	private final RDFEntityRepresenter representer;
+	// Maps are rebuilt and replaced as a whole, such that queries evaluated
+	// concurrently never see a partially loaded knowledge base
+	private volatile Map<URI, Property> properties;
+	private volatile Map<URI, FeatureOfInterest> features;
+	private volatile Map<URI, Map<URI, Sensor>> sensors;
+	private volatile Map<URI, Sensor> sensorsById;
+	private volatile Map<URI, Dataset> datasets;
+
+	// Representers keep state while representing entities and are thus
+	// confined to threads, such that observations can be added concurrently
+	private final ThreadLocal<RDFEntityRepresenter> representer;
 	private SensorObservationQueryRewriter sensorObservationQueryRewriter;
-	private Map<Sensor, Frequency> sensorFrequencyCache;
-	private Map<URI, QuantityValue> datasetFrequencyCache;
-
+	private ConcurrentMap<Sensor, Frequency> sensorFrequencyCache;
+	private ConcurrentMap<URI, QuantityValue> datasetFrequencyCache;
+	private final EntityTemplate template;
+	private volatile boolean normalized = false;
+	private volatile boolean modeChecked = false;
+	private QueryAdmissionPolicy admissionPolicy = null;
+	private final Map<String, PreparedQuery> preparedQueries;
+
+	// Number of prepared queries retained, least recently used are dropped
+	private static final int MAX_PREPARED_QUERIES = 100;
+	private static final String NORMALIZED_METADATA_KEY = "normalized";
+	private static final String LATEST_SENSOR_OBSERVATION_QUERY = "prefix ssn: <http://purl.oclc.org/NET/ssnx/ssn#> "
+			+ "prefix time: <http://www.w3.org/2006/time#> "
+			+ "prefix dul: <http://www.loa-cnr.it/ontologies/DUL.owl#> "
+			+ "select ?sensorId ?propertyId ?featureId ?time ?value "
+			+ "where { "
+			+ "[ "
+			+ "ssn:observedBy ?sensorId ; "
+			+ "ssn:observedProperty ?propertyId ; "
+			+ "ssn:featureOfInterest ?featureId ; "
+			+ "ssn:observationResultTime [ time:inXSDDateTime ?time ] ; "
+			+ "ssn:observationResult [ ssn:hasValue [ dul:hasRegionDataValue ?value ] ] "
+			+ "] "
+			+ "}";
+	private static final String LATEST_DATASET_OBSERVATION_QUERY = "prefix qb: <http://purl.org/linked-data/cube#> "
+			+ "prefix sdmx-dimension: <http://purl.org/linked-data/sdmx/2009/dimension#> "
+			+ "prefix time: <http://www.w3.org/2006/time#> "
+			+ "prefix rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
+			+ "select ?datasetId ?id ?time ?property ?value "
+			+ "where { "
+			+ "?id qb:dataSet ?datasetId . "
+			+ "?id sdmx-dimension:timePeriod [ time:inXSDDateTime ?time ] . "
+			+ "?id ?property ?value . "
+			+ "?property rdf:type qb:ComponentProperty . "
+			+ "}";
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
 	private static final Logger log = Logger.getLogger(Emrooz.class.getName());
 
 	public Emrooz(KnowledgeStore ks, DataStore ds) {
@@ -114,22 +169,67 @@ public class Emrooz {
 		this.ks = ks;
 		this.ds = ds;
 
-		this.properties = new HashMap<URI, Property>();
-		this.features = new HashMap<URI, FeatureOfInterest>();
-		this.sensors = new HashMap<URI, Map<URI, Sensor>>();
-		this.sensorsById = new HashMap<URI, Sensor>();
-		this.datasets = new HashMap<URI, Dataset>();
-		this.entityVisitor = new EmroozEntityVisitor();
-		this.componentPropertyValueVisitor = new EmroozComponentPropertyValueVisitor();
-		this.representer = new RDFEntityRepresenter();
+		this.representer = new ThreadLocal<RDFEntityRepresenter>() {
+			@Override
+			protected RDFEntityRepresenter initialValue() {
+				return new RDFEntityRepresenter();
+			}
+		};
 		this.sensorObservationQueryRewriter = new SensorObservationQueryRewriter(
 				ks);
-		this.sensorFrequencyCache = new HashMap<Sensor, Frequency>();
-		this.datasetFrequencyCache = new HashMap<URI, QuantityValue>();
+		this.preparedQueries = new LinkedHashMap<String, PreparedQuery>(16,
+				0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, PreparedQuery> eldest) {
+				return size() > MAX_PREPARED_QUERIES;
+			}
+		};
+		this.sensorFrequencyCache = new ConcurrentHashMap<Sensor, Frequency>();
+		this.datasetFrequencyCache = new ConcurrentHashMap<URI, QuantityValue>();
+		this.template = new EntityTemplate();
 
 		init();
 	}
 
+	/**
+	 * In normalized mode, sensor observations are stored without the
+	 * statements of their sensor, property and feature, i.e. with the
+	 * statements that link observations to them and of their result and
+	 * result time. The statements of sensor, property and feature are
+	 * re-attached to query results from their specification in the knowledge
+	 * store, else as typed by the statements that link to them. The mode is
+	 * stored with the data store when the first observation is added; adding
+	 * or querying observations in the other mode fails.
+	 * 
+	 * @param normalized
+	 */
+	public void setNormalized(boolean normalized) {
+		this.normalized = normalized;
+		this.modeChecked = false;
+	}
+
+	public boolean isNormalized() {
+		return normalized;
+	}
+
+	/**
+	 * Sets the policy by which sensor observation queries are admitted, by
+	 * estimated cost, and the deadline of admitted queries. Without policy,
+	 * i.e. null, all queries are admitted without deadline.
+	 * 
+	 * @param admissionPolicy
+	 */
+	public void setQueryAdmissionPolicy(QueryAdmissionPolicy admissionPolicy) {
+		this.admissionPolicy = admissionPolicy;
+	}
+
+	public QueryAdmissionPolicy getQueryAdmissionPolicy() {
+		return admissionPolicy;
+	}
+
 	public void loadKnowledgeBase(File file) {
 		ks.load(file);
 		init();
@@ -202,11 +302,11 @@ public class Emrooz {
 	}
 
 	public void addSensorObservation(Set<Statement> statements) {
-		add(representer.createSensorObservation(statements));
+		add(representer.get().createSensorObservation(statements));
 	}
 
 	public void addSensorObservations(Set<Statement> statements) {
-		add(representer.createSensorObservations(statements));
+		add(representer.get().createSensorObservations(statements));
 	}
 
 	public void add(Set<SensorObservation> observations) {
@@ -218,8 +318,6 @@ public class Emrooz {
 		if (observation == null)
 			return;
 
-		instant = null;
-
 		Sensor sensor = observation.getSensor();
 		Property property = observation.getProperty();
 		FeatureOfInterest feature = observation.getFeatureOfInterest();
@@ -232,9 +330,11 @@ public class Emrooz {
 			return;
 		}
 
+		EmroozEntityVisitor entityVisitor = new EmroozEntityVisitor();
+
 		temporalEntity.accept(entityVisitor);
 
-		DateTime resultTime = instant;
+		DateTime resultTime = entityVisitor.instant;
 
 		if (sensor == null) {
 			if (log.isLoggable(Level.SEVERE))
@@ -265,14 +365,26 @@ public class Emrooz {
 			return;
 		}
 
+		checkMode(true);
+
+		Set<Statement> statements;
+
+		if (normalized)
+			statements = representer.get()
+					.createNormalizedRepresentation(observation);
+		else
+			statements = representer.get().createRepresentation(observation);
+
 		addSensorObservation(observation.getSensor(),
 				observation.getProperty(), observation.getFeatureOfInterest(),
-				instant, representer.createRepresentation(observation));
+				resultTime, statements);
 	}
 
 	public void addSensorObservation(Sensor sensor, Property property,
 			FeatureOfInterest feature, DateTime resultTime,
 			Set<Statement> statements) {
+		checkMode(true);
+
 		if (sensors.isEmpty())
 			sensors();
 
@@ -304,7 +416,7 @@ public class Emrooz {
 	}
 
 	public void addDatasetObservation(Set<Statement> statements) {
-		add(representer.createDatasetObservation(statements));
+		add(representer.get().createDatasetObservation(statements));
 	}
 
 	public void addDatasetObservations(Set<Statement> statements) {
@@ -333,10 +445,12 @@ public class Emrooz {
 			return;
 		}
 
-		entity = null;
+		EmroozComponentPropertyValueVisitor componentPropertyValueVisitor = new EmroozComponentPropertyValueVisitor();
 
 		componentPropertyValue.accept(componentPropertyValueVisitor);
 
+		Entity entity = componentPropertyValueVisitor.entity;
+
 		if (entity == null) {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe("Failed to obtain value entity for component property [componentPropertyValue = "
@@ -346,11 +460,11 @@ public class Emrooz {
 			return;
 		}
 
-		instant = null;
+		EmroozEntityVisitor entityVisitor = new EmroozEntityVisitor();
 
 		entity.accept(entityVisitor);
 
-		DateTime timePeriod = instant;
+		DateTime timePeriod = entityVisitor.instant;
 
 		if (timePeriod == null) {
 			if (log.isLoggable(Level.SEVERE))
@@ -361,7 +475,7 @@ public class Emrooz {
 		}
 
 		addDatasetObservation(datasetId, timePeriod,
-				representer.createRepresentation(observation));
+				representer.get().createRepresentation(observation));
 	}
 
 	public void addDatasetObservation(URI datasetId, DateTime timePeriod,
@@ -399,6 +513,247 @@ public class Emrooz {
 		evaluate(type, QueryFactory.createParsedQuery(query), handler);
 	}
 
+	/**
+	 * Returns the prepared query for a query template, in which unbound
+	 * variables are parameters bound on evaluation, e.g.
+	 * <code>ssn:observedBy ?sensor</code> or <code>?time &gt;= ?from</code>.
+	 * Prepared queries are cached by template.
+	 */
+	public PreparedQuery prepare(QueryType type, String query) {
+		if (type == null)
+			throw new NullPointerException("[type = null]");
+		if (query == null)
+			throw new NullPointerException("[query = null]");
+
+		String key = type + " " + query;
+
+		synchronized (preparedQueries) {
+			PreparedQuery ret = preparedQueries.get(key);
+
+			if (ret != null)
+				return ret;
+		}
+
+		PreparedQuery ret;
+
+		if (type.equals(QueryType.SENSOR_OBSERVATION))
+			ret = PreparedQuery.createSensorObservationQuery(query);
+		else
+			ret = PreparedQuery.createDatasetObservationQuery(query);
+
+		synchronized (preparedQueries) {
+			preparedQueries.put(key, ret);
+		}
+
+		return ret;
+	}
+
+	public ResultSet<BindingSet> evaluate(PreparedQuery query,
+			BindingSet bindings) {
+		return evaluate(query, bindings, null);
+	}
+
+	/**
+	 * Evaluates the query in the context, which may be cancelled by another
+	 * thread while the query is evaluated. If the context is null, a context
+	 * with the deadline of the query admission policy is used.
+	 */
+	public ResultSet<BindingSet> evaluate(PreparedQuery query,
+			BindingSet bindings, QueryContext context) {
+		if (query == null)
+			throw new NullPointerException("[query = null]");
+		if (bindings == null)
+			throw new NullPointerException("[bindings = null]");
+
+		QueryHandler<BindingSet> qh;
+
+		if (query.getTemplate() instanceof SensorObservationQuery)
+			qh = createQueryHandler(query.getParsedQuery(),
+					((SensorObservationQuery) query.getTemplate())
+							.bind(bindings), bindings, context);
+		else
+			qh = createQueryHandler(query.getParsedQuery(),
+					((DatasetObservationQuery) query.getTemplate())
+							.bind(bindings), bindings, context);
+
+		if (qh == null)
+			return new EmptyResultSet<BindingSet>();
+
+		return qh.evaluate();
+	}
+
+	/**
+	 * Returns the estimated cost, i.e. data partitions and observations read,
+	 * of evaluating the query with the bindings, or null if the query cannot
+	 * be resolved or its cost is not estimated by the data store. Only the
+	 * cost of sensor observation queries is estimated.
+	 */
+	public QueryCost estimate(PreparedQuery query, BindingSet bindings) {
+		if (query == null)
+			throw new NullPointerException("[query = null]");
+		if (bindings == null)
+			throw new NullPointerException("[bindings = null]");
+
+		if (!(query.getTemplate() instanceof SensorObservationQuery))
+			return null;
+
+		SensorObservationQuery q = ((SensorObservationQuery) query
+				.getTemplate()).bind(bindings);
+		Map<SensorObservationQuery, Frequency> queries = getSensorObservationQueries(q);
+
+		if (queries == null)
+			return null;
+
+		return ds.estimateSensorObservationQueryCost(queries,
+				q.getTimeBucketAggregation());
+	}
+
+	public PagedResultSet<BindingSet> evaluate(QueryType type, String query,
+			Cursor cursor, int size) {
+		return evaluate(prepare(type, query), EmptyBindingSet.getInstance(),
+				cursor, size);
+	}
+
+	/**
+	 * Returns one page of results of the query, evaluated on at most the given
+	 * number of observations starting at the cursor, or at the first
+	 * observation if the cursor is null. Observations are read series after
+	 * series and, within a series, in time order; the query is evaluated on
+	 * each page separately. The next cursor of the result set is null for the
+	 * last page.
+	 */
+	public PagedResultSet<BindingSet> evaluate(PreparedQuery query,
+			BindingSet bindings, Cursor cursor, int size) {
+		if (query == null)
+			throw new NullPointerException("[query = null]");
+		if (bindings == null)
+			throw new NullPointerException("[bindings = null]");
+
+		PagedQueryHandler<Statement> pqh;
+		QueryHandler<Statement> qh;
+
+		if (query.getTemplate() instanceof SensorObservationQuery) {
+			SensorObservationQuery q = ((SensorObservationQuery) query
+					.getTemplate()).bind(bindings);
+
+			if (q.getTimeBucketAggregation() != null)
+				throw new UnsupportedOperationException(
+						"Paging of aggregate queries not supported [query = "
+								+ q + "]");
+
+			Map<SensorObservationQuery, Frequency> queries = getSensorObservationQueries(q);
+
+			if (queries == null)
+				return new PagedResultSet<BindingSet>(
+						new EmptyResultSet<BindingSet>(), null);
+
+			pqh = ds.createSensorObservationQueryHandler(queries, cursor, size);
+
+			if (pqh == null)
+				throw new UnsupportedOperationException(
+						"Paging not supported by data store");
+
+			qh = pqh;
+
+			if (normalized)
+				qh = new StatementTemplateQueryHandler(qh, template);
+		} else {
+			DatasetObservationQuery q = ((DatasetObservationQuery) query
+					.getTemplate()).bind(bindings);
+			Dataset specification = getDatasetSpecification(q.getDatasetId());
+
+			if (specification == null)
+				return new PagedResultSet<BindingSet>(
+						new EmptyResultSet<BindingSet>(), null);
+
+			QuantityValue frequency = getDatasetFrequency(specification);
+
+			if (frequency == null)
+				return new PagedResultSet<BindingSet>(
+						new EmptyResultSet<BindingSet>(), null);
+
+			pqh = ds.createDatasetObservationQueryHandler(
+					Collections.singletonMap(q, frequency), cursor, size);
+
+			if (pqh == null)
+				throw new UnsupportedOperationException(
+						"Paging not supported by data store");
+
+			qh = pqh;
+		}
+
+		ResultSet<BindingSet> results = ks.createQueryHandler(qh,
+				query.getParsedQuery(), bindings).evaluate();
+
+		return new PagedResultSet<BindingSet>(results, pqh.getNextCursor());
+	}
+
+	/**
+	 * Returns the latest observation of each series of sensor, property and
+	 * feature, with bindings sensorId, propertyId, featureId, time and value.
+	 * Sensor, property or feature that are null match any.
+	 */
+	public ResultSet<BindingSet> getLatestSensorObservations(URI sensorId,
+			URI propertyId, URI featureId) {
+		Map<SensorObservationQuery, Frequency> queries = getSensorObservationQueries(SensorObservationQuery
+				.create(sensorId, propertyId, featureId, null, null));
+
+		if (queries == null)
+			return new EmptyResultSet<BindingSet>();
+
+		QueryHandler<Statement> qh = ds
+				.createLatestSensorObservationQueryHandler(queries);
+
+		if (normalized)
+			qh = new StatementTemplateQueryHandler(qh, template);
+
+		return ks.createQueryHandler(qh,
+				QueryFactory.createParsedQuery(LATEST_SENSOR_OBSERVATION_QUERY),
+				EmptyBindingSet.getInstance()).evaluate();
+	}
+
+	/**
+	 * Returns the latest observation of the dataset, or of each dataset if
+	 * null, with bindings datasetId, id, time, property and value.
+	 */
+	public ResultSet<BindingSet> getLatestDatasetObservations(URI datasetId) {
+		Set<Dataset> specifications = new HashSet<Dataset>();
+
+		if (datasetId == null) {
+			datasets();
+			specifications.addAll(datasets.values());
+		} else {
+			Dataset specification = getDatasetSpecification(datasetId);
+
+			if (specification == null)
+				return new EmptyResultSet<BindingSet>();
+
+			specifications.add(specification);
+		}
+
+		Map<DatasetObservationQuery, QuantityValue> queries = new HashMap<DatasetObservationQuery, QuantityValue>();
+
+		for (Dataset specification : specifications) {
+			QuantityValue frequency = getDatasetFrequency(specification);
+
+			if (frequency == null) {
+				if (log.isLoggable(Level.WARNING))
+					log.warning("No frequency specified [specification = "
+							+ specification + "]");
+				continue;
+			}
+
+			queries.put(DatasetObservationQuery.create(specification.getId(),
+					null, null), frequency);
+		}
+
+		return ks.createQueryHandler(
+				ds.createLatestDatasetObservationQueryHandler(queries),
+				QueryFactory
+						.createParsedQuery(LATEST_DATASET_OBSERVATION_QUERY),
+				EmptyBindingSet.getInstance()).evaluate();
+	}
+
 	private void init() {
 		properties();
 		features();
@@ -479,6 +834,14 @@ public class Emrooz {
 		qh.evaluate(handler);
 	}
 
+	/**
+	 * Writes the observations and summaries buffered by the data store, such
+	 * that observations added so far are durable.
+	 */
+	public void flush() {
+		ds.flush();
+	}
+
 	public void close() {
 		ks.close();
 		ds.close();
@@ -486,11 +849,142 @@ public class Emrooz {
 
 	private QueryHandler<BindingSet> createQueryHandler(ParsedQuery original,
 			SensorObservationQuery query) {
+		return createQueryHandler(original, query,
+				EmptyBindingSet.getInstance(), null);
+	}
+
+	private QueryHandler<BindingSet> createQueryHandler(ParsedQuery original,
+			SensorObservationQuery query, BindingSet bindings,
+			QueryContext context) {
 		if (log.isLoggable(Level.INFO))
 			log.info("Query [query = " + query + "; original = "
 					+ original.getSourceString() + "]");
 
-		Map<SensorObservationQuery, Frequency> queriesMap = new HashMap<SensorObservationQuery, Frequency>();
+		Map<SensorObservationQuery, Frequency> queriesMap = getSensorObservationQueries(query);
+
+		if (queriesMap == null)
+			return null;
+
+		TimeBucketAggregation aggregation = query.getTimeBucketAggregation();
+
+		if (admissionPolicy != null)
+			queriesMap = admit(queriesMap, aggregation);
+
+		if (context == null && admissionPolicy != null)
+			context = admissionPolicy.createContext();
+
+		if (aggregation != null) {
+			QueryHandler<BindingSet> ret = ds
+					.createSensorObservationAggregateQueryHandler(queriesMap,
+							aggregation, context);
+
+			if (ret != null) {
+				if (log.isLoggable(Level.INFO))
+					log.info("Aggregation evaluated by data store [aggregation = "
+							+ aggregation + "]");
+
+				return ret;
+			}
+		}
+
+		QueryHandler<Statement> qh = ds
+				.createSensorObservationQueryHandler(queriesMap);
+
+		if (normalized)
+			qh = new StatementTemplateQueryHandler(qh, template);
+
+		return ks.createQueryHandler(createQueryHandler(qh, context),
+				original, bindings);
+	}
+
+	private QueryHandler<Statement> createQueryHandler(
+			QueryHandler<Statement> qh, QueryContext context) {
+		if (context == null && admissionPolicy != null)
+			context = admissionPolicy.createContext();
+
+		if (context == null)
+			return qh;
+
+		return new CancellableQueryHandler(qh, context);
+	}
+
+	/**
+	 * Returns the queries if admitted by the admission policy. Time bucket
+	 * aggregate queries that are not admitted may be degraded to whole
+	 * buckets, which the data store can answer from rollups. Queries that are
+	 * not admitted, also when degraded, are rejected.
+	 */
+	private Map<SensorObservationQuery, Frequency> admit(
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation) {
+		QueryCost cost = ds.estimateSensorObservationQueryCost(queries,
+				aggregation);
+
+		if (admissionPolicy.isAdmitted(cost))
+			return queries;
+
+		if (aggregation != null
+				&& admissionPolicy.getAction().equals(
+						QueryAdmissionPolicy.Action.DEGRADE)) {
+			Map<SensorObservationQuery, Frequency> degraded = getAlignedQueries(
+					queries, aggregation.getDuration());
+			QueryCost degradedCost = ds.estimateSensorObservationQueryCost(
+					degraded, aggregation);
+
+			if (admissionPolicy.isAdmitted(degradedCost)) {
+				if (log.isLoggable(Level.INFO))
+					log.info("Degraded query to whole buckets [cost = " + cost
+							+ "; degradedCost = " + degradedCost + "]");
+
+				return degraded;
+			}
+
+			cost = degradedCost;
+		}
+
+		if (log.isLoggable(Level.WARNING))
+			log.warning("Rejected query [cost = " + cost
+					+ "; admissionPolicy = " + admissionPolicy + "]");
+
+		throw new QueryRejectedException(cost);
+	}
+
+	private Map<SensorObservationQuery, Frequency> getAlignedQueries(
+			Map<SensorObservationQuery, Frequency> queries, long duration) {
+		Map<SensorObservationQuery, Frequency> ret = new HashMap<SensorObservationQuery, Frequency>();
+
+		for (Map.Entry<SensorObservationQuery, Frequency> entry : queries
+				.entrySet()) {
+			SensorObservationQuery query = entry.getKey();
+			DateTime timeFrom = query.getTimeFrom();
+			DateTime timeTo = query.getTimeTo();
+
+			if (timeFrom != null && timeTo != null) {
+				timeFrom = new DateTime(TimeBucketFunction.floor(
+						timeFrom.getMillis(), duration), timeFrom.getZone());
+				timeTo = new DateTime(-TimeBucketFunction.floor(
+						-timeTo.getMillis(), duration), timeTo.getZone());
+			}
+
+			ret.put(SensorObservationQuery.create(query.getSensorId(),
+					query.getPropertyId(), query.getFeatureOfInterestId(),
+					timeFrom, timeTo, query.getValueFrom(),
+					query.getValueTo(), query.getLimit(),
+					query.isDescending()), entry.getValue());
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Returns the fully specified queries, with sensor frequency, that the
+	 * query is rewritten to, or null if a query cannot be resolved.
+	 */
+	private Map<SensorObservationQuery, Frequency> getSensorObservationQueries(
+			SensorObservationQuery query) {
+		checkMode(false);
+
+		Map<SensorObservationQuery, Frequency> ret = new HashMap<SensorObservationQuery, Frequency>();
 		Set<SensorObservationQuery> rewrittenQueries = sensorObservationQueryRewriter
 				.rewrite(query);
 
@@ -552,15 +1046,21 @@ public class Emrooz {
 				return null;
 			}
 
-			queriesMap.put(rewrittenQuery, frequency);
+			ret.put(rewrittenQuery, frequency);
 		}
 
-		return ks.createQueryHandler(
-				ds.createSensorObservationQueryHandler(queriesMap), original);
+		return ret;
 	}
 
 	private QueryHandler<BindingSet> createQueryHandler(ParsedQuery original,
 			DatasetObservationQuery query) {
+		return createQueryHandler(original, query,
+				EmptyBindingSet.getInstance(), null);
+	}
+
+	private QueryHandler<BindingSet> createQueryHandler(ParsedQuery original,
+			DatasetObservationQuery query, BindingSet bindings,
+			QueryContext context) {
 		if (log.isLoggable(Level.INFO))
 			log.info("Query [query = " + query + "; original = "
 					+ original.getSourceString() + "]");
@@ -590,45 +1090,47 @@ public class Emrooz {
 		queriesMap.put(query, frequency);
 
 		return ks.createQueryHandler(
-				ds.createDatasetObservationQueryHandler(queriesMap), original);
+				createQueryHandler(
+						ds.createDatasetObservationQueryHandler(queriesMap),
+						context), original, bindings);
 	}
 
 	private void properties() {
-		properties.clear();
+		Map<URI, Property> properties = new HashMap<URI, Property>();
 		
-		Set<Property> properties = ks.getProperties();
-		
-		for (Property property : properties) {
-			this.properties.put(property.getId(), property);
+		for (Property property : ks.getProperties()) {
+			properties.put(property.getId(), property);
 		}
+		
+		this.properties = properties;
+		template.clear();
 	}
 	
 	private void features() {
-		features.clear();
-		
-		Set<FeatureOfInterest> features = ks.getFeaturesOfInterest();
+		Map<URI, FeatureOfInterest> features = new HashMap<URI, FeatureOfInterest>();
 		
-		for (FeatureOfInterest feature : features) {
-			this.features.put(feature.getId(), feature);
+		for (FeatureOfInterest feature : ks.getFeaturesOfInterest()) {
+			features.put(feature.getId(), feature);
 		}
+		
+		this.features = features;
+		template.clear();
 	}
 	
 	private void sensors() {
-		sensors.clear();
-		sensorsById.clear();
-
-		Set<Sensor> sensors = ks.getSensors();
+		Map<URI, Map<URI, Sensor>> sensors = new HashMap<URI, Map<URI, Sensor>>();
+		Map<URI, Sensor> sensorsById = new HashMap<URI, Sensor>();
 
-		for (Sensor sensor : sensors) {
+		for (Sensor sensor : ks.getSensors()) {
 			URI sensorId = sensor.getId();
 
 			sensorsById.put(sensorId, sensor);
 
-			Map<URI, Sensor> m1 = this.sensors.get(sensorId);
+			Map<URI, Sensor> m1 = sensors.get(sensorId);
 
 			if (m1 == null) {
 				m1 = new HashMap<URI, Sensor>();
-				this.sensors.put(sensorId, m1);
+				sensors.put(sensorId, m1);
 			}
 
 			Set<Property> properties = sensor.getObservedProperties();
@@ -644,18 +1146,22 @@ public class Emrooz {
 				m1.put(property.getId(), sensor);
 			}
 		}
+
+		this.sensors = sensors;
+		this.sensorsById = sensorsById;
+		template.clear();
 	}
 
 	private void datasets() {
-		datasets.clear();
+		Map<URI, Dataset> datasets = new HashMap<URI, Dataset>();
 
-		Set<Dataset> datasets = ks.getDatasets();
-
-		for (Dataset dataset : datasets) {
+		for (Dataset dataset : ks.getDatasets()) {
 			URI datasetId = dataset.getId();
 
-			this.datasets.put(datasetId, dataset);
+			datasets.put(datasetId, dataset);
 		}
+
+		this.datasets = datasets;
 	}
 
 	private Sensor getSensorSpecification(URI sensorId, URI propertyId) {
@@ -678,7 +1184,7 @@ public class Emrooz {
 			// Load sensors and check again, perhaps there are new sensors
 			sensors();
 			m1 = sensors.get(sensorId);
-			specification = m1.get(propertyId);
+			specification = (m1 == null) ? null : m1.get(propertyId);
 			if (specification == null) {
 				if (log.isLoggable(Level.WARNING))
 					log.warning("Failed to resolve sensor specification for feature [sensorId = "
@@ -710,6 +1216,37 @@ public class Emrooz {
 		return specification;
 	}
 
+	/**
+	 * Checks that the mode stored with the data store is the mode of this
+	 * instance. If no mode is stored, the mode is stored when observations are
+	 * added.
+	 */
+	private void checkMode(boolean add) {
+		if (modeChecked)
+			return;
+
+		synchronized (this) {
+			if (modeChecked)
+				return;
+
+			String stored = ds.getMetadata(NORMALIZED_METADATA_KEY);
+
+			if (stored == null) {
+				if (!add)
+					return;
+
+				ds.setMetadata(NORMALIZED_METADATA_KEY,
+						String.valueOf(normalized));
+			} else if (Boolean.parseBoolean(stored) != normalized) {
+				throw new IllegalStateException(
+						"Mode differs from mode of data store [normalized = "
+								+ normalized + "; stored = " + stored + "]");
+			}
+
+			modeChecked = true;
+		}
+	}
+
 	private Frequency getSensorFrequency(Sensor specification) {
 		Frequency ret = sensorFrequencyCache.get(specification);
 
@@ -766,6 +1303,8 @@ public class Emrooz {
 	private class EmroozComponentPropertyValueVisitor implements
 			ComponentPropertyValueVisitor {
 
+		private Entity entity = null;
+
 		@Override
 		public void visit(ComponentPropertyValueEntity value) {
 			entity = value.getValue();
@@ -799,6 +1338,8 @@ public class Emrooz {
 
 	private class EmroozEntityVisitor implements EntityVisitor {
 
+		private DateTime instant = null;
+
 		@Override
 		public void visit(SensorObservation entity) {
 			// TODO Auto-generated method stub
@@ -920,4 +1461,59 @@ public class Emrooz {
 
 	}
 
+	/**
+	 * The statements of the sensors, properties and features of the knowledge
+	 * store, which are re-attached to normalized sensor observations. Objects
+	 * not in the knowledge store are typed by the statement that links to
+	 * them. The statements are kept until the knowledge store is read again.
+	 */
+	private class EntityTemplate implements StatementTemplate {
+
+		private final ConcurrentMap<Statement, Set<Statement>> statements = new ConcurrentHashMap<Statement, Set<Statement>>();
+
+		@Override
+		public Set<Statement> getStatements(URI predicate, Resource object) {
+			URI type = RDFEntityRepresenter.NORMALIZED_TYPES.get(predicate);
+
+			if (type == null)
+				return null;
+
+			// Keyed by the type statement, the fallback of unknown objects
+			Statement key = vf.createStatement(object, RDF.TYPE, type);
+			Set<Statement> ret = statements.get(key);
+
+			if (ret != null)
+				return ret;
+
+			Entity entity = null;
+
+			if (predicate.equals(SSN.observedBy))
+				entity = sensorsById.get(object);
+			else if (predicate.equals(SSN.observedProperty))
+				entity = properties.get(object);
+			else if (predicate.equals(SSN.featureOfInterest))
+				entity = features.get(object);
+
+			if (entity instanceof Sensor)
+				ret = representer.get().createRepresentation((Sensor) entity);
+			else if (entity instanceof Property)
+				ret = representer.get()
+						.createRepresentation((Property) entity);
+			else if (entity instanceof FeatureOfInterest)
+				ret = representer.get().createRepresentation(
+						(FeatureOfInterest) entity);
+			else
+				ret = Collections.singleton(key);
+
+			statements.put(key, ret);
+
+			return ret;
+		}
+
+		private void clear() {
+			statements.clear();
+		}
+
+	}
+
 }
@@ -40,4 +40,50 @@ public class EmroozOptions {
 	
 	public final static String DATA_TABLE_ATTRIBUTE_3 = "value";
 	
+	public final static String ROLLUPS_TABLE = "rollups";
+	
+	public final static String ROLLUPS_TABLE_ATTRIBUTE_1 = "key";
+	
+	public final static String ROLLUPS_TABLE_ATTRIBUTE_2 = "resolution";
+	
+	public final static String ROLLUPS_TABLE_ATTRIBUTE_3 = "bucket";
+	
+	public final static String ROLLUPS_TABLE_ATTRIBUTE_4 = "value_count";
+	
+	public final static String ROLLUPS_TABLE_ATTRIBUTE_5 = "value_sum";
+	
+	public final static String ROLLUPS_TABLE_ATTRIBUTE_6 = "value_min";
+	
+	public final static String ROLLUPS_TABLE_ATTRIBUTE_7 = "value_max";
+	
+	public final static String ROLLUPS_TABLE_ATTRIBUTE_8 = "value_first";
+	
+	public final static String ROLLUPS_TABLE_ATTRIBUTE_9 = "value_last";
+	
+	public final static String ROLLUPS_TABLE_ATTRIBUTE_10 = "time_first";
+	
+	public final static String ROLLUPS_TABLE_ATTRIBUTE_11 = "time_last";
+	
+	public final static int ROLLUPS_MAX_PENDING = 10000;
+	
+	public final static long FLUSH_INTERVAL = 5000;
+	
+	public final static String BLOCKS_TABLE = "blocks";
+	
+	public final static String BLOCKS_TABLE_ATTRIBUTE_1 = "key";
+	
+	public final static String LATEST_TABLE = "latest";
+	
+	public final static String LATEST_TABLE_ATTRIBUTE_1 = "key";
+	
+	public final static String LATEST_TABLE_ATTRIBUTE_2 = "time";
+	
+	public final static String LATEST_TABLE_ATTRIBUTE_3 = "value";
+	
+	public final static String METADATA_TABLE = "metadata";
+	
+	public final static String METADATA_TABLE_ATTRIBUTE_1 = "key";
+	
+	public final static String METADATA_TABLE_ATTRIBUTE_2 = "value";
+	
 }
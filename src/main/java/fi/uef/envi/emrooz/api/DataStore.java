@@ -11,11 +11,16 @@ import java.util.Set;
 import org.joda.time.DateTime;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
+import org.openrdf.query.BindingSet;
 
 import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
 import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.query.Cursor;
 import fi.uef.envi.emrooz.query.DatasetObservationQuery;
+import fi.uef.envi.emrooz.query.QueryContext;
+import fi.uef.envi.emrooz.query.QueryCost;
 import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.query.TimeBucketAggregation;
 
 /**
  * <p>
@@ -46,7 +51,77 @@ public interface DataStore extends Store {
 	public QueryHandler<Statement> createSensorObservationQueryHandler(
 			Map<SensorObservationQuery, Frequency> queries);
 
+	/**
+	 * Returns a query handler that evaluates the time bucket aggregation over
+	 * the observations of the queries, or null if the data store does not
+	 * support aggregation, in which case the aggregation is evaluated over
+	 * the statements returned by the sensor observation query handler. The
+	 * handler stops evaluating once the context, if not null, is cancelled.
+	 */
+	public QueryHandler<BindingSet> createSensorObservationAggregateQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation, QueryContext context);
+
+	/**
+	 * Returns the estimated cost of the queries, evaluated with the time
+	 * bucket aggregation if not null, or null if the data store cannot
+	 * estimate the cost.
+	 */
+	public QueryCost estimateSensorObservationQueryCost(
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation);
+
 	public QueryHandler<Statement> createDatasetObservationQueryHandler(
 			Map<DatasetObservationQuery, QuantityValue> queries);
 
+	/**
+	 * Returns a query handler for one page of at most the given number of
+	 * observations of the queries, starting at the cursor or at the first
+	 * observation if the cursor is null. Returns null if the data store does
+	 * not support paging.
+	 */
+	public PagedQueryHandler<Statement> createSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries, Cursor cursor,
+			int size);
+
+	/**
+	 * Returns a query handler for one page of dataset observations, or null
+	 * if the data store does not support paging.
+	 */
+	public PagedQueryHandler<Statement> createDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries, Cursor cursor,
+			int size);
+
+	/**
+	 * Returns a query handler for the latest observation of the sensor,
+	 * property and feature of each query. Time intervals are ignored.
+	 */
+	public QueryHandler<Statement> createLatestSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries);
+
+	/**
+	 * Returns a query handler for the latest observation of the dataset of
+	 * each query. Time intervals are ignored.
+	 */
+	public QueryHandler<Statement> createLatestDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries);
+
+	/**
+	 * Writes the observations and summaries buffered by the data store, if
+	 * any, such that all observations added so far are durable.
+	 */
+	public void flush();
+
+	/**
+	 * Returns the value of the metadata key stored with the data store, or
+	 * null if not set.
+	 */
+	public String getMetadata(String key);
+
+	/**
+	 * Stores the value of the metadata key with the data store, durably if
+	 * the data store is durable.
+	 */
+	public void setMetadata(String key, String value);
+
 }
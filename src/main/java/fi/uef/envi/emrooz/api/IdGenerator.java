@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.api;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.URI;
+
+/**
+ * <p>
+ * Title: IdGenerator
+ * </p>
+ * <p>
+ * Description: Strategy for the generation of entity identifiers, such as
+ * those of observations, outputs, values and instants. An identifier is
+ * generated within a name space for an entity of a role (e.g. observation)
+ * that belongs to a series (e.g. sensor, property and feature) at a time.
+ * Strategies are free to ignore series, time and role.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public interface IdGenerator {
+
+	public URI generate(URI ns, String series, DateTime time, String role);
+
+}
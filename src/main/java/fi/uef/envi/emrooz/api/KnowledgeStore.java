@@ -53,4 +53,8 @@ public interface KnowledgeStore extends Store {
 	public QueryHandler<BindingSet> createQueryHandler(
 			QueryHandler<Statement> other, ParsedQuery query);
 
+	public QueryHandler<BindingSet> createQueryHandler(
+			QueryHandler<Statement> other, ParsedQuery query,
+			BindingSet bindings);
+
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.api;
+
+import fi.uef.envi.emrooz.query.Cursor;
+
+/**
+ * <p>
+ * Title: PagedQueryHandler
+ * </p>
+ * <p>
+ * Description: A query handler that returns one page of observations.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public interface PagedQueryHandler<T> extends QueryHandler<T> {
+
+	/**
+	 * Returns the cursor at which the next page starts, or null if the page
+	 * is the last. The cursor is known once the page has been evaluated.
+	 */
+	public Cursor getNextCursor();
+
+}
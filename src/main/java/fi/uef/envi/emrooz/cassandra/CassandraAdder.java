@@ -5,30 +5,73 @@
 
 package fi.uef.envi.emrooz.cassandra;
 
+import static fi.uef.envi.emrooz.EmroozOptions.BLOCKS_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.BLOCKS_TABLE_ATTRIBUTE_1;
 import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE;
 import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_1;
 import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_2;
 import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_3;
 import static fi.uef.envi.emrooz.EmroozOptions.KEYSPACE;
+import static fi.uef.envi.emrooz.EmroozOptions.LATEST_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.LATEST_TABLE_ATTRIBUTE_1;
+import static fi.uef.envi.emrooz.EmroozOptions.LATEST_TABLE_ATTRIBUTE_2;
+import static fi.uef.envi.emrooz.EmroozOptions.LATEST_TABLE_ATTRIBUTE_3;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_MAX_PENDING;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_1;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_2;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_3;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_6;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_7;
+import static fi.uef.envi.emrooz.cassandra.utils.RollupUtils.SUMMARY_ATTRIBUTES;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.joda.time.DateTime;
+import org.openrdf.model.Literal;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
 
-import com.carmatech.cassandra.TimeUUID;
 import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import fi.uef.envi.emrooz.Rollover;
+import fi.uef.envi.emrooz.cassandra.utils.RollupUtils;
 import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
 import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
 import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.query.BucketSummary;
+import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.query.TimeBucketFunction;
+import fi.uef.envi.emrooz.vocabulary.DUL;
 
 /**
  * <p>
@@ -51,11 +94,40 @@ public class CassandraAdder extends CassandraRequestHandler {
 
 	private Session session;
 	private PreparedStatement insertStatement;
+	private PreparedStatement rollupSelectStatement;
+	private PreparedStatement rollupInsertStatement;
+	private PreparedStatement rollupObservationsStatement;
+	private volatile List<Long> rollupResolutions;
+	private Map<RollupKey, BucketSummary> pendingRollups;
+	private PreparedStatement blockInsertStatement;
+	private PreparedStatement blockInvalidateStatement;
+	private PreparedStatement blockObservationsStatement;
+	private Map<String, RetentionPolicy> pendingBlocks;
+	private volatile PartitionCache cache;
+	private PreparedStatement latestInsertStatement;
+	private LatestValueIndex latestValues;
+	private volatile CassandraBulkWriter bulkWriter;
+	private LatestValueIndex pendingLatest;
+	private ConcurrentMap<URI, RetentionPolicy> retentionPolicies;
+	private volatile RetentionPolicy defaultRetentionPolicy;
+	private Map<String, RollupSeries> pendingRollupSeries;
+	private ConcurrentMap<RollupKey, Long> dirtyRollups;
+	private AtomicLong rollupVersion;
+	private final Object rollupLock = new Object();
+	private ScheduledExecutorService flusher;
 
 	private static final Logger log = Logger.getLogger(CassandraAdder.class
 			.getName());
 
 	public CassandraAdder(Session session) {
+		this(session, null);
+	}
+
+	/**
+	 * Creates an adder whose writes are at the consistency level, or at the
+	 * default of the cluster if null.
+	 */
+	public CassandraAdder(Session session, ConsistencyLevel writeConsistency) {
 		if (session == null)
 			throw new NullPointerException("[session = null]");
 
@@ -63,30 +135,701 @@ public class CassandraAdder extends CassandraRequestHandler {
 		this.insertStatement = this.session.prepare("INSERT INTO " + KEYSPACE
 				+ "." + DATA_TABLE + " (" + DATA_TABLE_ATTRIBUTE_1 + ","
 				+ DATA_TABLE_ATTRIBUTE_2 + "," + DATA_TABLE_ATTRIBUTE_3
-				+ ") VALUES (?, ?, ?)");
+				+ ") VALUES (?, ?, ?) USING TTL ?");
+		this.rollupSelectStatement = this.session.prepare("SELECT "
+				+ SUMMARY_ATTRIBUTES + " FROM " + KEYSPACE + "."
+				+ ROLLUPS_TABLE + " WHERE " + ROLLUPS_TABLE_ATTRIBUTE_1
+				+ "=? AND " + ROLLUPS_TABLE_ATTRIBUTE_2 + "=? AND "
+				+ ROLLUPS_TABLE_ATTRIBUTE_3 + "=?");
+		this.rollupInsertStatement = this.session.prepare("INSERT INTO "
+				+ KEYSPACE + "." + ROLLUPS_TABLE + " ("
+				+ ROLLUPS_TABLE_ATTRIBUTE_1 + "," + ROLLUPS_TABLE_ATTRIBUTE_2
+				+ "," + ROLLUPS_TABLE_ATTRIBUTE_3 + "," + SUMMARY_ATTRIBUTES
+				+ ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) USING TTL ?");
+		this.rollupObservationsStatement = this.session.prepare("SELECT "
+				+ DATA_TABLE_ATTRIBUTE_2 + "," + DATA_TABLE_ATTRIBUTE_3
+				+ " FROM " + KEYSPACE + "." + DATA_TABLE + " WHERE "
+				+ DATA_TABLE_ATTRIBUTE_1 + "=? AND " + DATA_TABLE_ATTRIBUTE_2
+				+ ">=minTimeuuid(?) AND " + DATA_TABLE_ATTRIBUTE_2
+				+ "<minTimeuuid(?)");
+		this.rollupResolutions = Collections.emptyList();
+		this.pendingRollups = new HashMap<RollupKey, BucketSummary>();
+		this.blockInsertStatement = this.session.prepare("INSERT INTO "
+				+ KEYSPACE + "." + BLOCKS_TABLE + " ("
+				+ BLOCKS_TABLE_ATTRIBUTE_1 + "," + SUMMARY_ATTRIBUTES
+				+ ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) USING TTL ? AND TIMESTAMP ?");
+		// The value range of a block is unknown until its summary is written
+		this.blockInvalidateStatement = this.session.prepare("INSERT INTO "
+				+ KEYSPACE + "." + BLOCKS_TABLE + " ("
+				+ BLOCKS_TABLE_ATTRIBUTE_1 + "," + ROLLUPS_TABLE_ATTRIBUTE_6
+				+ "," + ROLLUPS_TABLE_ATTRIBUTE_7
+				+ ") VALUES (?, ?, ?) USING TTL ? AND TIMESTAMP ?");
+		this.blockObservationsStatement = this.session.prepare("SELECT "
+				+ DATA_TABLE_ATTRIBUTE_2 + "," + DATA_TABLE_ATTRIBUTE_3
+				+ " FROM " + KEYSPACE + "." + DATA_TABLE + " WHERE "
+				+ DATA_TABLE_ATTRIBUTE_1 + "=?");
+		this.pendingBlocks = new HashMap<String, RetentionPolicy>();
+		this.retentionPolicies = new ConcurrentHashMap<URI, RetentionPolicy>();
+		this.defaultRetentionPolicy = RetentionPolicy.FOREVER;
+		this.pendingRollupSeries = new HashMap<String, RollupSeries>();
+		this.dirtyRollups = new ConcurrentHashMap<RollupKey, Long>();
+		this.rollupVersion = new AtomicLong();
+		this.pendingLatest = new LatestValueIndex();
+		// Written with the observation time as write time, such that
+		// observations added out of order do not replace later ones
+		this.latestInsertStatement = this.session.prepare("INSERT INTO "
+				+ KEYSPACE + "." + LATEST_TABLE + " ("
+				+ LATEST_TABLE_ATTRIBUTE_1 + "," + LATEST_TABLE_ATTRIBUTE_2
+				+ "," + LATEST_TABLE_ATTRIBUTE_3
+				+ ") VALUES (?, ?, ?) USING TIMESTAMP ?");
+
+		if (writeConsistency != null) {
+			this.insertStatement.setConsistencyLevel(writeConsistency);
+			this.rollupInsertStatement.setConsistencyLevel(writeConsistency);
+			this.blockInsertStatement.setConsistencyLevel(writeConsistency);
+			this.blockInvalidateStatement
+					.setConsistencyLevel(writeConsistency);
+			this.latestInsertStatement.setConsistencyLevel(writeConsistency);
+			// Rollups are computed from the observations just written
+			this.rollupObservationsStatement
+					.setConsistencyLevel(writeConsistency);
+			this.blockObservationsStatement
+					.setConsistencyLevel(writeConsistency);
+		}
+	}
+
+	/**
+	 * Sets the cache whose partitions are invalidated when observations are
+	 * written to them, i.e. once their batch is written in bulk loads.
+	 */
+	public synchronized void setPartitionCache(PartitionCache cache) {
+		this.cache = cache;
+
+		if (bulkWriter != null)
+			bulkWriter.setPartitionCache(cache);
+	}
+
+	/**
+	 * Sets the index of the latest observations written by this adder. The
+	 * latest table is then only written for observations that are the latest
+	 * of their series. In any case, the latest table is written when flushed
+	 * and at the flush interval, once per series.
+	 */
+	public void setLatestValueIndex(LatestValueIndex latestValues) {
+		this.latestValues = latestValues;
+	}
+
+	/**
+	 * Sets the writer for bulk loads, or null to write observations one by
+	 * one. With a bulk writer, observations are written in batches and are
+	 * durable once flushed.
+	 */
+	public synchronized void setBulkWriter(CassandraBulkWriter bulkWriter) {
+		flush();
+
+		if (bulkWriter != null)
+			bulkWriter.setPartitionCache(cache);
+
+		this.bulkWriter = bulkWriter;
+	}
+
+	/**
+	 * Sets the retention policy of the sensors and datasets without one of
+	 * their own.
+	 */
+	public void setRetentionPolicy(RetentionPolicy policy) {
+		if (policy == null)
+			throw new NullPointerException("[policy = null]");
+
+		this.defaultRetentionPolicy = policy;
+	}
+
+	/**
+	 * Sets the retention policy of the observations of the sensor or dataset,
+	 * or removes it if null.
+	 */
+	public void setRetentionPolicy(URI id, RetentionPolicy policy) {
+		if (id == null)
+			throw new NullPointerException("[id = null]");
+
+		if (policy == null)
+			retentionPolicies.remove(id);
+		else
+			retentionPolicies.put(id, policy);
+	}
+
+	public RetentionPolicy getRetentionPolicy(URI id) {
+		RetentionPolicy ret = (id == null) ? null : retentionPolicies.get(id);
+
+		if (ret == null)
+			return defaultRetentionPolicy;
+
+		return ret;
+	}
+
+	public synchronized void flush() {
+		flushBulk();
+		flushRollups();
+		flushBlocks();
+	}
+
+	/**
+	 * Sets the interval, in milliseconds, at which the latest observations
+	 * and the rollups of the observations added are written in the
+	 * background, or 0 to write them only when flushed or once
+	 * {@code ROLLUPS_MAX_PENDING} series or buckets are pending. The interval
+	 * bounds the time for which other clients read a stale latest
+	 * observation.
+	 */
+	public synchronized void setFlushInterval(long interval) {
+		if (interval < 0)
+			throw new IllegalArgumentException("[interval = " + interval
+					+ "]");
+
+		if (flusher != null)
+			flusher.shutdown();
+
+		if (interval == 0) {
+			flusher = null;
+			return;
+		}
+
+		flusher = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+						.setDaemon(true).setNameFormat("emrooz-flusher-%d")
+						.build());
+		flusher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flushLatest();
+					flushRollups();
+				} catch (RuntimeException e) {
+					if (log.isLoggable(Level.WARNING))
+						log.warning("Failed to flush in the background [e = "
+								+ e + "]");
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops writing in the background and flushes.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (flusher != null)
+				flusher.shutdown();
+
+			flusher = null;
+		}
+
+		flush();
+	}
+
+	private void flushBulk() {
+		flushLatest();
+
+		if (bulkWriter != null)
+			bulkWriter.flush();
+	}
+
+	/**
+	 * Writes the latest observation added per series since the last flush.
+	 * The write time is the observation time, such that writes of other
+	 * adders in any order keep the latest observation.
+	 */
+	private void flushLatest() {
+		List<ResultSetFuture> futures = new ArrayList<ResultSetFuture>();
+
+		for (String seriesKey : pendingLatest.keySet()) {
+			LatestValueIndex.Entry entry = pendingLatest.get(seriesKey);
+
+			if (entry == null)
+				continue;
+
+			BoundStatement statement = new BoundStatement(
+					latestInsertStatement).bind(seriesKey,
+					new Date(entry.getTime()), entry.getValue(),
+					entry.getTime() * 1000);
+
+			if (bulkWriter == null)
+				futures.add(session.executeAsync(statement));
+			else
+				bulkWriter.add(seriesKey, statement);
+
+			// Kept if a later observation was added meanwhile
+			pendingLatest.remove(seriesKey, entry);
+		}
+
+		for (ResultSetFuture future : futures)
+			future.getUninterruptibly();
+	}
+
+	/**
+	 * Sets the resolutions, in milliseconds, of the rollups maintained for
+	 * sensor observations. The buckets of the rollups of observations added
+	 * are computed anew from the stored observations when flushed, such that
+	 * adding observations again, e.g. when a load is resumed, does not count
+	 * them twice.
+	 */
+	public synchronized void setRollupResolutions(List<Long> resolutions) {
+		if (resolutions == null)
+			throw new NullPointerException("[resolutions = null]");
+
+		flushRollups();
+
+		this.rollupResolutions = Collections.unmodifiableList(new ArrayList<Long>(
+				resolutions));
+	}
+
+	public List<Long> getRollupResolutions() {
+		return rollupResolutions;
+	}
+
+	/**
+	 * Writes the buckets of the rollups of the observations added since the
+	 * last flush. Buckets are computed from the stored observations, once
+	 * written. Buckets with observations past their retention, which are not
+	 * stored, are merged with the stored buckets instead; adding such
+	 * observations again counts them twice.
+	 * <p>
+	 * The pending buckets are taken over at once, such that observations are
+	 * added while the buckets are computed. Buckets are pending until written,
+	 * and queries aggregate pending buckets from the stored observations.
+	 * 
+	 * @see #getPendingRollups(String, long)
+	 */
+	public void flushRollups() {
+		Map<RollupKey, BucketSummary> rollups;
+		Map<String, RollupSeries> series;
+		Map<RollupKey, Long> versions = new HashMap<RollupKey, Long>();
+
+		synchronized (this) {
+			if (pendingRollups.isEmpty())
+				return;
+
+			rollups = pendingRollups;
+			series = pendingRollupSeries;
+
+			for (RollupKey key : rollups.keySet())
+				versions.put(key, dirtyRollups.get(key));
+
+			pendingRollups = new HashMap<RollupKey, BucketSummary>();
+			pendingRollupSeries = new HashMap<String, RollupSeries>();
+		}
+
+		// Buckets are computed and written by one flush at a time, such that
+		// a bucket computed earlier does not replace one computed later
+		synchronized (rollupLock) {
+			flushRollups(rollups, series);
+		}
+
+		// Pending unless observations were added to the bucket meanwhile
+		for (Map.Entry<RollupKey, Long> entry : versions.entrySet())
+			dirtyRollups.remove(entry.getKey(), entry.getValue());
+	}
+
+	/**
+	 * Returns the start times of the buckets of the rollup of the series and
+	 * resolution that are pending, i.e. with observations added but not yet
+	 * written to the rollup.
+	 */
+	public Set<Long> getPendingRollups(String seriesKey, long resolution) {
+		Set<Long> ret = new HashSet<Long>();
+
+		for (RollupKey key : dirtyRollups.keySet()) {
+			if (key.resolution == resolution
+					&& key.seriesKey.equals(seriesKey))
+				ret.add(key.bucket);
+		}
+
+		return ret;
+	}
+
+	private void flushRollups(Map<RollupKey, BucketSummary> rollups,
+			Map<String, RollupSeries> series) {
+		flushBulk();
+
+		long now = System.currentTimeMillis();
+		Map<RollupKey, BucketSummary> computed = new HashMap<RollupKey, BucketSummary>();
+
+		for (RollupKey key : rollups.keySet()) {
+			if (series.get(key.seriesKey).policy.getRawTimeToLive(key.bucket,
+					now) != RetentionPolicy.EXPIRED)
+				computed.put(key, new BucketSummary());
+		}
+
+		computeRollups(computed, series);
+
+		for (Map.Entry<RollupKey, BucketSummary> entry : rollups.entrySet()) {
+			RollupKey key = entry.getKey();
+			BucketSummary summary = computed.get(key);
+			Date bucket = new Date(key.bucket);
+			int ttl = series.get(key.seriesKey).policy.getRollupTimeToLive(
+					key.bucket + key.resolution, now);
+
+			if (ttl == RetentionPolicy.EXPIRED)
+				continue;
+
+			if (summary == null) {
+				summary = entry.getValue();
+
+				BucketSummary stored = RollupUtils.toBucketSummary(session
+						.execute(
+								new BoundStatement(rollupSelectStatement).bind(
+										key.seriesKey, key.resolution, bucket))
+						.one());
+
+				if (stored != null) {
+					stored.merge(summary);
+					summary = stored;
+				}
+			}
+
+			if (summary.getCount() == 0)
+				continue;
+
+			List<Object> values = new ArrayList<Object>();
+
+			values.add(key.seriesKey);
+			values.add(key.resolution);
+			values.add(bucket);
+			values.addAll(Arrays.asList(RollupUtils.toValues(summary)));
+			values.add(ttl);
+
+			session.execute(new BoundStatement(rollupInsertStatement)
+					.bind(values.toArray()));
+		}
+
+		if (log.isLoggable(Level.FINE))
+			log.fine("Flushed rollups [pendingRollups = " + rollups.size()
+					+ "]");
+	}
+
+	/**
+	 * Computes the buckets from the stored observations. Each series is read
+	 * once over the spans of its buckets, across resolutions.
+	 */
+	private void computeRollups(Map<RollupKey, BucketSummary> buckets,
+			Map<String, RollupSeries> series) {
+		Map<String, List<RollupKey>> keys = new HashMap<String, List<RollupKey>>();
+
+		for (RollupKey key : buckets.keySet()) {
+			List<RollupKey> l = keys.get(key.seriesKey);
+
+			if (l == null) {
+				l = new ArrayList<RollupKey>();
+				keys.put(key.seriesKey, l);
+			}
+
+			l.add(key);
+		}
+
+		for (Map.Entry<String, List<RollupKey>> entry : keys.entrySet()) {
+			String seriesKey = entry.getKey();
+			List<RollupKey> l = entry.getValue();
+
+			Collections.sort(l, new Comparator<RollupKey>() {
+				@Override
+				public int compare(RollupKey o1, RollupKey o2) {
+					return Long.compare(o1.bucket, o2.bucket);
+				}
+			});
+
+			long timeFrom = l.get(0).bucket;
+			long timeTo = timeFrom;
+
+			for (RollupKey key : l) {
+				if (key.bucket > timeTo) {
+					computeRollups(buckets, seriesKey,
+							series.get(seriesKey), timeFrom, timeTo);
+					timeFrom = key.bucket;
+				}
+
+				timeTo = Math.max(timeTo, key.bucket + key.resolution);
+			}
+
+			computeRollups(buckets, seriesKey, series.get(seriesKey),
+					timeFrom, timeTo);
+		}
+	}
+
+	private void computeRollups(Map<RollupKey, BucketSummary> buckets,
+			String seriesKey, RollupSeries series, long timeFrom, long timeTo) {
+		Rollover rollover = getRollover(series.sensorId, series.propertyId,
+				series.featureId, series.frequency);
+
+		if (rollover == null)
+			return;
+
+		DateTime time = new DateTime(timeFrom);
+
+		while (time.getMillis() < timeTo) {
+			String rowKey = getRowKey(series.sensorId, series.propertyId,
+					series.featureId, series.frequency, time);
+
+			for (Row row : session.execute(new BoundStatement(
+					rollupObservationsStatement).bind(rowKey, time.toDate(),
+					new Date(timeTo)))) {
+				long t = UUIDs.unixTimestamp(row.getUUID(DATA_TABLE_ATTRIBUTE_2));
+				Double value = getValue(row.getBytesUnsafe(DATA_TABLE_ATTRIBUTE_3));
+
+				if (value == null)
+					continue;
+
+				for (Long resolution : series.resolutions) {
+					BucketSummary summary = buckets.get(new RollupKey(
+							seriesKey, resolution, TimeBucketFunction.floor(t,
+									resolution)));
+
+					if (summary != null)
+						summary.add(t, value);
+				}
+			}
+
+			time = getNextRolloverTime(time, rollover);
+		}
+	}
+
+	private Double getValue(ByteBuffer bytes) {
+		Literal literal;
+
+		try {
+			literal = StatementUtils.toLiteral(bytes, DUL.hasRegionDataValue);
+		} catch (RDFParseException | RDFHandlerException | IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (literal == null)
+			return null;
+
+		try {
+			return literal.doubleValue();
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the summaries of the values of the sensor observation blocks,
+	 * i.e. data partitions, written since the last flush. Summaries are
+	 * computed from the observations stored in the blocks, which are read
+	 * concurrently, such that adding observations again does not count them
+	 * twice.
+	 * <p>
+	 * The value range of a block is invalidated when it is first written
+	 * after a flush, such that no query skips it until its summary is
+	 * written. Summaries are written with the time they are read as write
+	 * time, such that they do not replace an invalidation by another writer
+	 * meanwhile.
+	 */
+	public synchronized void flushBlocks() {
+		flushBlocks(new HashSet<String>(pendingBlocks.keySet()));
+	}
+
+	/**
+	 * Writes the summaries of the pending blocks of the sensor observation
+	 * queries with a value range, i.e. of the blocks the queries may skip.
+	 */
+	public synchronized void flushBlocks(
+			Map<SensorObservationQuery, Frequency> queries) {
+		if (queries == null)
+			throw new NullPointerException("[queries = null]");
+
+		if (pendingBlocks.isEmpty())
+			return;
+
+		Set<String> rowKeys = new HashSet<String>();
+
+		for (Map.Entry<SensorObservationQuery, Frequency> entry : queries
+				.entrySet()) {
+			SensorObservationQuery query = entry.getKey();
+			Frequency frequency = entry.getValue();
+
+			if (!query.hasValueRange() || query.getTimeFrom() == null
+					|| query.getTimeTo() == null)
+				continue;
+
+			Rollover rollover = getRollover(query.getSensorId(),
+					query.getPropertyId(), query.getFeatureOfInterestId(),
+					frequency);
+
+			if (rollover == null)
+				continue;
+
+			DateTime time = query.getTimeFrom();
+
+			while (time.isBefore(query.getTimeTo())) {
+				String rowKey = getRowKey(query.getSensorId(),
+						query.getPropertyId(), query.getFeatureOfInterestId(),
+						frequency, time);
+
+				if (pendingBlocks.containsKey(rowKey))
+					rowKeys.add(rowKey);
+
+				time = getNextRolloverTime(time, rollover);
+			}
+		}
+
+		flushBlocks(rowKeys);
+	}
+
+	private void flushBlocks(Set<String> rowKeys) {
+		if (rowKeys.isEmpty())
+			return;
+
+		flushBulk();
+
+		long now = System.currentTimeMillis();
+		Map<String, ResultSetFuture> futures = new HashMap<String, ResultSetFuture>();
+
+		for (String rowKey : rowKeys)
+			futures.put(rowKey, session.executeAsync(new BoundStatement(
+					blockObservationsStatement).bind(rowKey)));
+
+		for (Map.Entry<String, ResultSetFuture> entry : futures.entrySet()) {
+			String rowKey = entry.getKey();
+			BucketSummary summary = new BucketSummary();
+
+			for (Row row : entry.getValue().getUninterruptibly()) {
+				Double value = getValue(row
+						.getBytesUnsafe(DATA_TABLE_ATTRIBUTE_3));
+
+				// Non-numeric values make the value range of the block unknown
+				summary.add(
+						UUIDs.unixTimestamp(row.getUUID(DATA_TABLE_ATTRIBUTE_2)),
+						(value == null) ? Double.NaN : value);
+			}
+
+			if (summary.getCount() == 0)
+				continue;
+
+			// The block expires with its latest observation
+			int ttl = pendingBlocks.get(rowKey).getRawTimeToLive(
+					summary.getLastTime(), now);
+
+			if (ttl == RetentionPolicy.EXPIRED)
+				continue;
+
+			List<Object> values = new ArrayList<Object>();
+
+			values.add(rowKey);
+			values.addAll(Arrays.asList(RollupUtils.toValues(summary)));
+			values.add(ttl);
+			values.add(now * 1000);
+
+			session.execute(new BoundStatement(blockInsertStatement)
+					.bind(values.toArray()));
+		}
+
+		if (log.isLoggable(Level.FINE))
+			log.fine("Flushed blocks [rowKeys = " + rowKeys.size()
+					+ "; pendingBlocks = " + pendingBlocks.size() + "]");
+
+		pendingBlocks.keySet().removeAll(rowKeys);
 	}
 
 	public void addSensorObservation(URI sensorId, URI propertyId,
 			URI featureId, Frequency frequency, DateTime resultTime,
 			Set<Statement> statements) {
-		addSensorObservation(
-				getRowKey(sensorId, propertyId, featureId, frequency,
-						resultTime), resultTime, statements);
+		String rowKey = getRowKey(sensorId, propertyId, featureId, frequency,
+				resultTime);
+		byte[] value = StatementUtils.toByteArray(statements);
+		RetentionPolicy policy = getRetentionPolicy(sensorId);
+		int ttl = policy.getRawTimeToLive(resultTime.getMillis(),
+				System.currentTimeMillis());
+
+		// Observations past their retention are only summarized by rollups
+		if (ttl != RetentionPolicy.EXPIRED) {
+			addSensorObservation(rowKey, toUUID(resultTime), value, ttl);
+			addBlock(rowKey, policy, ttl);
+		}
+
+		addLatest(getSeriesKey(sensorId, propertyId, featureId), resultTime,
+				value);
+
+		// Bulk writers invalidate partitions once written
+		if (cache != null && bulkWriter == null)
+			cache.invalidate(rowKey);
+
+		if (!rollupResolutions.isEmpty()
+				&& addRollups(sensorId, propertyId, featureId, frequency,
+						resultTime, statements, policy))
+			flushRollups();
 	}
 
-	private void addSensorObservation(String rowKey, DateTime resultTime,
-			Set<Statement> columnValue) {
-		addSensorObservation(rowKey, TimeUUID.toUUID(resultTime), columnValue);
+	private synchronized void addBlock(String rowKey, RetentionPolicy policy,
+			int ttl) {
+		if (rowKey == null)
+			return;
+
+		// Written after the observation, such that a summary read before the
+		// observation is written does not replace the invalidation
+		if (pendingBlocks.put(rowKey, policy) == null)
+			session.execute(new BoundStatement(blockInvalidateStatement).bind(
+					rowKey, Double.NaN, Double.NaN, ttl,
+					System.currentTimeMillis() * 1000));
+
+		if (pendingBlocks.size() >= ROLLUPS_MAX_PENDING)
+			flushBlocks();
+	}
+
+	/**
+	 * Adds the observation to the pending buckets of its rollups and returns
+	 * whether the pending buckets are to be flushed.
+	 */
+	private synchronized boolean addRollups(URI sensorId, URI propertyId,
+			URI featureId, Frequency frequency, DateTime resultTime,
+			Set<Statement> statements, RetentionPolicy policy) {
+		String seriesKey = getSeriesKey(sensorId, propertyId, featureId);
+		Double value = RollupUtils.getValue(statements);
+
+		if (seriesKey == null || value == null)
+			return false;
+
+		pendingRollupSeries.put(seriesKey, new RollupSeries(sensorId,
+				propertyId, featureId, frequency, rollupResolutions, policy));
+
+		long time = resultTime.getMillis();
+
+		for (Long resolution : rollupResolutions) {
+			RollupKey key = new RollupKey(seriesKey, resolution,
+					TimeBucketFunction.floor(time, resolution));
+			BucketSummary summary = pendingRollups.get(key);
+
+			if (summary == null) {
+				summary = new BucketSummary();
+				pendingRollups.put(key, summary);
+			}
+
+			summary.add(time, value);
+			dirtyRollups.put(key, rollupVersion.incrementAndGet());
+		}
+
+		return pendingRollups.size() >= ROLLUPS_MAX_PENDING;
 	}
 
-	private void addSensorObservation(String rowKey, UUID resultTime,
-			Set<Statement> columnValue) {
-		addSensorObservation(rowKey, resultTime,
-				StatementUtils.toByteArray(columnValue));
+	private void addLatest(String seriesKey, DateTime time, byte[] value) {
+		if (seriesKey == null || value == null)
+			return;
+
+		ByteBuffer buffer = ByteBuffer.wrap(value);
+
+		if (latestValues != null
+				&& !latestValues.put(seriesKey, time.getMillis(), buffer))
+			return;
+
+		// The latest observation of the series is written when flushed, at the
+		// latest after the flush interval
+		pendingLatest.put(seriesKey, time.getMillis(), buffer);
+
+		if (pendingLatest.size() >= ROLLUPS_MAX_PENDING)
+			flushLatest();
 	}
 
 	private void addSensorObservation(String rowKey, UUID columnName,
-			byte[] columnValue) {
+			byte[] columnValue, int ttl) {
 		if (rowKey == null || columnName == null || columnValue == null) {
 			if (log.isLoggable(Level.WARNING))
 				log.warning("At least one parameter is null (possibly the byte[] columnValue [rowKey = "
@@ -94,29 +837,25 @@ public class CassandraAdder extends CassandraRequestHandler {
 			return;
 		}
 
-		session.execute(new BoundStatement(insertStatement).bind(rowKey,
-				columnName, ByteBuffer.wrap(columnValue)));
+		write(rowKey, new BoundStatement(insertStatement).bind(rowKey,
+				columnName, ByteBuffer.wrap(columnValue), ttl));
 	}
 
 	public void addDatasetObservation(URI datasetId, QuantityValue frequency,
 			DateTime timePeriod, Set<Statement> statements) {
-		addDatasetObservation(getRowKey(datasetId, frequency, timePeriod),
-				timePeriod, statements);
-	}
+		byte[] value = StatementUtils.toByteArray(statements);
+		int ttl = getRetentionPolicy(datasetId).getRawTimeToLive(
+				timePeriod.getMillis(), System.currentTimeMillis());
 
-	private void addDatasetObservation(String rowKey, DateTime timePeriod,
-			Set<Statement> columnValue) {
-		addDatasetObservation(rowKey, TimeUUID.toUUID(timePeriod), columnValue);
-	}
+		if (ttl != RetentionPolicy.EXPIRED)
+			addDatasetObservation(getRowKey(datasetId, frequency, timePeriod),
+					toUUID(timePeriod), value, ttl);
 
-	private void addDatasetObservation(String rowKey, UUID timePeriod,
-			Set<Statement> columnValue) {
-		addDatasetObservation(rowKey, timePeriod,
-				StatementUtils.toByteArray(columnValue));
+		addLatest(getSeriesKey(datasetId), timePeriod, value);
 	}
 
 	private void addDatasetObservation(String rowKey, UUID columnName,
-			byte[] columnValue) {
+			byte[] columnValue, int ttl) {
 		if (rowKey == null || columnName == null || columnValue == null) {
 			if (log.isLoggable(Level.WARNING))
 				log.warning("At least one parameter is null (possibly the byte[] columnValue [rowKey = "
@@ -124,8 +863,88 @@ public class CassandraAdder extends CassandraRequestHandler {
 			return;
 		}
 
-		session.execute(new BoundStatement(insertStatement).bind(rowKey,
-				columnName, ByteBuffer.wrap(columnValue)));
+		write(rowKey, new BoundStatement(insertStatement).bind(rowKey,
+				columnName, ByteBuffer.wrap(columnValue), ttl));
+	}
+
+	/**
+	 * Returns the column name of an observation at the time. Column names
+	 * depend on the time only, such that an observation added again replaces
+	 * the stored one.
+	 */
+	private static UUID toUUID(DateTime time) {
+		return UUIDs.startOf(time.getMillis());
+	}
+
+	private void write(String rowKey, BoundStatement statement) {
+		CassandraBulkWriter writer = bulkWriter;
+
+		if (writer == null)
+			session.execute(statement);
+		else
+			writer.add(rowKey, statement);
+	}
+
+	private class RollupSeries {
+
+		private final URI sensorId;
+		private final URI propertyId;
+		private final URI featureId;
+		private final Frequency frequency;
+		private final List<Long> resolutions;
+		private final RetentionPolicy policy;
+
+		private RollupSeries(URI sensorId, URI propertyId, URI featureId,
+				Frequency frequency, List<Long> resolutions,
+				RetentionPolicy policy) {
+			this.sensorId = sensorId;
+			this.propertyId = propertyId;
+			this.featureId = featureId;
+			this.frequency = frequency;
+			this.resolutions = resolutions;
+			this.policy = policy;
+		}
+
+	}
+
+	private class RollupKey {
+
+		private final String seriesKey;
+		private final long resolution;
+		private final long bucket;
+
+		private RollupKey(String seriesKey, long resolution, long bucket) {
+			this.seriesKey = seriesKey;
+			this.resolution = resolution;
+			this.bucket = bucket;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+
+			result = prime * result + seriesKey.hashCode();
+			result = prime * result + (int) (resolution ^ (resolution >>> 32));
+			result = prime * result + (int) (bucket ^ (bucket >>> 32));
+
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof RollupKey))
+				return false;
+
+			RollupKey other = (RollupKey) obj;
+
+			return seriesKey.equals(other.seriesKey)
+					&& resolution == other.resolution
+					&& bucket == other.bucket;
+		}
+
 	}
 
 }
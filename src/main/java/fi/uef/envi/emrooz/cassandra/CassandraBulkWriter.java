@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * <p>
+ * Title: CassandraBulkWriter
+ * </p>
+ * <p>
+ * Description: Writes statements for bulk loads. Statements are grouped by
+ * partition and written as unlogged single-partition batches, which a
+ * token-aware driver sends directly to a replica of the partition and which
+ * replicas apply as a single mutation. Batches are written asynchronously
+ * with a bounded number of batches in flight. Statements are durable once
+ * {@link #flush()} returns.
+ * </p>
+ * <p>
+ * The writer is shared by the threads that add statements. A failed
+ * asynchronous write is reported to each thread whose statements may have
+ * been in it, i.e. to each thread that has not been reported the failure yet,
+ * by its next call. Thus, a thread whose flush returns knows that all
+ * statements it added since its previous flush are written.
+ * </p>
+ * <p>
+ * Batches are written online. Offline loads of SSTables, written by
+ * <code>CQLSSTableWriter</code> and streamed by <code>sstableloader</code>,
+ * require the Cassandra server library of the version of the cluster and
+ * file system access to the SSTables from the cluster, neither of which
+ * Emrooz has as a client of the driver.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class CassandraBulkWriter {
+
+	private final Session session;
+	private final int batchSize;
+	private final int maxInFlight;
+	private final Semaphore inFlight;
+	private final Map<String, List<Statement>> pending;
+	private final AtomicReference<Throwable> failure;
+	private final AtomicLong failures;
+	// The number of failures reported to each thread
+	private final ThreadLocal<Long> reported;
+	private int numOfPending = 0;
+	private volatile ConsistencyLevel consistencyLevel = null;
+	private volatile PartitionCache cache = null;
+
+	public static final int DEFAULT_BATCH_SIZE = 32;
+	public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+	// Partitions with fewer statements than the batch size are written once
+	// this many statements are pending in total
+	private static final int MAX_PENDING = 8192;
+	private static final Logger log = Logger
+			.getLogger(CassandraBulkWriter.class.getName());
+
+	public CassandraBulkWriter(Session session) {
+		this(session, DEFAULT_BATCH_SIZE, DEFAULT_MAX_IN_FLIGHT);
+	}
+
+	public CassandraBulkWriter(Session session, int batchSize, int maxInFlight) {
+		if (session == null)
+			throw new NullPointerException("[session = null]");
+		if (batchSize < 1)
+			throw new IllegalArgumentException("[batchSize = " + batchSize
+					+ "]");
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException("[maxInFlight = "
+					+ maxInFlight + "]");
+
+		this.session = session;
+		this.batchSize = batchSize;
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
+		this.pending = new HashMap<String, List<Statement>>();
+		this.failure = new AtomicReference<Throwable>();
+		this.failures = new AtomicLong();
+		this.reported = new ThreadLocal<Long>() {
+			@Override
+			protected Long initialValue() {
+				return 0L;
+			}
+		};
+	}
+
+	/**
+	 * Sets the consistency level of the batches written from now on, or the
+	 * default of the cluster if null. The consistency levels of the
+	 * statements in batches are not used.
+	 */
+	public void setConsistencyLevel(ConsistencyLevel consistencyLevel) {
+		this.consistencyLevel = consistencyLevel;
+	}
+
+	/**
+	 * Sets the cache whose partitions are invalidated once the batches of the
+	 * partitions are written, or null.
+	 */
+	public void setPartitionCache(PartitionCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Adds the statement of the partition, which is written once a batch of
+	 * the partition is complete.
+	 */
+	public synchronized void add(String partitionKey, Statement statement) {
+		if (partitionKey == null)
+			throw new NullPointerException("[partitionKey = null]");
+		if (statement == null)
+			throw new NullPointerException("[statement = null]");
+
+		List<Statement> statements = pending.get(partitionKey);
+
+		if (statements == null) {
+			statements = new ArrayList<Statement>(batchSize);
+			pending.put(partitionKey, statements);
+		}
+
+		statements.add(statement);
+		numOfPending++;
+
+		if (statements.size() >= batchSize) {
+			pending.remove(partitionKey);
+			numOfPending -= statements.size();
+			write(partitionKey, statements);
+		}
+
+		if (numOfPending >= MAX_PENDING)
+			writePending();
+	}
+
+	/**
+	 * Writes the pending statements and waits for all writes in flight. Throws
+	 * if a write failed that has not been reported to the calling thread.
+	 */
+	public synchronized void flush() {
+		writePending();
+
+		inFlight.acquireUninterruptibly(maxInFlight);
+		inFlight.release(maxInFlight);
+
+		check();
+	}
+
+	private void writePending() {
+		for (Map.Entry<String, List<Statement>> entry : pending.entrySet())
+			write(entry.getKey(), entry.getValue());
+
+		if (log.isLoggable(Level.FINE))
+			log.fine("Wrote pending statements [partitions = "
+					+ pending.size() + "; statements = " + numOfPending + "]");
+
+		pending.clear();
+		numOfPending = 0;
+	}
+
+	private void write(final String partitionKey, List<Statement> statements) {
+		// Stop writing the statements of a thread early once a write failed
+		check();
+
+		BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+
+		batch.addAll(statements);
+
+		if (consistencyLevel != null)
+			batch.setConsistencyLevel(consistencyLevel);
+
+		inFlight.acquireUninterruptibly();
+
+		ResultSetFuture future = session.executeAsync(batch);
+
+		Futures.addCallback(future, new FutureCallback<ResultSet>() {
+			@Override
+			public void onSuccess(ResultSet result) {
+				invalidate(partitionKey);
+				inFlight.release();
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				// The batch may have been written in part
+				invalidate(partitionKey);
+				failure.set(t);
+				failures.incrementAndGet();
+				inFlight.release();
+			}
+		});
+	}
+
+	private void invalidate(String partitionKey) {
+		PartitionCache c = cache;
+
+		if (c != null)
+			c.invalidate(partitionKey);
+	}
+
+	/**
+	 * Throws if a write failed that has not been reported to the calling
+	 * thread. The failure is reported to other threads as well, since the
+	 * failed batch may have held statements of any thread.
+	 */
+	private void check() {
+		long n = failures.get();
+		long m = reported.get();
+
+		if (n == m)
+			return;
+
+		reported.set(n);
+
+		throw new RuntimeException("Failed to write batch [failures = "
+				+ (n - m) + "]", failure.get());
+	}
+
+}
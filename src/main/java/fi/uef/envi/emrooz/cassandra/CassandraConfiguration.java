@@ -0,0 +1,557 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import static fi.uef.envi.emrooz.EmroozOptions.HOST;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.PoolingOptions;
+import com.datastax.driver.core.ProtocolOptions;
+import com.datastax.driver.core.QueryOptions;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
+
+import fi.uef.envi.emrooz.Rollover;
+
+/**
+ * <p>
+ * Title: CassandraConfiguration
+ * </p>
+ * <p>
+ * Description: The configuration of the connection to a Cassandra cluster and
+ * of the keyspace created by the data store, i.e. the contact points, the
+ * load balancing, the connection pools per host distance, the read and write
+ * consistency levels, the protocol compression and the replication of the
+ * keyspace.
+ * </p>
+ * <p>
+ * A configuration is created by its setters or from a properties file with
+ * the keys {@code contactPoints} (comma separated), {@code port},
+ * {@code localDataCenter}, {@code usedHostsPerRemoteDataCenter},
+ * {@code tokenAware}, {@code coreConnectionsPerLocalHost},
+ * {@code maxConnectionsPerLocalHost}, {@code coreConnectionsPerRemoteHost},
+ * {@code maxConnectionsPerRemoteHost}, {@code maxRequestsPerConnection},
+ * {@code readConsistency}, {@code writeConsistency}, {@code compression}
+ * (none, snappy, lz4), {@code replicationFactor} and
+ * {@code dataCenterReplication} (e.g. dc1:3,dc2:2), {@code compaction}
+ * (size_tiered, date_tiered, time_window) and {@code compactionWindow} (e.g.
+ * day). Keys not given keep their default. With data center replication, the
+ * keyspace is created with the network topology strategy, else with the
+ * simple strategy.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class CassandraConfiguration {
+
+	private List<String> contactPoints;
+	private int port = ProtocolOptions.DEFAULT_PORT;
+	private String localDataCenter = null;
+	private int usedHostsPerRemoteDataCenter = 0;
+	private boolean tokenAware = true;
+	private int coreConnectionsPerLocalHost = 2;
+	private int maxConnectionsPerLocalHost = 8;
+	private int coreConnectionsPerRemoteHost = 1;
+	private int maxConnectionsPerRemoteHost = 2;
+	private int maxRequestsPerConnection = 100;
+	private ConsistencyLevel readConsistency = ConsistencyLevel.ONE;
+	private ConsistencyLevel writeConsistency = ConsistencyLevel.ONE;
+	private ProtocolOptions.Compression compression = ProtocolOptions.Compression.NONE;
+	private int replicationFactor = 1;
+	private Map<String, Integer> dataCenterReplication;
+	private Compaction compaction = Compaction.DATE_TIERED;
+	private Rollover compactionWindow = Rollover.DAY;
+
+	/**
+	 * The compaction strategies of the data table. Time window compaction
+	 * requires Cassandra 3.0.8 or later, date tiered compaction Cassandra
+	 * 2.0.11 or later; the default is date tiered, which the Cassandra 2.1
+	 * clusters of the supported driver provide.
+	 */
+	public enum Compaction {
+
+		SIZE_TIERED, DATE_TIERED, TIME_WINDOW
+
+	}
+
+	public CassandraConfiguration() {
+		this(HOST);
+	}
+
+	public CassandraConfiguration(String... contactPoints) {
+		setContactPoints(contactPoints);
+
+		this.dataCenterReplication = Collections.emptyMap();
+	}
+
+	public static CassandraConfiguration load(File file) {
+		if (file == null)
+			throw new NullPointerException("[file = null]");
+
+		Properties properties = new Properties();
+		InputStream in = null;
+
+		try {
+			in = new FileInputStream(file);
+			properties.load(in);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+
+		return create(properties);
+	}
+
+	public static CassandraConfiguration create(Properties properties) {
+		if (properties == null)
+			throw new NullPointerException("[properties = null]");
+
+		CassandraConfiguration ret = new CassandraConfiguration();
+		String value;
+
+		if ((value = get(properties, "contactPoints")) != null)
+			ret.setContactPoints(value.split("\\s*,\\s*"));
+		if ((value = get(properties, "port")) != null)
+			ret.setPort(Integer.parseInt(value));
+		if ((value = get(properties, "localDataCenter")) != null)
+			ret.setLocalDataCenter(value);
+		if ((value = get(properties, "usedHostsPerRemoteDataCenter")) != null)
+			ret.setUsedHostsPerRemoteDataCenter(Integer.parseInt(value));
+		if ((value = get(properties, "tokenAware")) != null)
+			ret.setTokenAware(Boolean.parseBoolean(value));
+		if ((value = get(properties, "coreConnectionsPerLocalHost")) != null)
+			ret.setCoreConnectionsPerLocalHost(Integer.parseInt(value));
+		if ((value = get(properties, "maxConnectionsPerLocalHost")) != null)
+			ret.setMaxConnectionsPerLocalHost(Integer.parseInt(value));
+		if ((value = get(properties, "coreConnectionsPerRemoteHost")) != null)
+			ret.setCoreConnectionsPerRemoteHost(Integer.parseInt(value));
+		if ((value = get(properties, "maxConnectionsPerRemoteHost")) != null)
+			ret.setMaxConnectionsPerRemoteHost(Integer.parseInt(value));
+		if ((value = get(properties, "maxRequestsPerConnection")) != null)
+			ret.setMaxRequestsPerConnection(Integer.parseInt(value));
+		if ((value = get(properties, "readConsistency")) != null)
+			ret.setReadConsistency(ConsistencyLevel.valueOf(value
+					.toUpperCase()));
+		if ((value = get(properties, "writeConsistency")) != null)
+			ret.setWriteConsistency(ConsistencyLevel.valueOf(value
+					.toUpperCase()));
+		if ((value = get(properties, "compression")) != null)
+			ret.setCompression(ProtocolOptions.Compression.valueOf(value
+					.toUpperCase()));
+		if ((value = get(properties, "replicationFactor")) != null)
+			ret.setReplicationFactor(Integer.parseInt(value));
+		if ((value = get(properties, "dataCenterReplication")) != null) {
+			Map<String, Integer> replication = new LinkedHashMap<String, Integer>();
+
+			for (String entry : value.split("\\s*,\\s*")) {
+				int i = entry.lastIndexOf(':');
+
+				if (i < 1)
+					throw new IllegalArgumentException(
+							"Expected data center replication as dc:factor [entry = "
+									+ entry + "]");
+
+				replication.put(entry.substring(0, i).trim(),
+						Integer.valueOf(entry.substring(i + 1).trim()));
+			}
+
+			ret.setDataCenterReplication(replication);
+		}
+		if ((value = get(properties, "compaction")) != null)
+			ret.setCompaction(Compaction.valueOf(value.toUpperCase().replace(
+					'-', '_')));
+		if ((value = get(properties, "compactionWindow")) != null)
+			ret.setCompactionWindow(Rollover.valueOf(value.toUpperCase()));
+
+		return ret;
+	}
+
+	public List<String> getContactPoints() {
+		return contactPoints;
+	}
+
+	public void setContactPoints(String... contactPoints) {
+		if (contactPoints == null)
+			throw new NullPointerException("[contactPoints = null]");
+		if (contactPoints.length == 0)
+			throw new IllegalArgumentException(
+					"At least one contact point expected [contactPoints = []]");
+
+		List<String> points = new ArrayList<String>();
+
+		for (String contactPoint : contactPoints) {
+			if (contactPoint == null)
+				throw new NullPointerException("[contactPoint = null]");
+
+			points.add(contactPoint);
+		}
+
+		this.contactPoints = Collections.unmodifiableList(points);
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public String getLocalDataCenter() {
+		return localDataCenter;
+	}
+
+	/**
+	 * Sets the data center whose hosts are local, i.e. queried. If null, the
+	 * data center of the contact points is local and no remote host is
+	 * queried.
+	 */
+	public void setLocalDataCenter(String localDataCenter) {
+		this.localDataCenter = localDataCenter;
+	}
+
+	public int getUsedHostsPerRemoteDataCenter() {
+		return usedHostsPerRemoteDataCenter;
+	}
+
+	/**
+	 * Sets the number of hosts per remote data center queried if no local
+	 * host is available, 0 by default. Used only if the local data center is
+	 * set.
+	 */
+	public void setUsedHostsPerRemoteDataCenter(
+			int usedHostsPerRemoteDataCenter) {
+		this.usedHostsPerRemoteDataCenter = usedHostsPerRemoteDataCenter;
+	}
+
+	public boolean isTokenAware() {
+		return tokenAware;
+	}
+
+	/**
+	 * Sets whether requests are sent first to the replicas of the partition
+	 * they read or write, true by default.
+	 */
+	public void setTokenAware(boolean tokenAware) {
+		this.tokenAware = tokenAware;
+	}
+
+	public int getCoreConnectionsPerLocalHost() {
+		return coreConnectionsPerLocalHost;
+	}
+
+	public void setCoreConnectionsPerLocalHost(int coreConnectionsPerLocalHost) {
+		this.coreConnectionsPerLocalHost = coreConnectionsPerLocalHost;
+	}
+
+	public int getMaxConnectionsPerLocalHost() {
+		return maxConnectionsPerLocalHost;
+	}
+
+	public void setMaxConnectionsPerLocalHost(int maxConnectionsPerLocalHost) {
+		this.maxConnectionsPerLocalHost = maxConnectionsPerLocalHost;
+	}
+
+	public int getCoreConnectionsPerRemoteHost() {
+		return coreConnectionsPerRemoteHost;
+	}
+
+	public void setCoreConnectionsPerRemoteHost(int coreConnectionsPerRemoteHost) {
+		this.coreConnectionsPerRemoteHost = coreConnectionsPerRemoteHost;
+	}
+
+	public int getMaxConnectionsPerRemoteHost() {
+		return maxConnectionsPerRemoteHost;
+	}
+
+	public void setMaxConnectionsPerRemoteHost(int maxConnectionsPerRemoteHost) {
+		this.maxConnectionsPerRemoteHost = maxConnectionsPerRemoteHost;
+	}
+
+	public int getMaxRequestsPerConnection() {
+		return maxRequestsPerConnection;
+	}
+
+	/**
+	 * Sets the number of simultaneous requests per connection above which a
+	 * further connection is opened to the host, up to the maximum.
+	 */
+	public void setMaxRequestsPerConnection(int maxRequestsPerConnection) {
+		this.maxRequestsPerConnection = maxRequestsPerConnection;
+	}
+
+	public ConsistencyLevel getReadConsistency() {
+		return readConsistency;
+	}
+
+	public void setReadConsistency(ConsistencyLevel readConsistency) {
+		if (readConsistency == null)
+			throw new NullPointerException("[readConsistency = null]");
+
+		this.readConsistency = readConsistency;
+	}
+
+	public ConsistencyLevel getWriteConsistency() {
+		return writeConsistency;
+	}
+
+	public void setWriteConsistency(ConsistencyLevel writeConsistency) {
+		if (writeConsistency == null)
+			throw new NullPointerException("[writeConsistency = null]");
+
+		this.writeConsistency = writeConsistency;
+	}
+
+	public ProtocolOptions.Compression getCompression() {
+		return compression;
+	}
+
+	public void setCompression(ProtocolOptions.Compression compression) {
+		if (compression == null)
+			throw new NullPointerException("[compression = null]");
+
+		this.compression = compression;
+	}
+
+	public int getReplicationFactor() {
+		return replicationFactor;
+	}
+
+	/**
+	 * Sets the replication factor of the keyspace created with the simple
+	 * strategy, i.e. without data center replication.
+	 */
+	public void setReplicationFactor(int replicationFactor) {
+		if (replicationFactor < 1)
+			throw new IllegalArgumentException(
+					"Replication factor must be positive [replicationFactor = "
+							+ replicationFactor + "]");
+
+		this.replicationFactor = replicationFactor;
+	}
+
+	public Map<String, Integer> getDataCenterReplication() {
+		return dataCenterReplication;
+	}
+
+	/**
+	 * Sets the replication factor per data center of the keyspace, created
+	 * with the network topology strategy if not empty.
+	 */
+	public void setDataCenterReplication(
+			Map<String, Integer> dataCenterReplication) {
+		if (dataCenterReplication == null)
+			throw new NullPointerException("[dataCenterReplication = null]");
+
+		this.dataCenterReplication = Collections
+				.unmodifiableMap(new LinkedHashMap<String, Integer>(
+						dataCenterReplication));
+	}
+
+	public Compaction getCompaction() {
+		return compaction;
+	}
+
+	/**
+	 * Sets the compaction strategy of the data table, date tiered by default.
+	 * Time window compaction is for Cassandra 3.0.8 or later.
+	 */
+	public void setCompaction(Compaction compaction) {
+		if (compaction == null)
+			throw new NullPointerException("[compaction = null]");
+
+		this.compaction = compaction;
+	}
+
+	public Rollover getCompactionWindow() {
+		return compactionWindow;
+	}
+
+	/**
+	 * Sets the time window of the observations compacted together, a day by
+	 * default, i.e. the base time of date tiered compaction. Aligned to the
+	 * rollover of the partitions of most series, partitions are written to
+	 * few SSTables and SSTables whose observations have all expired are
+	 * dropped whole.
+	 */
+	public void setCompactionWindow(Rollover compactionWindow) {
+		if (compactionWindow == null)
+			throw new NullPointerException("[compactionWindow = null]");
+
+		this.compactionWindow = compactionWindow;
+	}
+
+	/**
+	 * Returns the compaction map of the data table, as in CQL.
+	 */
+	public String getDataCompaction() {
+		switch (compaction) {
+		case TIME_WINDOW:
+			long size = getCompactionWindowSeconds() / 60;
+			String unit = "MINUTES";
+
+			if (size % (24 * 60) == 0) {
+				size /= 24 * 60;
+				unit = "DAYS";
+			} else if (size % 60 == 0) {
+				size /= 60;
+				unit = "HOURS";
+			}
+
+			return "{ 'class' : 'org.apache.cassandra.db.compaction.TimeWindowCompactionStrategy', 'compaction_window_unit' : '"
+					+ unit + "', 'compaction_window_size' : '" + size + "' }";
+		case DATE_TIERED:
+			return "{ 'class' : 'org.apache.cassandra.db.compaction.DateTieredCompactionStrategy', 'base_time_seconds' : '"
+					+ getCompactionWindowSeconds() + "' }";
+		default:
+			return "{ 'class' : 'org.apache.cassandra.db.compaction.SizeTieredCompactionStrategy' }";
+		}
+	}
+
+	private long getCompactionWindowSeconds() {
+		switch (compactionWindow) {
+		case MINUTE:
+			return 60;
+		case HOUR:
+			return 60 * 60;
+		case DAY:
+			return 24 * 60 * 60;
+		case MONTH:
+			return 30 * 24 * 60 * 60;
+		default:
+			return 365 * 24 * 60 * 60;
+		}
+	}
+
+	/**
+	 * Returns the replication map of the keyspace, as in CQL.
+	 */
+	public String getReplication() {
+		if (dataCenterReplication.isEmpty())
+			return "{ 'class' : 'org.apache.cassandra.locator.SimpleStrategy', 'replication_factor': '"
+					+ replicationFactor + "' }";
+
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("{ 'class' : 'org.apache.cassandra.locator.NetworkTopologyStrategy'");
+
+		for (Map.Entry<String, Integer> entry : dataCenterReplication
+				.entrySet()) {
+			sb.append(", '");
+			sb.append(entry.getKey().replace("'", "''"));
+			sb.append("': '");
+			sb.append(entry.getValue());
+			sb.append("'");
+		}
+
+		sb.append(" }");
+
+		return sb.toString();
+	}
+
+	/**
+	 * Returns a cluster as configured. Load balancing is data center aware,
+	 * round robin over the hosts of the local data center, and token aware if
+	 * so set.
+	 */
+	public Cluster createCluster() {
+		PoolingOptions poolingOptions = new PoolingOptions();
+
+		poolingOptions.setCoreConnectionsPerHost(HostDistance.LOCAL,
+				coreConnectionsPerLocalHost);
+		poolingOptions.setMaxConnectionsPerHost(HostDistance.LOCAL,
+				maxConnectionsPerLocalHost);
+		poolingOptions.setCoreConnectionsPerHost(HostDistance.REMOTE,
+				coreConnectionsPerRemoteHost);
+		poolingOptions.setMaxConnectionsPerHost(HostDistance.REMOTE,
+				maxConnectionsPerRemoteHost);
+		poolingOptions.setMaxSimultaneousRequestsPerConnectionThreshold(
+				HostDistance.LOCAL, maxRequestsPerConnection);
+		poolingOptions.setMaxSimultaneousRequestsPerConnectionThreshold(
+				HostDistance.REMOTE, maxRequestsPerConnection);
+
+		return Cluster
+				.builder()
+				.addContactPoints(
+						contactPoints.toArray(new String[contactPoints.size()]))
+				.withPort(port)
+				.withLoadBalancingPolicy(createLoadBalancingPolicy())
+				.withPoolingOptions(poolingOptions)
+				.withQueryOptions(
+						new QueryOptions().setConsistencyLevel(readConsistency))
+				.withCompression(compression).build();
+	}
+
+	private LoadBalancingPolicy createLoadBalancingPolicy() {
+		LoadBalancingPolicy ret;
+
+		if (localDataCenter == null)
+			ret = new DCAwareRoundRobinPolicy();
+		else
+			ret = new DCAwareRoundRobinPolicy(localDataCenter,
+					usedHostsPerRemoteDataCenter);
+
+		if (tokenAware)
+			ret = new TokenAwarePolicy(ret);
+
+		return ret;
+	}
+
+	private static String get(Properties properties, String key) {
+		String ret = properties.getProperty(key);
+
+		if (ret == null)
+			return null;
+
+		ret = ret.trim();
+
+		if (ret.isEmpty())
+			return null;
+
+		return ret;
+	}
+
+	@Override
+	public String toString() {
+		return "CassandraConfiguration [contactPoints = " + contactPoints
+				+ "; port = " + port + "; localDataCenter = "
+				+ localDataCenter + "; tokenAware = " + tokenAware
+				+ "; readConsistency = " + readConsistency
+				+ "; writeConsistency = " + writeConsistency
+				+ "; compression = " + compression + "; replication = "
+				+ getReplication() + "; compaction = " + compaction
+				+ "; compactionWindow = " + compactionWindow + "]";
+	}
+
+}
@@ -5,19 +5,41 @@
 
 package fi.uef.envi.emrooz.cassandra;
 
+import static fi.uef.envi.emrooz.EmroozOptions.BLOCKS_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.BLOCKS_TABLE_ATTRIBUTE_1;
 import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE;
 import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_1;
 import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_2;
 import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_3;
+import static fi.uef.envi.emrooz.EmroozOptions.FLUSH_INTERVAL;
 import static fi.uef.envi.emrooz.EmroozOptions.HOST;
 import static fi.uef.envi.emrooz.EmroozOptions.KEYSPACE;
-
+import static fi.uef.envi.emrooz.EmroozOptions.LATEST_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.LATEST_TABLE_ATTRIBUTE_1;
+import static fi.uef.envi.emrooz.EmroozOptions.LATEST_TABLE_ATTRIBUTE_2;
+import static fi.uef.envi.emrooz.EmroozOptions.LATEST_TABLE_ATTRIBUTE_3;
+import static fi.uef.envi.emrooz.EmroozOptions.METADATA_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.METADATA_TABLE_ATTRIBUTE_1;
+import static fi.uef.envi.emrooz.EmroozOptions.METADATA_TABLE_ATTRIBUTE_2;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_1;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_2;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_3;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_6;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_7;
+import static fi.uef.envi.emrooz.cassandra.utils.RollupUtils.SUMMARY_ATTRIBUTES;
+import static fi.uef.envi.emrooz.cassandra.utils.RollupUtils.SUMMARY_ATTRIBUTE_DEFINITIONS;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 
@@ -25,14 +47,21 @@ import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.KeyspaceMetadata;
 import com.datastax.driver.core.Metadata;
 import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.TableMetadata;
 
 import fi.uef.envi.emrooz.api.DataStore;
+import fi.uef.envi.emrooz.cassandra.utils.RowKeyUtils;
 import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
 import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.query.Cursor;
 import fi.uef.envi.emrooz.query.DatasetObservationQuery;
+import fi.uef.envi.emrooz.query.QueryContext;
+import fi.uef.envi.emrooz.query.QueryCost;
+import fi.uef.envi.emrooz.query.RollupPlanner;
 import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.query.TimeBucketAggregation;
 
 /**
  * <p>
@@ -55,10 +84,33 @@ public class CassandraDataStore implements DataStore {
 
 	private Cluster cluster;
 	private Session session;
-	private String host;
+	private CassandraConfiguration configuration;
 
 	private CassandraAdder cassandraAdder;
 	private PreparedStatement selectStatement;
+	private PreparedStatement limitSelectStatement;
+	private PreparedStatement reverseLimitSelectStatement;
+	private PreparedStatement aggregateSelectStatement;
+	private PreparedStatement rollupSelectStatement;
+	private PreparedStatement blockSelectStatement;
+	private PreparedStatement partitionSelectStatement;
+	private PreparedStatement latestSelectStatement;
+	private PreparedStatement pageSelectStatement;
+	private PreparedStatement pageResumeSelectStatement;
+	private PreparedStatement metadataSelectStatement;
+	private PreparedStatement metadataInsertStatement;
+	private PartitionCache partitionCache;
+	private LatestValueIndex latestValues;
+	private RowKeyUtils rowKeyUtils;
+	private boolean created;
+	private volatile boolean rollupsCovered;
+
+	/**
+	 * The metadata key of the rollup coverage.
+	 * 
+	 * @see RollupPlanner
+	 */
+	public static final String ROLLUPS_METADATA_KEY = "rollups";
 
 	private static final Logger log = Logger.getLogger(CassandraDataStore.class
 			.getName());
@@ -68,12 +120,21 @@ public class CassandraDataStore implements DataStore {
 	}
 
 	public CassandraDataStore(String host) {
-		if (host == null)
-			throw new NullPointerException(
-					"Data store host cannot be null [host = null]");
+		this(createConfiguration(host));
+	}
+
+	/**
+	 * Creates a data store connected to the cluster as configured. The
+	 * keyspace, if missing, is created with the configured replication.
+	 * Queries are at the read consistency level, observations are added at
+	 * the write consistency level.
+	 */
+	public CassandraDataStore(CassandraConfiguration configuration) {
+		if (configuration == null)
+			throw new NullPointerException("[configuration = null]");
 
-		this.host = host;
-		this.cluster = Cluster.builder().addContactPoint(this.host).build();
+		this.configuration = configuration;
+		this.cluster = configuration.createCluster();
 
 		initialize();
 		connect();
@@ -84,7 +145,194 @@ public class CassandraDataStore implements DataStore {
 				+ DATA_TABLE_ATTRIBUTE_2 + ">=minTimeuuid(?) AND "
 				+ DATA_TABLE_ATTRIBUTE_2 + "<minTimeuuid(?)");
 
-		this.cassandraAdder = new CassandraAdder(session);
+		this.limitSelectStatement = session.prepare("SELECT "
+				+ DATA_TABLE_ATTRIBUTE_3 + " FROM " + KEYSPACE + "."
+				+ DATA_TABLE + " WHERE " + DATA_TABLE_ATTRIBUTE_1 + "=? AND "
+				+ DATA_TABLE_ATTRIBUTE_2 + ">=minTimeuuid(?) AND "
+				+ DATA_TABLE_ATTRIBUTE_2 + "<minTimeuuid(?) LIMIT ?");
+
+		this.reverseLimitSelectStatement = session.prepare("SELECT "
+				+ DATA_TABLE_ATTRIBUTE_3 + " FROM " + KEYSPACE + "."
+				+ DATA_TABLE + " WHERE " + DATA_TABLE_ATTRIBUTE_1 + "=? AND "
+				+ DATA_TABLE_ATTRIBUTE_2 + ">=minTimeuuid(?) AND "
+				+ DATA_TABLE_ATTRIBUTE_2 + "<minTimeuuid(?) ORDER BY "
+				+ DATA_TABLE_ATTRIBUTE_2 + " DESC LIMIT ?");
+
+		this.aggregateSelectStatement = session.prepare("SELECT "
+				+ DATA_TABLE_ATTRIBUTE_2 + "," + DATA_TABLE_ATTRIBUTE_3
+				+ " FROM " + KEYSPACE + "." + DATA_TABLE + " WHERE "
+				+ DATA_TABLE_ATTRIBUTE_1 + "=? AND " + DATA_TABLE_ATTRIBUTE_2
+				+ ">=minTimeuuid(?) AND " + DATA_TABLE_ATTRIBUTE_2
+				+ "<minTimeuuid(?)");
+
+		this.rollupSelectStatement = session.prepare("SELECT "
+				+ ROLLUPS_TABLE_ATTRIBUTE_3 + "," + SUMMARY_ATTRIBUTES
+				+ " FROM " + KEYSPACE + "." + ROLLUPS_TABLE + " WHERE "
+				+ ROLLUPS_TABLE_ATTRIBUTE_1 + "=? AND "
+				+ ROLLUPS_TABLE_ATTRIBUTE_2 + "=? AND "
+				+ ROLLUPS_TABLE_ATTRIBUTE_3 + ">=? AND "
+				+ ROLLUPS_TABLE_ATTRIBUTE_3 + "<?");
+
+		this.blockSelectStatement = session.prepare("SELECT "
+				+ ROLLUPS_TABLE_ATTRIBUTE_6 + "," + ROLLUPS_TABLE_ATTRIBUTE_7
+				+ " FROM " + KEYSPACE + "." + BLOCKS_TABLE + " WHERE "
+				+ BLOCKS_TABLE_ATTRIBUTE_1 + "=?");
+
+		this.partitionSelectStatement = session.prepare("SELECT "
+				+ DATA_TABLE_ATTRIBUTE_2 + "," + DATA_TABLE_ATTRIBUTE_3
+				+ " FROM " + KEYSPACE + "." + DATA_TABLE + " WHERE "
+				+ DATA_TABLE_ATTRIBUTE_1 + "=?");
+
+		this.latestSelectStatement = session.prepare("SELECT "
+				+ LATEST_TABLE_ATTRIBUTE_3 + " FROM " + KEYSPACE + "."
+				+ LATEST_TABLE + " WHERE " + LATEST_TABLE_ATTRIBUTE_1
+				+ " IN ?");
+
+		this.pageSelectStatement = session.prepare("SELECT "
+				+ DATA_TABLE_ATTRIBUTE_2 + "," + DATA_TABLE_ATTRIBUTE_3
+				+ " FROM " + KEYSPACE + "." + DATA_TABLE + " WHERE "
+				+ DATA_TABLE_ATTRIBUTE_1 + "=? AND " + DATA_TABLE_ATTRIBUTE_2
+				+ ">=minTimeuuid(?) AND " + DATA_TABLE_ATTRIBUTE_2
+				+ "<minTimeuuid(?) LIMIT ?");
+
+		this.pageResumeSelectStatement = session.prepare("SELECT "
+				+ DATA_TABLE_ATTRIBUTE_2 + "," + DATA_TABLE_ATTRIBUTE_3
+				+ " FROM " + KEYSPACE + "." + DATA_TABLE + " WHERE "
+				+ DATA_TABLE_ATTRIBUTE_1 + "=? AND " + DATA_TABLE_ATTRIBUTE_2
+				+ ">? AND " + DATA_TABLE_ATTRIBUTE_2 + "<minTimeuuid(?) LIMIT ?");
+
+		this.metadataSelectStatement = session.prepare("SELECT "
+				+ METADATA_TABLE_ATTRIBUTE_2 + " FROM " + KEYSPACE + "."
+				+ METADATA_TABLE + " WHERE " + METADATA_TABLE_ATTRIBUTE_1
+				+ "=?");
+		this.metadataSelectStatement.setConsistencyLevel(configuration
+				.getReadConsistency());
+
+		this.metadataInsertStatement = session.prepare("INSERT INTO "
+				+ KEYSPACE + "." + METADATA_TABLE + " ("
+				+ METADATA_TABLE_ATTRIBUTE_1 + ", "
+				+ METADATA_TABLE_ATTRIBUTE_2 + ") VALUES (?, ?)");
+		this.metadataInsertStatement.setConsistencyLevel(configuration
+				.getWriteConsistency());
+
+		this.latestValues = new LatestValueIndex();
+		this.rowKeyUtils = new RowKeyUtils();
+		this.cassandraAdder = new CassandraAdder(session,
+				configuration.getWriteConsistency());
+		this.cassandraAdder.setLatestValueIndex(latestValues);
+		this.cassandraAdder.setFlushInterval(FLUSH_INTERVAL);
+
+		if (created)
+			setMetadata(ROLLUPS_METADATA_KEY, RollupPlanner.ANY_RESOLUTION);
+	}
+
+	/**
+	 * Sets the resolutions of the rollups maintained for sensor observations
+	 * added from now on (e.g. 1 minute, 1 hour, 1 day). Aggregate queries are
+	 * answered from the coarsest rollup that divides the bucket duration and
+	 * to which the queried interval is aligned, among the rollups maintained
+	 * since the data store was created. Rollups of data stores created before
+	 * rollup coverage was recorded are thus not used.
+	 */
+	public void setRollupResolutions(Duration... resolutions) {
+		List<Long> millis = new ArrayList<Long>();
+
+		for (Duration resolution : resolutions)
+			millis.add(resolution.getMillis());
+
+		cassandraAdder.setRollupResolutions(millis);
+		rollupsCovered = false;
+	}
+
+	/**
+	 * Sets the interval, in milliseconds, at which the latest observations
+	 * and the rollups of the observations added are written in the
+	 * background, by default every 5 seconds, or 0 to write them only when
+	 * flushed. Aggregate queries read the buckets not yet written from the
+	 * stored observations. Other clients read the latest observations as of
+	 * at most the interval ago.
+	 */
+	public void setFlushInterval(long interval) {
+		cassandraAdder.setFlushInterval(interval);
+	}
+
+	/**
+	 * Sets the capacity, in bytes, of the cache of sensor observation
+	 * partitions whose rollover period has passed, and whether the cache is
+	 * held off-heap. A capacity of 0 disables the cache. Observations added by
+	 * other clients to cached partitions are not seen until evicted.
+	 */
+	public void setPartitionCache(long capacity, boolean offHeap) {
+		setPartitionCache(capacity, offHeap, 0);
+	}
+
+	/**
+	 * Sets the partition cache, whose partitions expire the time to live, in
+	 * milliseconds, after they are cached, or never if 0. Observations added
+	 * by other clients to cached partitions are seen once expired.
+	 */
+	public void setPartitionCache(long capacity, boolean offHeap,
+			long timeToLive) {
+		if (capacity == 0)
+			partitionCache = null;
+		else
+			partitionCache = new PartitionCache(capacity, offHeap, timeToLive);
+
+		cassandraAdder.setPartitionCache(partitionCache);
+	}
+
+	/**
+	 * Sets whether observations are bulk loaded. Bulk loads write observations
+	 * in asynchronous batches per partition and are durable only once flushed,
+	 * e.g. by {@link #flush()} or {@link #close()}. Queries may not see
+	 * observations added since the last flush.
+	 */
+	public void setBulkLoad(boolean bulkLoad) {
+		if (bulkLoad) {
+			CassandraBulkWriter bulkWriter = new CassandraBulkWriter(session);
+
+			bulkWriter.setConsistencyLevel(configuration.getWriteConsistency());
+			cassandraAdder.setBulkWriter(bulkWriter);
+		} else
+			cassandraAdder.setBulkWriter(null);
+	}
+
+	/**
+	 * Sets the retention policy of the sensors and datasets without one of
+	 * their own, by default {@link RetentionPolicy#FOREVER}.
+	 */
+	public void setRetentionPolicy(RetentionPolicy policy) {
+		cassandraAdder.setRetentionPolicy(policy);
+	}
+
+	/**
+	 * Sets the retention policy of the observations of the sensor or dataset
+	 * added from now on, or removes it if null. Retention is applied by time
+	 * to live and thus to the observations and rollups written from now on.
+	 */
+	public void setRetentionPolicy(URI id, RetentionPolicy policy) {
+		cassandraAdder.setRetentionPolicy(id, policy);
+	}
+
+	/**
+	 * Migrates the tables of an existing keyspace to the configured schema,
+	 * i.e. sets the compaction strategy of the data table. Observations
+	 * written before keep their time to live. The data table is compacted
+	 * anew in the background by Cassandra.
+	 */
+	public void migrate() {
+		TableMetadata dataTableMetadata = cluster.getMetadata()
+				.getKeyspace(KEYSPACE).getTable(DATA_TABLE);
+		Map<String, String> compaction = dataTableMetadata.getOptions()
+				.getCompaction();
+
+		if (log.isLoggable(Level.INFO))
+			log.info("Migrating data table [compaction = " + compaction
+					+ "; configured = " + configuration.getDataCompaction()
+					+ "]");
+
+		session.execute("ALTER TABLE " + KEYSPACE + "." + DATA_TABLE
+				+ " WITH compaction = " + configuration.getDataCompaction());
 	}
 
 	@Override
@@ -111,6 +359,9 @@ public class CassandraDataStore implements DataStore {
 			return;
 		}
 
+		if (!rollupsCovered)
+			coverRollups();
+
 		cassandraAdder.addSensorObservation(sensorId, propertyId, featureId,
 				frequency, resultTime, statements);
 	}
@@ -142,8 +393,32 @@ public class CassandraDataStore implements DataStore {
 	@Override
 	public CassandraSensorObservationQueryHandler createSensorObservationQueryHandler(
 			Map<SensorObservationQuery, Frequency> queries) {
+		// Summaries of pending blocks the queries may skip
+		cassandraAdder.flushBlocks(queries);
+
 		return new CassandraSensorObservationQueryHandler(session,
-				selectStatement, queries);
+				selectStatement, limitSelectStatement,
+				reverseLimitSelectStatement, blockSelectStatement,
+				partitionSelectStatement, partitionCache, queries);
+	}
+
+	@Override
+	public CassandraSensorObservationAggregateQueryHandler createSensorObservationAggregateQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation, QueryContext context) {
+		// Rollup buckets pending with the adder are read from partitions
+		return new CassandraSensorObservationAggregateQueryHandler(session,
+				aggregateSelectStatement, rollupSelectStatement,
+				getRollupPlanner(), cassandraAdder, queries, aggregation,
+				context);
+	}
+
+	@Override
+	public QueryCost estimateSensorObservationQueryCost(
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation) {
+		return new CassandraQueryCostEstimator(getRollupPlanner()).estimate(
+				queries, aggregation);
 	}
 
 	@Override
@@ -153,21 +428,123 @@ public class CassandraDataStore implements DataStore {
 				selectStatement, queries);
 	}
 
+	@Override
+	public CassandraPagedSensorObservationQueryHandler createSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries, Cursor cursor,
+			int size) {
+		return new CassandraPagedSensorObservationQueryHandler(session,
+				pageSelectStatement, pageResumeSelectStatement, queries,
+				cursor, size);
+	}
+
+	@Override
+	public CassandraPagedDatasetObservationQueryHandler createDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries, Cursor cursor,
+			int size) {
+		return new CassandraPagedDatasetObservationQueryHandler(session,
+				pageSelectStatement, pageResumeSelectStatement, queries,
+				cursor, size);
+	}
+
+	@Override
+	public CassandraLatestObservationQueryHandler createLatestSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries) {
+		Set<String> keys = new HashSet<String>();
+
+		for (SensorObservationQuery query : queries.keySet()) {
+			String key = rowKeyUtils.getSeriesKey(query.getSensorId(),
+					query.getPropertyId(), query.getFeatureOfInterestId());
+
+			if (key != null)
+				keys.add(key);
+		}
+
+		return new CassandraLatestObservationQueryHandler(session,
+				latestSelectStatement, latestValues, keys);
+	}
+
+	@Override
+	public CassandraLatestObservationQueryHandler createLatestDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries) {
+		Set<String> keys = new HashSet<String>();
+
+		for (DatasetObservationQuery query : queries.keySet()) {
+			String key = rowKeyUtils.getSeriesKey(query.getDatasetId());
+
+			if (key != null)
+				keys.add(key);
+		}
+
+		return new CassandraLatestObservationQueryHandler(session,
+				latestSelectStatement, latestValues, keys);
+	}
+
+	@Override
+	public void flush() {
+		cassandraAdder.flush();
+	}
+
+	@Override
+	public String getMetadata(String key) {
+		if (key == null)
+			throw new NullPointerException("[key = null]");
+
+		Row row = session.execute(metadataSelectStatement.bind(key)).one();
+
+		if (row == null)
+			return null;
+
+		return row.getString(METADATA_TABLE_ATTRIBUTE_2);
+	}
+
+	@Override
+	public void setMetadata(String key, String value) {
+		if (key == null)
+			throw new NullPointerException("[key = null]");
+
+		session.execute(metadataInsertStatement.bind(key, value));
+	}
+
 	@Override
 	public void close() {
+		cassandraAdder.close();
 		session.close();
 		cluster.close();
 	}
 
+	/**
+	 * Narrows the rollup coverage to the resolutions maintained, before the
+	 * first observation is added with them.
+	 */
+	private synchronized void coverRollups() {
+		if (rollupsCovered)
+			return;
+
+		setMetadata(ROLLUPS_METADATA_KEY, RollupPlanner.cover(
+				getMetadata(ROLLUPS_METADATA_KEY),
+				cassandraAdder.getRollupResolutions()));
+
+		rollupsCovered = true;
+	}
+
+	private RollupPlanner getRollupPlanner() {
+		return RollupPlanner.create(getMetadata(ROLLUPS_METADATA_KEY));
+	}
+
 	private void initialize() {
 		Session session = cluster.connect();
 		Metadata metadata = cluster.getMetadata();
 		KeyspaceMetadata keyspaceMetadata = metadata.getKeyspace(KEYSPACE);
 
 		if (keyspaceMetadata == null) {
-			session.execute("CREATE KEYSPACE "
-					+ KEYSPACE
-					+ " WITH REPLICATION = { 'class' : 'org.apache.cassandra.locator.SimpleStrategy', 'replication_factor': '1' } AND DURABLE_WRITES = true;");
+			session.execute("CREATE KEYSPACE " + KEYSPACE
+					+ " WITH REPLICATION = " + configuration.getReplication()
+					+ " AND DURABLE_WRITES = true;");
+
+			if (log.isLoggable(Level.INFO))
+				log.info("Created keyspace [keyspace = " + KEYSPACE
+						+ "; replication = " + configuration.getReplication()
+						+ "]");
 		}
 
 		session = cluster.connect(KEYSPACE);
@@ -176,6 +553,7 @@ public class CassandraDataStore implements DataStore {
 		TableMetadata dataTableMetadata = keyspaceMetadata.getTable(DATA_TABLE);
 
 		if (dataTableMetadata == null) {
+			created = true;
 			session.execute("CREATE TABLE "
 					+ KEYSPACE
 					+ "."
@@ -190,7 +568,51 @@ public class CassandraDataStore implements DataStore {
 					+ DATA_TABLE_ATTRIBUTE_1
 					+ ", "
 					+ DATA_TABLE_ATTRIBUTE_2
-					+ ")) WITH COMPACT STORAGE AND read_repair_chance = 0.0 AND dclocal_read_repair_chance = 0.1 AND gc_grace_seconds = 864000 AND bloom_filter_fp_chance = 0.01 AND caching = { 'keys' : 'ALL', 'rows_per_partition' : 'NONE' } AND comment = '' AND compaction = { 'class' : 'org.apache.cassandra.db.compaction.SizeTieredCompactionStrategy' } AND compression = { 'sstable_compression' : 'org.apache.cassandra.io.compress.LZ4Compressor' } AND default_time_to_live = 0 AND speculative_retry = 'NONE' AND min_index_interval = 128 AND max_index_interval = 2048;");
+					+ ")) WITH COMPACT STORAGE AND read_repair_chance = 0.0 AND dclocal_read_repair_chance = 0.1 AND gc_grace_seconds = 864000 AND bloom_filter_fp_chance = 0.01 AND caching = { 'keys' : 'ALL', 'rows_per_partition' : 'NONE' } AND comment = '' AND compaction = "
+					+ configuration.getDataCompaction()
+					+ " AND compression = { 'sstable_compression' : 'org.apache.cassandra.io.compress.LZ4Compressor' } AND default_time_to_live = 0 AND speculative_retry = 'NONE' AND min_index_interval = 128 AND max_index_interval = 2048;");
+		}
+
+		TableMetadata rollupsTableMetadata = keyspaceMetadata
+				.getTable(ROLLUPS_TABLE);
+
+		if (rollupsTableMetadata == null) {
+			session.execute("CREATE TABLE " + KEYSPACE + "." + ROLLUPS_TABLE
+					+ " (" + ROLLUPS_TABLE_ATTRIBUTE_1 + " ascii,"
+					+ ROLLUPS_TABLE_ATTRIBUTE_2 + " bigint,"
+					+ ROLLUPS_TABLE_ATTRIBUTE_3 + " timestamp,"
+					+ SUMMARY_ATTRIBUTE_DEFINITIONS + ",PRIMARY KEY (("
+					+ ROLLUPS_TABLE_ATTRIBUTE_1 + ", "
+					+ ROLLUPS_TABLE_ATTRIBUTE_2 + "), "
+					+ ROLLUPS_TABLE_ATTRIBUTE_3 + "))");
+		}
+
+		TableMetadata blocksTableMetadata = keyspaceMetadata
+				.getTable(BLOCKS_TABLE);
+
+		if (blocksTableMetadata == null) {
+			session.execute("CREATE TABLE " + KEYSPACE + "." + BLOCKS_TABLE
+					+ " (" + BLOCKS_TABLE_ATTRIBUTE_1 + " ascii PRIMARY KEY,"
+					+ SUMMARY_ATTRIBUTE_DEFINITIONS + ")");
+		}
+
+		TableMetadata latestTableMetadata = keyspaceMetadata
+				.getTable(LATEST_TABLE);
+
+		if (latestTableMetadata == null) {
+			session.execute("CREATE TABLE " + KEYSPACE + "." + LATEST_TABLE
+					+ " (" + LATEST_TABLE_ATTRIBUTE_1 + " ascii PRIMARY KEY,"
+					+ LATEST_TABLE_ATTRIBUTE_2 + " timestamp,"
+					+ LATEST_TABLE_ATTRIBUTE_3 + " blob)");
+		}
+
+		TableMetadata metadataTableMetadata = keyspaceMetadata
+				.getTable(METADATA_TABLE);
+
+		if (metadataTableMetadata == null) {
+			session.execute("CREATE TABLE " + KEYSPACE + "." + METADATA_TABLE
+					+ " (" + METADATA_TABLE_ATTRIBUTE_1 + " ascii PRIMARY KEY,"
+					+ METADATA_TABLE_ATTRIBUTE_2 + " text)");
 		}
 	}
 
@@ -198,4 +620,12 @@ public class CassandraDataStore implements DataStore {
 		session = cluster.connect(KEYSPACE);
 	}
 
+	private static CassandraConfiguration createConfiguration(String host) {
+		if (host == null)
+			throw new NullPointerException(
+					"Data store host cannot be null [host = null]");
+
+		return new CassandraConfiguration(host);
+	}
+
 }
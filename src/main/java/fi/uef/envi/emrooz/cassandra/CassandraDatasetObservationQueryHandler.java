@@ -5,6 +5,7 @@
 
 package fi.uef.envi.emrooz.cassandra;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
@@ -27,6 +28,7 @@ import com.datastax.driver.core.Session;
 import fi.uef.envi.emrooz.Rollover;
 import fi.uef.envi.emrooz.api.QueryHandler;
 import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
 import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
 import fi.uef.envi.emrooz.query.DatasetObservationQuery;
 
@@ -85,7 +87,7 @@ public class CassandraDatasetObservationQueryHandler extends
 
 	@Override
 	public ResultSet<Statement> evaluate() {
-		Set<Iterator<Row>> results = new HashSet<Iterator<Row>>();
+		Set<Iterator<ByteBuffer>> results = new HashSet<Iterator<ByteBuffer>>();
 
 		for (Map.Entry<DatasetObservationQuery, QuantityValue> entry : queries
 				.entrySet()) {
@@ -96,7 +98,7 @@ public class CassandraDatasetObservationQueryHandler extends
 		return new CassandraResultSet(results.iterator());
 	}
 
-	private Set<Iterator<Row>> getDatasetObservations(
+	private Set<Iterator<ByteBuffer>> getDatasetObservations(
 			DatasetObservationQuery query, QuantityValue frequency) {
 		URI datasetId = query.getDatasetId();
 		DateTime timeFrom = query.getTimeFrom();
@@ -122,28 +124,16 @@ public class CassandraDatasetObservationQueryHandler extends
 		}
 
 		DateTime time = timeFrom;
-		Set<Iterator<Row>> results = new HashSet<Iterator<Row>>();
+		Set<Iterator<ByteBuffer>> results = new HashSet<Iterator<ByteBuffer>>();
 
 		while (time.isBefore(timeTo)) {
 			Iterator<Row> it = getDatasetObservations(
 					getRowKey(datasetId, frequency, time), time, timeTo);
 
 			if (it != null)
-				results.add(it);
-
-			if (rollover.equals(Rollover.YEAR))
-				time = time.year().roundFloorCopy().plusYears(1);
-			else if (rollover.equals(Rollover.MONTH))
-				time = time.monthOfYear().roundFloorCopy().plusMonths(1);
-			else if (rollover.equals(Rollover.DAY))
-				time = time.dayOfMonth().roundFloorCopy().plusDays(1);
-			else if (rollover.equals(Rollover.HOUR))
-				time = time.hourOfDay().roundFloorCopy().plusHours(1);
-			else if (rollover.equals(Rollover.MINUTE))
-				time = time.minuteOfHour().roundFloorCopy().plusMinutes(1);
-			else
-				throw new RuntimeException("Unsupported rollover [rollover = "
-						+ rollover + "]");
+				results.add(StatementUtils.getValues(it));
+
+			time = getNextRolloverTime(time, rollover);
 		}
 
 		return Collections.unmodifiableSet(results);
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import static fi.uef.envi.emrooz.EmroozOptions.LATEST_TABLE_ATTRIBUTE_3;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openrdf.model.Statement;
+import org.openrdf.query.TupleQueryResultHandler;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+
+import fi.uef.envi.emrooz.api.QueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.query.EmptyResultSet;
+
+/**
+ * <p>
+ * Title: CassandraLatestObservationQueryHandler
+ * </p>
+ * <p>
+ * Description: Returns the latest observation of each series, by series key.
+ * Series whose latest observation was written through this data store are
+ * answered from memory; all other series are read from the latest table in
+ * a single multi-get.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class CassandraLatestObservationQueryHandler implements
+		QueryHandler<Statement> {
+
+	private Session session;
+	private PreparedStatement selectStatement;
+	private LatestValueIndex latestValues;
+	private Set<String> keys;
+
+	private static final Logger log = Logger
+			.getLogger(CassandraLatestObservationQueryHandler.class.getName());
+
+	public CassandraLatestObservationQueryHandler(Session session,
+			PreparedStatement selectStatement, LatestValueIndex latestValues,
+			Set<String> keys) {
+		if (session == null)
+			throw new NullPointerException("[session = null]");
+		if (selectStatement == null)
+			throw new NullPointerException("[selectStatement = null]");
+		if (keys == null)
+			throw new NullPointerException("[keys = null]");
+
+		this.session = session;
+		this.selectStatement = selectStatement;
+		this.latestValues = latestValues;
+		this.keys = keys;
+	}
+
+	@Override
+	public ResultSet<Statement> evaluate() {
+		if (keys.isEmpty())
+			return new EmptyResultSet<Statement>();
+
+		List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+		List<String> missing = new ArrayList<String>();
+
+		for (String key : keys) {
+			LatestValueIndex.Entry entry = (latestValues == null) ? null
+					: latestValues.get(key);
+
+			if (entry == null)
+				missing.add(key);
+			else
+				values.add(entry.getValue());
+		}
+
+		if (!missing.isEmpty()) {
+			for (Row row : session.execute(new BoundStatement(
+					selectStatement).bind(missing)))
+				values.add(row.getBytesUnsafe(LATEST_TABLE_ATTRIBUTE_3));
+		}
+
+		if (log.isLoggable(Level.FINE))
+			log.fine("Read latest observations [keys = " + keys.size()
+					+ "; read = " + missing.size() + "; values = "
+					+ values.size() + "]");
+
+		return new CassandraResultSet(Collections.singleton(
+				values.iterator()).iterator());
+	}
+
+	@Override
+	public void evaluate(TupleQueryResultHandler handler) {
+		throw new UnsupportedOperationException(
+				"Query evaluation with result handler not supported");
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+}
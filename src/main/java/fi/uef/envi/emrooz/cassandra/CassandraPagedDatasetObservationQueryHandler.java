@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+
+import fi.uef.envi.emrooz.Rollover;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.query.Cursor;
+import fi.uef.envi.emrooz.query.DatasetObservationQuery;
+
+/**
+ * <p>
+ * Title: CassandraPagedDatasetObservationQueryHandler
+ * </p>
+ * <p>
+ * Description: Reads one page of the dataset observations of queries,
+ * ordered by dataset.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class CassandraPagedDatasetObservationQueryHandler extends
+		CassandraPagedQueryHandler {
+
+	private List<Map.Entry<DatasetObservationQuery, QuantityValue>> queries;
+
+	public CassandraPagedDatasetObservationQueryHandler(Session session,
+			PreparedStatement pageSelectStatement,
+			PreparedStatement pageResumeSelectStatement,
+			Map<DatasetObservationQuery, QuantityValue> queries, Cursor cursor,
+			int size) {
+		super(session, pageSelectStatement, pageResumeSelectStatement, cursor,
+				size);
+
+		if (queries == null)
+			throw new NullPointerException("[queries = null]");
+
+		this.queries = new ArrayList<Map.Entry<DatasetObservationQuery, QuantityValue>>(
+				queries.entrySet());
+
+		Collections.sort(this.queries,
+				new Comparator<Map.Entry<DatasetObservationQuery, QuantityValue>>() {
+					@Override
+					public int compare(
+							Map.Entry<DatasetObservationQuery, QuantityValue> o1,
+							Map.Entry<DatasetObservationQuery, QuantityValue> o2) {
+						return o1.getKey().getDatasetId().stringValue()
+								.compareTo(
+										o2.getKey().getDatasetId()
+												.stringValue());
+					}
+				});
+	}
+
+	@Override
+	protected int getSeriesCount() {
+		return queries.size();
+	}
+
+	@Override
+	protected DateTime getTimeFrom(int series) {
+		return queries.get(series).getKey().getTimeFrom();
+	}
+
+	@Override
+	protected DateTime getTimeTo(int series) {
+		return queries.get(series).getKey().getTimeTo();
+	}
+
+	@Override
+	protected String getRowKey(int series, DateTime time) {
+		return getRowKey(queries.get(series).getKey().getDatasetId(), queries
+				.get(series).getValue(), time);
+	}
+
+	@Override
+	protected DateTime getNextPartition(int series, DateTime time) {
+		Rollover rollover = getRollover(queries.get(series).getKey()
+				.getDatasetId(), queries.get(series).getValue());
+
+		if (rollover == null)
+			return null;
+
+		return getNextRolloverTime(time, rollover);
+	}
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_2;
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_3;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.Statement;
+import org.openrdf.query.TupleQueryResultHandler;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+
+import fi.uef.envi.emrooz.api.PagedQueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.query.Cursor;
+
+/**
+ * <p>
+ * Title: CassandraPagedQueryHandler
+ * </p>
+ * <p>
+ * Description: Reads one page of at most a given number of observations of
+ * a sequence of series. Series are read one after the other and, within a
+ * series, partitions in time order. The page starts at a cursor, i.e. the
+ * series, partition and last column read by the previous page, such that
+ * each page resumes the read exactly where the previous page stopped.
+ * Memory is bounded by the page size.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public abstract class CassandraPagedQueryHandler extends
+		CassandraRequestHandler implements PagedQueryHandler<Statement> {
+
+	private Session session;
+	private PreparedStatement pageSelectStatement;
+	private PreparedStatement pageResumeSelectStatement;
+	private Cursor cursor;
+	private int size;
+	private Cursor nextCursor = null;
+
+	private static final Logger log = Logger
+			.getLogger(CassandraPagedQueryHandler.class.getName());
+
+	public CassandraPagedQueryHandler(Session session,
+			PreparedStatement pageSelectStatement,
+			PreparedStatement pageResumeSelectStatement, Cursor cursor,
+			int size) {
+		if (session == null)
+			throw new NullPointerException("[session = null]");
+		if (pageSelectStatement == null)
+			throw new NullPointerException("[pageSelectStatement = null]");
+		if (pageResumeSelectStatement == null)
+			throw new NullPointerException(
+					"[pageResumeSelectStatement = null]");
+		if (size < 1)
+			throw new IllegalArgumentException("[size = " + size + "]");
+
+		this.session = session;
+		this.pageSelectStatement = pageSelectStatement;
+		this.pageResumeSelectStatement = pageResumeSelectStatement;
+		this.cursor = cursor;
+		this.size = size;
+	}
+
+	/**
+	 * Returns the number of series read by the handler.
+	 */
+	protected abstract int getSeriesCount();
+
+	protected abstract DateTime getTimeFrom(int series);
+
+	protected abstract DateTime getTimeTo(int series);
+
+	/**
+	 * Returns the row key of the partition of the series that contains the
+	 * time, or null if unknown.
+	 */
+	protected abstract String getRowKey(int series, DateTime time);
+
+	/**
+	 * Returns the start of the partition of the series that follows the
+	 * partition containing the time, or null if unknown.
+	 */
+	protected abstract DateTime getNextPartition(int series, DateTime time);
+
+	@Override
+	public ResultSet<Statement> evaluate() {
+		List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+		int series = (cursor == null) ? 0 : cursor.getSeries();
+		UUID column = (cursor == null) ? null : cursor.getColumn();
+
+		nextCursor = null;
+
+		for (; series < getSeriesCount(); series++) {
+			DateTime timeFrom = getTimeFrom(series);
+			DateTime timeTo = getTimeTo(series);
+			// The partition is resumed in the time zone of the series, on
+			// which row keys depend
+			DateTime time = (column == null) ? timeFrom : new DateTime(
+					cursor.getPartition(), timeFrom.getZone());
+
+			while (time != null && time.isBefore(timeTo)) {
+				String rowKey = getRowKey(series, time);
+
+				if (rowKey == null)
+					break;
+
+				int limit = size - values.size();
+				BoundStatement statement = (column == null) ? new BoundStatement(
+						pageSelectStatement).bind(rowKey, time.toDate(),
+						timeTo.toDate(), limit) : new BoundStatement(
+						pageResumeSelectStatement).bind(rowKey, column,
+						timeTo.toDate(), limit);
+				UUID last = null;
+
+				for (Row row : session.execute(statement)) {
+					values.add(row.getBytesUnsafe(DATA_TABLE_ATTRIBUTE_3));
+					last = row.getUUID(DATA_TABLE_ATTRIBUTE_2);
+				}
+
+				if (values.size() >= size) {
+					nextCursor = new Cursor(series, time.getMillis(), last);
+					break;
+				}
+
+				column = null;
+				time = getNextPartition(series, time);
+			}
+
+			if (nextCursor != null)
+				break;
+
+			column = null;
+		}
+
+		if (log.isLoggable(Level.FINE))
+			log.fine("Read page [cursor = " + cursor + "; size = " + size
+					+ "; count = " + values.size() + "; nextCursor = "
+					+ nextCursor + "]");
+
+		return new CassandraResultSet(Collections.singleton(
+				values.iterator()).iterator());
+	}
+
+	@Override
+	public Cursor getNextCursor() {
+		return nextCursor;
+	}
+
+	@Override
+	public void evaluate(TupleQueryResultHandler handler) {
+		throw new UnsupportedOperationException(
+				"Query evaluation with result handler not supported");
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+
+import fi.uef.envi.emrooz.Rollover;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.query.Cursor;
+import fi.uef.envi.emrooz.query.SensorObservationQuery;
+
+/**
+ * <p>
+ * Title: CassandraPagedSensorObservationQueryHandler
+ * </p>
+ * <p>
+ * Description: Reads one page of the sensor observations of fully specified
+ * queries. Queries are read in the order of sensor, property and feature, so
+ * that cursors refer to the same series across pages.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class CassandraPagedSensorObservationQueryHandler extends
+		CassandraPagedQueryHandler {
+
+	private List<Map.Entry<SensorObservationQuery, Frequency>> queries;
+
+	public CassandraPagedSensorObservationQueryHandler(Session session,
+			PreparedStatement pageSelectStatement,
+			PreparedStatement pageResumeSelectStatement,
+			Map<SensorObservationQuery, Frequency> queries, Cursor cursor,
+			int size) {
+		super(session, pageSelectStatement, pageResumeSelectStatement, cursor,
+				size);
+
+		if (queries == null)
+			throw new NullPointerException("[queries = null]");
+
+		this.queries = new ArrayList<Map.Entry<SensorObservationQuery, Frequency>>(
+				queries.entrySet());
+
+		Collections.sort(this.queries,
+				new Comparator<Map.Entry<SensorObservationQuery, Frequency>>() {
+					@Override
+					public int compare(
+							Map.Entry<SensorObservationQuery, Frequency> o1,
+							Map.Entry<SensorObservationQuery, Frequency> o2) {
+						return getName(o1.getKey()).compareTo(
+								getName(o2.getKey()));
+					}
+				});
+	}
+
+	@Override
+	protected int getSeriesCount() {
+		return queries.size();
+	}
+
+	@Override
+	protected DateTime getTimeFrom(int series) {
+		return queries.get(series).getKey().getTimeFrom();
+	}
+
+	@Override
+	protected DateTime getTimeTo(int series) {
+		return queries.get(series).getKey().getTimeTo();
+	}
+
+	@Override
+	protected String getRowKey(int series, DateTime time) {
+		SensorObservationQuery query = queries.get(series).getKey();
+
+		return getRowKey(query.getSensorId(), query.getPropertyId(),
+				query.getFeatureOfInterestId(), queries.get(series)
+						.getValue(), time);
+	}
+
+	@Override
+	protected DateTime getNextPartition(int series, DateTime time) {
+		SensorObservationQuery query = queries.get(series).getKey();
+		Rollover rollover = getRollover(query.getSensorId(),
+				query.getPropertyId(), query.getFeatureOfInterestId(), queries
+						.get(series).getValue());
+
+		if (rollover == null)
+			return null;
+
+		return getNextRolloverTime(time, rollover);
+	}
+
+	private static String getName(SensorObservationQuery query) {
+		return query.getSensorId() + " " + query.getPropertyId() + " "
+				+ query.getFeatureOfInterestId();
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+import org.joda.time.Days;
+import org.joda.time.Hours;
+import org.joda.time.Minutes;
+import org.joda.time.Months;
+import org.joda.time.Years;
+import org.openrdf.model.URI;
+
+import fi.uef.envi.emrooz.Rollover;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.query.QueryCost;
+import fi.uef.envi.emrooz.query.RollupPlanner;
+import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.query.TimeBucketAggregation;
+import fi.uef.envi.emrooz.vocabulary.QUDTUnit;
+
+/**
+ * <p>
+ * Title: CassandraQueryCostEstimator
+ * </p>
+ * <p>
+ * Description: Estimates the cost of sensor observation queries without
+ * reading data. The partitions read follow from the rollover of each series
+ * and the queried time interval; the observations expected in them from the
+ * sensor frequency. Aggregations answered from a rollup read one rollup row
+ * per resolution interval instead.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class CassandraQueryCostEstimator extends CassandraRequestHandler {
+
+	private RollupPlanner planner;
+
+	private static final Logger log = Logger
+			.getLogger(CassandraQueryCostEstimator.class.getName());
+
+	public CassandraQueryCostEstimator(RollupPlanner planner) {
+		if (planner == null)
+			throw new NullPointerException("[planner = null]");
+
+		this.planner = planner;
+	}
+
+	/**
+	 * Returns the estimated cost of the queries, for the aggregation if not
+	 * null.
+	 */
+	public QueryCost estimate(Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation) {
+		if (queries == null)
+			throw new NullPointerException("[queries = null]");
+
+		QueryCost ret = new QueryCost(0, 0);
+
+		for (Map.Entry<SensorObservationQuery, Frequency> entry : queries
+				.entrySet()) {
+			ret = ret.add(estimate(entry.getKey(), entry.getValue(),
+					aggregation));
+		}
+
+		if (log.isLoggable(Level.FINE))
+			log.fine("Estimated query cost [cost = " + ret + "; queries = "
+					+ queries.size() + "; aggregation = " + aggregation + "]");
+
+		return ret;
+	}
+
+	private QueryCost estimate(SensorObservationQuery query,
+			Frequency frequency, TimeBucketAggregation aggregation) {
+		URI sensorId = query.getSensorId();
+		URI propertyId = query.getPropertyId();
+		URI featureId = query.getFeatureOfInterestId();
+		DateTime timeFrom = query.getTimeFrom();
+		DateTime timeTo = query.getTimeTo();
+
+		if (timeFrom == null || timeTo == null || !timeFrom.isBefore(timeTo))
+			return null;
+
+		long duration = timeTo.getMillis() - timeFrom.getMillis();
+
+		if (aggregation != null) {
+			long resolution = planner.getResolution(
+					aggregation.getDuration(), timeFrom, timeTo);
+
+			if (resolution > 0)
+				return new QueryCost(1, duration / resolution);
+		}
+
+		Rollover rollover = getRollover(sensorId, propertyId, featureId,
+				frequency);
+
+		if (rollover == null)
+			return null;
+
+		long partitions = getPartitionCount(timeFrom, timeTo, rollover);
+		long rows = getRowCount(frequency, duration);
+
+		if (query.hasLimit() && query.getLimit() < rows) {
+			// Limited reads stop once enough partitions are read
+			partitions = Math.max(1, Math.min(partitions,
+					(long) Math.ceil((double) query.getLimit() * partitions
+							/ rows)));
+			rows = query.getLimit();
+		}
+
+		return new QueryCost(partitions, rows);
+	}
+
+	private long getPartitionCount(DateTime timeFrom, DateTime timeTo,
+			Rollover rollover) {
+		DateTime last = timeTo.minusMillis(1);
+
+		if (rollover.equals(Rollover.YEAR))
+			return Years.yearsBetween(timeFrom.year().roundFloorCopy(),
+					last.year().roundFloorCopy()).getYears() + 1;
+		else if (rollover.equals(Rollover.MONTH))
+			return Months.monthsBetween(
+					timeFrom.monthOfYear().roundFloorCopy(),
+					last.monthOfYear().roundFloorCopy()).getMonths() + 1;
+		else if (rollover.equals(Rollover.DAY))
+			return Days.daysBetween(timeFrom.dayOfMonth().roundFloorCopy(),
+					last.dayOfMonth().roundFloorCopy()).getDays() + 1;
+		else if (rollover.equals(Rollover.HOUR))
+			return Hours.hoursBetween(timeFrom.hourOfDay().roundFloorCopy(),
+					last.hourOfDay().roundFloorCopy()).getHours() + 1;
+		else
+			return Minutes.minutesBetween(
+					timeFrom.minuteOfHour().roundFloorCopy(),
+					last.minuteOfHour().roundFloorCopy()).getMinutes() + 1;
+	}
+
+	private long getRowCount(Frequency frequency, long duration) {
+		QuantityValue quantityValue = frequency.getQuantityValue();
+
+		if (quantityValue == null || quantityValue.getNumericValue() == null
+				|| quantityValue.getUnit() == null
+				|| !QUDTUnit.Hertz.equals(quantityValue.getUnit().getId()))
+			return 0;
+
+		return (long) Math.ceil(quantityValue.getNumericValue() * duration
+				/ 1000.0);
+	}
+
+}
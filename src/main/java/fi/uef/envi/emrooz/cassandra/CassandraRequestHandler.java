@@ -44,6 +44,14 @@ public abstract class CassandraRequestHandler {
 				frequency, time);
 	}
 
+	protected String getSeriesKey(URI sensorId, URI propertyId, URI featureId) {
+		return rowKeyUtils.getSeriesKey(sensorId, propertyId, featureId);
+	}
+
+	protected String getSeriesKey(URI datasetId) {
+		return rowKeyUtils.getSeriesKey(datasetId);
+	}
+
 	protected String getRowKey(URI datasetId, QuantityValue frequency,
 			DateTime time) {
 		return rowKeyUtils.getRowKey(datasetId, frequency, time);
@@ -59,4 +67,8 @@ public abstract class CassandraRequestHandler {
 		return rowKeyUtils.getRollover(datasetId, frequency);
 	}
 
+	protected DateTime getNextRolloverTime(DateTime time, Rollover rollover) {
+		return RowKeyUtils.getNextRolloverTime(time, rollover);
+	}
+
 }
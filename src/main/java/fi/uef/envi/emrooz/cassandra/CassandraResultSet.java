@@ -6,13 +6,13 @@
 package fi.uef.envi.emrooz.cassandra;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Iterator;
 import org.openrdf.model.Statement;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFParseException;
 
-import com.datastax.driver.core.Row;
 import fi.uef.envi.emrooz.api.ResultSet;
 import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
 
@@ -35,10 +35,10 @@ import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
 
 public class CassandraResultSet implements ResultSet<Statement> {
 
-	private Iterator<Iterator<Row>> results;
+	private Iterator<Iterator<ByteBuffer>> results;
 	private Iterator<Statement> statements;
 
-	public CassandraResultSet(Iterator<Iterator<Row>> results) {
+	public CassandraResultSet(Iterator<Iterator<ByteBuffer>> results) {
 		this.results = results;
 		this.statements = Collections.emptyIterator();
 	}
@@ -66,15 +66,10 @@ public class CassandraResultSet implements ResultSet<Statement> {
 
 	private void getStatementIterator() throws RDFParseException,
 			RDFHandlerException, IOException {
-		if (!results.hasNext())
-			return; // Do not set statements to empty iterator; there may still
-					// be statements even though there are no more results
-
-		if (!statements.hasNext()) {
-			statements = StatementUtils.toStatements(results.next());
-			if (!statements.hasNext())
-				getStatementIterator();
-		}
+		// Partitions are skipped in a loop rather than recursively, since
+		// long time intervals may have many empty partitions
+		while (!statements.hasNext() && results.hasNext())
+			statements = StatementUtils.toStatementIterator(results.next());
 	}
 
 }
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_2;
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_3;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_3;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.URI;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryResultHandlerException;
+import org.openrdf.query.TupleQueryResultHandler;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.utils.UUIDs;
+
+import fi.uef.envi.emrooz.Rollover;
+import fi.uef.envi.emrooz.api.QueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.cassandra.utils.RollupUtils;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.query.IteratorResultSet;
+import fi.uef.envi.emrooz.query.QueryContext;
+import fi.uef.envi.emrooz.query.RollupPlanner;
+import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.query.TimeBucketAggregation;
+import fi.uef.envi.emrooz.query.TimeBucketAggregator;
+import fi.uef.envi.emrooz.vocabulary.DUL;
+
+/**
+ * <p>
+ * Title: CassandraSensorObservationAggregateQueryHandler
+ * </p>
+ * <p>
+ * Description: Evaluates a time bucket aggregation over the sensor
+ * observations of the queries. Partitions are read one at a time; the time
+ * of an observation is taken from the column name and its value is read from
+ * the column value without creating RDF statements. Where a rollup answers
+ * the aggregation, its bucket summaries are read instead, except for the
+ * buckets pending with the adder, which are aggregated from the partitions.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class CassandraSensorObservationAggregateQueryHandler extends
+		CassandraRequestHandler implements QueryHandler<BindingSet> {
+
+	private Session session;
+	private PreparedStatement selectStatement;
+	private PreparedStatement rollupSelectStatement;
+	private RollupPlanner planner;
+	private CassandraAdder adder;
+	private Map<SensorObservationQuery, Frequency> queries;
+	private TimeBucketAggregation aggregation;
+	private QueryContext context;
+
+	private static final Logger log = Logger
+			.getLogger(CassandraSensorObservationAggregateQueryHandler.class
+					.getName());
+
+	public CassandraSensorObservationAggregateQueryHandler(Session session,
+			PreparedStatement selectStatement,
+			PreparedStatement rollupSelectStatement, RollupPlanner planner,
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation) {
+		this(session, selectStatement, rollupSelectStatement, planner,
+				queries, aggregation, null);
+	}
+
+	/**
+	 * Creates a handler that stops aggregating once the context, if not
+	 * null, is cancelled. The context is checked for each row read.
+	 */
+	public CassandraSensorObservationAggregateQueryHandler(Session session,
+			PreparedStatement selectStatement,
+			PreparedStatement rollupSelectStatement, RollupPlanner planner,
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation, QueryContext context) {
+		this(session, selectStatement, rollupSelectStatement, planner, null,
+				queries, aggregation, context);
+	}
+
+	/**
+	 * Creates a handler that aggregates the rollup buckets pending with the
+	 * adder, if not null, from the partitions rather than from the rollup.
+	 */
+	public CassandraSensorObservationAggregateQueryHandler(Session session,
+			PreparedStatement selectStatement,
+			PreparedStatement rollupSelectStatement, RollupPlanner planner,
+			CassandraAdder adder,
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation, QueryContext context) {
+		if (session == null)
+			throw new NullPointerException("[session = null]");
+		if (selectStatement == null)
+			throw new NullPointerException("[selectStatement = null]");
+		if (rollupSelectStatement == null)
+			throw new NullPointerException("[rollupSelectStatement = null]");
+		if (planner == null)
+			throw new NullPointerException("[planner = null]");
+		if (queries == null)
+			throw new NullPointerException("[queries = null]");
+		if (aggregation == null)
+			throw new NullPointerException("[aggregation = null]");
+
+		this.session = session;
+		this.selectStatement = selectStatement;
+		this.rollupSelectStatement = rollupSelectStatement;
+		this.planner = planner;
+		this.adder = adder;
+		this.queries = queries;
+		this.aggregation = aggregation;
+		this.context = (context == null) ? new QueryContext() : context;
+	}
+
+	@Override
+	public ResultSet<BindingSet> evaluate() {
+		return new IteratorResultSet<BindingSet>(aggregate().getBindingSets()
+				.iterator());
+	}
+
+	@Override
+	public void evaluate(TupleQueryResultHandler handler) {
+		TimeBucketAggregator aggregator = aggregate();
+
+		try {
+			handler.startQueryResult(aggregation.getBindingNames());
+
+			for (BindingSet bindingSet : aggregator.getBindingSets())
+				handler.handleSolution(bindingSet);
+
+			handler.endQueryResult();
+		} catch (QueryResultHandlerException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+	private TimeBucketAggregator aggregate() {
+		TimeBucketAggregator ret = new TimeBucketAggregator(aggregation);
+
+		for (Map.Entry<SensorObservationQuery, Frequency> entry : queries
+				.entrySet()) {
+			aggregate(ret, entry.getKey(), entry.getValue());
+		}
+
+		return ret;
+	}
+
+	private void aggregate(TimeBucketAggregator aggregator,
+			SensorObservationQuery query, Frequency frequency) {
+		URI sensorId = query.getSensorId();
+		URI propertyId = query.getPropertyId();
+		URI featureId = query.getFeatureOfInterestId();
+		DateTime timeFrom = query.getTimeFrom();
+		DateTime timeTo = query.getTimeTo();
+
+		if (sensorId == null || propertyId == null || featureId == null
+				|| timeFrom == null || timeTo == null) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe("At least one parameter is null; skipped query [sensorId = "
+						+ sensorId
+						+ "; propertyId = "
+						+ propertyId
+						+ "; featureId = "
+						+ featureId
+						+ "; timeFrom = "
+						+ timeFrom + "; timeTo = " + timeTo + "]");
+			return;
+		}
+
+		long resolution = planner.getResolution(aggregation.getDuration(),
+				timeFrom, timeTo);
+
+		if (resolution > 0) {
+			if (log.isLoggable(Level.INFO))
+				log.info("Aggregation evaluated from rollup [resolution = "
+						+ resolution + "; query = " + query + "]");
+
+			String seriesKey = getSeriesKey(sensorId, propertyId, featureId);
+			List<Long> uncovered = RollupPlanner.getUncovered(resolution,
+					timeFrom, timeTo, (adder == null) ? Collections
+							.<Long> emptySet() : adder.getPendingRollups(
+							seriesKey, resolution));
+			Set<Long> skipped = new HashSet<Long>(uncovered);
+
+			for (Row row : session.execute(new BoundStatement(
+					rollupSelectStatement).bind(seriesKey, resolution,
+					timeFrom.toDate(), timeTo.toDate()))) {
+				context.check();
+
+				long bucket = row.getDate(ROLLUPS_TABLE_ATTRIBUTE_3).getTime();
+
+				if (!skipped.contains(bucket))
+					aggregator.add(bucket, RollupUtils.toBucketSummary(row));
+			}
+
+			for (Long bucket : uncovered)
+				aggregate(aggregator, sensorId, propertyId, featureId,
+						frequency, new DateTime(Math.max(bucket,
+								timeFrom.getMillis()), timeFrom.getZone()),
+						new DateTime(Math.min(bucket + resolution,
+								timeTo.getMillis()), timeTo.getZone()));
+
+			return;
+		}
+
+		aggregate(aggregator, sensorId, propertyId, featureId, frequency,
+				timeFrom, timeTo);
+	}
+
+	private void aggregate(TimeBucketAggregator aggregator, URI sensorId,
+			URI propertyId, URI featureId, Frequency frequency,
+			DateTime timeFrom, DateTime timeTo) {
+		Rollover rollover = getRollover(sensorId, propertyId, featureId,
+				frequency);
+
+		if (rollover == null) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe("Registration rollover is null [sensorId = "
+						+ sensorId + "; propertyId = " + propertyId
+						+ "; featureId = " + featureId + "; frequency = "
+						+ frequency + "]");
+			return;
+		}
+
+		DateTime time = timeFrom;
+
+		while (time.isBefore(timeTo)) {
+			String rowKey = getRowKey(sensorId, propertyId, featureId,
+					frequency, time);
+
+			for (Row row : session.execute(new BoundStatement(selectStatement)
+					.bind(rowKey, time.toDate(), timeTo.toDate()))) {
+				context.check();
+				aggregate(aggregator, row);
+			}
+
+			time = getNextRolloverTime(time, rollover);
+		}
+	}
+
+	private void aggregate(TimeBucketAggregator aggregator, Row row) {
+		try {
+			aggregator.add(UUIDs.unixTimestamp(row
+					.getUUID(DATA_TABLE_ATTRIBUTE_2)), StatementUtils
+					.toLiteral(row.getBytesUnsafe(DATA_TABLE_ATTRIBUTE_3),
+							DUL.hasRegionDataValue));
+		} catch (RDFParseException | RDFHandlerException | IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
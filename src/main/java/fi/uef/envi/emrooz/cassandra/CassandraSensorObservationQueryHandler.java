@@ -5,11 +5,18 @@
 
 package fi.uef.envi.emrooz.cassandra;
 
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_6;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_7;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -27,6 +34,7 @@ import com.datastax.driver.core.Session;
 import fi.uef.envi.emrooz.Rollover;
 import fi.uef.envi.emrooz.api.QueryHandler;
 import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
 import fi.uef.envi.emrooz.entity.ssn.Frequency;
 import fi.uef.envi.emrooz.query.SensorObservationQuery;
 
@@ -35,7 +43,15 @@ import fi.uef.envi.emrooz.query.SensorObservationQuery;
  * Title: CassandraSensorObservationQueryHandler
  * </p>
  * <p>
- * Description:
+ * Description: Reads the sensor observations of the data partitions that
+ * cover the queried time intervals. If the query bounds the observation
+ * values, partitions whose stored value range cannot match are skipped
+ * without being read. If a partition cache is given, partitions whose
+ * rollover period has passed are read from the cache. If the query is
+ * limited to the earliest or latest observations, partitions are read in time
+ * order, or reverse time order, with a limit on the remaining number of
+ * observations, until the limit is met. Otherwise, partitions are read as the
+ * observations are consumed.
  * </p>
  * <p>
  * Project: Emrooz
@@ -52,6 +68,11 @@ public class CassandraSensorObservationQueryHandler extends CassandraRequestHand
 
 	private Session session;
 	private PreparedStatement selectStatement;
+	private PreparedStatement limitSelectStatement;
+	private PreparedStatement reverseLimitSelectStatement;
+	private PreparedStatement blockSelectStatement;
+	private PreparedStatement partitionSelectStatement;
+	private PartitionCache cache;
 	private Map<SensorObservationQuery, Frequency> queries;
 
 	private static final Logger log = Logger
@@ -59,16 +80,41 @@ public class CassandraSensorObservationQueryHandler extends CassandraRequestHand
 
 	public CassandraSensorObservationQueryHandler(Session session,
 			PreparedStatement selectStatement,
+			PreparedStatement blockSelectStatement,
+			Map<SensorObservationQuery, Frequency> queries) {
+		this(session, selectStatement, null, null, blockSelectStatement, null,
+				null, queries);
+	}
+
+	public CassandraSensorObservationQueryHandler(Session session,
+			PreparedStatement selectStatement,
+			PreparedStatement limitSelectStatement,
+			PreparedStatement reverseLimitSelectStatement,
+			PreparedStatement blockSelectStatement,
+			PreparedStatement partitionSelectStatement, PartitionCache cache,
 			Map<SensorObservationQuery, Frequency> queries) {
 		if (session == null)
 			throw new NullPointerException("[session = null]");
 		if (selectStatement == null)
 			throw new NullPointerException("[selectStatement = null]");
+		if ((limitSelectStatement == null) != (reverseLimitSelectStatement == null))
+			throw new NullPointerException("[limitSelectStatement = "
+					+ limitSelectStatement + "; reverseLimitSelectStatement = "
+					+ reverseLimitSelectStatement + "]");
+		if (blockSelectStatement == null)
+			throw new NullPointerException("[blockSelectStatement = null]");
+		if (cache != null && partitionSelectStatement == null)
+			throw new NullPointerException("[partitionSelectStatement = null]");
 		if (queries == null)
 			throw new NullPointerException("[queries = null]");
 
 		this.session = session;
 		this.selectStatement = selectStatement;
+		this.limitSelectStatement = limitSelectStatement;
+		this.reverseLimitSelectStatement = reverseLimitSelectStatement;
+		this.blockSelectStatement = blockSelectStatement;
+		this.partitionSelectStatement = partitionSelectStatement;
+		this.cache = cache;
 		this.queries = queries;
 	}
 
@@ -85,80 +131,142 @@ public class CassandraSensorObservationQueryHandler extends CassandraRequestHand
 
 	@Override
 	public ResultSet<Statement> evaluate() {
-		Set<Iterator<Row>> results = new HashSet<Iterator<Row>>();
-
-		for (Map.Entry<SensorObservationQuery, Frequency> entry : queries
-				.entrySet()) {
-			results.addAll(getSensorObservations(entry.getKey(),
-					entry.getValue()));
-		}
-
-		return new CassandraResultSet(results.iterator());
+		return new CassandraResultSet(new PartitionIterator(queries.entrySet()
+				.iterator()));
 	}
 
-	private Set<Iterator<Row>> getSensorObservations(
-			SensorObservationQuery query, Frequency frequency) {
+	private Iterator<ByteBuffer> getSensorObservations(
+			SensorObservationQuery query, Frequency frequency,
+			Rollover rollover, DateTime time) {
 		URI sensorId = query.getSensorId();
 		URI propertyId = query.getPropertyId();
 		URI featureId = query.getFeatureOfInterestId();
-		DateTime timeFrom = query.getTimeFrom();
 		DateTime timeTo = query.getTimeTo();
+		String rowKey = getRowKey(sensorId, propertyId, featureId, frequency,
+				time);
 
-		if (sensorId == null || propertyId == null || featureId == null
-				|| timeFrom == null || timeTo == null) {
-			if (log.isLoggable(Level.SEVERE))
-				log.severe("At least one parameter is null; returned empty set [sensorId = "
-						+ sensorId
-						+ "; propertyId = "
-						+ propertyId
-						+ "; featureId = "
-						+ featureId
-						+ "; timeFrom = "
-						+ timeFrom + "; timeTo = " + timeTo + "]");
-			return Collections.emptySet();
-		}
+		if (query.hasValueRange()
+				&& !mayMatch(rowKey, query.getValueFrom(), query.getValueTo()))
+			return null;
 
-		Rollover rollover = getRollover(sensorId, propertyId, featureId,
-				frequency);
+		if (cache != null && !getNextRolloverTime(time, rollover).isAfterNow())
+			return getCachedSensorObservations(rowKey, time, timeTo);
 
-		if (rollover == null) {
-			if (log.isLoggable(Level.SEVERE))
-				log.severe("Registration rollover is null [sensorId = "
-						+ sensorId + "; propertyId = " + propertyId
-						+ "; featureId = " + featureId + "; frequency = "
-						+ frequency + "]");
-			return Collections.emptySet();
-		}
+		Iterator<Row> it = getSensorObservations(rowKey, time, timeTo);
 
+		if (it == null)
+			return null;
+
+		return StatementUtils.getValues(it);
+	}
+
+	private Set<Iterator<ByteBuffer>> getSensorObservations(URI sensorId,
+			URI propertyId, URI featureId, Frequency frequency,
+			Rollover rollover, DateTime timeFrom, DateTime timeTo,
+			long limit, boolean descending) {
+		List<DateTime> times = new ArrayList<DateTime>();
 		DateTime time = timeFrom;
-		Set<Iterator<Row>> results = new HashSet<Iterator<Row>>();
 
 		while (time.isBefore(timeTo)) {
-			Iterator<Row> it = getSensorObservations(
-					getRowKey(sensorId, propertyId, featureId, frequency, time),
-					time, timeTo);
-
-			if (it != null)
-				results.add(it);
-
-			if (rollover.equals(Rollover.YEAR))
-				time = time.year().roundFloorCopy().plusYears(1);
-			else if (rollover.equals(Rollover.MONTH))
-				time = time.monthOfYear().roundFloorCopy().plusMonths(1);
-			else if (rollover.equals(Rollover.DAY))
-				time = time.dayOfMonth().roundFloorCopy().plusDays(1);
-			else if (rollover.equals(Rollover.HOUR))
-				time = time.hourOfDay().roundFloorCopy().plusHours(1);
-			else if (rollover.equals(Rollover.MINUTE))
-				time = time.minuteOfHour().roundFloorCopy().plusMinutes(1);
-			else
-				throw new RuntimeException("Unsupported rollover [rollover = "
-						+ rollover + "]");
+			times.add(time);
+			time = getNextRolloverTime(time, rollover);
+		}
+
+		if (descending)
+			Collections.reverse(times);
+
+		PreparedStatement statement = (descending) ? reverseLimitSelectStatement
+				: limitSelectStatement;
+		Set<Iterator<ByteBuffer>> results = new HashSet<Iterator<ByteBuffer>>();
+		long remaining = limit;
+
+		for (DateTime t : times) {
+			if (remaining <= 0)
+				break;
+
+			String rowKey = getRowKey(sensorId, propertyId, featureId,
+					frequency, t);
+			// Buffered, since the remaining limit depends on the count
+			List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+			Iterator<ByteBuffer> it = StatementUtils.getValues(session
+					.execute(
+							new BoundStatement(statement).bind(rowKey,
+									t.toDate(), timeTo.toDate(),
+									(int) Math.min(remaining,
+											Integer.MAX_VALUE))).iterator());
+
+			while (it.hasNext())
+				values.add(it.next());
+
+			remaining -= values.size();
+
+			if (!values.isEmpty())
+				results.add(values.iterator());
 		}
 
+		if (log.isLoggable(Level.FINE))
+			log.fine("Read limited observations [limit = " + limit
+					+ "; descending = " + descending + "; count = "
+					+ (limit - remaining) + "; partitions = " + times.size()
+					+ "]");
+
 		return Collections.unmodifiableSet(results);
 	}
 
+	private Iterator<ByteBuffer> getCachedSensorObservations(String rowKey,
+			DateTime timeFrom, DateTime timeTo) {
+		PartitionCache.Partition partition = cache.get(rowKey);
+
+		if (partition == null) {
+			long generation = cache.beginLoad(rowKey);
+
+			try {
+				partition = cache.createPartition(session.execute(
+						new BoundStatement(partitionSelectStatement)
+								.bind(rowKey)).iterator());
+			} finally {
+				// Not cached if invalidated while read
+				cache.endLoad(rowKey, generation, partition);
+			}
+
+			if (log.isLoggable(Level.FINE))
+				log.fine("Cached partition [rowKey = " + rowKey + "; count = "
+						+ partition.getCount() + "]");
+		}
+
+		return partition.getValues(timeFrom.getMillis(), timeTo.getMillis());
+	}
+
+	private boolean mayMatch(String rowKey, Double valueFrom, Double valueTo) {
+		if (rowKey == null)
+			return true;
+
+		Row row = session.execute(
+				new BoundStatement(blockSelectStatement).bind(rowKey)).one();
+
+		// Blocks without summary, or with an unknown value range, are read
+		if (row == null || row.isNull(ROLLUPS_TABLE_ATTRIBUTE_6)
+				|| row.isNull(ROLLUPS_TABLE_ATTRIBUTE_7))
+			return true;
+
+		double min = row.getDouble(ROLLUPS_TABLE_ATTRIBUTE_6);
+		double max = row.getDouble(ROLLUPS_TABLE_ATTRIBUTE_7);
+
+		if (Double.isNaN(min) || Double.isNaN(max))
+			return true;
+
+		if ((valueFrom != null && max < valueFrom)
+				|| (valueTo != null && min > valueTo)) {
+			if (log.isLoggable(Level.FINE))
+				log.fine("Skipped block [rowKey = " + rowKey + "; min = "
+						+ min + "; max = " + max + "]");
+
+			return false;
+		}
+
+		return true;
+	}
+
 	private Iterator<Row> getSensorObservations(String rowKey,
 			DateTime timeFrom, DateTime timeTo) {
 		if (timeFrom == null || timeTo == null) {
@@ -188,4 +296,116 @@ public class CassandraSensorObservationQueryHandler extends CassandraRequestHand
 						columnNameFrom, columnNameTo)).iterator();
 	}
 
+	/**
+	 * Iterates the partitions of the queries in time order. A partition is
+	 * read only once the partitions before it have been consumed, so that
+	 * reads stop when the consumer stops, e.g. because the query is cancelled.
+	 */
+	private class PartitionIterator implements Iterator<Iterator<ByteBuffer>> {
+
+		private Iterator<Map.Entry<SensorObservationQuery, Frequency>> entries;
+		private Iterator<Iterator<ByteBuffer>> limited;
+		private SensorObservationQuery query = null;
+		private Frequency frequency = null;
+		private Rollover rollover = null;
+		private DateTime time = null;
+		private Iterator<ByteBuffer> next = null;
+
+		private PartitionIterator(
+				Iterator<Map.Entry<SensorObservationQuery, Frequency>> entries) {
+			this.entries = entries;
+			this.limited = Collections.emptyIterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null) {
+				if (limited.hasNext()) {
+					next = limited.next();
+				} else if (query != null && time.isBefore(query.getTimeTo())) {
+					next = getSensorObservations(query, frequency, rollover,
+							time);
+					time = getNextRolloverTime(time, rollover);
+				} else if (entries.hasNext()) {
+					Map.Entry<SensorObservationQuery, Frequency> entry = entries
+							.next();
+
+					start(entry.getKey(), entry.getValue());
+				} else {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		@Override
+		public Iterator<ByteBuffer> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			Iterator<ByteBuffer> ret = next;
+
+			next = null;
+
+			return ret;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void start(SensorObservationQuery query, Frequency frequency) {
+			this.query = null;
+
+			URI sensorId = query.getSensorId();
+			URI propertyId = query.getPropertyId();
+			URI featureId = query.getFeatureOfInterestId();
+			DateTime timeFrom = query.getTimeFrom();
+			DateTime timeTo = query.getTimeTo();
+
+			if (sensorId == null || propertyId == null || featureId == null
+					|| timeFrom == null || timeTo == null) {
+				if (log.isLoggable(Level.SEVERE))
+					log.severe("At least one parameter is null; skipped query [sensorId = "
+							+ sensorId
+							+ "; propertyId = "
+							+ propertyId
+							+ "; featureId = "
+							+ featureId
+							+ "; timeFrom = "
+							+ timeFrom
+							+ "; timeTo = "
+							+ timeTo + "]");
+				return;
+			}
+
+			Rollover rollover = getRollover(sensorId, propertyId, featureId,
+					frequency);
+
+			if (rollover == null) {
+				if (log.isLoggable(Level.SEVERE))
+					log.severe("Registration rollover is null [sensorId = "
+							+ sensorId + "; propertyId = " + propertyId
+							+ "; featureId = " + featureId + "; frequency = "
+							+ frequency + "]");
+				return;
+			}
+
+			if (query.hasLimit() && limitSelectStatement != null) {
+				limited = getSensorObservations(sensorId, propertyId,
+						featureId, frequency, rollover, timeFrom, timeTo,
+						query.getLimit(), query.isDescending()).iterator();
+				return;
+			}
+
+			this.query = query;
+			this.frequency = frequency;
+			this.rollover = rollover;
+			this.time = timeFrom;
+		}
+
+	}
+
 }
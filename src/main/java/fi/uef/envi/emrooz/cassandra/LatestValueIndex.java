@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Title: LatestValueIndex
+ * </p>
+ * <p>
+ * Description: Keeps the latest observation, i.e. time and serialized
+ * statements, of each series written through a data store. Series are keyed
+ * by their series key. An observation replaces the latest observation of its
+ * series only if it is not older, so that observations may be added in any
+ * order.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class LatestValueIndex {
+
+	private final ConcurrentMap<String, Entry> entries;
+
+	public LatestValueIndex() {
+		this.entries = new ConcurrentHashMap<String, Entry>();
+	}
+
+	/**
+	 * Returns true if the observation is now the latest of its series.
+	 */
+	public boolean put(String key, long time, ByteBuffer value) {
+		if (key == null)
+			throw new NullPointerException("[key = null]");
+		if (value == null)
+			throw new NullPointerException("[value = null]");
+
+		Entry entry = new Entry(time, value);
+
+		while (true) {
+			Entry current = entries.putIfAbsent(key, entry);
+
+			if (current == null)
+				return true;
+			if (current.time > time)
+				return false;
+			if (entries.replace(key, current, entry))
+				return true;
+		}
+	}
+
+	public Entry get(String key) {
+		if (key == null)
+			return null;
+
+		return entries.get(key);
+	}
+
+	/**
+	 * Removes the entry of the key, unless it was replaced since it was got.
+	 */
+	public boolean remove(String key, Entry entry) {
+		if (key == null || entry == null)
+			return false;
+
+		return entries.remove(key, entry);
+	}
+
+	/**
+	 * Returns the keys, a view that reflects concurrent updates.
+	 */
+	public Set<String> keySet() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	public static class Entry {
+
+		private final long time;
+		private final ByteBuffer value;
+
+		private Entry(long time, ByteBuffer value) {
+			this.time = time;
+			this.value = value;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		public ByteBuffer getValue() {
+			return value.duplicate();
+		}
+
+	}
+
+}
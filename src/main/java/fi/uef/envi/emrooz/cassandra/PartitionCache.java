@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_2;
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_3;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.utils.UUIDs;
+
+/**
+ * <p>
+ * Title: PartitionCache
+ * </p>
+ * <p>
+ * Description: A least recently used cache of data partitions, keyed by row
+ * key and bounded by the number of bytes held. Partitions are held in
+ * columnar form, i.e. the column times in one array and the encoded values
+ * in one buffer, which is allocated on-heap or off-heap (direct). Only
+ * partitions whose rollover period has passed should be cached; partitions
+ * are invalidated when observations are added to them. A partition read
+ * while it is invalidated is not cached: loads are bracketed by
+ * {@link #beginLoad(String)} and {@link #endLoad(String, long, Partition)},
+ * and invalidation increments the generation of the partitions being
+ * loaded. Observations added by other clients do not invalidate partitions;
+ * with a time to live, partitions are read anew once it has passed since
+ * they were cached.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class PartitionCache {
+
+	private final long capacity;
+	private final boolean offHeap;
+	private final long timeToLive;
+	private final LinkedHashMap<String, Entry> partitions;
+	private final Map<String, Load> loads;
+	private long size = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	private static final Logger log = Logger.getLogger(PartitionCache.class
+			.getName());
+
+	public PartitionCache(long capacity, boolean offHeap) {
+		this(capacity, offHeap, 0);
+	}
+
+	/**
+	 * Creates a cache whose partitions expire the time to live, in
+	 * milliseconds, after they are cached, or never if 0.
+	 */
+	public PartitionCache(long capacity, boolean offHeap, long timeToLive) {
+		if (capacity < 1)
+			throw new IllegalArgumentException(
+					"Capacity must be positive [capacity = " + capacity + "]");
+		if (timeToLive < 0)
+			throw new IllegalArgumentException(
+					"Time to live must not be negative [timeToLive = "
+							+ timeToLive + "]");
+
+		this.capacity = capacity;
+		this.offHeap = offHeap;
+		this.timeToLive = timeToLive;
+		// Access order, the eldest entry is the least recently used
+		this.partitions = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		this.loads = new HashMap<String, Load>();
+	}
+
+	public synchronized Partition get(String rowKey) {
+		Entry entry = partitions.get(rowKey);
+
+		if (entry != null && timeToLive > 0
+				&& System.currentTimeMillis() - entry.time >= timeToLive) {
+			partitions.remove(rowKey);
+			size -= entry.partition.getSize();
+			entry = null;
+		}
+
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+
+		hits++;
+
+		return entry.partition;
+	}
+
+	public synchronized void put(String rowKey, Partition partition) {
+		if (rowKey == null || partition == null)
+			return;
+
+		invalidate(rowKey);
+
+		if (partition.getSize() > capacity) {
+			if (log.isLoggable(Level.FINE))
+				log.fine("Partition exceeds cache capacity [rowKey = "
+						+ rowKey + "; size = " + partition.getSize() + "]");
+			return;
+		}
+
+		partitions.put(rowKey, new Entry(partition,
+				System.currentTimeMillis()));
+		size += partition.getSize();
+
+		Iterator<Map.Entry<String, Entry>> it = partitions.entrySet()
+				.iterator();
+
+		while (size > capacity && it.hasNext()) {
+			size -= it.next().getValue().partition.getSize();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Begins the load of a partition and returns its generation, to be passed
+	 * to {@link #endLoad(String, long, Partition)} once the partition is read.
+	 */
+	public synchronized long beginLoad(String rowKey) {
+		Load load = loads.get(rowKey);
+
+		if (load == null) {
+			load = new Load();
+			loads.put(rowKey, load);
+		}
+
+		load.loaders++;
+
+		return load.generation;
+	}
+
+	/**
+	 * Ends the load of a partition and caches it, unless it was invalidated
+	 * since the load began. A null partition, e.g. if the read failed, only
+	 * ends the load.
+	 */
+	public synchronized void endLoad(String rowKey, long generation,
+			Partition partition) {
+		Load load = loads.get(rowKey);
+
+		if (load == null)
+			return;
+
+		if (--load.loaders == 0)
+			loads.remove(rowKey);
+
+		if (load.generation != generation) {
+			if (log.isLoggable(Level.FINE))
+				log.fine("Partition invalidated while loaded [rowKey = "
+						+ rowKey + "]");
+			return;
+		}
+
+		put(rowKey, partition);
+	}
+
+	public synchronized void invalidate(String rowKey) {
+		Entry entry = partitions.remove(rowKey);
+
+		if (entry != null)
+			size -= entry.partition.getSize();
+
+		Load load = loads.get(rowKey);
+
+		if (load != null)
+			load.generation++;
+	}
+
+	public synchronized void clear() {
+		partitions.clear();
+		size = 0;
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Creates a partition from the time and value columns of data rows, in
+	 * clustering order.
+	 */
+	public Partition createPartition(Iterator<Row> rows) {
+		List<Long> times = new ArrayList<Long>();
+		List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+
+		while (rows.hasNext()) {
+			Row row = rows.next();
+
+			times.add(UUIDs.unixTimestamp(row.getUUID(DATA_TABLE_ATTRIBUTE_2)));
+			values.add(row.getBytesUnsafe(DATA_TABLE_ATTRIBUTE_3));
+		}
+
+		return createPartition(times, values);
+	}
+
+	/**
+	 * Creates a partition from the times and encoded values of observations,
+	 * in time order.
+	 */
+	public Partition createPartition(List<Long> times, List<ByteBuffer> values) {
+		if (times.size() != values.size())
+			throw new IllegalArgumentException(
+					"Times and values differ in size [times = "
+							+ times.size() + "; values = " + values.size()
+							+ "]");
+
+		int length = 0;
+
+		for (ByteBuffer value : values)
+			length += value.remaining();
+
+		long[] t = new long[times.size()];
+		int[] offsets = new int[values.size() + 1];
+		ByteBuffer data = offHeap ? ByteBuffer.allocateDirect(length)
+				: ByteBuffer.allocate(length);
+
+		for (int i = 0; i < t.length; i++) {
+			t[i] = times.get(i);
+			offsets[i] = data.position();
+			data.put(values.get(i).duplicate());
+		}
+
+		offsets[t.length] = data.position();
+
+		return new Partition(t, offsets, data);
+	}
+
+	private static class Entry {
+
+		private final Partition partition;
+		private final long time;
+
+		private Entry(Partition partition, long time) {
+			this.partition = partition;
+			this.time = time;
+		}
+
+	}
+
+	private static class Load {
+
+		private long generation = 0;
+		private int loaders = 0;
+
+	}
+
+	public static class Partition {
+
+		private final long[] times;
+		private final int[] offsets;
+		private final ByteBuffer data;
+
+		private Partition(long[] times, int[] offsets, ByteBuffer data) {
+			this.times = times;
+			this.offsets = offsets;
+			this.data = data;
+		}
+
+		public int getCount() {
+			return times.length;
+		}
+
+		/**
+		 * Returns the approximate number of bytes held by the partition.
+		 */
+		public long getSize() {
+			return data.capacity() + 8L * times.length + 4L * offsets.length;
+		}
+
+		/**
+		 * Returns the encoded values with time in [from, to), in time order.
+		 * Buffers are views of the partition buffer, no copy.
+		 */
+		public Iterator<ByteBuffer> getValues(long from, final long to) {
+			int index = Arrays.binarySearch(times, from);
+
+			if (index < 0) {
+				index = -index - 1;
+			} else {
+				// Several columns may share the time
+				while (index > 0 && times[index - 1] == from)
+					index--;
+			}
+
+			final int start = index;
+
+			return new Iterator<ByteBuffer>() {
+
+				private int i = start;
+
+				@Override
+				public boolean hasNext() {
+					return i < times.length && times[i] < to;
+				}
+
+				@Override
+				public ByteBuffer next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+
+					ByteBuffer ret = data.duplicate();
+
+					ret.limit(offsets[i + 1]);
+					ret.position(offsets[i]);
+					i++;
+
+					return ret.slice();
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+
+			};
+		}
+
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import org.joda.time.Duration;
+
+/**
+ * <p>
+ * Title: RetentionPolicy
+ * </p>
+ * <p>
+ * Description: How long observations and their rollups are kept, counted
+ * from the time of the observation or the end of the rollup bucket. A null
+ * duration keeps them forever. Retention is applied at write time by the
+ * time to live (TTL) of the written rows; an observation whose retention has
+ * already passed is not written, though it is summarized by rollups. Rows
+ * written before a policy was set are kept.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class RetentionPolicy {
+
+	private final Duration raw;
+	private final Duration rollups;
+
+	public static final RetentionPolicy FOREVER = new RetentionPolicy(null,
+			null);
+	/**
+	 * The maximum time to live of Cassandra, i.e. 20 years, in seconds.
+	 */
+	public static final int MAX_TIME_TO_LIVE = 20 * 365 * 24 * 60 * 60;
+	/**
+	 * The time to live of rows that are not written.
+	 */
+	public static final int EXPIRED = -1;
+
+	public RetentionPolicy(Duration raw, Duration rollups) {
+		if (raw != null && raw.getMillis() <= 0)
+			throw new IllegalArgumentException(
+					"Retention must be positive [raw = " + raw + "]");
+		if (rollups != null && rollups.getMillis() <= 0)
+			throw new IllegalArgumentException(
+					"Retention must be positive [rollups = " + rollups + "]");
+
+		this.raw = raw;
+		this.rollups = rollups;
+	}
+
+	public Duration getRaw() {
+		return raw;
+	}
+
+	public Duration getRollups() {
+		return rollups;
+	}
+
+	/**
+	 * Returns the time to live, in seconds, of an observation at the time if
+	 * written now, 0 if kept forever, or {@link #EXPIRED}.
+	 */
+	public int getRawTimeToLive(long time, long now) {
+		return getTimeToLive(raw, time, now);
+	}
+
+	/**
+	 * Returns the time to live, in seconds, of a rollup bucket ending at the
+	 * time if written now, 0 if kept forever, or {@link #EXPIRED}.
+	 */
+	public int getRollupTimeToLive(long time, long now) {
+		return getTimeToLive(rollups, time, now);
+	}
+
+	private static int getTimeToLive(Duration retention, long time, long now) {
+		if (retention == null)
+			return 0;
+
+		long ret = (time + retention.getMillis() - now) / 1000;
+
+		if (ret <= 0)
+			return EXPIRED;
+
+		return (int) Math.min(ret, MAX_TIME_TO_LIVE);
+	}
+
+	@Override
+	public String toString() {
+		return "RetentionPolicy [raw = " + raw + "; rollups = " + rollups
+				+ "]";
+	}
+
+}
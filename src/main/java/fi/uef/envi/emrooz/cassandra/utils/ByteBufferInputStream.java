@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Title: ByteBufferInputStream
+ * </p>
+ * <p>
+ * Description: An input stream that reads the remaining bytes of a byte
+ * buffer without copying them. The position of the given buffer is not
+ * changed.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class ByteBufferInputStream extends InputStream {
+
+	private ByteBuffer buffer;
+
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		if (buffer == null)
+			throw new NullPointerException("[buffer = null]");
+
+		this.buffer = buffer.duplicate();
+	}
+
+	@Override
+	public int read() {
+		if (!buffer.hasRemaining())
+			return -1;
+
+		return buffer.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] bytes, int off, int len) {
+		if (len == 0)
+			return 0;
+
+		if (!buffer.hasRemaining())
+			return -1;
+
+		len = Math.min(len, buffer.remaining());
+		buffer.get(bytes, off, len);
+
+		return len;
+	}
+
+	@Override
+	public long skip(long n) {
+		if (n <= 0)
+			return 0;
+
+		int ret = (int) Math.min(n, buffer.remaining());
+		buffer.position(buffer.position() + ret);
+
+		return ret;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+
+}
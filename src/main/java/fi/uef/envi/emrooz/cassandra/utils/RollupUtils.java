@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_10;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_11;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_4;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_5;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_6;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_7;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_8;
+import static fi.uef.envi.emrooz.EmroozOptions.ROLLUPS_TABLE_ATTRIBUTE_9;
+
+import java.util.Date;
+
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+
+import com.datastax.driver.core.Row;
+
+import fi.uef.envi.emrooz.query.BucketSummary;
+import fi.uef.envi.emrooz.vocabulary.DUL;
+
+/**
+ * <p>
+ * Title: RollupUtils
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class RollupUtils {
+
+	public static final String SUMMARY_ATTRIBUTES = ROLLUPS_TABLE_ATTRIBUTE_4
+			+ "," + ROLLUPS_TABLE_ATTRIBUTE_5 + "," + ROLLUPS_TABLE_ATTRIBUTE_6
+			+ "," + ROLLUPS_TABLE_ATTRIBUTE_7 + "," + ROLLUPS_TABLE_ATTRIBUTE_8
+			+ "," + ROLLUPS_TABLE_ATTRIBUTE_9 + ","
+			+ ROLLUPS_TABLE_ATTRIBUTE_10 + "," + ROLLUPS_TABLE_ATTRIBUTE_11;
+
+	public static final String SUMMARY_ATTRIBUTE_DEFINITIONS = ROLLUPS_TABLE_ATTRIBUTE_4
+			+ " bigint,"
+			+ ROLLUPS_TABLE_ATTRIBUTE_5
+			+ " double,"
+			+ ROLLUPS_TABLE_ATTRIBUTE_6
+			+ " double,"
+			+ ROLLUPS_TABLE_ATTRIBUTE_7
+			+ " double,"
+			+ ROLLUPS_TABLE_ATTRIBUTE_8
+			+ " double,"
+			+ ROLLUPS_TABLE_ATTRIBUTE_9
+			+ " double,"
+			+ ROLLUPS_TABLE_ATTRIBUTE_10
+			+ " timestamp,"
+			+ ROLLUPS_TABLE_ATTRIBUTE_11 + " timestamp";
+
+	public static BucketSummary toBucketSummary(Row row) {
+		if (row == null)
+			return null;
+
+		return new BucketSummary(row.getLong(ROLLUPS_TABLE_ATTRIBUTE_4),
+				row.getDouble(ROLLUPS_TABLE_ATTRIBUTE_5),
+				row.getDouble(ROLLUPS_TABLE_ATTRIBUTE_6),
+				row.getDouble(ROLLUPS_TABLE_ATTRIBUTE_7),
+				row.getDouble(ROLLUPS_TABLE_ATTRIBUTE_8),
+				row.getDouble(ROLLUPS_TABLE_ATTRIBUTE_9), row.getDate(
+						ROLLUPS_TABLE_ATTRIBUTE_10).getTime(), row.getDate(
+						ROLLUPS_TABLE_ATTRIBUTE_11).getTime());
+	}
+
+	public static Object[] toValues(BucketSummary summary) {
+		return new Object[] { summary.getCount(), summary.getSum(),
+				summary.getMin(), summary.getMax(), summary.getFirst(),
+				summary.getLast(), new Date(summary.getFirstTime()),
+				new Date(summary.getLastTime()) };
+	}
+
+	/**
+	 * Returns the numeric value of an observation, i.e. the value of its
+	 * region data value statement, or null.
+	 */
+	public static Double getValue(Iterable<Statement> statements) {
+		for (Statement statement : statements) {
+			if (!statement.getPredicate().equals(DUL.hasRegionDataValue))
+				continue;
+
+			Value object = statement.getObject();
+
+			if (!(object instanceof Literal))
+				continue;
+
+			try {
+				return ((Literal) object).doubleValue();
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+
+		return null;
+	}
+
+}
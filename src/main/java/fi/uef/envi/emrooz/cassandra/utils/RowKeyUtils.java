@@ -7,8 +7,8 @@ package fi.uef.envi.emrooz.cassandra.utils;
 
 import static fi.uef.envi.emrooz.EmroozOptions.ROWKEY_DATETIME_PATTERN;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,20 +44,20 @@ import fi.uef.envi.emrooz.vocabulary.QUDTUnit;
 public class RowKeyUtils {
 
 	private DateTimeFormatter dtfRowKey;
-	private Map<URI, Map<URI, Map<URI, String>>> shaCacheSensor;
-	private Map<URI, Map<URI, Map<URI, Rollover>>> rolloverCacheSensor;
-	private Map<URI, String> shaCacheDataset;
-	private Map<URI, Rollover> rolloverCacheDataset;
+	private ConcurrentMap<URI, ConcurrentMap<URI, ConcurrentMap<URI, String>>> shaCacheSensor;
+	private ConcurrentMap<URI, ConcurrentMap<URI, ConcurrentMap<URI, Rollover>>> rolloverCacheSensor;
+	private ConcurrentMap<URI, String> shaCacheDataset;
+	private ConcurrentMap<URI, Rollover> rolloverCacheDataset;
 
 	private static final Logger log = Logger.getLogger(RowKeyUtils.class
 			.getName());
 
 	public RowKeyUtils() {
 		this.dtfRowKey = DateTimeFormat.forPattern(ROWKEY_DATETIME_PATTERN);
-		this.shaCacheSensor = new HashMap<URI, Map<URI, Map<URI, String>>>();
-		this.rolloverCacheSensor = new HashMap<URI, Map<URI, Map<URI, Rollover>>>();
-		this.shaCacheDataset = new HashMap<URI, String>();
-		this.rolloverCacheDataset = new HashMap<URI, Rollover>();
+		this.shaCacheSensor = new ConcurrentHashMap<URI, ConcurrentMap<URI, ConcurrentMap<URI, String>>>();
+		this.rolloverCacheSensor = new ConcurrentHashMap<URI, ConcurrentMap<URI, ConcurrentMap<URI, Rollover>>>();
+		this.shaCacheDataset = new ConcurrentHashMap<URI, String>();
+		this.rolloverCacheDataset = new ConcurrentHashMap<URI, Rollover>();
 	}
 
 	public String getRowKey(URI sensorId, URI propertyId, URI featureId,
@@ -104,6 +104,36 @@ public class RowKeyUtils {
 		return shaHex + "-" + date;
 	}
 
+	/**
+	 * Returns the key of a sensor observation series, i.e. the row key
+	 * without date.
+	 */
+	public String getSeriesKey(URI sensorId, URI propertyId, URI featureId) {
+		if (sensorId == null || propertyId == null || featureId == null) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe("Parameters cannot be null [sensorId = " + sensorId
+						+ "; propertyId = " + propertyId + "; featureId = "
+						+ featureId + "]");
+			return null;
+		}
+
+		return getShaHex(sensorId, propertyId, featureId);
+	}
+
+	/**
+	 * Returns the key of a dataset observation series, i.e. the row key
+	 * without date.
+	 */
+	public String getSeriesKey(URI datasetId) {
+		if (datasetId == null) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe("Parameters cannot be null [datasetId = null]");
+			return null;
+		}
+
+		return getShaHex(datasetId);
+	}
+
 	public String getRowKey(URI datasetId, QuantityValue frequency,
 			DateTime time) {
 		if (datasetId == null || frequency == null || time == null) {
@@ -230,12 +260,13 @@ public class RowKeyUtils {
 	}
 
 	private Rollover lookupRollover(URI sensorId, URI propertyId, URI featureId) {
-		Map<URI, Map<URI, Rollover>> m1 = rolloverCacheSensor.get(sensorId);
+		ConcurrentMap<URI, ConcurrentMap<URI, Rollover>> m1 = rolloverCacheSensor
+				.get(sensorId);
 
 		if (m1 == null)
 			return null;
 
-		Map<URI, Rollover> m2 = m1.get(propertyId);
+		ConcurrentMap<URI, Rollover> m2 = m1.get(propertyId);
 
 		if (m2 == null)
 			return null;
@@ -249,18 +280,20 @@ public class RowKeyUtils {
 
 	private void cacheRollover(URI sensorId, URI propertyId, URI featureId,
 			Rollover rollover) {
-		Map<URI, Map<URI, Rollover>> m1 = rolloverCacheSensor.get(sensorId);
+		ConcurrentMap<URI, ConcurrentMap<URI, Rollover>> m1 = rolloverCacheSensor
+				.get(sensorId);
 
 		if (m1 == null) {
-			m1 = new HashMap<URI, Map<URI, Rollover>>();
-			rolloverCacheSensor.put(sensorId, m1);
+			rolloverCacheSensor.putIfAbsent(sensorId,
+					new ConcurrentHashMap<URI, ConcurrentMap<URI, Rollover>>());
+			m1 = rolloverCacheSensor.get(sensorId);
 		}
 
-		Map<URI, Rollover> m2 = m1.get(propertyId);
+		ConcurrentMap<URI, Rollover> m2 = m1.get(propertyId);
 
 		if (m2 == null) {
-			m2 = new HashMap<URI, Rollover>();
-			m1.put(propertyId, m2);
+			m1.putIfAbsent(propertyId, new ConcurrentHashMap<URI, Rollover>());
+			m2 = m1.get(propertyId);
 		}
 
 		m2.put(featureId, rollover);
@@ -270,6 +303,26 @@ public class RowKeyUtils {
 		rolloverCacheDataset.put(datasetId, rollover);
 	}
 
+	/**
+	 * Returns the start of the partition that follows the partition of the
+	 * rollover containing the time.
+	 */
+	public static DateTime getNextRolloverTime(DateTime time, Rollover rollover) {
+		if (rollover.equals(Rollover.YEAR))
+			return time.year().roundFloorCopy().plusYears(1);
+		else if (rollover.equals(Rollover.MONTH))
+			return time.monthOfYear().roundFloorCopy().plusMonths(1);
+		else if (rollover.equals(Rollover.DAY))
+			return time.dayOfMonth().roundFloorCopy().plusDays(1);
+		else if (rollover.equals(Rollover.HOUR))
+			return time.hourOfDay().roundFloorCopy().plusHours(1);
+		else if (rollover.equals(Rollover.MINUTE))
+			return time.minuteOfHour().roundFloorCopy().plusMinutes(1);
+		else
+			throw new RuntimeException("Unsupported rollover [rollover = "
+					+ rollover + "]");
+	}
+
 	private String getDate(Rollover rollover, DateTime time) {
 		if (rollover.equals(Rollover.YEAR))
 			return dtfRowKey.print(time.year().roundFloorCopy());
@@ -313,12 +366,13 @@ public class RowKeyUtils {
 	}
 
 	private String lookupShaHex(URI sensorId, URI propertyId, URI featureId) {
-		Map<URI, Map<URI, String>> m1 = shaCacheSensor.get(sensorId);
+		ConcurrentMap<URI, ConcurrentMap<URI, String>> m1 = shaCacheSensor
+				.get(sensorId);
 
 		if (m1 == null)
 			return null;
 
-		Map<URI, String> m2 = m1.get(propertyId);
+		ConcurrentMap<URI, String> m2 = m1.get(propertyId);
 
 		if (m2 == null)
 			return null;
@@ -332,18 +386,20 @@ public class RowKeyUtils {
 
 	private void cacheShaHex(URI sensorId, URI propertyId, URI featureId,
 			String shahex) {
-		Map<URI, Map<URI, String>> m1 = shaCacheSensor.get(sensorId);
+		ConcurrentMap<URI, ConcurrentMap<URI, String>> m1 = shaCacheSensor
+				.get(sensorId);
 
 		if (m1 == null) {
-			m1 = new HashMap<URI, Map<URI, String>>();
-			shaCacheSensor.put(sensorId, m1);
+			shaCacheSensor.putIfAbsent(sensorId,
+					new ConcurrentHashMap<URI, ConcurrentMap<URI, String>>());
+			m1 = shaCacheSensor.get(sensorId);
 		}
 
-		Map<URI, String> m2 = m1.get(propertyId);
+		ConcurrentMap<URI, String> m2 = m1.get(propertyId);
 
 		if (m2 == null) {
-			m2 = new HashMap<URI, String>();
-			m1.put(propertyId, m2);
+			m1.putIfAbsent(propertyId, new ConcurrentHashMap<URI, String>());
+			m2 = m1.get(propertyId);
 		}
 
 		m2.put(featureId, shahex);
@@ -10,12 +10,20 @@ import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_3;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+import org.openrdf.model.Literal;
 import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
 import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFHandler;
 import org.openrdf.rio.RDFHandlerException;
@@ -23,10 +31,13 @@ import org.openrdf.rio.RDFParseException;
 import org.openrdf.rio.RDFParser;
 import org.openrdf.rio.Rio;
 import org.openrdf.rio.binary.BinaryRDFWriter;
+import org.openrdf.rio.helpers.RDFHandlerBase;
 import org.openrdf.rio.helpers.StatementCollector;
 
 import com.datastax.driver.core.Row;
-import com.datastax.driver.core.utils.Bytes;
+
+import fi.uef.envi.emrooz.entity.ssn.SensorObservation;
+import fi.uef.envi.emrooz.rdf.SensorObservationCollector;
 
 /**
  * <p>
@@ -72,39 +83,180 @@ public class StatementUtils {
 			return Collections.emptySet();
 
 		Set<Statement> ret = new HashSet<Statement>();
-		RDFParser rdfParser = Rio.createParser(RDFFormat.BINARY);
-		StatementCollector collector = new StatementCollector(ret);
-		rdfParser.setRDFHandler(collector);
 
-		toStatements(rdfParser, bytes);
+		toStatements(new ByteArrayInputStream(bytes), ret);
 
 		return Collections.unmodifiableSet(ret);
 	}
 
+	public static List<Statement> toStatements(ByteBuffer buffer)
+			throws RDFParseException, RDFHandlerException, IOException {
+		if (!buffer.hasRemaining())
+			return Collections.emptyList();
+
+		List<Statement> ret = new ArrayList<Statement>();
+
+		toStatements(new ByteBufferInputStream(buffer), ret);
+
+		return ret;
+	}
+
+	/**
+	 * Returns an iterator that decodes the statements of one row at a time,
+	 * directly from the buffers of the driver and as rows are consumed.
+	 * Statements are not deduplicated across rows.
+	 */
 	public static Iterator<Statement> toStatements(Iterator<Row> iterator)
 			throws RDFParseException, RDFHandlerException, IOException {
+		return toStatementIterator(getValues(iterator));
+	}
+
+	/**
+	 * Returns an iterator that decodes the statements of one value buffer at
+	 * a time, as buffers are consumed.
+	 */
+	public static Iterator<Statement> toStatementIterator(
+			Iterator<ByteBuffer> iterator) {
 		if (!iterator.hasNext()) {
 			return Collections.emptyIterator();
 		}
 
-		Set<Statement> ret = new HashSet<Statement>();
-		RDFParser rdfParser = Rio.createParser(RDFFormat.BINARY);
-		StatementCollector collector = new StatementCollector(ret);
-		rdfParser.setRDFHandler(collector);
-
-		while (iterator.hasNext()) {
-			toStatements(
-					rdfParser,
-					Bytes.getArray(iterator.next().getBytes(
-							DATA_TABLE_ATTRIBUTE_3)));
-		}
+		return new BufferIterator<Statement>(iterator) {
+			@Override
+			protected Iterator<Statement> decode(ByteBuffer buffer)
+					throws RDFParseException, RDFHandlerException, IOException {
+				return toStatements(buffer).iterator();
+			}
+		};
+	}
+
+	/**
+	 * Returns an iterator over the value buffers of rows. Buffers are backed
+	 * by the response frame, no copy.
+	 */
+	public static Iterator<ByteBuffer> getValues(final Iterator<Row> iterator) {
+		return new Iterator<ByteBuffer>() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
 
-		return Collections.unmodifiableSet(ret).iterator();
+			@Override
+			public ByteBuffer next() {
+				return iterator.next().getBytesUnsafe(DATA_TABLE_ATTRIBUTE_3);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Returns the object of the first statement with the given predicate and
+	 * a literal object, or null. Statements are not collected.
+	 */
+	public static Literal toLiteral(ByteBuffer buffer, final URI predicate)
+			throws RDFParseException, RDFHandlerException, IOException {
+		if (!buffer.hasRemaining())
+			return null;
+
+		final Literal[] ret = new Literal[1];
+
+		toStatements(new ByteBufferInputStream(buffer), new RDFHandlerBase() {
+			@Override
+			public void handleStatement(Statement statement) {
+				if (ret[0] != null)
+					return;
+
+				if (!statement.getPredicate().equals(predicate))
+					return;
+
+				if (statement.getObject() instanceof Literal)
+					ret[0] = (Literal) statement.getObject();
+			}
+		});
+
+		return ret[0];
 	}
-	
-	private static void toStatements(RDFParser parser, byte[] bytes)
+
+	public static Set<SensorObservation> toSensorObservations(ByteBuffer buffer)
 			throws RDFParseException, RDFHandlerException, IOException {
-		parser.parse(new ByteArrayInputStream(bytes), null);
+		if (!buffer.hasRemaining())
+			return Collections.emptySet();
+
+		SensorObservationCollector collector = new SensorObservationCollector();
+
+		toStatements(new ByteBufferInputStream(buffer), collector);
+
+		return collector.getSensorObservations();
+	}
+
+	private static void toStatements(InputStream in,
+			Collection<Statement> statements) throws RDFParseException,
+			RDFHandlerException, IOException {
+		toStatements(in, new StatementCollector(statements));
+	}
+
+	private static void toStatements(InputStream in, RDFHandler handler)
+			throws RDFParseException, RDFHandlerException, IOException {
+		RDFParser parser = parsers.get();
+
+		parser.setRDFHandler(handler);
+		parser.parse(in, "");
+	}
+
+	private static final ThreadLocal<RDFParser> parsers = new ThreadLocal<RDFParser>() {
+		@Override
+		protected RDFParser initialValue() {
+			return Rio.createParser(RDFFormat.BINARY);
+		}
+	};
+
+	private static abstract class BufferIterator<T> implements Iterator<T> {
+
+		private Iterator<ByteBuffer> buffers;
+		private Iterator<T> current;
+
+		private BufferIterator(Iterator<ByteBuffer> buffers) {
+			this.buffers = buffers;
+			this.current = Collections.emptyIterator();
+		}
+
+		protected abstract Iterator<T> decode(ByteBuffer buffer)
+				throws RDFParseException, RDFHandlerException, IOException;
+
+		@Override
+		public boolean hasNext() {
+			while (!current.hasNext()) {
+				if (!buffers.hasNext())
+					return false;
+
+				try {
+					current = decode(buffers.next());
+				} catch (RDFParseException | RDFHandlerException
+						| IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+			return true;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			return current.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
 	}
 
 }
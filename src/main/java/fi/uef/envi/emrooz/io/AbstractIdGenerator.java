@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.io;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+import fi.uef.envi.emrooz.api.IdGenerator;
+
+/**
+ * <p>
+ * Title: AbstractIdGenerator
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public abstract class AbstractIdGenerator implements IdGenerator {
+
+	protected static final ValueFactory vf = ValueFactoryImpl.getInstance();
+
+	protected static URI _id(URI ns, String localName) {
+		if (ns == null)
+			throw new NullPointerException("[ns = null]");
+
+		String s = ns.stringValue();
+
+		if (s.endsWith("#"))
+			return vf.createURI(s + localName);
+
+		return vf.createURI(s + "#" + localName);
+	}
+
+}
@@ -7,11 +7,15 @@ package fi.uef.envi.emrooz.io;
 
 import java.util.UUID;
 
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.openrdf.model.URI;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.model.impl.ValueFactoryImpl;
 
+import fi.uef.envi.emrooz.api.IdGenerator;
 import fi.uef.envi.emrooz.api.ObservationReader;
+import fi.uef.envi.emrooz.query.TimeBucketFunction;
 
 /**
  * <p>
@@ -34,6 +38,11 @@ public abstract class AbstractObservationReader<T> implements
 		ObservationReader<T> {
 
 	private URI ns;
+	private IdGenerator idGenerator;
+	protected static final String OBSERVATION = "obs";
+	protected static final String OUTPUT = "out";
+	protected static final String VALUE = "val";
+	protected static final String TIME = "time";
 	protected static final ValueFactory vf = ValueFactoryImpl.getInstance();
 	protected static final String LINE_SEPARATOR = System
 			.getProperty("line.separator");
@@ -43,6 +52,14 @@ public abstract class AbstractObservationReader<T> implements
 			throw new NullPointerException("[ns = null]");
 
 		this.ns = ns;
+		this.idGenerator = new RandomIdGenerator();
+	}
+
+	public void setIdGenerator(IdGenerator idGenerator) {
+		if (idGenerator == null)
+			throw new NullPointerException("[idGenerator = null]");
+
+		this.idGenerator = idGenerator;
 	}
 
 	@Override
@@ -55,6 +72,50 @@ public abstract class AbstractObservationReader<T> implements
 		return _id(ns);
 	}
 
+	protected URI _id(String series, DateTime time, String role) {
+		return idGenerator.generate(ns, series, time, role);
+	}
+
+	protected static String _series(URI... ids) {
+		StringBuffer sb = new StringBuffer();
+
+		for (URI id : ids) {
+			if (sb.length() > 0)
+				sb.append("-");
+
+			sb.append(id.stringValue());
+		}
+
+		return sb.toString();
+	}
+
+	protected static IdGenerator _idGenerator(String name) {
+		if (name.equals("random"))
+			return new RandomIdGenerator();
+		if (name.equals("counter"))
+			return new CounterIdGenerator();
+		if (name.equals("deterministic"))
+			return new DeterministicIdGenerator();
+
+		throw new IllegalArgumentException(
+				"Unknown id generator, expected random, counter or deterministic [name = "
+						+ name + "]");
+	}
+
+	/**
+	 * Returns the duration of the ISO 8601 period (e.g. PT1H).
+	 */
+	protected static Duration _duration(String period) {
+		long ret = TimeBucketFunction.getDuration(period);
+
+		if (ret <= 0)
+			throw new IllegalArgumentException(
+					"Invalid period, expected a positive ISO 8601 period (e.g. PT1H) [period = "
+							+ period + "]");
+
+		return new Duration(ret);
+	}
+
 	protected static URI _id(URI ns) {
 		String s = ns.stringValue();
 
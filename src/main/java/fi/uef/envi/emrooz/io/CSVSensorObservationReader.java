@@ -20,6 +20,7 @@ import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.sail.memory.MemoryStore;
 
 import fi.uef.envi.emrooz.Emrooz;
+import fi.uef.envi.emrooz.api.IdGenerator;
 import fi.uef.envi.emrooz.cassandra.CassandraDataStore;
 import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
 import fi.uef.envi.emrooz.entity.qudt.Unit;
@@ -59,6 +60,7 @@ public class CSVSensorObservationReader extends
 	private URI propertyId;
 	private URI featureId;
 	private URI unitId;
+	private String series;
 	private SensorObservation next;
 
 	private static final DateTimeFormatter dtf = ISODateTimeFormat.dateTime()
@@ -85,6 +87,7 @@ public class CSVSensorObservationReader extends
 		this.propertyId = propertyId;
 		this.featureId = featureId;
 		this.unitId = unitId;
+		this.series = _series(sensorId, propertyId, featureId);
 
 		try {
 			lines = FileUtils.readLines(file).iterator();
@@ -134,10 +137,12 @@ public class CSVSensorObservationReader extends
 				continue;
 			}
 
-			next = new SensorObservation(_id(), new Sensor(sensorId),
-					new Property(propertyId), new FeatureOfInterest(featureId),
-					new SensorOutput(_id(), new QuantityValue(_id(), value,
-							new Unit(unitId))), new Instant(_id(), time));
+			next = new SensorObservation(_id(series, time, OBSERVATION),
+					new Sensor(sensorId), new Property(propertyId),
+					new FeatureOfInterest(featureId), new SensorOutput(_id(
+							series, time, OUTPUT), new QuantityValue(_id(
+							series, time, VALUE), value, new Unit(unitId))),
+					new Instant(_id(series, time, TIME), time));
 		}
 
 		if (next == null)
@@ -164,6 +169,7 @@ public class CSVSensorObservationReader extends
 		URI unitId = null;
 		File knowledgeStoreFile = null;
 		String dataStoreHost = "localhost";
+		IdGenerator idGenerator = new RandomIdGenerator();
 
 		for (int i = 0; i < args.length; i++) {
 			if (args[i].equals("-f"))
@@ -184,6 +190,8 @@ public class CSVSensorObservationReader extends
 				knowledgeStoreFile = new File(args[++i]);
 			if (args[i].equals("-ds"))
 				dataStoreHost = args[++i];
+			if (args[i].equals("-id"))
+				idGenerator = _idGenerator(args[++i]);
 		}
 
 		if (file == null || ns == null || sensorId == null
@@ -209,11 +217,13 @@ public class CSVSensorObservationReader extends
 
 		CSVSensorObservationReader reader = new CSVSensorObservationReader(
 				file, ns, sensorId, propertyId, featureId, unitId);
+		reader.setIdGenerator(idGenerator);
 
 		long numOfObservations = 0;
 
 		while (reader.hasNext()) {
 			e.add(reader.next());
+			numOfObservations++;
 		}
 
 		long end = System.currentTimeMillis();
@@ -246,6 +256,8 @@ public class CSVSensorObservationReader extends
 				+ LINE_SEPARATOR);
 		sb.append("  -ds  [host name]       Data store host name (default: localhost)"
 				+ LINE_SEPARATOR);
+		sb.append("  -id  [strategy]        Identifier generation, random, counter or deterministic (default: random)"
+				+ LINE_SEPARATOR);
 
 		System.out.println(sb);
 
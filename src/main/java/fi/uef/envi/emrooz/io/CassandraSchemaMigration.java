@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.io;
+
+import java.io.File;
+
+import fi.uef.envi.emrooz.cassandra.CassandraConfiguration;
+import fi.uef.envi.emrooz.cassandra.CassandraDataStore;
+
+/**
+ * <p>
+ * Title: CassandraSchemaMigration
+ * </p>
+ * <p>
+ * Description: Migrates the keyspace of a Cassandra data store to the
+ * configured schema, i.e. creates the missing tables and sets the compaction
+ * strategy of the data table.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class CassandraSchemaMigration {
+
+	private static final String LINE_SEPARATOR = System
+			.getProperty("line.separator");
+
+	public static void main(String[] args) {
+		String dataStoreHost = "localhost";
+		File dataStoreConfigurationFile = null;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-ds"))
+				dataStoreHost = args[++i];
+			else if (args[i].equals("-dc"))
+				dataStoreConfigurationFile = new File(args[++i]);
+			else
+				help();
+		}
+
+		CassandraConfiguration configuration = (dataStoreConfigurationFile == null) ? new CassandraConfiguration(
+				dataStoreHost) : CassandraConfiguration
+				.load(dataStoreConfigurationFile);
+		CassandraDataStore ds = new CassandraDataStore(configuration);
+
+		try {
+			ds.migrate();
+		} finally {
+			ds.close();
+		}
+
+		System.out.println("Migrated data table [compaction = "
+				+ configuration.getDataCompaction() + "]");
+	}
+
+	private static void help() {
+		StringBuffer sb = new StringBuffer();
+
+		sb.append(CassandraSchemaMigration.class.getName() + LINE_SEPARATOR);
+		sb.append("Arguments:" + LINE_SEPARATOR);
+		sb.append("  -ds [host name]  Data store host name (default: localhost)"
+				+ LINE_SEPARATOR);
+		sb.append("  -dc [file name]  Data store configuration file, used instead of -ds (e.g. cassandra.properties)"
+				+ LINE_SEPARATOR);
+
+		System.out.println(sb);
+
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * <p>
+ * Title: Checkpoint
+ * </p>
+ * <p>
+ * Description: Records the input files that have been loaded completely, such
+ * that an interrupted load can resume without loading them again. The
+ * checkpoint is a text file with one line per completed file, i.e. the file
+ * length and the absolute path separated by a tab. A file counts as completed
+ * only if its length is unchanged. Lines are appended and synced to disk as
+ * files complete, such that the checkpoint survives a crash of the loader.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class Checkpoint {
+
+	private final File file;
+	private final Set<String> completed;
+
+	private static final String SEPARATOR = "\t";
+	private static final String LINE_SEPARATOR = System
+			.getProperty("line.separator");
+	private static final Logger log = Logger.getLogger(Checkpoint.class
+			.getName());
+
+	public Checkpoint(File file) {
+		if (file == null)
+			throw new NullPointerException("[file = null]");
+
+		this.file = file;
+		this.completed = new HashSet<String>();
+
+		if (!file.exists())
+			return;
+
+		try {
+			for (String line : FileUtils.readLines(file,
+					StandardCharsets.UTF_8)) {
+				// A line cut short by a crash is not a completed file
+				if (line.indexOf(SEPARATOR) > 0)
+					completed.add(line);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (log.isLoggable(Level.INFO))
+			log.info("Read checkpoint [file = " + file + "; completed = "
+					+ completed.size() + "]");
+	}
+
+	public synchronized boolean isCompleted(File input) {
+		return completed.contains(getKey(input));
+	}
+
+	/**
+	 * Records the input file as completed. The caller ensures that the
+	 * observations of the file are durable before.
+	 */
+	public synchronized void complete(File input) {
+		String key = getKey(input);
+
+		if (!completed.add(key))
+			return;
+
+		try (FileOutputStream out = new FileOutputStream(file, true)) {
+			out.write((key + LINE_SEPARATOR).getBytes(StandardCharsets.UTF_8));
+			out.getFD().sync();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public synchronized int size() {
+		return completed.size();
+	}
+
+	private String getKey(File input) {
+		if (input == null)
+			throw new NullPointerException("[input = null]");
+
+		return input.length() + SEPARATOR + input.getAbsolutePath();
+	}
+
+}
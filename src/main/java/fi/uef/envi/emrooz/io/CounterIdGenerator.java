@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.io;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.URI;
+
+/**
+ * <p>
+ * Title: CounterIdGenerator
+ * </p>
+ * <p>
+ * Description: Generates identifiers from thread-local counters. The local
+ * name consists of a prefix that is random for each generator instance, a
+ * number for the thread, and the thread's counter. Threads do not contend
+ * for a shared random source. Series, time and role are ignored.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class CounterIdGenerator extends AbstractIdGenerator {
+
+	private final String prefix;
+	private final AtomicLong threads;
+	private final ThreadLocal<long[]> counters;
+
+	public CounterIdGenerator() {
+		this.prefix = Long.toString(UUID.randomUUID()
+				.getMostSignificantBits() & Long.MAX_VALUE, 36);
+		this.threads = new AtomicLong();
+		this.counters = new ThreadLocal<long[]>() {
+			@Override
+			protected long[] initialValue() {
+				return new long[] { threads.getAndIncrement(), 0 };
+			}
+		};
+	}
+
+	@Override
+	public URI generate(URI ns, String series, DateTime time, String role) {
+		long[] counter = counters.get();
+
+		return _id(ns,
+				prefix + "-" + Long.toString(counter[0], 36) + "-"
+						+ Long.toString(counter[1]++, 36));
+	}
+
+}
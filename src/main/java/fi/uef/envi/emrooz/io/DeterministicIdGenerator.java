@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.io;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.URI;
+
+/**
+ * <p>
+ * Title: DeterministicIdGenerator
+ * </p>
+ * <p>
+ * Description: Generates identifiers that are a function of series, time and
+ * role. The local name consists of the role, a hash of the series, and the
+ * time in milliseconds since epoch. Loading the same observations twice thus
+ * results in the same identifiers, which makes re-ingestion idempotent. There
+ * must not be more than one entity of a role per series and millisecond.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class DeterministicIdGenerator extends AbstractIdGenerator {
+
+	private final Map<String, String> hashes;
+
+	public DeterministicIdGenerator() {
+		this.hashes = new ConcurrentHashMap<String, String>();
+	}
+
+	@Override
+	public URI generate(URI ns, String series, DateTime time, String role) {
+		if (series == null || time == null || role == null)
+			throw new NullPointerException("[series = " + series
+					+ "; time = " + time + "; role = " + role + "]");
+
+		return _id(ns, role + "-" + hash(series) + "-"
+				+ Long.toString(time.getMillis(), 36));
+	}
+
+	private String hash(String series) {
+		String ret = hashes.get(series);
+
+		if (ret != null)
+			return ret;
+
+		ret = Long.toString(
+				UUID.nameUUIDFromBytes(series.getBytes(StandardCharsets.UTF_8))
+						.getMostSignificantBits() & Long.MAX_VALUE, 36);
+
+		hashes.put(series, ret);
+
+		return ret;
+	}
+
+}
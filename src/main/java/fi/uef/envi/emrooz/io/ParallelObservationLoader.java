@@ -0,0 +1,653 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FilenameUtils;
+import org.joda.time.Duration;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+import org.openrdf.sail.nativerdf.NativeStore;
+
+import fi.uef.envi.emrooz.Emrooz;
+import fi.uef.envi.emrooz.api.DataStore;
+import fi.uef.envi.emrooz.api.IdGenerator;
+import fi.uef.envi.emrooz.api.ObservationReader;
+import fi.uef.envi.emrooz.cassandra.CassandraConfiguration;
+import fi.uef.envi.emrooz.cassandra.CassandraDataStore;
+import fi.uef.envi.emrooz.cassandra.RetentionPolicy;
+import fi.uef.envi.emrooz.entity.qb.DatasetObservation;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.qudt.Unit;
+import fi.uef.envi.emrooz.entity.ssn.FeatureOfInterest;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.entity.ssn.MeasurementCapability;
+import fi.uef.envi.emrooz.entity.ssn.Property;
+import fi.uef.envi.emrooz.entity.ssn.Sensor;
+import fi.uef.envi.emrooz.entity.ssn.SensorObservation;
+import fi.uef.envi.emrooz.io.licor.GHGDatasetObservationReader;
+import fi.uef.envi.emrooz.io.licor.GHGSensorObservationReader;
+import fi.uef.envi.emrooz.local.LocalDataStore;
+import fi.uef.envi.emrooz.sesame.SesameKnowledgeStore;
+import fi.uef.envi.emrooz.vocabulary.QUDTUnit;
+
+/**
+ * <p>
+ * Title: ParallelObservationLoader
+ * </p>
+ * <p>
+ * Description: Loads observations from input files with a number of workers
+ * that add observations concurrently to a single Emrooz instance. Input files
+ * are the unit of work: workers take the next file from a shared queue once
+ * done with the previous file, such that large and small files are balanced.
+ * The number of observations loaded per second and the megabytes of input
+ * files completed per second are reported at regular intervals. With a
+ * checkpoint, each completed file is recorded once its observations are
+ * flushed to the data store, and files recorded by an earlier, interrupted
+ * load are skipped. An interrupted file is loaded again from its start;
+ * whether its observations are then stored once depends on the data store,
+ * e.g. Cassandra replaces them and computes rollups anew, while the local
+ * data store appends them. Subclasses load a single file.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public abstract class ParallelObservationLoader {
+
+	private final Emrooz emrooz;
+	private final int workers;
+	private Checkpoint checkpoint = null;
+	private long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+	private final AtomicLong observations;
+	private final AtomicLong bytes;
+	private final AtomicInteger completedFiles;
+	private final AtomicInteger failedFiles;
+
+	private static final long DEFAULT_PROGRESS_INTERVAL = 10000;
+	private static final double MEGABYTE = 1024 * 1024;
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+	private static final Logger log = Logger
+			.getLogger(ParallelObservationLoader.class.getName());
+
+	public ParallelObservationLoader(Emrooz emrooz, int workers) {
+		if (emrooz == null)
+			throw new NullPointerException("[emrooz = null]");
+		if (workers < 1)
+			throw new IllegalArgumentException("[workers = " + workers + "]");
+
+		this.emrooz = emrooz;
+		this.workers = workers;
+		this.observations = new AtomicLong();
+		this.bytes = new AtomicLong();
+		this.completedFiles = new AtomicInteger();
+		this.failedFiles = new AtomicInteger();
+	}
+
+	/**
+	 * Sets the checkpoint of completed files, or null for none.
+	 */
+	public void setCheckpoint(Checkpoint checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Sets the interval, in milliseconds, at which progress is reported. A
+	 * non-positive interval disables progress reports.
+	 */
+	public void setProgressInterval(long progressInterval) {
+		this.progressInterval = progressInterval;
+	}
+
+	/**
+	 * Loads the files and returns the number of observations loaded. Files
+	 * that fail to load are logged and not recorded in the checkpoint.
+	 */
+	public long load(List<File> files) {
+		if (files == null)
+			throw new NullPointerException("[files = null]");
+
+		final Queue<File> queue = new ConcurrentLinkedQueue<File>();
+
+		for (File file : files) {
+			if (checkpoint != null && checkpoint.isCompleted(file)) {
+				if (log.isLoggable(Level.INFO))
+					log.info("Skipped completed file [file = " + file + "]");
+				continue;
+			}
+
+			queue.add(file);
+		}
+
+		final int total = queue.size();
+		final long start = System.currentTimeMillis();
+		ScheduledExecutorService reporter = null;
+
+		if (progressInterval > 0) {
+			reporter = Executors.newSingleThreadScheduledExecutor();
+			reporter.scheduleAtFixedRate(new Runnable() {
+				private long lastTime = start;
+				private long lastObservations = 0;
+
+				@Override
+				public void run() {
+					long time = System.currentTimeMillis();
+					long n = observations.get();
+
+					AbstractObservationReader.status(progress(start, time, n,
+							n - lastObservations, time - lastTime, total));
+
+					lastTime = time;
+					lastObservations = n;
+				}
+			}, progressInterval, progressInterval, TimeUnit.MILLISECONDS);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+				workers, Math.max(1, total)));
+
+		for (int i = 0; i < workers; i++) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					File file;
+
+					while ((file = queue.poll()) != null)
+						loadFile(file);
+				}
+			});
+		}
+
+		executor.shutdown();
+
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		} finally {
+			if (reporter != null)
+				reporter.shutdownNow();
+		}
+
+		emrooz.flush();
+
+		return observations.get();
+	}
+
+	public long getObservations() {
+		return observations.get();
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	public int getCompletedFiles() {
+		return completedFiles.get();
+	}
+
+	public int getFailedFiles() {
+		return failedFiles.get();
+	}
+
+	protected Emrooz getEmrooz() {
+		return emrooz;
+	}
+
+	/**
+	 * Loads the observations of the file. Implementations call
+	 * {@link #loaded(long)} as observations are added.
+	 */
+	protected abstract void load(File file);
+
+	protected void loaded(long numOfObservations) {
+		observations.addAndGet(numOfObservations);
+	}
+
+	protected void loadSensorObservations(
+			ObservationReader<SensorObservation> reader) {
+		while (reader.hasNext()) {
+			emrooz.add(reader.next());
+			loaded(1);
+		}
+	}
+
+	protected void loadDatasetObservations(
+			ObservationReader<DatasetObservation> reader) {
+		while (reader.hasNext()) {
+			emrooz.add(reader.next());
+			loaded(1);
+		}
+	}
+
+	private void loadFile(File file) {
+		if (log.isLoggable(Level.INFO))
+			log.info("Processing file [file = " + file + "]");
+
+		try {
+			load(file);
+
+			if (checkpoint != null) {
+				// Observations buffered by the data store need to be durable
+				// before the file is recorded as completed
+				emrooz.flush();
+				checkpoint.complete(file);
+			}
+
+			bytes.addAndGet(file.length());
+			completedFiles.incrementAndGet();
+		} catch (RuntimeException e) {
+			failedFiles.incrementAndGet();
+
+			if (log.isLoggable(Level.SEVERE))
+				log.log(Level.SEVERE, "Failed to load file [file = " + file
+						+ "]", e);
+		}
+	}
+
+	private String progress(long start, long time, long numOfObservations,
+			long intervalObservations, long interval, int total) {
+		long elapsed = Math.max(1, time - start);
+
+		return "Loaded " + numOfObservations + " observations ["
+				+ (intervalObservations * 1000 / Math.max(1, interval))
+				+ " obs/s; " + (numOfObservations * 1000 / elapsed)
+				+ " obs/s average; "
+				+ String.format("%.2f", bytes.get() / MEGABYTE * 1000 / elapsed)
+				+ " MB/s; files " + completedFiles.get() + "/" + total
+				+ (failedFiles.get() > 0 ? " (" + failedFiles.get()
+						+ " failed)" : "") + "]";
+	}
+
+	/**
+	 * Returns the files, with directories replaced by the files they contain
+	 * in name order. If the extension is not null, only files with the
+	 * extension are returned.
+	 */
+	private static List<File> listFiles(List<File> files, String extension) {
+		List<File> ret = new ArrayList<File>();
+
+		for (File file : files) {
+			File[] lof = file.isDirectory() ? file.listFiles()
+					: new File[] { file };
+
+			if (lof == null)
+				continue;
+
+			Arrays.sort(lof);
+
+			for (File f : lof) {
+				if (!f.isFile())
+					continue;
+				if (extension != null
+						&& !FilenameUtils.getExtension(f.getName()).equals(
+								extension))
+					continue;
+
+				ret.add(f);
+			}
+		}
+
+		return ret;
+	}
+
+	public static void main(String[] args) {
+		if (args.length == 0)
+			help();
+
+		String type = null;
+		List<File> files = new ArrayList<File>();
+		int workers = Runtime.getRuntime().availableProcessors();
+		File checkpointFile = null;
+		long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+		URI ns = null;
+		URI sensorId = null;
+		URI propertyId = null;
+		URI featureId = null;
+		Double samplingFrequency = null;
+		URI unitId = null;
+		URI carbonDioxideAndWaterAnalyzerId = null;
+		URI methaneAnalyzerId = null;
+		URI gasDatasetId = null;
+		URI biometDatasetId = null;
+		int batchSize = 1000;
+		List<Duration> rollups = new ArrayList<Duration>();
+		RetentionPolicy retention = null;
+		File knowledgeStoreFile = null;
+		String dataStoreHost = "localhost";
+		File dataStoreConfigurationFile = null;
+		boolean bulkLoad = false;
+		File dataStoreDirectory = null;
+		IdGenerator idGenerator = new RandomIdGenerator();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-t"))
+				type = args[++i];
+			if (args[i].equals("-f"))
+				files.add(new File(args[++i]));
+			if (args[i].equals("-w"))
+				workers = Integer.valueOf(args[++i]);
+			if (args[i].equals("-c"))
+				checkpointFile = new File(args[++i]);
+			if (args[i].equals("-p"))
+				progressInterval = Long.valueOf(args[++i]) * 1000;
+			if (args[i].equals("-ns"))
+				ns = vf.createURI(args[++i]);
+			if (args[i].equals("-sid"))
+				sensorId = vf.createURI(args[++i]);
+			if (args[i].equals("-pid"))
+				propertyId = vf.createURI(args[++i]);
+			if (args[i].equals("-fid"))
+				featureId = vf.createURI(args[++i]);
+			if (args[i].equals("-sf"))
+				samplingFrequency = Double.valueOf(args[++i]);
+			if (args[i].equals("-uid"))
+				unitId = vf.createURI(args[++i]);
+			if (args[i].equals("-ca"))
+				carbonDioxideAndWaterAnalyzerId = vf.createURI(args[++i]);
+			if (args[i].equals("-ma"))
+				methaneAnalyzerId = vf.createURI(args[++i]);
+			if (args[i].equals("-gd"))
+				gasDatasetId = vf.createURI(args[++i]);
+			if (args[i].equals("-bd"))
+				biometDatasetId = vf.createURI(args[++i]);
+			if (args[i].equals("-b"))
+				batchSize = Integer.valueOf(args[++i]);
+			if (args[i].equals("-r")) {
+				for (String period : args[++i].split(","))
+					rollups.add(AbstractObservationReader._duration(period));
+			}
+			if (args[i].equals("-rp")) {
+				String[] periods = args[++i].split(",");
+
+				if (periods.length != 2)
+					help();
+
+				retention = new RetentionPolicy(_retention(periods[0]),
+						_retention(periods[1]));
+			}
+			if (args[i].equals("-ks"))
+				knowledgeStoreFile = new File(args[++i]);
+			if (args[i].equals("-ds"))
+				dataStoreHost = args[++i];
+			if (args[i].equals("-dc"))
+				dataStoreConfigurationFile = new File(args[++i]);
+			if (args[i].equals("-id"))
+				idGenerator = _idGenerator(args[++i]);
+			if (args[i].equals("-bl"))
+				bulkLoad = true;
+			if (args[i].equals("-dd"))
+				dataStoreDirectory = new File(args[++i]);
+		}
+
+		if (type == null || files.isEmpty() || knowledgeStoreFile == null
+				|| workers < 1)
+			help();
+
+		// Rollups, retention and bulk loads are maintained by Cassandra only
+		if (dataStoreDirectory != null
+				&& (!rollups.isEmpty() || retention != null || bulkLoad))
+			throw new IllegalArgumentException(
+					"Arguments -r, -rp and -bl cannot be used with a local data store [dataStoreDirectory = "
+							+ dataStoreDirectory + "]");
+
+		CassandraConfiguration dataStoreConfiguration = (dataStoreConfigurationFile == null) ? new CassandraConfiguration(
+				dataStoreHost) : CassandraConfiguration
+				.load(dataStoreConfigurationFile);
+		SesameKnowledgeStore ks;
+		ParallelObservationLoader loader;
+		final IdGenerator ig = idGenerator;
+
+		if (type.equals("csv")) {
+			if (ns == null || sensorId == null || propertyId == null
+					|| featureId == null || samplingFrequency == null
+					|| unitId == null)
+				help();
+
+			ks = new SesameKnowledgeStore(new SailRepository(new MemoryStore(
+					knowledgeStoreFile)));
+			ks.addSensor(new Sensor(sensorId, new Property(propertyId,
+					new FeatureOfInterest(featureId)),
+					new MeasurementCapability(_id(ns), new Frequency(_id(ns),
+							new QuantityValue(_id(ns), samplingFrequency,
+									new Unit(QUDTUnit.Hertz))))));
+
+			final URI fns = ns;
+			final URI fsid = sensorId;
+			final URI fpid = propertyId;
+			final URI ffid = featureId;
+			final URI fuid = unitId;
+
+			loader = new ParallelObservationLoader(new Emrooz(ks,
+					createDataStore(dataStoreConfiguration, dataStoreDirectory,
+							rollups, retention, bulkLoad)), workers) {
+				@Override
+				protected void load(File file) {
+					CSVSensorObservationReader reader = new CSVSensorObservationReader(
+							file, fns, fsid, fpid, ffid, fuid);
+					reader.setIdGenerator(ig);
+					loadSensorObservations(reader);
+				}
+			};
+			files = listFiles(files, null);
+		} else if (type.equals("ghg")) {
+			if (ns == null || carbonDioxideAndWaterAnalyzerId == null
+					|| methaneAnalyzerId == null)
+				help();
+
+			final Sensor carbonDioxideAndWaterAnalyzer = GHGSensorObservationReader
+					.createAnalyzer(ns, carbonDioxideAndWaterAnalyzerId);
+			final Sensor methaneAnalyzer = GHGSensorObservationReader
+					.createAnalyzer(ns, methaneAnalyzerId);
+
+			ks = new SesameKnowledgeStore(new SailRepository(new NativeStore(
+					knowledgeStoreFile)));
+			ks.addSensor(carbonDioxideAndWaterAnalyzer);
+			ks.addSensor(methaneAnalyzer);
+
+			final URI fns = ns;
+
+			loader = new ParallelObservationLoader(new Emrooz(ks,
+					createDataStore(dataStoreConfiguration, dataStoreDirectory,
+							rollups, retention, bulkLoad)), workers) {
+				@Override
+				protected void load(File file) {
+					GHGSensorObservationReader reader = new GHGSensorObservationReader(
+							file, fns, carbonDioxideAndWaterAnalyzer,
+							methaneAnalyzer);
+					reader.setIdGenerator(ig);
+					loadSensorObservations(reader);
+				}
+			};
+			files = listFiles(files, "ghg");
+		} else if (type.equals("ghg-dataset")) {
+			if (ns == null || gasDatasetId == null || biometDatasetId == null)
+				help();
+
+			ks = new SesameKnowledgeStore(new SailRepository(new NativeStore(
+					knowledgeStoreFile)));
+			ks.addDataset(GHGDatasetObservationReader.createGasDataset(ns,
+					gasDatasetId));
+			ks.addDataset(GHGDatasetObservationReader.createBiometDataset(ns,
+					biometDatasetId));
+
+			final URI fns = ns;
+			final URI fgd = gasDatasetId;
+			final URI fbd = biometDatasetId;
+
+			loader = new ParallelObservationLoader(new Emrooz(ks,
+					createDataStore(dataStoreConfiguration, dataStoreDirectory,
+							rollups, retention, bulkLoad)), workers) {
+				@Override
+				protected void load(File file) {
+					GHGDatasetObservationReader reader = new GHGDatasetObservationReader(
+							file, fns, fgd, fbd);
+					reader.setIdGenerator(ig);
+					loadDatasetObservations(reader);
+				}
+			};
+			files = listFiles(files, "ghg");
+		} else if (type.equals("rdf")) {
+			ks = new SesameKnowledgeStore(new SailRepository(new MemoryStore(
+					knowledgeStoreFile)));
+
+			final int fbs = batchSize;
+
+			loader = new ParallelObservationLoader(new Emrooz(ks,
+					createDataStore(dataStoreConfiguration, dataStoreDirectory,
+							rollups, retention, bulkLoad)), workers) {
+				@Override
+				protected void load(File file) {
+					// RDF loaders keep the statements of open observations
+					// and are thus created per file
+					loaded(new RDFSensorObservationLoader(getEmrooz(), fbs)
+							.load(file));
+				}
+			};
+			files = listFiles(files, null);
+		} else {
+			help();
+			return;
+		}
+
+		if (checkpointFile != null)
+			loader.setCheckpoint(new Checkpoint(checkpointFile));
+
+		loader.setProgressInterval(progressInterval);
+
+		long start = System.currentTimeMillis();
+
+		long numOfObservations = loader.load(files);
+
+		long end = System.currentTimeMillis();
+
+		loader.getEmrooz().close();
+
+		AbstractObservationReader.status(loader.progress(start, end,
+				numOfObservations, numOfObservations, end - start,
+				files.size()));
+		AbstractObservationReader.summary(start, end, numOfObservations,
+				(dataStoreDirectory == null) ? dataStoreConfiguration
+						.getContactPoints().toString() : dataStoreDirectory
+						.toString());
+	}
+
+	private static URI _id(URI ns) {
+		return AbstractObservationReader._id(ns);
+	}
+
+	private static IdGenerator _idGenerator(String name) {
+		return AbstractObservationReader._idGenerator(name);
+	}
+
+	private static DataStore createDataStore(
+			CassandraConfiguration configuration, File directory,
+			List<Duration> rollups, RetentionPolicy retention, boolean bulkLoad) {
+		if (directory != null)
+			return new LocalDataStore(directory);
+
+		CassandraDataStore ret = new CassandraDataStore(configuration);
+
+		ret.setRollupResolutions(rollups.toArray(new Duration[rollups.size()]));
+		ret.setRetentionPolicy((retention == null) ? RetentionPolicy.FOREVER
+				: retention);
+		ret.setBulkLoad(bulkLoad);
+
+		return ret;
+	}
+
+	private static Duration _retention(String period) {
+		if (period.equals("-"))
+			return null;
+
+		return AbstractObservationReader._duration(period);
+	}
+
+	private static void help() {
+		StringBuffer sb = new StringBuffer();
+		String ls = AbstractObservationReader.LINE_SEPARATOR;
+
+		sb.append(ParallelObservationLoader.class.getName() + ls);
+		sb.append("Arguments:" + ls);
+		sb.append("  -t   [type]            Input type, csv, ghg, ghg-dataset or rdf"
+				+ ls);
+		sb.append("  -f   [file name]       Input file or directory; repeatable"
+				+ ls);
+		sb.append("  -w   [number]          Number of workers (default: number of processors)"
+				+ ls);
+		sb.append("  -c   [file name]       Checkpoint file of completed input files, for resuming"
+				+ ls);
+		sb.append("  -p   [seconds]         Progress report interval (default: "
+				+ (DEFAULT_PROGRESS_INTERVAL / 1000) + ", 0 disables)" + ls);
+		sb.append("  -ns  [URI]             Name space for observations (csv, ghg, ghg-dataset)"
+				+ ls);
+		sb.append("  -sid [URI]             The URI identifier for the sensor (csv)"
+				+ ls);
+		sb.append("  -pid [URI]             The URI identifier for the property (csv)"
+				+ ls);
+		sb.append("  -fid [URI]             The URI identifier for the feature (csv)"
+				+ ls);
+		sb.append("  -sf  [number]          The sampling frequency [Hz] (csv)"
+				+ ls);
+		sb.append("  -uid [URI]             The URI identifier for the unit (csv)"
+				+ ls);
+		sb.append("  -ca  [URI]             The URI identifier of the CO2/H2O analyzer (ghg)"
+				+ ls);
+		sb.append("  -ma  [URI]             The URI identifier of the CH4 analyzer (ghg)"
+				+ ls);
+		sb.append("  -gd  [URI]             The URI identifier for the gas dataset (ghg-dataset)"
+				+ ls);
+		sb.append("  -bd  [URI]             The URI identifier for the biomet dataset (ghg-dataset)"
+				+ ls);
+		sb.append("  -b   [number]          Number of observations added per batch (rdf)"
+				+ ls);
+		sb.append("  -r   [durations]       Rollup resolutions maintained, not with -dd (e.g. PT1M,PT1H,P1D)"
+				+ ls);
+		sb.append("  -rp  [durations]       Retention of raw observations and of rollups, - keeps forever, not with -dd (e.g. P30D,-)"
+				+ ls);
+		sb.append("  -ks  [directory name]  Knowledge store data directory (e.g. /tmp/ks)"
+				+ ls);
+		sb.append("  -ds  [host name]       Data store host name (default: localhost)"
+				+ ls);
+		sb.append("  -dc  [file name]       Data store configuration file, used instead of -ds (e.g. cassandra.properties)"
+				+ ls);
+		sb.append("  -id  [strategy]        Identifier generation, random, counter or deterministic (default: random)"
+				+ ls);
+		sb.append("  -bl                    Bulk load, i.e. write observations in batches per partition, not with -dd"
+				+ ls);
+		sb.append("  -dd  [directory name]  Local data store directory, used instead of Cassandra (e.g. /tmp/ds)"
+				+ ls);
+
+		System.out.println(sb);
+
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.io;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.Duration;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+import org.openrdf.sail.memory.MemoryStore;
+
+import fi.uef.envi.emrooz.Emrooz;
+import fi.uef.envi.emrooz.cassandra.CassandraDataStore;
+import fi.uef.envi.emrooz.entity.ssn.SensorObservation;
+import fi.uef.envi.emrooz.rdf.RDFEntityRepresenter;
+import fi.uef.envi.emrooz.rdf.StatementIndex;
+import fi.uef.envi.emrooz.sesame.SesameKnowledgeStore;
+import fi.uef.envi.emrooz.vocabulary.DUL;
+import fi.uef.envi.emrooz.vocabulary.SSN;
+import fi.uef.envi.emrooz.vocabulary.Time;
+
+/**
+ * <p>
+ * Title: RDFSensorObservationLoader
+ * </p>
+ * <p>
+ * Description: Loads sensor observations from RDF files of any format
+ * supported by Rio (e.g. N-Triples, Turtle, Binary RDF). Files are parsed in
+ * streaming mode. An observation is created as soon as its statement group
+ * (observation, output, value, instant) is complete and the parser has moved
+ * on to other subjects; its statements are then dropped and the observation
+ * is added to Emrooz in batches. Sensor, property and feature statements are
+ * retained, since they are shared by observations. Memory is thus bounded by
+ * the number of open observations rather than the file size.
+ * </p>
+ * <p>
+ * Statements about the subjects of an observation that arrive once the
+ * observation is added, e.g. in files not grouped by observation, are late.
+ * They are counted and dropped, rather than retained until the end of the
+ * file, if the subject is among the most recently added.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class RDFSensorObservationLoader {
+
+	private final Emrooz emrooz;
+	private final int batchSize;
+	private final RDFEntityRepresenter representer;
+	private long numOfLateStatements = 0;
+
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+	// Subjects of added observations recognized for late statements
+	private static final int MAX_EMITTED_SUBJECTS = 100000;
+	private static final Logger log = Logger
+			.getLogger(RDFSensorObservationLoader.class.getName());
+
+	public RDFSensorObservationLoader(Emrooz emrooz) {
+		this(emrooz, DEFAULT_BATCH_SIZE);
+	}
+
+	public RDFSensorObservationLoader(Emrooz emrooz, int batchSize) {
+		if (emrooz == null)
+			throw new NullPointerException("[emrooz = null]");
+		if (batchSize < 1)
+			throw new IllegalArgumentException(
+					"Batch size must be positive [batchSize = " + batchSize
+							+ "]");
+
+		this.emrooz = emrooz;
+		this.batchSize = batchSize;
+		this.representer = new RDFEntityRepresenter();
+	}
+
+	public long load(File file) {
+		if (file == null)
+			throw new NullPointerException("[file = null]");
+
+		RDFFormat format = Rio.getParserFormatForFileName(file.getName());
+
+		if (format == null)
+			throw new IllegalArgumentException(
+					"Failed to determine RDF format [file = " + file + "]");
+
+		return load(file, format);
+	}
+
+	public long load(File file, RDFFormat format) {
+		if (file == null)
+			throw new NullPointerException("[file = null]");
+
+		try (InputStream in = new BufferedInputStream(new FileInputStream(
+				file))) {
+			return load(in, file.toURI().toString(), format);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public long load(InputStream in, String baseURI, RDFFormat format) {
+		if (in == null)
+			throw new NullPointerException("[in = null]");
+		if (format == null)
+			throw new NullPointerException("[format = null]");
+
+		RDFParser parser = Rio.createParser(format);
+		LoaderRDFHandler handler = new LoaderRDFHandler();
+
+		parser.setRDFHandler(handler);
+
+		try {
+			parser.parse(in, baseURI);
+		} catch (RDFParseException | RDFHandlerException | IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		return handler.numOfObservations;
+	}
+
+	/**
+	 * Returns the number of late statements dropped by the loads so far.
+	 */
+	public long getNumOfLateStatements() {
+		return numOfLateStatements;
+	}
+
+	public static void main(String[] args) {
+		if (args.length == 0)
+			help();
+
+		Set<File> files = new LinkedHashSet<File>();
+		File knowledgeStoreFile = null;
+		String dataStoreHost = "localhost";
+		int batchSize = DEFAULT_BATCH_SIZE;
+		List<Duration> rollups = new ArrayList<Duration>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-f"))
+				files.add(new File(args[++i]));
+			if (args[i].equals("-ks"))
+				knowledgeStoreFile = new File(args[++i]);
+			if (args[i].equals("-ds"))
+				dataStoreHost = args[++i];
+			if (args[i].equals("-b"))
+				batchSize = Integer.valueOf(args[++i]);
+			if (args[i].equals("-r")) {
+				for (String period : args[++i].split(","))
+					rollups.add(AbstractObservationReader._duration(period));
+			}
+		}
+
+		if (files.isEmpty() || knowledgeStoreFile == null)
+			help();
+
+		SesameKnowledgeStore ks = new SesameKnowledgeStore(new SailRepository(
+				new MemoryStore(knowledgeStoreFile)));
+		CassandraDataStore ds = new CassandraDataStore(dataStoreHost);
+
+		ds.setRollupResolutions(rollups.toArray(new Duration[rollups.size()]));
+
+		Emrooz e = new Emrooz(ks, ds);
+
+		RDFSensorObservationLoader loader = new RDFSensorObservationLoader(e,
+				batchSize);
+
+		long start = System.currentTimeMillis();
+		long numOfObservations = 0;
+
+		for (File file : files) {
+			AbstractObservationReader.status("Processing: " + file);
+
+			numOfObservations += loader.load(file);
+		}
+
+		long end = System.currentTimeMillis();
+
+		e.close();
+
+		AbstractObservationReader.summary(start, end, numOfObservations,
+				dataStoreHost);
+	}
+
+	private static void help() {
+		StringBuffer sb = new StringBuffer();
+		String ls = AbstractObservationReader.LINE_SEPARATOR;
+
+		sb.append(RDFSensorObservationLoader.class.getName() + ls);
+		sb.append("Arguments:" + ls);
+		sb.append("  -f   [file name]       Name of the RDF file, format by extension (e.g. .nt, .ttl, .brf); repeatable"
+				+ ls);
+		sb.append("  -ks  [directory name]  Knowledge store data directory (e.g. /tmp/ks)"
+				+ ls);
+		sb.append("  -ds  [host name]       Data store host name (default: localhost)"
+				+ ls);
+		sb.append("  -b   [number]          Number of observations added per batch (default: "
+				+ DEFAULT_BATCH_SIZE + ")" + ls);
+		sb.append("  -r   [durations]       Rollup resolutions maintained (e.g. PT1M,PT1H,P1D)"
+				+ ls);
+
+		System.out.println(sb);
+
+		System.exit(0);
+	}
+
+	private class LoaderRDFHandler extends RDFHandlerBase {
+
+		private final StatementIndex index;
+		// Maps output, value and instant subjects to their observation
+		private final Map<Resource, Resource> owners;
+		// Maps observations to the subjects that are dropped with them
+		private final Map<Resource, Set<Resource>> groups;
+		private final Set<Resource> ready;
+		// The subjects of the most recently added observations
+		private final Set<Resource> emitted;
+		private final Set<SensorObservation> batch;
+		private long numOfObservations = 0;
+		private long numOfLateStatements = 0;
+
+		private LoaderRDFHandler() {
+			this.index = new StatementIndex();
+			this.owners = new HashMap<Resource, Resource>();
+			this.groups = new HashMap<Resource, Set<Resource>>();
+			this.ready = new LinkedHashSet<Resource>();
+			this.emitted = Collections
+					.newSetFromMap(new LinkedHashMap<Resource, Boolean>() {
+						private static final long serialVersionUID = 1L;
+
+						@Override
+						protected boolean removeEldestEntry(
+								Map.Entry<Resource, Boolean> eldest) {
+							return size() > MAX_EMITTED_SUBJECTS;
+						}
+					});
+			this.batch = new HashSet<SensorObservation>();
+		}
+
+		@Override
+		public void handleStatement(Statement statement)
+				throws RDFHandlerException {
+			Resource subject = statement.getSubject();
+			URI predicate = statement.getPredicate();
+			Value object = statement.getObject();
+
+			if (!ready.isEmpty())
+				emitReady(subject);
+
+			if (predicate.equals(RDF.TYPE)
+					&& (object.equals(SSN.Sensor)
+							|| object.equals(SSN.Property) || object
+								.equals(SSN.FeatureOfInterest))) {
+				index.add(statement);
+
+				// Open observations may have waited for this statement
+				for (Resource id : groups.keySet())
+					check(id);
+
+				return;
+			}
+
+			Resource id = owners.get(subject);
+
+			if (id == null && emitted.contains(subject)) {
+				numOfLateStatements++;
+
+				if (log.isLoggable(Level.FINE))
+					log.fine("Dropped late statement [statement = "
+							+ statement + "]");
+
+				return;
+			}
+
+			index.add(statement);
+
+			if (id == null && isObservationStatement(predicate, object))
+				id = subject;
+
+			if (id == null)
+				return;
+
+			Set<Resource> group = groups.get(id);
+
+			if (group == null) {
+				group = new HashSet<Resource>();
+				group.add(id);
+				groups.put(id, group);
+			}
+
+			if (object instanceof Resource
+					&& (predicate.equals(SSN.observationResult)
+							|| predicate.equals(SSN.observationResultTime) || predicate
+								.equals(SSN.hasValue))) {
+				owners.put((Resource) object, id);
+				group.add((Resource) object);
+			}
+
+			check(id);
+		}
+
+		@Override
+		public void endRDF() throws RDFHandlerException {
+			emitReady(null);
+
+			if (!groups.isEmpty()) {
+				if (log.isLoggable(Level.WARNING))
+					log.warning("Incomplete observations at end of RDF [groups = "
+							+ groups.size() + "]");
+
+				for (Resource id : new HashSet<Resource>(groups.keySet()))
+					emit(id);
+			}
+
+			flush();
+
+			if (numOfLateStatements > 0) {
+				if (log.isLoggable(Level.WARNING))
+					log.warning("Dropped statements of observations already added [numOfLateStatements = "
+							+ numOfLateStatements + "]");
+
+				RDFSensorObservationLoader.this.numOfLateStatements += numOfLateStatements;
+			}
+
+			index.clear();
+			owners.clear();
+			emitted.clear();
+		}
+
+		private void check(Resource id) {
+			if (ready.contains(id))
+				return;
+
+			if (isComplete(id))
+				ready.add(id);
+		}
+
+		private boolean isComplete(Resource id) {
+			if (!index.getIds(SSN.Observation).contains(id))
+				return false;
+
+			if (!hasType(getObject(id, SSN.observedBy), SSN.Sensor))
+				return false;
+			if (!hasType(getObject(id, SSN.observedProperty), SSN.Property))
+				return false;
+			if (!hasType(getObject(id, SSN.featureOfInterest),
+					SSN.FeatureOfInterest))
+				return false;
+
+			Value output = getObject(id, SSN.observationResult);
+
+			if (!hasType(output, SSN.SensorOutput))
+				return false;
+
+			Value value = getObject((Resource) output, SSN.hasValue);
+
+			if (!hasType(value, SSN.ObservationValue))
+				return false;
+			if (getObject((Resource) value, DUL.hasRegionDataValue) == null)
+				return false;
+
+			Value time = getObject(id, SSN.observationResultTime);
+
+			if (!hasType(time, Time.Instant))
+				return false;
+			if (getObject((Resource) time, Time.inXSDDateTime) == null)
+				return false;
+
+			return true;
+		}
+
+		private void emitReady(Resource subject) {
+			Iterator<Resource> it = ready.iterator();
+
+			while (it.hasNext()) {
+				Resource id = it.next();
+
+				// Wait while the parser still reports statements of the group
+				if (subject != null && groups.get(id).contains(subject))
+					continue;
+
+				it.remove();
+				emit(id);
+			}
+		}
+
+		private void emit(Resource id) {
+			SensorObservation observation = representer
+					.createSensorObservation(index.match(id));
+
+			for (Resource member : groups.remove(id)) {
+				index.remove(member);
+				owners.remove(member);
+				emitted.add(member);
+			}
+
+			if (observation == null)
+				return;
+
+			batch.add(observation);
+			numOfObservations++;
+
+			if (batch.size() >= batchSize)
+				flush();
+		}
+
+		private void flush() {
+			if (batch.isEmpty())
+				return;
+
+			emrooz.add(batch);
+			batch.clear();
+		}
+
+		private Value getObject(Resource subject, URI predicate) {
+			for (Statement statement : index.getStatements(subject)) {
+				if (statement.getPredicate().equals(predicate))
+					return statement.getObject();
+			}
+
+			return null;
+		}
+
+		private boolean hasType(Value id, URI type) {
+			if (!(id instanceof URI))
+				return false;
+
+			return index.getIds(type).contains(id);
+		}
+
+		private boolean isObservationStatement(URI predicate, Value object) {
+			if (predicate.equals(RDF.TYPE))
+				return object.equals(SSN.Observation);
+
+			return predicate.equals(SSN.observedBy)
+					|| predicate.equals(SSN.observedProperty)
+					|| predicate.equals(SSN.featureOfInterest)
+					|| predicate.equals(SSN.observationResult)
+					|| predicate.equals(SSN.observationResultTime);
+		}
+
+	}
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.io;
+
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.URI;
+
+/**
+ * <p>
+ * Title: RandomIdGenerator
+ * </p>
+ * <p>
+ * Description: Generates identifiers with a random UUID local name. Series,
+ * time and role are ignored.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class RandomIdGenerator extends AbstractIdGenerator {
+
+	@Override
+	public URI generate(URI ns, String series, DateTime time, String role) {
+		return _id(ns, UUID.randomUUID().toString());
+	}
+
+}
@@ -20,6 +20,8 @@ import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.sail.nativerdf.NativeStore;
 
 import fi.uef.envi.emrooz.Emrooz;
+import fi.uef.envi.emrooz.api.IdGenerator;
+import fi.uef.envi.emrooz.io.RandomIdGenerator;
 import fi.uef.envi.emrooz.cassandra.CassandraDataStore;
 import fi.uef.envi.emrooz.entity.qb.ComponentProperty;
 import fi.uef.envi.emrooz.entity.qb.ComponentPropertyValueDouble;
@@ -153,8 +155,11 @@ public class GHGDatasetObservationReader extends
 	private DatasetObservation getDatasetObservation(URI datasetId,
 			DateTime dateTime, String[] cols, ComponentProperty[] properties,
 			String[] types, String dataFileName, int nrow) {
-		DatasetObservation ret = new DatasetObservation(_id(), datasetId,
-				new Instant(_id(), dateTime));
+		String series = datasetId.stringValue();
+
+		DatasetObservation ret = new DatasetObservation(_id(series, dateTime,
+				OBSERVATION), datasetId, new Instant(_id(series, dateTime,
+				TIME), dateTime));
 
 		for (int i = 1; i < cols.length; i++) {
 			String type = null;
@@ -214,6 +219,16 @@ public class GHGDatasetObservationReader extends
 		return ret;
 	}
 
+	public static Dataset createGasDataset(URI ns, URI gasDatasetId) {
+		return new Dataset(gasDatasetId, new QuantityValue(_id(ns),
+				GAS_ANALYZER_SAMPLING_FREQUENCY, new Unit(QUDTUnit.Hertz)));
+	}
+
+	public static Dataset createBiometDataset(URI ns, URI biometDatasetId) {
+		return new Dataset(biometDatasetId, new QuantityValue(_id(ns),
+				BIOMET_SAMPLING_FREQUENCY, new Unit(QUDTUnit.Hertz)));
+	}
+
 	public static void main(String[] args) {
 		if (args.length == 0)
 			help();
@@ -224,6 +239,7 @@ public class GHGDatasetObservationReader extends
 		URI biometDatasetId = null;
 		File knowledgeStoreFile = null;
 		String dataStoreHost = "localhost";
+		IdGenerator idGenerator = new RandomIdGenerator();
 
 		for (int i = 0; i < args.length; i++) {
 			if (args[i].equals("-f"))
@@ -238,6 +254,8 @@ public class GHGDatasetObservationReader extends
 				knowledgeStoreFile = new File(args[++i]);
 			if (args[i].equals("-ds"))
 				dataStoreHost = args[++i];
+			if (args[i].equals("-id"))
+				idGenerator = _idGenerator(args[++i]);
 		}
 
 		if (file == null || ns == null || gasDatasetId == null
@@ -246,10 +264,8 @@ public class GHGDatasetObservationReader extends
 
 		SesameKnowledgeStore ks = new SesameKnowledgeStore(new SailRepository(
 				new NativeStore(knowledgeStoreFile)));
-		ks.addDataset(new Dataset(gasDatasetId, new QuantityValue(_id(ns),
-				GAS_ANALYZER_SAMPLING_FREQUENCY, new Unit(QUDTUnit.Hertz))));
-		ks.addDataset(new Dataset(biometDatasetId, new QuantityValue(_id(ns),
-				BIOMET_SAMPLING_FREQUENCY, new Unit(QUDTUnit.Hertz))));
+		ks.addDataset(createGasDataset(ns, gasDatasetId));
+		ks.addDataset(createBiometDataset(ns, biometDatasetId));
 
 		CassandraDataStore ds = new CassandraDataStore(dataStoreHost);
 
@@ -261,6 +277,7 @@ public class GHGDatasetObservationReader extends
 
 		GHGDatasetObservationReader reader = new GHGDatasetObservationReader(
 				file, ns, gasDatasetId, biometDatasetId);
+		reader.setIdGenerator(idGenerator);
 
 		long numOfObservations = 0;
 
@@ -293,6 +310,8 @@ public class GHGDatasetObservationReader extends
 				+ LINE_SEPARATOR);
 		sb.append("  -ds [host name]       Data store host name (default: localhost)"
 				+ LINE_SEPARATOR);
+		sb.append("  -id [strategy]        Identifier generation, random, counter or deterministic (default: random)"
+				+ LINE_SEPARATOR);
 
 		System.out.println(sb);
 
@@ -20,6 +20,8 @@ import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.sail.nativerdf.NativeStore;
 
 import fi.uef.envi.emrooz.Emrooz;
+import fi.uef.envi.emrooz.api.IdGenerator;
+import fi.uef.envi.emrooz.io.RandomIdGenerator;
 import fi.uef.envi.emrooz.cassandra.CassandraDataStore;
 import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
 import fi.uef.envi.emrooz.entity.qudt.Unit;
@@ -172,10 +174,27 @@ public class GHGSensorObservationReader extends
 	private SensorObservation getSensorObservation(Sensor sensor,
 			Property property, FeatureOfInterest feature, DateTime dateTime,
 			Double value) {
-		return new SensorObservation(_id(), sensor, property, feature,
-				new SensorOutput(_id(), new QuantityValue(_id(), value,
-						new Unit(QUDTUnit.MilliMolePerCubicMeter))),
-				new Instant(_id(), dateTime));
+		String series = _series(sensor.getId(), property.getId(),
+				feature.getId());
+
+		return new SensorObservation(_id(series, dateTime, OBSERVATION),
+				sensor, property, feature, new SensorOutput(_id(series,
+						dateTime, OUTPUT), new QuantityValue(_id(series,
+						dateTime, VALUE), value, new Unit(
+						QUDTUnit.MilliMolePerCubicMeter))), new Instant(_id(
+						series, dateTime, TIME), dateTime));
+	}
+
+	/**
+	 * Returns the specification of a gas analyzer, which observes the density
+	 * of carbon dioxide, water and methane at the sampling frequency of the
+	 * gas analyzer data.
+	 */
+	public static Sensor createAnalyzer(URI ns, URI analyzerId) {
+		return new Sensor(analyzerId, density, new MeasurementCapability(
+				_id(ns), new Frequency(_id(ns), new QuantityValue(_id(ns),
+						GAS_ANALYZER_SAMPLING_FREQUENCY, new Unit(
+								QUDTUnit.Hertz)))));
 	}
 
 	public static void main(String[] args) {
@@ -188,6 +207,7 @@ public class GHGSensorObservationReader extends
 		URI methaneAnalyzerId = null;
 		File knowledgeStoreFile = null;
 		String dataStoreHost = "localhost";
+		IdGenerator idGenerator = new RandomIdGenerator();
 
 		for (int i = 0; i < args.length; i++) {
 			if (args[i].equals("-f"))
@@ -202,6 +222,8 @@ public class GHGSensorObservationReader extends
 				knowledgeStoreFile = new File(args[++i]);
 			if (args[i].equals("-ds"))
 				dataStoreHost = args[++i];
+			if (args[i].equals("-id"))
+				idGenerator = _idGenerator(args[++i]);
 		}
 
 		if (file == null || ns == null
@@ -209,17 +231,9 @@ public class GHGSensorObservationReader extends
 				|| methaneAnalyzerId == null || knowledgeStoreFile == null)
 			help();
 
-		Sensor carbonDioxideAndWaterAnalyzer = new Sensor(
-				carbonDioxideAndWaterAnalyzerId, density,
-				new MeasurementCapability(_id(ns), new Frequency(_id(ns),
-						new QuantityValue(_id(ns),
-								GAS_ANALYZER_SAMPLING_FREQUENCY, new Unit(
-										QUDTUnit.Hertz)))));
-		Sensor methaneAnalyzer = new Sensor(methaneAnalyzerId, density,
-				new MeasurementCapability(_id(ns), new Frequency(_id(ns),
-						new QuantityValue(_id(ns),
-								GAS_ANALYZER_SAMPLING_FREQUENCY, new Unit(
-										QUDTUnit.Hertz)))));
+		Sensor carbonDioxideAndWaterAnalyzer = createAnalyzer(ns,
+				carbonDioxideAndWaterAnalyzerId);
+		Sensor methaneAnalyzer = createAnalyzer(ns, methaneAnalyzerId);
 
 		SesameKnowledgeStore ks = new SesameKnowledgeStore(new SailRepository(
 				new NativeStore(knowledgeStoreFile)));
@@ -236,6 +250,7 @@ public class GHGSensorObservationReader extends
 
 		GHGSensorObservationReader reader = new GHGSensorObservationReader(
 				file, ns, carbonDioxideAndWaterAnalyzer, methaneAnalyzer);
+		reader.setIdGenerator(idGenerator);
 
 		long numOfObservations = 0;
 
@@ -268,6 +283,8 @@ public class GHGSensorObservationReader extends
 				+ LINE_SEPARATOR);
 		sb.append("  -ds [host name]       Data store host name (default: localhost)"
 				+ LINE_SEPARATOR);
+		sb.append("  -id [strategy]        Identifier generation, random, counter or deterministic (default: random)"
+				+ LINE_SEPARATOR);
 
 		System.out.println(sb);
 
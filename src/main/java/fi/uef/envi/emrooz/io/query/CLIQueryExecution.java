@@ -5,18 +5,40 @@
 
 package fi.uef.envi.emrooz.io.query;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.TupleQueryResultHandlerException;
+import org.openrdf.query.impl.EmptyBindingSet;
 import org.openrdf.query.resultio.text.tsv.SPARQLResultsTSVWriter;
 import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.sail.memory.MemoryStore;
 
 import fi.uef.envi.emrooz.Emrooz;
 import fi.uef.envi.emrooz.QueryType;
+import fi.uef.envi.emrooz.api.DataStore;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.cassandra.CassandraConfiguration;
 import fi.uef.envi.emrooz.cassandra.CassandraDataStore;
-import fi.uef.envi.emrooz.io.licor.GHGSensorObservationReader;
+import fi.uef.envi.emrooz.local.LocalDataStore;
+import fi.uef.envi.emrooz.query.PreparedQuery;
+import fi.uef.envi.emrooz.query.QueryCost;
 import fi.uef.envi.emrooz.sesame.SesameKnowledgeStore;
 
 /**
@@ -24,7 +46,17 @@ import fi.uef.envi.emrooz.sesame.SesameKnowledgeStore;
  * Title: CLIQueryExecution
  * </p>
  * <p>
- * Description:
+ * Description: Executes SPARQL query files against Emrooz. Query files are
+ * given one by one, as directories of query files, or as a manifest that
+ * lists one query file per line, prefixed by its type (<code>sq</code> or
+ * <code>dq</code>), e.g. <code>sq queries/co2.rq</code>. The queries are
+ * executed concurrently by a number of threads against a single Emrooz
+ * instance, and hence a single knowledge store loaded once. Each query
+ * streams its results, as TSV, to its own output file in the output
+ * directory, named after the query file. A single query without output
+ * directory streams its results to the standard output. The statistics of
+ * each query and the throughput of the batch are printed once the batch is
+ * executed.
  * </p>
  * <p>
  * Project: Emrooz
@@ -32,7 +64,7 @@ import fi.uef.envi.emrooz.sesame.SesameKnowledgeStore;
  * <p>
  * Copyright: Copyright (C) 2015
  * </p>
- * 
+ *
  * @author Markus Stocker
  */
 
@@ -40,82 +72,364 @@ public class CLIQueryExecution {
 
 	private static final String LINE_SEPARATOR = System
 			.getProperty("line.separator");
+	private static final String OUTPUT_FILE_EXTENSION = ".tsv";
 
 	public static void main(String[] args) {
 		if (args.length == 0)
 			help();
 
-		boolean isSensorQuery = false;
-		File queryFileName = null;
+		List<QueryFile> queryFiles = new ArrayList<QueryFile>();
 		File knowledgeStoreFile = null;
+		File outputDirectory = null;
 		String dataStoreHost = "localhost";
+		File dataStoreConfigurationFile = null;
+		File dataStoreDirectory = null;
+		int threads = Runtime.getRuntime().availableProcessors();
 
 		for (int i = 0; i < args.length; i++) {
 			if (args[i].equals("-sq")) {
-				queryFileName = new File(args[++i]);
-				isSensorQuery = true;
+				add(queryFiles, QueryType.SENSOR_OBSERVATION, new File(
+						args[++i]));
 			} else if (args[i].equals("-dq")) {
-				queryFileName = new File(args[++i]);
-				isSensorQuery = false;
+				add(queryFiles, QueryType.DATASET_OBSERVATION, new File(
+						args[++i]));
+			} else if (args[i].equals("-m")) {
+				manifest(queryFiles, new File(args[++i]));
+			} else if (args[i].equals("-o")) {
+				outputDirectory = new File(args[++i]);
+			} else if (args[i].equals("-t")) {
+				threads = Integer.valueOf(args[++i]);
 			} else if (args[i].equals("-ks")) {
 				knowledgeStoreFile = new File(args[++i]);
 			} else if (args[i].equals("-ds")) {
 				dataStoreHost = args[++i];
+			} else if (args[i].equals("-dc")) {
+				dataStoreConfigurationFile = new File(args[++i]);
+			} else if (args[i].equals("-dd")) {
+				dataStoreDirectory = new File(args[++i]);
 			}
 		}
 
-		if (queryFileName == null || knowledgeStoreFile == null)
+		if (queryFiles.isEmpty() || knowledgeStoreFile == null || threads < 1)
 			help();
+		if (queryFiles.size() > 1 && outputDirectory == null)
+			help();
+		if (outputDirectory != null && !outputDirectory.isDirectory()
+				&& !outputDirectory.mkdirs())
+			throw new RuntimeException(
+					"Failed to create output directory [outputDirectory = "
+							+ outputDirectory + "]");
 
+		CassandraConfiguration dataStoreConfiguration = (dataStoreConfigurationFile == null) ? new CassandraConfiguration(
+				dataStoreHost) : CassandraConfiguration
+				.load(dataStoreConfigurationFile);
+		DataStore ds = (dataStoreDirectory == null) ? new CassandraDataStore(
+				dataStoreConfiguration) : new LocalDataStore(
+				dataStoreDirectory);
 		Emrooz e = new Emrooz(new SesameKnowledgeStore(new SailRepository(
-				new MemoryStore(knowledgeStoreFile))), new CassandraDataStore(
-				dataStoreHost));
+				new MemoryStore(knowledgeStoreFile))), ds);
+
+		long start = System.currentTimeMillis();
+
+		List<QueryExecutionStatistics> statistics = execute(e, queryFiles,
+				outputDirectory, threads);
+
+		long end = System.currentTimeMillis();
+
+		e.close();
+
+		summary(start, end, statistics);
+	}
+
+	/**
+	 * Executes the queries with the given number of threads and returns the
+	 * statistics of each query, in the order of the queries. Results are
+	 * written to the output directory or, if null, to the standard output.
+	 */
+	public static List<QueryExecutionStatistics> execute(final Emrooz e,
+			List<QueryFile> queryFiles, File outputDirectory, int threads) {
+		if (e == null)
+			throw new NullPointerException("[e = null]");
+		if (queryFiles == null)
+			throw new NullPointerException("[queryFiles = null]");
 
+		List<QueryExecutionStatistics> ret = new ArrayList<QueryExecutionStatistics>();
+		List<Future<QueryExecutionStatistics>> futures = new ArrayList<Future<QueryExecutionStatistics>>();
+		Set<String> outputFileNames = new HashSet<String>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+				threads, Math.max(1, queryFiles.size())));
+
+		try {
+			for (final QueryFile queryFile : queryFiles) {
+				final File outputFile = (outputDirectory == null) ? null
+						: new File(outputDirectory, getOutputFileName(
+								queryFile.getFile(), outputFileNames));
+
+				futures.add(executor
+						.submit(new Callable<QueryExecutionStatistics>() {
+							@Override
+							public QueryExecutionStatistics call() {
+								return execute(e, queryFile, outputFile);
+							}
+						}));
+			}
+
+			for (Future<QueryExecutionStatistics> future : futures) {
+				try {
+					ret.add(future.get());
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(ex);
+				} catch (ExecutionException ex) {
+					throw new RuntimeException(ex.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Executes the query and streams its results to the output file or, if
+	 * null, to the standard output. Failed queries are returned with their
+	 * error, such that other queries of the batch are not affected.
+	 */
+	public static QueryExecutionStatistics execute(Emrooz e,
+			QueryFile queryFile, File outputFile) {
+		String name = queryFile.getFile().getPath();
 		long start = System.currentTimeMillis();
+		long prepareTime = 0;
+		long planTime = 0;
+		long firstTime = 0;
+		long rows = 0;
+		CountingOutputStream out = null;
 
 		try {
-			if (isSensorQuery)
-				e.evaluate(QueryType.SENSOR_OBSERVATION,
-						FileUtils.readFileToString(queryFileName),
-						new SPARQLResultsTSVWriter(System.out));
+			PreparedQuery query = e.prepare(queryFile.getType(),
+					FileUtils.readFileToString(queryFile.getFile()));
+			BindingSet bindings = EmptyBindingSet.getInstance();
+
+			prepareTime = System.currentTimeMillis() - start;
+
+			QueryCost cost = e.estimate(query, bindings);
+
+			planTime = System.currentTimeMillis() - start - prepareTime;
+
+			out = new CountingOutputStream(
+					(outputFile == null) ? System.out
+							: new BufferedOutputStream(new FileOutputStream(
+									outputFile)));
+
+			SPARQLResultsTSVWriter writer = new SPARQLResultsTSVWriter(out);
+			ResultSet<BindingSet> results = e.evaluate(query, bindings, null);
+
+			try {
+				writer.startQueryResult(new ArrayList<String>(query
+						.getParsedQuery().getTupleExpr().getBindingNames()));
+
+				while (results.hasNext()) {
+					writer.handleSolution(results.next());
+
+					if (rows++ == 0)
+						firstTime = System.currentTimeMillis() - start;
+				}
+
+				writer.endQueryResult();
+			} finally {
+				results.close();
+			}
+
+			out.flush();
+
+			return new QueryExecutionStatistics(name, rows, out.getByteCount(),
+					(cost == null) ? -1 : cost.getPartitions(), prepareTime,
+					planTime, firstTime, System.currentTimeMillis() - start);
+		} catch (IOException | TupleQueryResultHandlerException
+				| RuntimeException ex) {
+			return new QueryExecutionStatistics(name, rows,
+					(out == null) ? 0 : out.getByteCount(), -1, prepareTime,
+					planTime, firstTime, System.currentTimeMillis() - start,
+					ex.toString());
+		} finally {
+			if (out != null && outputFile != null) {
+				try {
+					out.close();
+				} catch (IOException ex) {
+					// Nothing to do, the query is executed
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the query file or, for a directory, the files in the directory, in
+	 * name order.
+	 */
+	private static void add(List<QueryFile> queryFiles, QueryType type,
+			File file) {
+		if (!file.isDirectory()) {
+			queryFiles.add(new QueryFile(type, file));
+			return;
+		}
+
+		File[] files = file.listFiles();
+
+		if (files == null)
+			return;
+
+		Arrays.sort(files);
+
+		for (File f : files) {
+			if (f.isFile())
+				queryFiles.add(new QueryFile(type, f));
+		}
+	}
+
+	/**
+	 * Adds the query files listed in the manifest. Lines that are empty or
+	 * start with <code>#</code> are ignored. Relative paths are resolved
+	 * against the directory of the manifest.
+	 */
+	private static void manifest(List<QueryFile> queryFiles, File manifest) {
+		List<String> lines;
+
+		try {
+			lines = FileUtils.readLines(manifest);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		for (String line : lines) {
+			line = line.trim();
+
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+
+			String[] parts = line.split("\\s+", 2);
+
+			if (parts.length != 2)
+				throw new IllegalArgumentException(
+						"Malformed manifest line [line = " + line
+								+ "; manifest = " + manifest + "]");
+
+			QueryType type;
+
+			if (parts[0].equals("sq"))
+				type = QueryType.SENSOR_OBSERVATION;
+			else if (parts[0].equals("dq"))
+				type = QueryType.DATASET_OBSERVATION;
 			else
-				e.evaluate(QueryType.DATASET_OBSERVATION,
-						FileUtils.readFileToString(queryFileName),
-						new SPARQLResultsTSVWriter(System.out));
-		} catch (IOException e1) {
-			e1.printStackTrace();
+				throw new IllegalArgumentException(
+						"Unknown query type in manifest [type = " + parts[0]
+								+ "; manifest = " + manifest + "]");
+
+			File file = new File(parts[1]);
+
+			if (!file.isAbsolute())
+				file = new File(manifest.getAbsoluteFile().getParentFile(),
+						parts[1]);
+
+			add(queryFiles, type, file);
 		}
+	}
 
-		long end = System.currentTimeMillis();
+	private static String getOutputFileName(File queryFile,
+			Set<String> outputFileNames) {
+		String name = queryFile.getName();
+		int i = name.lastIndexOf('.');
 
-		e.close();
+		if (i > 0)
+			name = name.substring(0, i);
+
+		String ret = name + OUTPUT_FILE_EXTENSION;
+
+		for (int n = 1; !outputFileNames.add(ret); n++)
+			ret = name + "-" + n + OUTPUT_FILE_EXTENSION;
 
-		summary(start, end);
+		return ret;
 	}
 
 	private static void help() {
 		StringBuffer sb = new StringBuffer();
 
-		sb.append(GHGSensorObservationReader.class.getName() + LINE_SEPARATOR);
+		sb.append(CLIQueryExecution.class.getName() + LINE_SEPARATOR);
 		sb.append("Arguments:" + LINE_SEPARATOR);
-		sb.append("  -sq/-dq  [file name]  SPARQL query file name"
+		sb.append("  -sq/-dq  [file name]  SPARQL query file or directory name (repeatable)"
+				+ LINE_SEPARATOR);
+		sb.append("  -m  [file name]       Manifest of query files, one per line (e.g. sq queries/co2.rq)"
+				+ LINE_SEPARATOR);
+		sb.append("  -o  [directory name]  Output directory, required for more than one query"
+				+ LINE_SEPARATOR);
+		sb.append("  -t  [threads]         Number of concurrent queries (default: number of processors)"
 				+ LINE_SEPARATOR);
 		sb.append("  -ks [directory name]  Knowledge store data directory (e.g. /tmp/ks)"
 				+ LINE_SEPARATOR);
 		sb.append("  -ds [host name]       Data store host name (default: localhost)"
 				+ LINE_SEPARATOR);
+		sb.append("  -dc [file name]       Data store configuration file, used instead of -ds (e.g. cassandra.properties)"
+				+ LINE_SEPARATOR);
+		sb.append("  -dd [directory name]  Local data store directory, used instead of Cassandra (e.g. /tmp/ds)"
+				+ LINE_SEPARATOR);
 
 		System.out.println(sb);
 
 		System.exit(0);
 	}
 
-	private static void summary(long start, long end) {
+	private static void summary(long start, long end,
+			List<QueryExecutionStatistics> statistics) {
 		StringBuffer sb = new StringBuffer();
+		long rows = 0;
+		long bytes = 0;
+		int failed = 0;
 
-		sb.append("Query executed in " + ((end - start) / 1000) + "."
-				+ ((end - start) % 1000) + " seconds");
+		for (QueryExecutionStatistics s : statistics) {
+			sb.append(s + LINE_SEPARATOR);
 
-		System.out.println(sb);
+			rows += s.getRows();
+			bytes += s.getBytes();
+
+			if (s.isFailed())
+				failed++;
+		}
+
+		long time = Math.max(1, end - start);
+
+		sb.append(statistics.size() + " queries (" + failed
+				+ " failed) executed in " + ((end - start) / 1000) + "."
+				+ ((end - start) % 1000) + " seconds" + LINE_SEPARATOR);
+		sb.append("Throughput: " + (rows * 1000 / time) + " rows/s, "
+				+ (bytes * 1000 / time) + " bytes/s");
+
+		// Results of a single query may be written to the standard output
+		System.err.println(sb);
 	}
+
+	public static class QueryFile {
+
+		private final QueryType type;
+		private final File file;
+
+		public QueryFile(QueryType type, File file) {
+			if (type == null)
+				throw new NullPointerException("[type = null]");
+			if (file == null)
+				throw new NullPointerException("[file = null]");
+
+			this.type = type;
+			this.file = file;
+		}
+
+		public QueryType getType() {
+			return type;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+	}
+
 }
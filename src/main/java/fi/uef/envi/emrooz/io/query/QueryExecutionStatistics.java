@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.io.query;
+
+/**
+ * <p>
+ * Title: QueryExecutionStatistics
+ * </p>
+ * <p>
+ * Description: The statistics of a query executed by the command line, i.e.
+ * the number of result rows and bytes written, the estimated number of data
+ * partitions touched, and the time in milliseconds spent in each phase. The
+ * phases are prepare (parsing and analysis of the query), plan (rewriting and
+ * cost estimation), first (until the first result row is written) and total.
+ * Partitions are -1 if unknown, e.g. for dataset observation queries.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class QueryExecutionStatistics {
+
+	private final String name;
+	private final long rows;
+	private final long bytes;
+	private final long partitions;
+	private final long prepareTime;
+	private final long planTime;
+	private final long firstTime;
+	private final long totalTime;
+	private final String error;
+
+	public QueryExecutionStatistics(String name, long rows, long bytes,
+			long partitions, long prepareTime, long planTime, long firstTime,
+			long totalTime) {
+		this(name, rows, bytes, partitions, prepareTime, planTime, firstTime,
+				totalTime, null);
+	}
+
+	public QueryExecutionStatistics(String name, long rows, long bytes,
+			long partitions, long prepareTime, long planTime, long firstTime,
+			long totalTime, String error) {
+		if (name == null)
+			throw new NullPointerException("[name = null]");
+
+		this.name = name;
+		this.rows = rows;
+		this.bytes = bytes;
+		this.partitions = partitions;
+		this.prepareTime = prepareTime;
+		this.planTime = planTime;
+		this.firstTime = firstTime;
+		this.totalTime = totalTime;
+		this.error = error;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getPartitions() {
+		return partitions;
+	}
+
+	public long getPrepareTime() {
+		return prepareTime;
+	}
+
+	public long getPlanTime() {
+		return planTime;
+	}
+
+	public long getFirstTime() {
+		return firstTime;
+	}
+
+	public long getTotalTime() {
+		return totalTime;
+	}
+
+	/**
+	 * Returns the error message if the query failed, or null otherwise.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	public boolean isFailed() {
+		return error != null;
+	}
+
+	@Override
+	public String toString() {
+		if (isFailed())
+			return name + " [error = " + error + "; total = " + totalTime
+					+ " ms]";
+
+		return name + " [rows = " + rows + "; bytes = " + bytes
+				+ "; partitions = " + ((partitions < 0) ? "-" : partitions)
+				+ "; prepare = " + prepareTime + " ms; plan = " + planTime
+				+ " ms; first = " + firstTime + " ms; total = " + totalTime
+				+ " ms]";
+	}
+
+}
@@ -0,0 +1,618 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.local;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.query.BindingSet;
+
+import fi.uef.envi.emrooz.Rollover;
+import fi.uef.envi.emrooz.api.DataStore;
+import fi.uef.envi.emrooz.api.QueryHandler;
+import fi.uef.envi.emrooz.cassandra.LatestValueIndex;
+import fi.uef.envi.emrooz.cassandra.utils.RollupUtils;
+import fi.uef.envi.emrooz.cassandra.utils.RowKeyUtils;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.query.Cursor;
+import fi.uef.envi.emrooz.query.DatasetObservationQuery;
+import fi.uef.envi.emrooz.query.QueryContext;
+import fi.uef.envi.emrooz.query.QueryCost;
+import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.query.TimeBucketAggregation;
+
+/**
+ * <p>
+ * Title: LocalDataStore
+ * </p>
+ * <p>
+ * Description: An embedded data store that keeps observations in segment
+ * files on the local file system, without a database. Series are partitioned
+ * by the same rollover as in Cassandra; each partition is a segment file
+ * named by its row key, in a directory named by the series key. Observations
+ * are durable once flushed, e.g. by {@link #flush()} or {@link #close()}.
+ * At most a bounded number of segments are open; the least recently used
+ * segment is flushed and closed when another is opened.
+ * As in Cassandra, an observation added with the time of a stored one of its
+ * series replaces it. Aggregations are evaluated over the observations read.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class LocalDataStore implements DataStore {
+
+	private final File directory;
+	private final int maxOpenSegments;
+	private final LinkedHashMap<String, Segment> segments;
+	private long closedSegments = 0;
+	private final LatestValueIndex latestValues;
+	private final Set<String> latestSeries;
+	private final RowKeyUtils rowKeyUtils;
+	private final Properties metadata;
+
+	public static final int DEFAULT_MAX_OPEN_SEGMENTS = 1024;
+
+	private static final String SEGMENT_EXTENSION = ".seg";
+	private static final String METADATA_FILE = "metadata.properties";
+	private static final Logger log = Logger.getLogger(LocalDataStore.class
+			.getName());
+
+	public LocalDataStore(File directory) {
+		this(directory, DEFAULT_MAX_OPEN_SEGMENTS);
+	}
+
+	public LocalDataStore(File directory, int maxOpenSegments) {
+		if (directory == null)
+			throw new NullPointerException("[directory = null]");
+		if (maxOpenSegments < 1)
+			throw new IllegalArgumentException(
+					"Maximum open segments must be positive [maxOpenSegments = "
+							+ maxOpenSegments + "]");
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new RuntimeException("Failed to create directory [directory = "
+					+ directory + "]");
+
+		this.directory = directory;
+		this.maxOpenSegments = maxOpenSegments;
+		this.segments = new LinkedHashMap<String, Segment>(16, 0.75f, true);
+		this.latestValues = new LatestValueIndex();
+		this.latestSeries = Collections
+				.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		this.rowKeyUtils = new RowKeyUtils();
+		this.metadata = new Properties();
+
+		File file = new File(directory, METADATA_FILE);
+
+		if (file.isFile()) {
+			try {
+				InputStream in = new FileInputStream(file);
+
+				try {
+					metadata.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		if (log.isLoggable(Level.INFO))
+			log.info("Opened local data store [directory = " + directory + "]");
+	}
+
+	@Override
+	public void addSensorObservation(URI sensorId, URI propertyId,
+			URI featureId, Frequency frequency, DateTime resultTime,
+			Set<Statement> statements) {
+		if (sensorId == null || propertyId == null || featureId == null
+				|| frequency == null || resultTime == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("At least one parameter is null [sensorId = "
+						+ sensorId + "; propertyId = " + propertyId
+						+ "; featureId = " + featureId + "; frequency = "
+						+ frequency + "; resultTime = " + resultTime + "]");
+			return;
+		}
+
+		if (statements.isEmpty()) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("Empty collection of statements [sensorId = "
+						+ sensorId + "; propertyId = " + propertyId
+						+ "; featureId = " + featureId + "; frequency = "
+						+ frequency + "; resultTime = " + resultTime
+						+ "; statements = " + statements + "]");
+			return;
+		}
+
+		Double value = RollupUtils.getValue(statements);
+
+		add(rowKeyUtils.getSeriesKey(sensorId, propertyId, featureId),
+				rowKeyUtils.getRowKey(sensorId, propertyId, featureId,
+						frequency, resultTime), resultTime,
+				(value == null) ? Double.NaN : value, statements);
+	}
+
+	@Override
+	public void addDatasetObservation(URI datasetId, QuantityValue frequency,
+			DateTime timePeriod, Set<Statement> statements) {
+		if (datasetId == null || frequency == null || timePeriod == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("At least one parameter is null [datasetId = "
+						+ datasetId + "; frequency = " + frequency
+						+ "; timePeriod = " + timePeriod + "]");
+			return;
+		}
+
+		if (statements.isEmpty()) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("Empty collection of statements [datasetId = "
+						+ datasetId + "; frequency = " + frequency
+						+ "; timePeriod = " + timePeriod + "; statements = "
+						+ statements + "]");
+			return;
+		}
+
+		add(rowKeyUtils.getSeriesKey(datasetId),
+				rowKeyUtils.getRowKey(datasetId, frequency, timePeriod),
+				timePeriod, Double.NaN, statements);
+	}
+
+	@Override
+	public LocalQueryHandler createSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries) {
+		return new LocalQueryHandler(getSensorSeries(queries));
+	}
+
+	@Override
+	public QueryHandler<BindingSet> createSensorObservationAggregateQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation, QueryContext context) {
+		// Aggregations are evaluated over the statements of the observations
+		return null;
+	}
+
+	@Override
+	public QueryCost estimateSensorObservationQueryCost(
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation) {
+		long partitions = 0;
+		long rows = 0;
+
+		// The rows of the segments read, which bounds the rows in the interval
+		for (LocalSeries series : getSensorSeries(queries)) {
+			partitions += series.getPartitions().size();
+			rows += series.getCount();
+		}
+
+		return new QueryCost(partitions, rows);
+	}
+
+	@Override
+	public LocalQueryHandler createDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries) {
+		return new LocalQueryHandler(getDatasetSeries(queries));
+	}
+
+	@Override
+	public LocalPagedQueryHandler createSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries, Cursor cursor,
+			int size) {
+		return new LocalPagedQueryHandler(sort(getSensorSeries(queries)),
+				cursor, size);
+	}
+
+	@Override
+	public LocalPagedQueryHandler createDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries, Cursor cursor,
+			int size) {
+		return new LocalPagedQueryHandler(sort(getDatasetSeries(queries)),
+				cursor, size);
+	}
+
+	@Override
+	public LocalLatestObservationQueryHandler createLatestSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries) {
+		Set<String> keys = new HashSet<String>();
+
+		for (SensorObservationQuery query : queries.keySet()) {
+			String key = rowKeyUtils.getSeriesKey(query.getSensorId(),
+					query.getPropertyId(), query.getFeatureOfInterestId());
+
+			if (key == null)
+				continue;
+
+			loadLatest(key);
+			keys.add(key);
+		}
+
+		return new LocalLatestObservationQueryHandler(latestValues, keys);
+	}
+
+	@Override
+	public LocalLatestObservationQueryHandler createLatestDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries) {
+		Set<String> keys = new HashSet<String>();
+
+		for (DatasetObservationQuery query : queries.keySet()) {
+			String key = rowKeyUtils.getSeriesKey(query.getDatasetId());
+
+			if (key == null)
+				continue;
+
+			loadLatest(key);
+			keys.add(key);
+		}
+
+		return new LocalLatestObservationQueryHandler(latestValues, keys);
+	}
+
+	@Override
+	public void flush() {
+		List<Segment> open;
+
+		synchronized (segments) {
+			open = new ArrayList<Segment>(segments.values());
+		}
+
+		for (Segment segment : open)
+			segment.flush();
+	}
+
+	@Override
+	public synchronized String getMetadata(String key) {
+		if (key == null)
+			throw new NullPointerException("[key = null]");
+
+		return metadata.getProperty(key);
+	}
+
+	/**
+	 * Stores the metadata in a properties file of the directory. The file is
+	 * written anew and renamed, such that it is never partially written.
+	 */
+	@Override
+	public synchronized void setMetadata(String key, String value) {
+		if (key == null)
+			throw new NullPointerException("[key = null]");
+
+		if (value == null)
+			metadata.remove(key);
+		else
+			metadata.setProperty(key, value);
+
+		File file = new File(directory, METADATA_FILE);
+		File tmp = new File(directory, METADATA_FILE + ".tmp");
+
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+
+			try {
+				metadata.store(out, null);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (file.exists() && !file.delete() || !tmp.renameTo(file))
+			throw new RuntimeException("Failed to write metadata [file = "
+					+ file + "]");
+	}
+
+	@Override
+	public void close() {
+		synchronized (segments) {
+			for (Segment segment : segments.values())
+				segment.close();
+
+			closedSegments += segments.size();
+			segments.clear();
+		}
+	}
+
+	private void add(String seriesKey, String rowKey, DateTime time,
+			double value, Set<Statement> statements) {
+		if (seriesKey == null || rowKey == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("Failed to compute keys [seriesKey = " + seriesKey
+						+ "; rowKey = " + rowKey + "]");
+			return;
+		}
+
+		byte[] bytes = StatementUtils.toByteArray(statements);
+
+		// The latest of the segments is known before the observation is added
+		loadLatest(seriesKey);
+
+		Segment segment = getSegment(seriesKey, rowKey);
+
+		// A segment closed since it was returned is opened anew
+		while (!segment.append(time.getMillis(), value, bytes))
+			segment = getSegment(seriesKey, rowKey);
+
+		latestValues.put(seriesKey, time.getMillis(), ByteBuffer.wrap(bytes));
+	}
+
+	private List<LocalSeries> getSensorSeries(
+			Map<SensorObservationQuery, Frequency> queries) {
+		List<LocalSeries> ret = new ArrayList<LocalSeries>();
+
+		for (Map.Entry<SensorObservationQuery, Frequency> entry : queries
+				.entrySet()) {
+			SensorObservationQuery query = entry.getKey();
+			Frequency frequency = entry.getValue();
+			URI sensorId = query.getSensorId();
+			URI propertyId = query.getPropertyId();
+			URI featureId = query.getFeatureOfInterestId();
+			DateTime timeFrom = query.getTimeFrom();
+			DateTime timeTo = query.getTimeTo();
+
+			if (sensorId == null || propertyId == null || featureId == null
+					|| timeFrom == null || timeTo == null) {
+				if (log.isLoggable(Level.SEVERE))
+					log.severe("At least one parameter is null; skipped query [sensorId = "
+							+ sensorId
+							+ "; propertyId = "
+							+ propertyId
+							+ "; featureId = "
+							+ featureId
+							+ "; timeFrom = "
+							+ timeFrom
+							+ "; timeTo = "
+							+ timeTo + "]");
+				continue;
+			}
+
+			Rollover rollover = rowKeyUtils.getRollover(sensorId, propertyId,
+					featureId, frequency);
+
+			if (rollover == null) {
+				if (log.isLoggable(Level.SEVERE))
+					log.severe("Registration rollover is null [sensorId = "
+							+ sensorId + "; propertyId = " + propertyId
+							+ "; featureId = " + featureId + "; frequency = "
+							+ frequency + "]");
+				continue;
+			}
+
+			SeriesDirectory series = new SeriesDirectory(
+					rowKeyUtils.getSeriesKey(sensorId, propertyId, featureId));
+			NavigableMap<Long, Segment> partitions = new TreeMap<Long, Segment>();
+
+			for (DateTime time = timeFrom; time.isBefore(timeTo); time = RowKeyUtils
+					.getNextRolloverTime(time, rollover)) {
+				Segment segment = series.getSegment(rowKeyUtils.getRowKey(
+						sensorId, propertyId, featureId, frequency, time));
+
+				if (segment != null)
+					partitions.put(time.getMillis(), segment);
+			}
+
+			ret.add(new LocalSeries(sensorId + " " + propertyId + " "
+					+ featureId, timeFrom.getMillis(), timeTo.getMillis(),
+					partitions, query.getValueFrom(), query.getValueTo(),
+					query.getLimit(), query.isDescending()));
+		}
+
+		return ret;
+	}
+
+	private List<LocalSeries> getDatasetSeries(
+			Map<DatasetObservationQuery, QuantityValue> queries) {
+		List<LocalSeries> ret = new ArrayList<LocalSeries>();
+
+		for (Map.Entry<DatasetObservationQuery, QuantityValue> entry : queries
+				.entrySet()) {
+			DatasetObservationQuery query = entry.getKey();
+			QuantityValue frequency = entry.getValue();
+			URI datasetId = query.getDatasetId();
+			DateTime timeFrom = query.getTimeFrom();
+			DateTime timeTo = query.getTimeTo();
+
+			if (datasetId == null || timeFrom == null || timeTo == null) {
+				if (log.isLoggable(Level.SEVERE))
+					log.severe("At least one parameter is null; skipped query [datasetId = "
+							+ datasetId
+							+ "; timeFrom = "
+							+ timeFrom
+							+ "; timeTo = " + timeTo + "]");
+				continue;
+			}
+
+			Rollover rollover = rowKeyUtils.getRollover(datasetId, frequency);
+
+			if (rollover == null) {
+				if (log.isLoggable(Level.SEVERE))
+					log.severe("Registration rollover is null [datasetId = "
+							+ datasetId + "; frequency = " + frequency + "]");
+				continue;
+			}
+
+			SeriesDirectory series = new SeriesDirectory(
+					rowKeyUtils.getSeriesKey(datasetId));
+			NavigableMap<Long, Segment> partitions = new TreeMap<Long, Segment>();
+
+			for (DateTime time = timeFrom; time.isBefore(timeTo); time = RowKeyUtils
+					.getNextRolloverTime(time, rollover)) {
+				Segment segment = series.getSegment(rowKeyUtils.getRowKey(
+						datasetId, frequency, time));
+
+				if (segment != null)
+					partitions.put(time.getMillis(), segment);
+			}
+
+			ret.add(new LocalSeries(datasetId.stringValue(), timeFrom
+					.getMillis(), timeTo.getMillis(), partitions));
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Returns the segment of the row key, which is opened if necessary. The
+	 * least recently used segment is closed if more are open than the
+	 * maximum; it is closed while the segments are locked, such that its
+	 * file is not opened anew before its records are written.
+	 */
+	private Segment getSegment(String seriesKey, String rowKey) {
+		synchronized (segments) {
+			Segment ret = segments.get(rowKey);
+
+			if (ret != null)
+				return ret;
+
+			ret = new Segment(new File(new File(directory, seriesKey), rowKey
+					+ SEGMENT_EXTENSION));
+			segments.put(rowKey, ret);
+
+			if (segments.size() > maxOpenSegments) {
+				Iterator<Segment> it = segments.values().iterator();
+				Segment eldest = it.next();
+
+				it.remove();
+				eldest.close();
+				closedSegments++;
+
+				if (log.isLoggable(Level.FINE))
+					log.fine("Closed segment [file = " + eldest.getFile()
+							+ "]");
+			}
+
+			return ret;
+		}
+	}
+
+	/**
+	 * Loads the latest observation of the series from its last segment, once,
+	 * such that the index of latest observations also covers series written
+	 * before the data store was opened.
+	 */
+	private void loadLatest(String seriesKey) {
+		if (!latestSeries.add(seriesKey))
+			return;
+
+		String[] names = new File(directory, seriesKey).list();
+
+		if (names == null)
+			return;
+
+		String last = null;
+
+		// Row keys end with the partition date, which sorts by time
+		for (String name : names) {
+			if (!name.endsWith(SEGMENT_EXTENSION))
+				continue;
+			if (last == null || name.compareTo(last) > 0)
+				last = name;
+		}
+
+		if (last == null)
+			return;
+
+		Segment.Record latest = getSegment(seriesKey,
+				last.substring(0, last.length() - SEGMENT_EXTENSION.length()))
+				.getLatest();
+
+		if (latest != null)
+			latestValues.put(seriesKey, latest.getTime(), latest.getValue());
+	}
+
+	private static List<LocalSeries> sort(List<LocalSeries> series) {
+		Collections.sort(series, new Comparator<LocalSeries>() {
+			@Override
+			public int compare(LocalSeries o1, LocalSeries o2) {
+				return o1.getName().compareTo(o2.getName());
+			}
+		});
+
+		return series;
+	}
+
+	/**
+	 * The segment files of a series, listed only if a segment is not open
+	 * already, and again if segments were closed since, as a segment open
+	 * when listed may have had no file.
+	 */
+	private class SeriesDirectory {
+
+		private final String seriesKey;
+		private Set<String> names = null;
+		private long listed;
+
+		private SeriesDirectory(String seriesKey) {
+			this.seriesKey = seriesKey;
+		}
+
+		private Segment getSegment(String rowKey) {
+			if (seriesKey == null || rowKey == null)
+				return null;
+
+			Segment ret;
+			long closed;
+
+			synchronized (segments) {
+				ret = segments.get(rowKey);
+				closed = closedSegments;
+			}
+
+			if (ret != null)
+				return ret;
+
+			if (names == null || listed != closed) {
+				listed = closed;
+
+				String[] list = new File(directory, seriesKey).list();
+
+				names = new HashSet<String>();
+
+				if (list != null)
+					Collections.addAll(names, list);
+			}
+
+			if (!names.contains(rowKey + SEGMENT_EXTENSION))
+				return null;
+
+			return LocalDataStore.this.getSegment(seriesKey, rowKey);
+		}
+
+	}
+
+}
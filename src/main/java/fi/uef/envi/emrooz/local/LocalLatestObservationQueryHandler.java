@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.local;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.openrdf.model.Statement;
+import org.openrdf.query.TupleQueryResultHandler;
+
+import fi.uef.envi.emrooz.api.QueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.cassandra.LatestValueIndex;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.query.IteratorResultSet;
+
+/**
+ * <p>
+ * Title: LocalLatestObservationQueryHandler
+ * </p>
+ * <p>
+ * Description: Returns the latest observation of each series, by series key,
+ * from the index of latest observations of the local data store.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class LocalLatestObservationQueryHandler implements
+		QueryHandler<Statement> {
+
+	private LatestValueIndex latestValues;
+	private Set<String> keys;
+
+	public LocalLatestObservationQueryHandler(LatestValueIndex latestValues,
+			Set<String> keys) {
+		if (latestValues == null)
+			throw new NullPointerException("[latestValues = null]");
+		if (keys == null)
+			throw new NullPointerException("[keys = null]");
+
+		this.latestValues = latestValues;
+		this.keys = keys;
+	}
+
+	@Override
+	public ResultSet<Statement> evaluate() {
+		List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+
+		for (String key : keys) {
+			LatestValueIndex.Entry entry = latestValues.get(key);
+
+			if (entry != null)
+				values.add(entry.getValue());
+		}
+
+		return new IteratorResultSet<Statement>(
+				StatementUtils.toStatementIterator(values.iterator()));
+	}
+
+	@Override
+	public void evaluate(TupleQueryResultHandler handler) {
+		throw new UnsupportedOperationException(
+				"Query evaluation with result handler not supported");
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+}
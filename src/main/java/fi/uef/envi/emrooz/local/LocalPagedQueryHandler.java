@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.local;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openrdf.model.Statement;
+import org.openrdf.query.TupleQueryResultHandler;
+
+import fi.uef.envi.emrooz.api.PagedQueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.query.Cursor;
+import fi.uef.envi.emrooz.query.IteratorResultSet;
+
+/**
+ * <p>
+ * Title: LocalPagedQueryHandler
+ * </p>
+ * <p>
+ * Description: Reads one page of observations from segments, series by series
+ * in the given order. The column of a cursor holds the time and the segment
+ * offset of the last record of the page, from which the next page resumes.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class LocalPagedQueryHandler implements PagedQueryHandler<Statement> {
+
+	private List<LocalSeries> series;
+	private Cursor cursor;
+	private int size;
+	private Cursor nextCursor = null;
+
+	private static final Logger log = Logger
+			.getLogger(LocalPagedQueryHandler.class.getName());
+
+	public LocalPagedQueryHandler(List<LocalSeries> series, Cursor cursor,
+			int size) {
+		if (series == null)
+			throw new NullPointerException("[series = null]");
+		if (size < 1)
+			throw new IllegalArgumentException("[size = " + size + "]");
+
+		this.series = series;
+		this.cursor = cursor;
+		this.size = size;
+	}
+
+	@Override
+	public ResultSet<Statement> evaluate() {
+		List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+		int index = (cursor == null) ? 0 : cursor.getSeries();
+
+		nextCursor = null;
+
+		for (; index < series.size() && nextCursor == null; index++) {
+			LocalSeries current = series.get(index);
+			NavigableMap<Long, Segment> partitions = current.getPartitions();
+			boolean resume = cursor != null && index == cursor.getSeries();
+
+			if (resume)
+				partitions = partitions.tailMap(cursor.getPartition(), true);
+
+			for (Map.Entry<Long, Segment> entry : partitions.entrySet()) {
+				List<Segment.Record> records = entry.getValue().read(
+						current.getTimeFrom(), current.getTimeTo());
+				int i = 0;
+
+				if (resume && entry.getKey() == cursor.getPartition())
+					i = getStart(records, cursor.getColumn());
+
+				for (; i < records.size() && nextCursor == null; i++) {
+					Segment.Record record = records.get(i);
+
+					values.add(record.getValue());
+
+					if (values.size() >= size)
+						nextCursor = new Cursor(index, entry.getKey(),
+								new UUID(record.getTime(), record.getOffset()));
+				}
+
+				if (nextCursor != null)
+					break;
+			}
+		}
+
+		if (log.isLoggable(Level.FINE))
+			log.fine("Read page [cursor = " + cursor + "; size = " + size
+					+ "; count = " + values.size() + "; nextCursor = "
+					+ nextCursor + "]");
+
+		return new IteratorResultSet<Statement>(
+				StatementUtils.toStatementIterator(values.iterator()));
+	}
+
+	@Override
+	public Cursor getNextCursor() {
+		return nextCursor;
+	}
+
+	@Override
+	public void evaluate(TupleQueryResultHandler handler) {
+		throw new UnsupportedOperationException(
+				"Query evaluation with result handler not supported");
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+	/**
+	 * Returns the index of the first record after the time of the column.
+	 * Records read are unique by time, so a record appended at the time since
+	 * replaces the one returned and is not returned again.
+	 */
+	private static int getStart(List<Segment.Record> records, UUID column) {
+		long time = column.getMostSignificantBits();
+		int ret = 0;
+
+		while (ret < records.size() && records.get(ret).getTime() <= time)
+			ret++;
+
+		return ret;
+	}
+
+}
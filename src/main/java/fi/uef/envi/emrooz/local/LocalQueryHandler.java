@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.local;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openrdf.model.Statement;
+import org.openrdf.query.TupleQueryResultHandler;
+
+import fi.uef.envi.emrooz.api.QueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.query.IteratorResultSet;
+
+/**
+ * <p>
+ * Title: LocalQueryHandler
+ * </p>
+ * <p>
+ * Description: Reads the observations of sensor or dataset observation
+ * queries from segments. Segments are read in time order, or reverse time
+ * order for descending limited queries, and only once the segments before
+ * them have been consumed. Segments whose values are all outside the value
+ * range of the query are skipped.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class LocalQueryHandler implements QueryHandler<Statement> {
+
+	private Collection<LocalSeries> series;
+
+	private static final Logger log = Logger.getLogger(LocalQueryHandler.class
+			.getName());
+
+	public LocalQueryHandler(Collection<LocalSeries> series) {
+		if (series == null)
+			throw new NullPointerException("[series = null]");
+
+		this.series = series;
+	}
+
+	@Override
+	public ResultSet<Statement> evaluate() {
+		return new IteratorResultSet<Statement>(
+				StatementUtils.toStatementIterator(new ValueIterator(series
+						.iterator())));
+	}
+
+	@Override
+	public void evaluate(TupleQueryResultHandler handler) {
+		throw new UnsupportedOperationException(
+				"Query evaluation with result handler not supported");
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+	private class ValueIterator implements Iterator<ByteBuffer> {
+
+		private Iterator<LocalSeries> series;
+		private LocalSeries current = null;
+		private Iterator<Segment> segments = null;
+		private Iterator<Segment.Record> records = null;
+		private long remaining = 0;
+
+		private ValueIterator(Iterator<LocalSeries> series) {
+			this.series = series;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (records == null || !records.hasNext()) {
+				if (segments != null && segments.hasNext() && remaining > 0)
+					records = read(segments.next());
+				else if (series.hasNext())
+					start(series.next());
+				else
+					return false;
+			}
+
+			return true;
+		}
+
+		@Override
+		public ByteBuffer next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			return records.next().getValue();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void start(LocalSeries series) {
+			current = series;
+			remaining = (series.hasLimit()) ? series.getLimit()
+					: Long.MAX_VALUE;
+			segments = (series.hasLimit() && series.isDescending()) ? series
+					.getPartitions().descendingMap().values().iterator()
+					: series.getPartitions().values().iterator();
+			records = null;
+		}
+
+		private Iterator<Segment.Record> read(Segment segment) {
+			if (current.hasValueRange()
+					&& !segment.mayContain(current.getValueFrom(),
+							current.getValueTo())) {
+				if (log.isLoggable(Level.FINE))
+					log.fine("Skipped segment [file = " + segment.getFile()
+							+ "]");
+
+				return Collections.emptyIterator();
+			}
+
+			List<Segment.Record> ret = segment.read(current.getTimeFrom(),
+					current.getTimeTo());
+
+			if (current.hasLimit() && current.isDescending())
+				Collections.reverse(ret);
+			if (ret.size() > remaining)
+				ret = ret.subList(0, (int) remaining);
+
+			remaining -= ret.size();
+
+			return ret.iterator();
+		}
+
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.local;
+
+import java.util.NavigableMap;
+
+/**
+ * <p>
+ * Title: LocalSeries
+ * </p>
+ * <p>
+ * Description: The segments of a series read by a query, by the start of the
+ * partition in the time interval of the query, i.e. the start of the interval
+ * for the first partition. Partitions without segment are omitted.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class LocalSeries {
+
+	private final String name;
+	private final long timeFrom;
+	private final long timeTo;
+	private final NavigableMap<Long, Segment> partitions;
+	private final Double valueFrom;
+	private final Double valueTo;
+	private final long limit;
+	private final boolean descending;
+
+	public LocalSeries(String name, long timeFrom, long timeTo,
+			NavigableMap<Long, Segment> partitions) {
+		this(name, timeFrom, timeTo, partitions, null, null, -1, false);
+	}
+
+	public LocalSeries(String name, long timeFrom, long timeTo,
+			NavigableMap<Long, Segment> partitions, Double valueFrom,
+			Double valueTo, long limit, boolean descending) {
+		if (name == null)
+			throw new NullPointerException("[name = null]");
+		if (partitions == null)
+			throw new NullPointerException("[partitions = null]");
+
+		this.name = name;
+		this.timeFrom = timeFrom;
+		this.timeTo = timeTo;
+		this.partitions = partitions;
+		this.valueFrom = valueFrom;
+		this.valueTo = valueTo;
+		this.limit = limit;
+		this.descending = descending;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getTimeFrom() {
+		return timeFrom;
+	}
+
+	public long getTimeTo() {
+		return timeTo;
+	}
+
+	public NavigableMap<Long, Segment> getPartitions() {
+		return partitions;
+	}
+
+	public Double getValueFrom() {
+		return valueFrom;
+	}
+
+	public Double getValueTo() {
+		return valueTo;
+	}
+
+	public boolean hasValueRange() {
+		return valueFrom != null || valueTo != null;
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	public boolean hasLimit() {
+		return limit >= 0;
+	}
+
+	public boolean isDescending() {
+		return descending;
+	}
+
+	public long getCount() {
+		long ret = 0;
+
+		for (Segment segment : partitions.values())
+			ret += segment.getCount();
+
+		return ret;
+	}
+
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.local;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Title: Segment
+ * </p>
+ * <p>
+ * Description: An append-only file with the observations of one partition of
+ * a series. Each record is a header, i.e. the time (long), the numeric value
+ * (double, NaN if unknown) and the length of the value (int), followed by the
+ * value. Appends are buffered until written, which happens when the buffer is
+ * full, before reads and when flushed. Records are read from read-only
+ * mappings of the file and returned as slices of the mappings, without copy.
+ * </p>
+ * <p>
+ * The file is mapped in regions that end at record boundaries. A read after
+ * appends maps only the records written since, together with the last
+ * region if it is smaller than 16 MB, such that records are mapped at most
+ * about twice however reads and appends interleave.
+ * </p>
+ * <p>
+ * A sparse index of the time of the first record of every 4 KB of the file is
+ * kept in memory and rebuilt from the record headers when the segment is
+ * opened. Reads of segments appended in time order start at the index entry
+ * before the time interval and stop at its end; segments with records out of
+ * time order are read in full and sorted. A record cut short by a crash is
+ * truncated when the segment is opened. Segments are limited to 2 GB.
+ * </p>
+ * <p>
+ * As in Cassandra, a record appended with the time of an earlier record
+ * replaces it. Both remain in the file, and are counted, but reads return
+ * only the last appended.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class Segment {
+
+	private final File file;
+	private final ByteArrayOutputStream pending;
+	private long size = 0;
+	private boolean unsynced = false;
+	private long count = 0;
+	private long minTime = Long.MAX_VALUE;
+	private long maxTime = Long.MIN_VALUE;
+	private double minValue = Double.NaN;
+	private double maxValue = Double.NaN;
+	private boolean sorted = true;
+	private long latestOffset = -1;
+	private long[] indexTimes;
+	private long[] indexOffsets;
+	private int indexSize = 0;
+	private long nextIndexOffset = 0;
+	private final List<Region> regions;
+	private boolean closed = false;
+
+	public static final int HEADER_SIZE = 20;
+	private static final int INDEX_INTERVAL = 4096;
+	private static final int WRITE_BUFFER_SIZE = 65536;
+	private static final int REGION_SIZE = 1 << 24;
+	private static final Logger log = Logger.getLogger(Segment.class
+			.getName());
+
+	public Segment(File file) {
+		if (file == null)
+			throw new NullPointerException("[file = null]");
+
+		this.file = file;
+		this.pending = new ByteArrayOutputStream();
+		this.indexTimes = new long[16];
+		this.indexOffsets = new long[16];
+		this.regions = new ArrayList<Region>();
+
+		if (file.exists())
+			open();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized long getSize() {
+		return size + pending.size();
+	}
+
+	public synchronized long getMinTime() {
+		return minTime;
+	}
+
+	public synchronized long getMaxTime() {
+		return maxTime;
+	}
+
+	/**
+	 * Returns whether the segment may contain observations with values in
+	 * the range, i.e. false only if all values are known and outside it.
+	 */
+	public synchronized boolean mayContain(Double valueFrom, Double valueTo) {
+		if (count == 0)
+			return false;
+		if (Double.isNaN(minValue) || Double.isNaN(maxValue))
+			return true;
+
+		return !((valueFrom != null && maxValue < valueFrom) || (valueTo != null && minValue > valueTo));
+	}
+
+	/**
+	 * Appends the record, unless the segment is closed.
+	 * 
+	 * @return false if the segment is closed and the record not appended
+	 */
+	public synchronized boolean append(long time, double value, byte[] bytes) {
+		if (bytes == null)
+			throw new NullPointerException("[bytes = null]");
+		if (closed)
+			return false;
+
+		long offset = size + pending.size();
+
+		if (offset + HEADER_SIZE + bytes.length > Integer.MAX_VALUE)
+			throw new IllegalStateException("Segment is full [file = " + file
+					+ "; size = " + offset + "]");
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+		header.putLong(time);
+		header.putDouble(value);
+		header.putInt(bytes.length);
+
+		pending.write(header.array(), 0, HEADER_SIZE);
+		pending.write(bytes, 0, bytes.length);
+
+		index(offset, time, value);
+
+		if (pending.size() >= WRITE_BUFFER_SIZE)
+			write(false);
+
+		return true;
+	}
+
+	/**
+	 * Writes the buffered records and syncs the file to disk.
+	 */
+	public synchronized void flush() {
+		write(true);
+	}
+
+	/**
+	 * Writes the buffered records, syncs the file to disk and unmaps it.
+	 * Appends to a closed segment fail; reads return the records written
+	 * before it was closed.
+	 */
+	public synchronized void close() {
+		write(true);
+
+		closed = true;
+		regions.clear();
+	}
+
+	/**
+	 * Returns the records with time in the interval, in time order. Of
+	 * records with equal time, only the last appended is returned.
+	 */
+	public synchronized List<Record> read(long timeFrom, long timeTo) {
+		if (count == 0 || timeFrom > maxTime || timeTo <= minTime)
+			return Collections.emptyList();
+
+		write(false);
+		map();
+
+		List<Record> ret = new ArrayList<Record>();
+		long start = (sorted) ? getStart(timeFrom) : 0;
+
+		regions: for (int i = getRegion(start); i < regions.size(); i++) {
+			Region region = regions.get(i);
+			ByteBuffer buffer = region.buffer;
+			int position = (int) Math.max(0, start - region.offset);
+
+			while (position < buffer.capacity()) {
+				long time = buffer.getLong(position);
+				int length = buffer.getInt(position + 16);
+
+				if (sorted && time >= timeTo)
+					break regions;
+
+				if (time >= timeFrom && time < timeTo)
+					ret.add(new Record(time, region.offset + position, slice(
+							buffer, position + HEADER_SIZE, length)));
+
+				position += HEADER_SIZE + length;
+			}
+		}
+
+		if (!sorted)
+			Collections.sort(ret);
+
+		return replace(ret);
+	}
+
+	/**
+	 * Returns the record with the latest time, or null if the segment is
+	 * empty. Of records with equal time, the last appended is returned.
+	 */
+	public synchronized Record getLatest() {
+		if (latestOffset < 0)
+			return null;
+
+		write(false);
+		map();
+
+		Region region = regions.get(getRegion(latestOffset));
+		ByteBuffer buffer = region.buffer;
+		int position = (int) (latestOffset - region.offset);
+
+		return new Record(buffer.getLong(position), latestOffset, slice(
+				buffer, position + HEADER_SIZE, buffer.getInt(position + 16)));
+	}
+
+	private void open() {
+		size = file.length();
+
+		if (size == 0)
+			return;
+
+		map();
+
+		// A segment is opened with a single region
+		ByteBuffer buffer = regions.get(0).buffer;
+		long position = 0;
+
+		while (position < size) {
+			if (position + HEADER_SIZE > size) {
+				truncate(position);
+				break;
+			}
+
+			int p = (int) position;
+			int length = buffer.getInt(p + 16);
+
+			if (length < 0 || position + HEADER_SIZE + length > size) {
+				truncate(position);
+				break;
+			}
+
+			index(position, buffer.getLong(p), buffer.getDouble(p + 8));
+
+			position += HEADER_SIZE + length;
+		}
+
+		if (log.isLoggable(Level.FINE))
+			log.fine("Opened segment [file = " + file + "; count = " + count
+					+ "; size = " + size + "; sorted = " + sorted + "]");
+	}
+
+	private void truncate(long position) {
+		if (log.isLoggable(Level.WARNING))
+			log.warning("Truncated incomplete record [file = " + file
+					+ "; size = " + size + "; position = " + position + "]");
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(position);
+			raf.getFD().sync();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		size = position;
+		regions.clear();
+	}
+
+	private void index(long offset, long time, double value) {
+		if (count == 0) {
+			minValue = value;
+			maxValue = value;
+		} else {
+			// NaN values propagate, i.e. the value range becomes unknown
+			minValue = (Double.isNaN(value)) ? value : Math.min(minValue,
+					value);
+			maxValue = (Double.isNaN(value)) ? value : Math.max(maxValue,
+					value);
+		}
+
+		if (time < maxTime)
+			sorted = false;
+		if (time >= maxTime)
+			latestOffset = offset;
+
+		minTime = Math.min(minTime, time);
+		maxTime = Math.max(maxTime, time);
+		count++;
+
+		if (offset < nextIndexOffset)
+			return;
+
+		if (indexSize == indexTimes.length) {
+			indexTimes = Arrays.copyOf(indexTimes, indexSize * 2);
+			indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+		}
+
+		indexTimes[indexSize] = time;
+		indexOffsets[indexSize] = offset;
+		indexSize++;
+		nextIndexOffset = offset + INDEX_INTERVAL;
+	}
+
+	/**
+	 * Removes from the records sorted by time and offset those replaced by a
+	 * later record of equal time.
+	 */
+	private static List<Record> replace(List<Record> records) {
+		int n = 0;
+
+		for (int i = 0; i < records.size(); i++) {
+			Record record = records.get(i);
+
+			if (n > 0 && records.get(n - 1).time == record.time)
+				n--;
+
+			records.set(n++, record);
+		}
+
+		return records.subList(0, n);
+	}
+
+	/**
+	 * Returns the offset of the last index entry with time before the time,
+	 * i.e. of a record at or before the first record at the time.
+	 */
+	private long getStart(long time) {
+		int low = 0;
+		int high = indexSize - 1;
+		long ret = 0;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+
+			if (indexTimes[mid] < time) {
+				ret = indexOffsets[mid];
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		return ret;
+	}
+
+	private void write(boolean sync) {
+		if (pending.size() == 0 && !(sync && unsynced))
+			return;
+
+		File parent = file.getParentFile();
+
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+			throw new RuntimeException("Failed to create directory [directory = "
+					+ parent + "]");
+
+		try (FileOutputStream out = new FileOutputStream(file, true)) {
+			pending.writeTo(out);
+
+			if (sync)
+				out.getFD().sync();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		size += pending.size();
+		unsynced = !sync;
+		pending.reset();
+	}
+
+	/**
+	 * Maps the records written since the last mapping, together with the
+	 * last region if it is smaller than {@link #REGION_SIZE}.
+	 */
+	private void map() {
+		long offset = 0;
+
+		if (!regions.isEmpty()) {
+			Region last = regions.get(regions.size() - 1);
+
+			offset = last.offset + last.buffer.capacity();
+
+			if (offset >= size)
+				return;
+
+			if (last.buffer.capacity() < REGION_SIZE) {
+				offset = last.offset;
+				regions.remove(regions.size() - 1);
+			}
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			regions.add(new Region(offset, raf.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, offset, size - offset)));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the index of the region with the offset.
+	 */
+	private int getRegion(long offset) {
+		int low = 0;
+		int high = regions.size() - 1;
+		int ret = 0;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+
+			if (regions.get(mid).offset <= offset) {
+				ret = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		return ret;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int position,
+			int length) {
+		ByteBuffer ret = buffer.duplicate();
+
+		ret.limit(position + length);
+		ret.position(position);
+
+		return ret.slice();
+	}
+
+	private static class Region {
+
+		private final long offset;
+		private final MappedByteBuffer buffer;
+
+		private Region(long offset, MappedByteBuffer buffer) {
+			this.offset = offset;
+			this.buffer = buffer;
+		}
+
+	}
+
+	public static class Record implements Comparable<Record> {
+
+		private final long time;
+		private final long offset;
+		private final ByteBuffer value;
+
+		private Record(long time, long offset, ByteBuffer value) {
+			this.time = time;
+			this.offset = offset;
+			this.value = value;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * Returns the offset of the record in the segment, which orders
+		 * records of equal time by append.
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		public ByteBuffer getValue() {
+			return value.duplicate();
+		}
+
+		@Override
+		public int compareTo(Record other) {
+			if (time != other.time)
+				return (time < other.time) ? -1 : 1;
+			if (offset != other.offset)
+				return (offset < other.offset) ? -1 : 1;
+
+			return 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.memory;
+
+import java.util.Collection;
+
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryResultHandlerException;
+import org.openrdf.query.TupleQueryResultHandler;
+
+import fi.uef.envi.emrooz.api.QueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.query.BucketSummary;
+import fi.uef.envi.emrooz.query.IteratorResultSet;
+import fi.uef.envi.emrooz.query.QueryContext;
+import fi.uef.envi.emrooz.query.TimeBucketAggregation;
+import fi.uef.envi.emrooz.query.TimeBucketAggregator;
+import fi.uef.envi.emrooz.query.TimeBucketFunction;
+
+/**
+ * <p>
+ * Title: MemoryAggregateQueryHandler
+ * </p>
+ * <p>
+ * Description: Evaluates a time bucket aggregation over the numeric values
+ * of series in memory, without decoding observations. Values are summarized
+ * per bucket as they are read in time order; observations without numeric
+ * value are skipped.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class MemoryAggregateQueryHandler implements QueryHandler<BindingSet> {
+
+	private Collection<MemoryRange> ranges;
+	private TimeBucketAggregation aggregation;
+	private QueryContext context;
+
+	public MemoryAggregateQueryHandler(Collection<MemoryRange> ranges,
+			TimeBucketAggregation aggregation) {
+		this(ranges, aggregation, null);
+	}
+
+	/**
+	 * Creates a handler that stops aggregating once the context, if not
+	 * null, is cancelled.
+	 */
+	public MemoryAggregateQueryHandler(Collection<MemoryRange> ranges,
+			TimeBucketAggregation aggregation, QueryContext context) {
+		if (ranges == null)
+			throw new NullPointerException("[ranges = null]");
+		if (aggregation == null)
+			throw new NullPointerException("[aggregation = null]");
+
+		this.ranges = ranges;
+		this.aggregation = aggregation;
+		this.context = (context == null) ? new QueryContext() : context;
+	}
+
+	@Override
+	public ResultSet<BindingSet> evaluate() {
+		return new IteratorResultSet<BindingSet>(aggregate().getBindingSets()
+				.iterator());
+	}
+
+	@Override
+	public void evaluate(TupleQueryResultHandler handler) {
+		TimeBucketAggregator aggregator = aggregate();
+
+		try {
+			handler.startQueryResult(aggregation.getBindingNames());
+
+			for (BindingSet bindingSet : aggregator.getBindingSets())
+				handler.handleSolution(bindingSet);
+
+			handler.endQueryResult();
+		} catch (QueryResultHandlerException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+	private TimeBucketAggregator aggregate() {
+		TimeBucketAggregator ret = new TimeBucketAggregator(aggregation);
+
+		for (MemoryRange range : ranges) {
+			MemorySeries series = range.getSeries();
+
+			if (series == null)
+				continue;
+
+			aggregate(ret, series.scan(range.getTimeFrom(), range.getTimeTo(),
+					null, null, false));
+		}
+
+		return ret;
+	}
+
+	private void aggregate(TimeBucketAggregator aggregator,
+			MemorySeries.Scan scan) {
+		long duration = aggregation.getDuration();
+		long bucket = 0;
+		BucketSummary summary = null;
+
+		while (scan.next()) {
+			context.check();
+
+			double value = scan.getValue();
+
+			if (Double.isNaN(value))
+				continue;
+
+			long time = scan.getTime();
+			long start = TimeBucketFunction.floor(time, duration);
+
+			if (summary == null || start != bucket) {
+				aggregator.add(bucket, summary);
+				bucket = start;
+				summary = new BucketSummary();
+			}
+
+			summary.add(time, value);
+		}
+
+		aggregator.add(bucket, summary);
+	}
+
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+
+import fi.uef.envi.emrooz.api.DataStore;
+import fi.uef.envi.emrooz.cassandra.utils.RollupUtils;
+import fi.uef.envi.emrooz.cassandra.utils.RowKeyUtils;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.query.Cursor;
+import fi.uef.envi.emrooz.query.DatasetObservationQuery;
+import fi.uef.envi.emrooz.query.QueryContext;
+import fi.uef.envi.emrooz.query.QueryCost;
+import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.query.TimeBucketAggregation;
+
+/**
+ * <p>
+ * Title: MemoryDataStore
+ * </p>
+ * <p>
+ * Description: A data store that keeps observations in memory, e.g. for tests
+ * and benchmarks without a database. Each series, by series key, is held in
+ * time sorted chunks of primitive arrays, with observations encoded as
+ * binary RDF and their numeric values next to them, such that aggregations
+ * are evaluated without decoding observations. Observations may be added and
+ * read concurrently. As in Cassandra, an observation added with the time of
+ * a stored one of its series replaces it; nothing is durable.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class MemoryDataStore implements DataStore {
+
+	private final ConcurrentMap<String, MemorySeries> series;
+	private final RowKeyUtils rowKeyUtils;
+	private final ConcurrentMap<String, String> metadata;
+
+	private static final Logger log = Logger.getLogger(MemoryDataStore.class
+			.getName());
+
+	public MemoryDataStore() {
+		this.series = new ConcurrentHashMap<String, MemorySeries>();
+		this.rowKeyUtils = new RowKeyUtils();
+		this.metadata = new ConcurrentHashMap<String, String>();
+	}
+
+	@Override
+	public void addSensorObservation(URI sensorId, URI propertyId,
+			URI featureId, Frequency frequency, DateTime resultTime,
+			Set<Statement> statements) {
+		if (sensorId == null || propertyId == null || featureId == null
+				|| resultTime == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("At least one parameter is null [sensorId = "
+						+ sensorId + "; propertyId = " + propertyId
+						+ "; featureId = " + featureId + "; resultTime = "
+						+ resultTime + "]");
+			return;
+		}
+
+		if (statements.isEmpty()) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("Empty collection of statements [sensorId = "
+						+ sensorId + "; propertyId = " + propertyId
+						+ "; featureId = " + featureId + "; resultTime = "
+						+ resultTime + "; statements = " + statements + "]");
+			return;
+		}
+
+		Double value = RollupUtils.getValue(statements);
+
+		add(rowKeyUtils.getSeriesKey(sensorId, propertyId, featureId),
+				resultTime, (value == null) ? Double.NaN : value, statements);
+	}
+
+	@Override
+	public void addDatasetObservation(URI datasetId, QuantityValue frequency,
+			DateTime timePeriod, Set<Statement> statements) {
+		if (datasetId == null || timePeriod == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("At least one parameter is null [datasetId = "
+						+ datasetId + "; timePeriod = " + timePeriod + "]");
+			return;
+		}
+
+		if (statements.isEmpty()) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("Empty collection of statements [datasetId = "
+						+ datasetId + "; timePeriod = " + timePeriod
+						+ "; statements = " + statements + "]");
+			return;
+		}
+
+		add(rowKeyUtils.getSeriesKey(datasetId), timePeriod, Double.NaN,
+				statements);
+	}
+
+	@Override
+	public MemoryQueryHandler createSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries) {
+		return new MemoryQueryHandler(getSensorRanges(queries));
+	}
+
+	@Override
+	public MemoryAggregateQueryHandler createSensorObservationAggregateQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation, QueryContext context) {
+		return new MemoryAggregateQueryHandler(getSensorRanges(queries),
+				aggregation, context);
+	}
+
+	@Override
+	public QueryCost estimateSensorObservationQueryCost(
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation) {
+		long partitions = 0;
+		long rows = 0;
+
+		// Chunks read and observations in the interval, both exact
+		for (MemoryRange range : getSensorRanges(queries)) {
+			if (range.getSeries() == null)
+				continue;
+
+			partitions += range.getSeries().countChunks(range.getTimeFrom(),
+					range.getTimeTo());
+			rows += range.getCount();
+		}
+
+		return new QueryCost(partitions, rows);
+	}
+
+	@Override
+	public MemoryQueryHandler createDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries) {
+		return new MemoryQueryHandler(getDatasetRanges(queries));
+	}
+
+	@Override
+	public MemoryPagedQueryHandler createSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries, Cursor cursor,
+			int size) {
+		return new MemoryPagedQueryHandler(sort(getSensorRanges(queries)),
+				cursor, size);
+	}
+
+	@Override
+	public MemoryPagedQueryHandler createDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries, Cursor cursor,
+			int size) {
+		return new MemoryPagedQueryHandler(sort(getDatasetRanges(queries)),
+				cursor, size);
+	}
+
+	@Override
+	public MemoryLatestObservationQueryHandler createLatestSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries) {
+		List<MemorySeries> ret = new ArrayList<MemorySeries>();
+
+		for (SensorObservationQuery query : queries.keySet()) {
+			MemorySeries s = getSeries(rowKeyUtils.getSeriesKey(
+					query.getSensorId(), query.getPropertyId(),
+					query.getFeatureOfInterestId()));
+
+			if (s != null && !ret.contains(s))
+				ret.add(s);
+		}
+
+		return new MemoryLatestObservationQueryHandler(ret);
+	}
+
+	@Override
+	public MemoryLatestObservationQueryHandler createLatestDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries) {
+		List<MemorySeries> ret = new ArrayList<MemorySeries>();
+
+		for (DatasetObservationQuery query : queries.keySet()) {
+			MemorySeries s = getSeries(rowKeyUtils.getSeriesKey(query
+					.getDatasetId()));
+
+			if (s != null && !ret.contains(s))
+				ret.add(s);
+		}
+
+		return new MemoryLatestObservationQueryHandler(ret);
+	}
+
+	/**
+	 * Removes observations before the time, in whole chunks, such that some
+	 * observations before the time may remain. Series are kept, also if
+	 * empty, as observations may be added to them concurrently.
+	 */
+	public void removeBefore(DateTime time) {
+		if (time == null)
+			throw new NullPointerException("[time = null]");
+
+		for (MemorySeries s : series.values())
+			s.removeBefore(time.getMillis());
+	}
+
+	@Override
+	public void flush() {
+		// Observations are readable once added
+	}
+
+	@Override
+	public String getMetadata(String key) {
+		if (key == null)
+			throw new NullPointerException("[key = null]");
+
+		return metadata.get(key);
+	}
+
+	@Override
+	public void setMetadata(String key, String value) {
+		if (key == null)
+			throw new NullPointerException("[key = null]");
+
+		if (value == null)
+			metadata.remove(key);
+		else
+			metadata.put(key, value);
+	}
+
+	@Override
+	public void close() {
+		series.clear();
+		metadata.clear();
+	}
+
+	private void add(String seriesKey, DateTime time, double value,
+			Set<Statement> statements) {
+		if (seriesKey == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("Failed to compute series key [time = " + time
+						+ "]");
+			return;
+		}
+
+		MemorySeries s = series.get(seriesKey);
+
+		if (s == null) {
+			MemorySeries created = new MemorySeries();
+
+			s = series.putIfAbsent(seriesKey, created);
+
+			if (s == null)
+				s = created;
+		}
+
+		s.append(time.getMillis(), value, StatementUtils.toByteArray(statements));
+	}
+
+	private MemorySeries getSeries(String seriesKey) {
+		if (seriesKey == null)
+			return null;
+
+		return series.get(seriesKey);
+	}
+
+	private List<MemoryRange> getSensorRanges(
+			Map<SensorObservationQuery, Frequency> queries) {
+		List<MemoryRange> ret = new ArrayList<MemoryRange>();
+
+		for (SensorObservationQuery query : queries.keySet()) {
+			URI sensorId = query.getSensorId();
+			URI propertyId = query.getPropertyId();
+			URI featureId = query.getFeatureOfInterestId();
+			DateTime timeFrom = query.getTimeFrom();
+			DateTime timeTo = query.getTimeTo();
+
+			if (sensorId == null || propertyId == null || featureId == null
+					|| timeFrom == null || timeTo == null) {
+				if (log.isLoggable(Level.SEVERE))
+					log.severe("At least one parameter is null; skipped query [sensorId = "
+							+ sensorId
+							+ "; propertyId = "
+							+ propertyId
+							+ "; featureId = "
+							+ featureId
+							+ "; timeFrom = "
+							+ timeFrom
+							+ "; timeTo = "
+							+ timeTo + "]");
+				continue;
+			}
+
+			ret.add(new MemoryRange(sensorId + " " + propertyId + " "
+					+ featureId, getSeries(rowKeyUtils.getSeriesKey(sensorId,
+					propertyId, featureId)), timeFrom.getMillis(), timeTo
+					.getMillis(), query.getValueFrom(), query.getValueTo(),
+					query.getLimit(), query.isDescending()));
+		}
+
+		return ret;
+	}
+
+	private List<MemoryRange> getDatasetRanges(
+			Map<DatasetObservationQuery, QuantityValue> queries) {
+		List<MemoryRange> ret = new ArrayList<MemoryRange>();
+
+		for (DatasetObservationQuery query : queries.keySet()) {
+			URI datasetId = query.getDatasetId();
+			DateTime timeFrom = query.getTimeFrom();
+			DateTime timeTo = query.getTimeTo();
+
+			if (datasetId == null || timeFrom == null || timeTo == null) {
+				if (log.isLoggable(Level.SEVERE))
+					log.severe("At least one parameter is null; skipped query [datasetId = "
+							+ datasetId
+							+ "; timeFrom = "
+							+ timeFrom
+							+ "; timeTo = " + timeTo + "]");
+				continue;
+			}
+
+			ret.add(new MemoryRange(datasetId.stringValue(),
+					getSeries(rowKeyUtils.getSeriesKey(datasetId)), timeFrom
+							.getMillis(), timeTo.getMillis()));
+		}
+
+		return ret;
+	}
+
+	private static List<MemoryRange> sort(List<MemoryRange> ranges) {
+		Collections.sort(ranges, new Comparator<MemoryRange>() {
+			@Override
+			public int compare(MemoryRange o1, MemoryRange o2) {
+				return o1.getName().compareTo(o2.getName());
+			}
+		});
+
+		return ranges;
+	}
+
+}
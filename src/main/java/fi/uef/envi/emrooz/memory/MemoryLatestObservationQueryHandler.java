@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.memory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openrdf.model.Statement;
+import org.openrdf.query.TupleQueryResultHandler;
+
+import fi.uef.envi.emrooz.api.QueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.query.IteratorResultSet;
+
+/**
+ * <p>
+ * Title: MemoryLatestObservationQueryHandler
+ * </p>
+ * <p>
+ * Description: Returns the latest observation of each series in memory,
+ * i.e. the last of the series in time order.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class MemoryLatestObservationQueryHandler implements
+		QueryHandler<Statement> {
+
+	private Collection<MemorySeries> series;
+
+	public MemoryLatestObservationQueryHandler(Collection<MemorySeries> series) {
+		if (series == null)
+			throw new NullPointerException("[series = null]");
+
+		this.series = series;
+	}
+
+	@Override
+	public ResultSet<Statement> evaluate() {
+		List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+
+		for (MemorySeries s : series) {
+			ByteBuffer value = s.getLatest();
+
+			if (value != null)
+				values.add(value);
+		}
+
+		return new IteratorResultSet<Statement>(
+				StatementUtils.toStatementIterator(values.iterator()));
+	}
+
+	@Override
+	public void evaluate(TupleQueryResultHandler handler) {
+		throw new UnsupportedOperationException(
+				"Query evaluation with result handler not supported");
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+}
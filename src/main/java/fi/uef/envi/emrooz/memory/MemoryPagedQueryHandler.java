@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.memory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openrdf.model.Statement;
+import org.openrdf.query.TupleQueryResultHandler;
+
+import fi.uef.envi.emrooz.api.PagedQueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.query.Cursor;
+import fi.uef.envi.emrooz.query.IteratorResultSet;
+
+/**
+ * <p>
+ * Title: MemoryPagedQueryHandler
+ * </p>
+ * <p>
+ * Description: Reads one page of observations from series in memory, series
+ * by series in the given order. Series are not partitioned, hence the
+ * partition of a cursor is 0; its column holds the time and the sequence
+ * number of the last observation of the page, from which the next page
+ * resumes.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class MemoryPagedQueryHandler implements PagedQueryHandler<Statement> {
+
+	private List<MemoryRange> ranges;
+	private Cursor cursor;
+	private int size;
+	private Cursor nextCursor = null;
+
+	private static final Logger log = Logger
+			.getLogger(MemoryPagedQueryHandler.class.getName());
+
+	public MemoryPagedQueryHandler(List<MemoryRange> ranges, Cursor cursor,
+			int size) {
+		if (ranges == null)
+			throw new NullPointerException("[ranges = null]");
+		if (size < 1)
+			throw new IllegalArgumentException("[size = " + size + "]");
+
+		this.ranges = ranges;
+		this.cursor = cursor;
+		this.size = size;
+	}
+
+	@Override
+	public ResultSet<Statement> evaluate() {
+		List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+		int index = (cursor == null) ? 0 : cursor.getSeries();
+
+		nextCursor = null;
+
+		for (; index < ranges.size() && nextCursor == null; index++) {
+			MemoryRange range = ranges.get(index);
+			MemorySeries series = range.getSeries();
+
+			if (series == null)
+				continue;
+
+			boolean resume = cursor != null && index == cursor.getSeries();
+			long time = (resume) ? cursor.getColumn().getMostSignificantBits()
+					: range.getTimeFrom();
+			long sequence = (resume) ? cursor.getColumn()
+					.getLeastSignificantBits() : -1;
+			MemorySeries.Scan scan = series.scan(
+					Math.max(time, range.getTimeFrom()), range.getTimeTo(),
+					null, null, false);
+
+			while (nextCursor == null && scan.next()) {
+				// Observations at the time of the cursor up to its own
+				if (scan.getTime() == time && scan.getSequence() <= sequence)
+					continue;
+
+				values.add(scan.getData());
+
+				if (values.size() >= size)
+					nextCursor = new Cursor(index, 0, new UUID(scan.getTime(),
+							scan.getSequence()));
+			}
+		}
+
+		if (log.isLoggable(Level.FINE))
+			log.fine("Read page [cursor = " + cursor + "; size = " + size
+					+ "; count = " + values.size() + "; nextCursor = "
+					+ nextCursor + "]");
+
+		return new IteratorResultSet<Statement>(
+				StatementUtils.toStatementIterator(values.iterator()));
+	}
+
+	@Override
+	public Cursor getNextCursor() {
+		return nextCursor;
+	}
+
+	@Override
+	public void evaluate(TupleQueryResultHandler handler) {
+		throw new UnsupportedOperationException(
+				"Query evaluation with result handler not supported");
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.memory;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.openrdf.model.Statement;
+import org.openrdf.query.TupleQueryResultHandler;
+
+import fi.uef.envi.emrooz.api.QueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.query.IteratorResultSet;
+
+/**
+ * <p>
+ * Title: MemoryQueryHandler
+ * </p>
+ * <p>
+ * Description: Reads the observations of sensor or dataset observation
+ * queries from series in memory, one observation at a time as the results
+ * are consumed. Series are read in time order, or reverse time order for
+ * descending limited queries.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class MemoryQueryHandler implements QueryHandler<Statement> {
+
+	private Collection<MemoryRange> ranges;
+
+	public MemoryQueryHandler(Collection<MemoryRange> ranges) {
+		if (ranges == null)
+			throw new NullPointerException("[ranges = null]");
+
+		this.ranges = ranges;
+	}
+
+	@Override
+	public ResultSet<Statement> evaluate() {
+		return new IteratorResultSet<Statement>(
+				StatementUtils.toStatementIterator(new ValueIterator(ranges
+						.iterator())));
+	}
+
+	@Override
+	public void evaluate(TupleQueryResultHandler handler) {
+		throw new UnsupportedOperationException(
+				"Query evaluation with result handler not supported");
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+	private static class ValueIterator implements Iterator<ByteBuffer> {
+
+		private Iterator<MemoryRange> ranges;
+		private MemorySeries.Scan scan = null;
+		private long remaining = 0;
+		private boolean next = false;
+
+		private ValueIterator(Iterator<MemoryRange> ranges) {
+			this.ranges = ranges;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!next) {
+				if (scan != null && remaining > 0 && scan.next()) {
+					remaining--;
+					next = true;
+				} else if (ranges.hasNext()) {
+					MemoryRange range = ranges.next();
+
+					scan = range.scan();
+					remaining = (range.hasLimit()) ? range.getLimit()
+							: Long.MAX_VALUE;
+				} else {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		@Override
+		public ByteBuffer next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			next = false;
+
+			return scan.getData();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
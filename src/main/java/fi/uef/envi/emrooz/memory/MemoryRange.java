@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.memory;
+
+/**
+ * <p>
+ * Title: MemoryRange
+ * </p>
+ * <p>
+ * Description: The time interval of a series read by a query, with the value
+ * range, limit and order of the query. The series is null if no observation
+ * of the series was added.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class MemoryRange {
+
+	private final String name;
+	private final MemorySeries series;
+	private final long timeFrom;
+	private final long timeTo;
+	private final Double valueFrom;
+	private final Double valueTo;
+	private final long limit;
+	private final boolean descending;
+
+	public MemoryRange(String name, MemorySeries series, long timeFrom,
+			long timeTo) {
+		this(name, series, timeFrom, timeTo, null, null, -1, false);
+	}
+
+	public MemoryRange(String name, MemorySeries series, long timeFrom,
+			long timeTo, Double valueFrom, Double valueTo, long limit,
+			boolean descending) {
+		if (name == null)
+			throw new NullPointerException("[name = null]");
+
+		this.name = name;
+		this.series = series;
+		this.timeFrom = timeFrom;
+		this.timeTo = timeTo;
+		this.valueFrom = valueFrom;
+		this.valueTo = valueTo;
+		this.limit = limit;
+		this.descending = descending;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public MemorySeries getSeries() {
+		return series;
+	}
+
+	public long getTimeFrom() {
+		return timeFrom;
+	}
+
+	public long getTimeTo() {
+		return timeTo;
+	}
+
+	public Double getValueFrom() {
+		return valueFrom;
+	}
+
+	public Double getValueTo() {
+		return valueTo;
+	}
+
+	public boolean hasValueRange() {
+		return valueFrom != null || valueTo != null;
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	public boolean hasLimit() {
+		return limit >= 0;
+	}
+
+	public boolean isDescending() {
+		return descending;
+	}
+
+	/**
+	 * Returns a scan of the observations in the range, or null if the series
+	 * is null. Only limited queries are read in reverse time order.
+	 */
+	public MemorySeries.Scan scan() {
+		if (series == null)
+			return null;
+
+		return series.scan(timeFrom, timeTo, valueFrom, valueTo, hasLimit()
+				&& descending);
+	}
+
+	public long getCount() {
+		if (series == null)
+			return 0;
+
+		return series.count(timeFrom, timeTo);
+	}
+
+}
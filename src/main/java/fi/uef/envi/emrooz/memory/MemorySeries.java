@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.memory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Title: MemorySeries
+ * </p>
+ * <p>
+ * Description: The observations of a series in memory, sorted by time and
+ * held in chunks of primitive arrays, i.e. the times, the numeric values (NaN
+ * if unknown) and the end offsets of the encoded observations, which are
+ * packed into one byte array per chunk. An observation appended with the
+ * time of a stored one replaces it, as in Cassandra, and keeps its sequence
+ * number, which orders observations for paging.
+ * </p>
+ * <p>
+ * Appends are serialized, reads are not blocked. Observations appended in
+ * time order are written in place to the last chunk and published by its
+ * size. Observations appended out of time order are inserted into a copy of
+ * their chunk, which replaces the chunk in a copy of the chunk array, as do
+ * observations that replace a stored one. Reads thus see the chunks and sizes at the time they started.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class MemorySeries {
+
+	private volatile Chunk[] chunks;
+	private long sequence = 0;
+
+	public static final int CHUNK_SIZE = 1024;
+	private static final int DATA_SIZE = 16 * 1024;
+
+	public MemorySeries() {
+		this.chunks = new Chunk[0];
+	}
+
+	public synchronized void append(long time, double value, byte[] bytes) {
+		if (bytes == null)
+			throw new NullPointerException("[bytes = null]");
+
+		Chunk[] current = chunks;
+
+		if (current.length == 0) {
+			chunks = new Chunk[] { new Chunk(time, sequence++, value, bytes) };
+			return;
+		}
+
+		Chunk last = current[current.length - 1];
+
+		if (time > last.getLastTime()) {
+			if (last.size < CHUNK_SIZE) {
+				last.append(time, sequence++, value, bytes);
+			} else {
+				Chunk[] next = Arrays.copyOf(current, current.length + 1);
+
+				next[current.length] = new Chunk(time, sequence++, value,
+						bytes);
+				chunks = next;
+			}
+
+			return;
+		}
+
+		// Times are unique, so an observation of equal time is in this chunk
+		int i = getChunk(current, time, true);
+		Chunk c = current[i];
+		int index = lowerBound(c.times, c.size, time);
+
+		if (index < c.size && c.times[index] == time) {
+			Chunk[] next = Arrays.copyOf(current, current.length);
+
+			next[i] = c.replace(index, value, bytes);
+			chunks = next;
+
+			return;
+		}
+
+		Chunk[] inserted = c.insert(time, sequence++, value, bytes);
+		Chunk[] next = new Chunk[current.length + inserted.length - 1];
+
+		System.arraycopy(current, 0, next, 0, i);
+		System.arraycopy(inserted, 0, next, i, inserted.length);
+		System.arraycopy(current, i + 1, next, i + inserted.length,
+				current.length - i - 1);
+
+		chunks = next;
+	}
+
+	/**
+	 * Removes the chunks whose observations are all before the time. Reads
+	 * started before keep their chunks.
+	 */
+	public synchronized void removeBefore(long time) {
+		Chunk[] current = chunks;
+		int i = 0;
+
+		while (i < current.length && current[i].getLastTime() < time)
+			i++;
+
+		if (i > 0)
+			chunks = Arrays.copyOfRange(current, i, current.length);
+	}
+
+	/**
+	 * Returns the number of observations with time in the interval.
+	 */
+	public long count(long timeFrom, long timeTo) {
+		long ret = 0;
+
+		for (Chunk chunk : chunks) {
+			int n = chunk.size;
+
+			ret += lowerBound(chunk.times, n, timeTo)
+					- lowerBound(chunk.times, n, timeFrom);
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Returns the number of chunks with observations in the interval.
+	 */
+	public int countChunks(long timeFrom, long timeTo) {
+		int ret = 0;
+
+		for (Chunk chunk : chunks) {
+			int n = chunk.size;
+
+			if (n > 0 && chunk.times[0] < timeTo
+					&& chunk.times[n - 1] >= timeFrom)
+				ret++;
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Returns a scan of the observations with time in the interval, in time
+	 * order or reverse time order. Chunks whose values are all known and
+	 * outside the value range are skipped, if the range is not null.
+	 */
+	public Scan scan(long timeFrom, long timeTo, Double valueFrom,
+			Double valueTo, boolean descending) {
+		return new Scan(chunks, timeFrom, timeTo, valueFrom, valueTo,
+				descending);
+	}
+
+	/**
+	 * Returns the encoded latest observation, or null if the series is empty.
+	 */
+	public ByteBuffer getLatest() {
+		Scan scan = scan(Long.MIN_VALUE, Long.MAX_VALUE, null, null, true);
+
+		if (!scan.next())
+			return null;
+
+		return scan.getData();
+	}
+
+	/**
+	 * Returns the index of the last chunk whose first time is before the
+	 * time, or at the time if inclusive, or 0.
+	 */
+	private static int getChunk(Chunk[] chunks, long time, boolean inclusive) {
+		int low = 0;
+		int high = chunks.length - 1;
+		int ret = 0;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long first = chunks[mid].times[0];
+
+			if (first < time || (inclusive && first == time)) {
+				ret = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Returns the index of the first of the n times at or after the time.
+	 */
+	private static int lowerBound(long[] times, int n, long time) {
+		int low = 0;
+		int high = n;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (times[mid] < time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the index of the first of the n times after the time.
+	 */
+	private static int upperBound(long[] times, int n, long time) {
+		int low = 0;
+		int high = n;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (times[mid] <= time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		return low;
+	}
+
+	/**
+	 * A forward-only scan of observations. The time, sequence, value and
+	 * encoded data are those of the observation of the last successful call
+	 * to next. Data buffers are backed by the chunk, no copy.
+	 */
+	public static class Scan {
+
+		private final Chunk[] chunks;
+		private final long timeFrom;
+		private final long timeTo;
+		private final Double valueFrom;
+		private final Double valueTo;
+		private final boolean descending;
+		private int chunk;
+		private int index;
+		private int size = -1;
+		private byte[] data = null;
+
+		private Scan(Chunk[] chunks, long timeFrom, long timeTo,
+				Double valueFrom, Double valueTo, boolean descending) {
+			this.chunks = chunks;
+			this.timeFrom = timeFrom;
+			this.timeTo = timeTo;
+			this.valueFrom = valueFrom;
+			this.valueTo = valueTo;
+			this.descending = descending;
+			this.chunk = (chunks.length == 0) ? 0 : getChunk(chunks,
+					(descending) ? timeTo : timeFrom, false);
+		}
+
+		public boolean next() {
+			while (chunk >= 0 && chunk < chunks.length) {
+				Chunk c = chunks[chunk];
+
+				if (size < 0) {
+					// The size is read before the data and values it covers
+					size = c.size;
+					data = c.data;
+
+					if ((valueFrom != null || valueTo != null)
+							&& !c.mayContain(valueFrom, valueTo)) {
+						move();
+						continue;
+					}
+
+					index = (descending) ? lowerBound(c.times, size, timeTo)
+							: lowerBound(c.times, size, timeFrom) - 1;
+				}
+
+				index += (descending) ? -1 : 1;
+
+				if (index < 0 || index >= size) {
+					move();
+					continue;
+				}
+
+				long time = c.times[index];
+
+				if ((descending && time < timeFrom)
+						|| (!descending && time >= timeTo)) {
+					chunk = -1;
+					return false;
+				}
+
+				return true;
+			}
+
+			return false;
+		}
+
+		public long getTime() {
+			return chunks[chunk].times[index];
+		}
+
+		public long getSequence() {
+			return chunks[chunk].sequences[index];
+		}
+
+		public double getValue() {
+			return chunks[chunk].values[index];
+		}
+
+		public ByteBuffer getData() {
+			int[] ends = chunks[chunk].ends;
+			int start = (index == 0) ? 0 : ends[index - 1];
+
+			return ByteBuffer.wrap(data, start, ends[index] - start).slice();
+		}
+
+		private void move() {
+			chunk += (descending) ? -1 : 1;
+			size = -1;
+		}
+
+	}
+
+	private static class Chunk {
+
+		private final long[] times;
+		private final long[] sequences;
+		private final double[] values;
+		private final int[] ends;
+		private volatile byte[] data;
+		private volatile int size = 0;
+		private double minValue = Double.NaN;
+		private double maxValue = Double.NaN;
+
+		private Chunk(int capacity, int dataCapacity) {
+			this.times = new long[capacity];
+			this.sequences = new long[capacity];
+			this.values = new double[capacity];
+			this.ends = new int[capacity];
+			this.data = new byte[dataCapacity];
+		}
+
+		private Chunk(long time, long sequence, double value, byte[] bytes) {
+			this(CHUNK_SIZE, Math.max(DATA_SIZE, bytes.length));
+
+			append(time, sequence, value, bytes);
+		}
+
+		private long getLastTime() {
+			return times[size - 1];
+		}
+
+		/**
+		 * Returns whether the chunk may contain values in the range, i.e.
+		 * false only if all values are known and outside it.
+		 */
+		private boolean mayContain(Double valueFrom, Double valueTo) {
+			if (size == 0)
+				return false;
+			if (Double.isNaN(minValue) || Double.isNaN(maxValue))
+				return true;
+
+			return !((valueFrom != null && maxValue < valueFrom) || (valueTo != null && minValue > valueTo));
+		}
+
+		private void append(long time, long sequence, double value,
+				byte[] bytes) {
+			int n = size;
+			int start = (n == 0) ? 0 : ends[n - 1];
+			byte[] d = data;
+
+			if (start + bytes.length > d.length) {
+				// Reads of earlier observations keep the previous array
+				d = Arrays.copyOf(d,
+						Math.max(d.length * 2, start + bytes.length));
+				System.arraycopy(bytes, 0, d, start, bytes.length);
+				data = d;
+			} else {
+				System.arraycopy(bytes, 0, d, start, bytes.length);
+			}
+
+			times[n] = time;
+			sequences[n] = sequence;
+			values[n] = value;
+			ends[n] = start + bytes.length;
+
+			// NaN values propagate, i.e. the value range becomes unknown
+			if (n == 0) {
+				minValue = value;
+				maxValue = value;
+			} else {
+				minValue = (Double.isNaN(value)) ? value : Math.min(minValue,
+						value);
+				maxValue = (Double.isNaN(value)) ? value : Math.max(maxValue,
+						value);
+			}
+
+			size = n + 1;
+		}
+
+		/**
+		 * Returns a copy of the chunk with the observation inserted in time
+		 * order, split in two if full.
+		 */
+		private Chunk[] insert(long time, long sequence, double value,
+				byte[] bytes) {
+			int n = size;
+			int at = upperBound(times, n, time);
+			boolean split = n >= CHUNK_SIZE;
+			int first = (split) ? (n + 1) / 2 : n + 1;
+			Chunk a = new Chunk(CHUNK_SIZE, data.length + bytes.length);
+			Chunk b = (split) ? new Chunk(CHUNK_SIZE, data.length) : null;
+
+			for (int i = 0, j = 0; i <= n; i++) {
+				Chunk target = (i < first) ? a : b;
+
+				if (i == at)
+					target.append(time, sequence, value, bytes);
+				else
+					copy(target, j++);
+			}
+
+			return (split) ? new Chunk[] { a, b } : new Chunk[] { a };
+		}
+
+		/**
+		 * Returns a copy of the chunk with the value and encoded observation
+		 * at the index replaced, keeping its time and sequence.
+		 */
+		private Chunk replace(int index, double value, byte[] bytes) {
+			int n = size;
+			Chunk ret = new Chunk(CHUNK_SIZE, data.length + bytes.length);
+
+			for (int i = 0; i < n; i++) {
+				if (i == index)
+					ret.append(times[i], sequences[i], value, bytes);
+				else
+					copy(ret, i);
+			}
+
+			return ret;
+		}
+
+		private void copy(Chunk target, int i) {
+			int start = (i == 0) ? 0 : ends[i - 1];
+
+			target.append(times[i], sequences[i], values[i],
+					Arrays.copyOfRange(data, start, ends[i]));
+		}
+
+	}
+
+}
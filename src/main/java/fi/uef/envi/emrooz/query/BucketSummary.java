@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+/**
+ * <p>
+ * Title: BucketSummary
+ * </p>
+ * <p>
+ * Description: Count, sum, minimum, maximum, first and last value of the
+ * observations in a time bucket. Summaries of buckets are merged into
+ * summaries of coarser buckets.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class BucketSummary {
+
+	private long count = 0;
+	private double sum = 0;
+	private double min;
+	private double max;
+	private double first;
+	private double last;
+	private long firstTime;
+	private long lastTime;
+
+	public BucketSummary() {
+
+	}
+
+	public BucketSummary(long count, double sum, double min, double max,
+			double first, double last, long firstTime, long lastTime) {
+		this.count = count;
+		this.sum = sum;
+		this.min = min;
+		this.max = max;
+		this.first = first;
+		this.last = last;
+		this.firstTime = firstTime;
+		this.lastTime = lastTime;
+	}
+
+	public void add(long time, double value) {
+		merge(new BucketSummary(1, value, value, value, value, value, time,
+				time));
+	}
+
+	public void merge(BucketSummary other) {
+		if (other == null || other.count == 0)
+			return;
+
+		if (count == 0) {
+			count = other.count;
+			sum = other.sum;
+			min = other.min;
+			max = other.max;
+			first = other.first;
+			last = other.last;
+			firstTime = other.firstTime;
+			lastTime = other.lastTime;
+			return;
+		}
+
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+
+		if (other.firstTime < firstTime) {
+			first = other.first;
+			firstTime = other.firstTime;
+		}
+		if (other.lastTime >= lastTime) {
+			last = other.last;
+			lastTime = other.lastTime;
+		}
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	public double getFirst() {
+		return first;
+	}
+
+	public double getLast() {
+		return last;
+	}
+
+	public long getFirstTime() {
+		return firstTime;
+	}
+
+	public long getLastTime() {
+		return lastTime;
+	}
+
+	@Override
+	public String toString() {
+		return "BucketSummary [count = " + count + "; sum = " + sum
+				+ "; min = " + min + "; max = " + max + "; first = " + first
+				+ "; last = " + last + "; firstTime = " + firstTime
+				+ "; lastTime = " + lastTime + "]";
+	}
+
+}
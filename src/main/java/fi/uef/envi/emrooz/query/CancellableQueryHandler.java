@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import org.openrdf.model.Statement;
+import org.openrdf.query.TupleQueryResultHandler;
+
+import fi.uef.envi.emrooz.api.QueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+
+/**
+ * <p>
+ * Title: CancellableQueryHandler
+ * </p>
+ * <p>
+ * Description: Checks the context of a query on each statement of another
+ * query handler. Since data stores read partitions as statements are
+ * consumed, no further partitions are read once the query is cancelled or
+ * its deadline has passed.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class CancellableQueryHandler implements QueryHandler<Statement> {
+
+	private QueryHandler<Statement> other;
+	private QueryContext context;
+
+	public CancellableQueryHandler(QueryHandler<Statement> other,
+			QueryContext context) {
+		if (other == null)
+			throw new NullPointerException("[other = null]");
+		if (context == null)
+			throw new NullPointerException("[context = null]");
+
+		this.other = other;
+		this.context = context;
+	}
+
+	@Override
+	public ResultSet<Statement> evaluate() {
+		context.check();
+
+		return new CancellableResultSet(other.evaluate());
+	}
+
+	@Override
+	public void evaluate(TupleQueryResultHandler handler) {
+		throw new UnsupportedOperationException(
+				"Query evaluation with result handler not supported");
+	}
+
+	@Override
+	public void close() {
+		other.close();
+	}
+
+	private class CancellableResultSet implements ResultSet<Statement> {
+
+		private ResultSet<Statement> other;
+
+		private CancellableResultSet(ResultSet<Statement> other) {
+			this.other = other;
+		}
+
+		@Override
+		public boolean hasNext() {
+			context.check();
+
+			return other.hasNext();
+		}
+
+		@Override
+		public Statement next() {
+			return other.next();
+		}
+
+		@Override
+		public void close() {
+			other.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import java.util.UUID;
+
+/**
+ * <p>
+ * Title: Cursor
+ * </p>
+ * <p>
+ * Description: The position at which a paged read of observations resumes,
+ * i.e. the series, in the order of the paged query, the start of the data
+ * partition within the series, and the last column read in the partition.
+ * Cursors are exchanged with clients as opaque tokens, by
+ * {@link #toString()} and {@link #parse(String)}.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class Cursor {
+
+	private final int series;
+	private final long partition;
+	private final UUID column;
+
+	private static final String SEPARATOR = "_";
+
+	public Cursor(int series, long partition, UUID column) {
+		if (series < 0)
+			throw new IllegalArgumentException("[series = " + series + "]");
+		if (column == null)
+			throw new NullPointerException("[column = null]");
+
+		this.series = series;
+		this.partition = partition;
+		this.column = column;
+	}
+
+	public int getSeries() {
+		return series;
+	}
+
+	public long getPartition() {
+		return partition;
+	}
+
+	public UUID getColumn() {
+		return column;
+	}
+
+	public static Cursor parse(String token) {
+		if (token == null)
+			throw new NullPointerException("[token = null]");
+
+		String[] parts = token.split(SEPARATOR);
+
+		if (parts.length != 3)
+			throw new IllegalArgumentException("Malformed cursor [token = "
+					+ token + "]");
+
+		try {
+			return new Cursor(Integer.parseInt(parts[0]),
+					Long.parseLong(parts[1]), UUID.fromString(parts[2]));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Malformed cursor [token = "
+					+ token + "]", e);
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+
+		result = prime * result + series;
+		result = prime * result + (int) (partition ^ (partition >>> 32));
+		result = prime * result + column.hashCode();
+
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+
+		Cursor other = (Cursor) obj;
+
+		return series == other.series && partition == other.partition
+				&& column.equals(other.column);
+	}
+
+	@Override
+	public String toString() {
+		return series + SEPARATOR + partition + SEPARATOR + column;
+	}
+
+}
@@ -5,18 +5,16 @@
 
 package fi.uef.envi.emrooz.query;
 
-import java.util.List;
-
 import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.openrdf.model.Literal;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
-import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.BindingSet;
 import org.openrdf.query.algebra.StatementPattern;
-import org.openrdf.query.algebra.TupleExpr;
 import org.openrdf.query.algebra.Var;
-import org.openrdf.query.algebra.helpers.StatementPatternCollector;
 import org.openrdf.query.parser.ParsedQuery;
-import org.openrdf.query.parser.sparql.SPARQLParser;
 
 import fi.uef.envi.emrooz.vocabulary.QB;
 import fi.uef.envi.emrooz.vocabulary.Time;
@@ -26,7 +24,9 @@ import fi.uef.envi.emrooz.vocabulary.Time;
  * Title: DatasetObservationQuery
  * </p>
  * <p>
- * Description:
+ * Description: An immutable dataset observation query, i.e. the dataset and
+ * the time interval, created from SPARQL queries in a single walk of the
+ * query algebra.
  * </p>
  * <p>
  * Project: Emrooz
@@ -40,16 +40,26 @@ import fi.uef.envi.emrooz.vocabulary.Time;
 
 public class DatasetObservationQuery extends ObservationQuery {
 
-	private URI datasetId;
-	private DateTime timeFrom;
-	private DateTime timeTo;
-
-	private static SPARQLParser sparqlParser = new SPARQLParser();
-	private static StatementPatternCollector collector = new StatementPatternCollector();
-	private static SparqlQueryModelVisitor visitor = new SparqlQueryModelVisitor();
-
-	private DatasetObservationQuery() {
-
+	private final URI datasetId;
+	private final DateTime timeFrom;
+	private final DateTime timeTo;
+	// Names of the unbound variables that are parameters of query templates
+	private final String datasetIdParameter;
+	private final String timeFromParameter;
+	private final String timeToParameter;
+
+	private static final DateTimeFormatter dtf = ISODateTimeFormat
+			.dateTimeParser().withOffsetParsed();
+
+	private DatasetObservationQuery(URI datasetId, DateTime timeFrom,
+			DateTime timeTo, String datasetIdParameter,
+			String timeFromParameter, String timeToParameter) {
+		this.datasetId = datasetId;
+		this.timeFrom = timeFrom;
+		this.timeTo = timeTo;
+		this.datasetIdParameter = datasetIdParameter;
+		this.timeFromParameter = timeFromParameter;
+		this.timeToParameter = timeToParameter;
 	}
 
 	public URI getDatasetId() {
@@ -71,53 +81,80 @@ public class DatasetObservationQuery extends ObservationQuery {
 		return true;
 	}
 
-	private void setDatasetId(URI id) {
-		this.datasetId = id;
+	public static DatasetObservationQuery create(URI datasetId,
+			DateTime timeFrom, DateTime timeTo) {
+		return new DatasetObservationQuery(datasetId, timeFrom, timeTo, null,
+				null, null);
 	}
 
-	private void setTimeFrom(DateTime time) {
-		this.timeFrom = time;
+	public static DatasetObservationQuery create(String query) {
+		return create(QueryFactory.createParsedQuery(query));
 	}
 
-	private void setTimeTo(DateTime time) {
-		this.timeTo = time;
+	public static DatasetObservationQuery create(ParsedQuery query) {
+		return create(query, false);
 	}
 
-	public static DatasetObservationQuery create(URI datasetId,
-			DateTime timeFrom, DateTime timeTo) {
-		DatasetObservationQuery ret = new DatasetObservationQuery();
-
-		ret.setDatasetId(datasetId);
-		ret.setTimeFrom(timeFrom);
-		ret.setTimeTo(timeTo);
+	/**
+	 * Creates a query template, in which unbound variables may stand for the
+	 * dataset and the time interval. Queries are created for parameter values
+	 * by {@link #bind(BindingSet)}.
+	 */
+	public static DatasetObservationQuery createTemplate(ParsedQuery query) {
+		return create(query, true);
+	}
 
-		return ret;
+	/**
+	 * Returns the query for the given parameter values of this template.
+	 */
+	public DatasetObservationQuery bind(BindingSet bindings) {
+		if (bindings == null)
+			throw new NullPointerException("[bindings = null]");
+
+		URI datasetId = this.datasetId;
+		DateTime timeFrom = this.timeFrom;
+		DateTime timeTo = this.timeTo;
+
+		if (datasetIdParameter != null
+				&& bindings.getValue(datasetIdParameter) instanceof URI)
+			datasetId = (URI) bindings.getValue(datasetIdParameter);
+		if (timeFromParameter != null)
+			timeFrom = bindDateTime(bindings, timeFromParameter);
+		if (timeToParameter != null)
+			timeTo = bindDateTime(bindings, timeToParameter);
+
+		return create(datasetId, timeFrom, timeTo);
 	}
 
-	public static DatasetObservationQuery create(String query) {
-		try {
-			return create(sparqlParser.parseQuery(query, null));
-		} catch (MalformedQueryException e) {
-			throw new RuntimeException(e);
-		}
+	private static DateTime bindDateTime(BindingSet bindings, String parameter) {
+		Value ret = bindings.getValue(parameter);
+
+		if (!(ret instanceof Literal))
+			throw new RuntimeException(
+					"Cannot bind query, expected XSD date time value [parameter = "
+							+ parameter + "; value = " + ret + "]");
+
+		return dtf.parseDateTime(((Literal) ret).getLabel());
 	}
 
-	public static DatasetObservationQuery create(ParsedQuery query) {
+	private static DatasetObservationQuery create(ParsedQuery query,
+			boolean template) {
 		if (query == null)
 			throw new RuntimeException("[query = null]");
 
-		DatasetObservationQuery ret = new DatasetObservationQuery();
+		SparqlQueryModelVisitor visitor = new SparqlQueryModelVisitor();
 
-		TupleExpr expr = query.getTupleExpr();
-
-		expr.visit(collector);
+		try {
+			query.getTupleExpr().visit(visitor);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
 
 		URI datasetId = null;
+		String datasetIdParameter = null;
 		Var inXSDDateTimeVar = null;
 
-		List<StatementPattern> patterns = collector.getStatementPatterns();
-
-		for (StatementPattern pattern : patterns) {
+		for (StatementPattern pattern : visitor.getStatementPatterns()) {
 			Value predicate = pattern.getPredicateVar().getValue();
 
 			if (predicate == null)
@@ -134,6 +171,9 @@ public class DatasetObservationQuery extends ObservationQuery {
 				Value o = object.getValue();
 				if (o == null) {
 					datasetId = null;
+
+					if (!object.isAnonymous())
+						datasetIdParameter = object.getName();
 				} else {
 					if (o instanceof URI)
 						datasetId = (URI) o;
@@ -150,29 +190,29 @@ public class DatasetObservationQuery extends ObservationQuery {
 
 		visitor.setInXSDDateTimeVar(inXSDDateTimeVar);
 
-		try {
-			expr.visit(visitor);
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
-
 		DateTime timeFrom = visitor.getTimeFrom();
 		DateTime timeTo = visitor.getTimeTo();
+		String timeFromParameter = null;
+		String timeToParameter = null;
+
+		if (template) {
+			timeFromParameter = visitor.getTimeFromParameter();
+			timeToParameter = visitor.getTimeToParameter();
+		} else {
+			datasetIdParameter = null;
+		}
 
-		if (timeFrom == null)
+		if (timeFrom == null && timeFromParameter == null)
 			throw new RuntimeException(
 					"Cannot create query, failed to determine time interval [timeFrom = null; queryString = "
 							+ query + "]");
-		if (timeTo == null)
+		if (timeTo == null && timeToParameter == null)
 			throw new RuntimeException(
 					"Cannot create query, failed to determine time interval [timeTo = null; queryString = "
 							+ query + "]");
 
-		ret.setDatasetId(datasetId);
-		ret.setTimeFrom(timeFrom);
-		ret.setTimeTo(timeTo);
-
-		return ret;
+		return new DatasetObservationQuery(datasetId, timeFrom, timeTo,
+				datasetIdParameter, timeFromParameter, timeToParameter);
 	}
 
 	@Override
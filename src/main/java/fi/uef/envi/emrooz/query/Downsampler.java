@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Title: Downsampler
+ * </p>
+ * <p>
+ * Description: Reduces a time ordered series of values to at most a given
+ * number of points for plotting, in a single streaming pass. The time range
+ * is divided into buckets of equal width, hence memory and output are bounded
+ * by the number of points rather than the number of values. Series with no
+ * more values than points are returned unchanged. The item added with a value
+ * (e.g. a CSV line) is what is returned for the retained points. Values that
+ * are not finite, e.g. NaN, cannot be plotted and are skipped.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public abstract class Downsampler<T> {
+
+	public enum Method {
+		LTTB, MINMAX
+	}
+
+	protected final long from;
+	protected final long to;
+	protected final int points;
+	protected final List<T> results;
+	private final List<T> values;
+	private boolean exceeded = false;
+	private boolean finished = false;
+
+	protected Downsampler(long from, long to, int points) {
+		if (points < 3)
+			throw new IllegalArgumentException(
+					"Points must be at least 3 [points = " + points + "]");
+		if (to <= from)
+			throw new IllegalArgumentException(
+					"Time range must not be empty [from = " + from + "; to = "
+							+ to + "]");
+
+		this.from = from;
+		this.to = to;
+		this.points = points;
+		this.results = new ArrayList<T>();
+		this.values = new ArrayList<T>();
+	}
+
+	public static <T> Downsampler<T> create(Method method, long from, long to,
+			int points) {
+		if (method == null)
+			throw new NullPointerException("[method = null]");
+
+		if (method.equals(Method.MINMAX))
+			return new MinMaxDownsampler<T>(from, to, points);
+
+		return new LargestTriangleThreeBucketsDownsampler<T>(from, to, points);
+	}
+
+	public void add(long time, double value, T item) {
+		if (finished)
+			throw new IllegalStateException("Downsampler is finished");
+
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			return;
+
+		if (!exceeded) {
+			values.add(item);
+
+			if (values.size() > points) {
+				exceeded = true;
+				values.clear();
+			}
+		}
+
+		sample(time, value, item);
+	}
+
+	public List<T> getResults() {
+		if (!exceeded)
+			return values;
+
+		if (!finished) {
+			finished = true;
+			finish();
+		}
+
+		return results;
+	}
+
+	protected abstract void sample(long time, double value, T item);
+
+	protected abstract void finish();
+
+	protected int getBucket(long time, int buckets) {
+		if (time <= from)
+			return 0;
+		if (time >= to)
+			return buckets - 1;
+
+		return (int) ((time - from) * buckets / (to - from));
+	}
+
+	protected static class Point<T> {
+
+		protected final long time;
+		protected final double value;
+		protected final T item;
+
+		protected Point(long time, double value, T item) {
+			this.time = time;
+			this.value = value;
+			this.item = item;
+		}
+
+	}
+
+}
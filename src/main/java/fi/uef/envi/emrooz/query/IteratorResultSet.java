@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import java.util.Iterator;
+
+import fi.uef.envi.emrooz.api.ResultSet;
+
+/**
+ * <p>
+ * Title: IteratorResultSet
+ * </p>
+ * <p>
+ * Description: A result set over the elements of an iterator.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class IteratorResultSet<T> implements ResultSet<T> {
+
+	private Iterator<T> iterator;
+
+	public IteratorResultSet(Iterator<T> iterator) {
+		if (iterator == null)
+			throw new NullPointerException("[iterator = null]");
+
+		this.iterator = iterator;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return iterator.hasNext();
+	}
+
+	@Override
+	public T next() {
+		return iterator.next();
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+}
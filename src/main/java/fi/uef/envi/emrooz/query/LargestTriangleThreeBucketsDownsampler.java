@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Title: LargestTriangleThreeBucketsDownsampler
+ * </p>
+ * <p>
+ * Description: Implements Largest-Triangle-Three-Buckets downsampling over
+ * time buckets. The first and last values are always retained. Per bucket,
+ * the value that forms the largest triangle with the previously retained
+ * point and the average of the next non-empty bucket is retained. Only the
+ * current and the next bucket are held in memory.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class LargestTriangleThreeBucketsDownsampler<T> extends Downsampler<T> {
+
+	private final int buckets;
+	private Point<T> first;
+	private Point<T> selected;
+	private List<Point<T>> current;
+	private List<Point<T>> next;
+	private int nextBucket;
+	private int currentBucket;
+
+	public LargestTriangleThreeBucketsDownsampler(long from, long to,
+			int points) {
+		super(from, to, points);
+
+		this.buckets = points - 2;
+		this.current = new ArrayList<Point<T>>();
+		this.next = new ArrayList<Point<T>>();
+	}
+
+	@Override
+	protected void sample(long time, double value, T item) {
+		Point<T> point = new Point<T>(time, value, item);
+
+		if (first == null) {
+			first = point;
+			selected = point;
+			results.add(item);
+			return;
+		}
+
+		int bucket = getBucket(time, buckets);
+
+		if (current.isEmpty() || bucket == currentBucket) {
+			currentBucket = bucket;
+			current.add(point);
+			return;
+		}
+
+		if (next.isEmpty() || bucket == nextBucket) {
+			nextBucket = bucket;
+			next.add(point);
+			return;
+		}
+
+		select(current, average(next));
+
+		current = next;
+		currentBucket = nextBucket;
+		next = new ArrayList<Point<T>>();
+		next.add(point);
+		nextBucket = bucket;
+	}
+
+	@Override
+	protected void finish() {
+		if (!next.isEmpty()) {
+			select(current, average(next));
+			current = next;
+		}
+
+		if (current.isEmpty())
+			return;
+
+		// The last value is retained, it is thus the third point of the last
+		// bucket
+		Point<T> last = current.remove(current.size() - 1);
+
+		if (!current.isEmpty())
+			select(current, last);
+
+		results.add(last.item);
+	}
+
+	private void select(List<Point<T>> bucket, Point<T> point) {
+		Point<T> ret = null;
+		double max = -1;
+
+		for (Point<T> candidate : bucket) {
+			double area = Math.abs((selected.time - point.time)
+					* (candidate.value - selected.value)
+					- (selected.time - candidate.time)
+					* (point.value - selected.value));
+
+			if (area > max) {
+				max = area;
+				ret = candidate;
+			}
+		}
+
+		results.add(ret.item);
+		selected = ret;
+	}
+
+	private Point<T> average(List<Point<T>> bucket) {
+		double time = 0;
+		double value = 0;
+
+		for (Point<T> point : bucket) {
+			time += point.time - from;
+			value += point.value;
+		}
+
+		return new Point<T>(from + (long) (time / bucket.size()), value
+				/ bucket.size(), null);
+	}
+
+}
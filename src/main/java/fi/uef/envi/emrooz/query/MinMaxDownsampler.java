@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+/**
+ * <p>
+ * Title: MinMaxDownsampler
+ * </p>
+ * <p>
+ * Description: Implements min-max decimation. The time range is divided into
+ * half as many buckets as points, i.e. one bucket per pixel column for two
+ * points per column, and per bucket the minimum and the maximum value are
+ * retained in time order. Spikes are thus never lost.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class MinMaxDownsampler<T> extends Downsampler<T> {
+
+	private final int buckets;
+	private int bucket;
+	private Point<T> min;
+	private Point<T> max;
+
+	public MinMaxDownsampler(long from, long to, int points) {
+		super(from, to, points);
+
+		this.buckets = points / 2;
+	}
+
+	@Override
+	protected void sample(long time, double value, T item) {
+		int b = getBucket(time, buckets);
+
+		if (min != null && b != bucket)
+			finish();
+
+		if (min == null) {
+			bucket = b;
+			min = new Point<T>(time, value, item);
+			max = min;
+			return;
+		}
+
+		if (value < min.value)
+			min = new Point<T>(time, value, item);
+		if (value > max.value)
+			max = new Point<T>(time, value, item);
+	}
+
+	@Override
+	protected void finish() {
+		if (min == null)
+			return;
+
+		if (min == max) {
+			results.add(min.item);
+		} else if (min.time <= max.time) {
+			results.add(min.item);
+			results.add(max.item);
+		} else {
+			results.add(max.item);
+			results.add(min.item);
+		}
+
+		min = null;
+		max = null;
+	}
+
+}
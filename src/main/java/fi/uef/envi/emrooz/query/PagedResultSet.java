@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import fi.uef.envi.emrooz.api.ResultSet;
+
+/**
+ * <p>
+ * Title: PagedResultSet<T>
+ * </p>
+ * <p>
+ * Description: The results of one page, with the cursor of the next page,
+ * or null if the page is the last.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class PagedResultSet<T> implements ResultSet<T> {
+
+	private ResultSet<T> results;
+	private Cursor nextCursor;
+
+	public PagedResultSet(ResultSet<T> results, Cursor nextCursor) {
+		if (results == null)
+			throw new NullPointerException("[results = null]");
+
+		this.results = results;
+		this.nextCursor = nextCursor;
+	}
+
+	public Cursor getNextCursor() {
+		return nextCursor;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return results.hasNext();
+	}
+
+	@Override
+	public T next() {
+		return results.next();
+	}
+
+	@Override
+	public void close() {
+		results.close();
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import org.openrdf.query.parser.ParsedQuery;
+
+/**
+ * <p>
+ * Title: PreparedQuery
+ * </p>
+ * <p>
+ * Description: A query that is parsed and analyzed once and evaluated many
+ * times with different parameter values. Parameters are unbound variables of
+ * the query, e.g. <code>?from</code> in <code>?time &gt;= ?from</code>; they
+ * are bound on evaluation, both for the data store query and for the query
+ * engine. Prepared queries are immutable and can be shared by threads.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class PreparedQuery {
+
+	private final ParsedQuery query;
+	private final ObservationQuery template;
+
+	public PreparedQuery(ParsedQuery query, ObservationQuery template) {
+		if (query == null)
+			throw new NullPointerException("[query = null]");
+		if (template == null)
+			throw new NullPointerException("[template = null]");
+
+		this.query = query;
+		this.template = template;
+	}
+
+	public static PreparedQuery createSensorObservationQuery(String query) {
+		ParsedQuery parsedQuery = QueryFactory.createParsedQuery(query);
+
+		return new PreparedQuery(parsedQuery,
+				SensorObservationQuery.createTemplate(parsedQuery));
+	}
+
+	public static PreparedQuery createDatasetObservationQuery(String query) {
+		ParsedQuery parsedQuery = QueryFactory.createParsedQuery(query);
+
+		return new PreparedQuery(parsedQuery,
+				DatasetObservationQuery.createTemplate(parsedQuery));
+	}
+
+	public ParsedQuery getParsedQuery() {
+		return query;
+	}
+
+	public ObservationQuery getTemplate() {
+		return template;
+	}
+
+	@Override
+	public String toString() {
+		return "PreparedQuery [template = " + template + "; query = "
+				+ query.getSourceString() + "]";
+	}
+
+}
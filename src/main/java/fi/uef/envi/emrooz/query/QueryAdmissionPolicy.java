@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+/**
+ * <p>
+ * Title: QueryAdmissionPolicy
+ * </p>
+ * <p>
+ * Description: Decides, by estimated cost, which queries are evaluated. A
+ * query is admitted if it reads at most the maximum number of partitions and
+ * rows; a negative maximum is unlimited. Queries that exceed the maximum are
+ * rejected or, for time bucket aggregate queries, degraded: the time interval
+ * is widened to whole buckets, so that the aggregation can be answered from
+ * rollups, and the query is admitted if the degraded query does not exceed
+ * the maximum. Admitted queries are cancelled once the timeout, in
+ * milliseconds, has passed; a timeout that is not positive is unlimited.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class QueryAdmissionPolicy {
+
+	public enum Action {
+
+		REJECT,
+		DEGRADE
+
+	}
+
+	private final long maxPartitions;
+	private final long maxRows;
+	private final Action action;
+	private final long timeout;
+
+	public QueryAdmissionPolicy(long maxPartitions, long maxRows,
+			Action action, long timeout) {
+		if (action == null)
+			throw new NullPointerException("[action = null]");
+
+		this.maxPartitions = maxPartitions;
+		this.maxRows = maxRows;
+		this.action = action;
+		this.timeout = timeout;
+	}
+
+	public long getMaxPartitions() {
+		return maxPartitions;
+	}
+
+	public long getMaxRows() {
+		return maxRows;
+	}
+
+	public Action getAction() {
+		return action;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Returns true if a query of the cost is evaluated. Queries of unknown
+	 * cost, i.e. null, are admitted.
+	 */
+	public boolean isAdmitted(QueryCost cost) {
+		if (cost == null)
+			return true;
+		if (maxPartitions >= 0 && cost.getPartitions() > maxPartitions)
+			return false;
+		if (maxRows >= 0 && cost.getRows() > maxRows)
+			return false;
+
+		return true;
+	}
+
+	/**
+	 * Returns a new context for a query admitted by this policy.
+	 */
+	public QueryContext createContext() {
+		return new QueryContext(timeout);
+	}
+
+	@Override
+	public String toString() {
+		return "QueryAdmissionPolicy [maxPartitions = " + maxPartitions
+				+ "; maxRows = " + maxRows + "; action = " + action
+				+ "; timeout = " + timeout + "]";
+	}
+
+}
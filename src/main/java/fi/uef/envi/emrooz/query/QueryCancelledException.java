@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+/**
+ * <p>
+ * Title: QueryCancelledException
+ * </p>
+ * <p>
+ * Description: Thrown by the evaluation of a query that was cancelled or
+ * whose deadline has passed.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class QueryCancelledException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public QueryCancelledException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+/**
+ * <p>
+ * Title: QueryContext
+ * </p>
+ * <p>
+ * Description: The deadline and cancellation state of a query in
+ * evaluation. A query is cancelled cooperatively: reads check the context
+ * between observations and stop once the query is cancelled, e.g. by
+ * another thread, or its deadline has passed.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class QueryContext {
+
+	private final long deadline;
+	private volatile boolean cancelled = false;
+
+	public QueryContext() {
+		this(-1);
+	}
+
+	/**
+	 * Creates a context whose deadline is the timeout, in milliseconds, from
+	 * now. A timeout that is not positive is unlimited.
+	 */
+	public QueryContext(long timeout) {
+		this.deadline = (timeout > 0) ? System.currentTimeMillis() + timeout
+				: -1;
+	}
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public boolean isExpired() {
+		return deadline >= 0 && System.currentTimeMillis() > deadline;
+	}
+
+	/**
+	 * Throws a {@link QueryCancelledException} if the query is cancelled or
+	 * its deadline has passed.
+	 */
+	public void check() {
+		if (cancelled)
+			throw new QueryCancelledException("Query cancelled");
+		if (isExpired())
+			throw new QueryCancelledException(
+					"Query deadline exceeded [deadline = " + deadline + "]");
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+/**
+ * <p>
+ * Title: QueryCost
+ * </p>
+ * <p>
+ * Description: The estimated cost of a query, i.e. the number of data
+ * partitions read and the number of observations, or rollup rows, expected in
+ * them.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class QueryCost {
+
+	private final long partitions;
+	private final long rows;
+
+	public QueryCost(long partitions, long rows) {
+		this.partitions = partitions;
+		this.rows = rows;
+	}
+
+	public long getPartitions() {
+		return partitions;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public QueryCost add(QueryCost other) {
+		if (other == null)
+			return this;
+
+		return new QueryCost(partitions + other.partitions, rows + other.rows);
+	}
+
+	@Override
+	public String toString() {
+		return "QueryCost [partitions = " + partitions + "; rows = " + rows
+				+ "]";
+	}
+
+}
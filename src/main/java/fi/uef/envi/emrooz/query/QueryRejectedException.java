@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+/**
+ * <p>
+ * Title: QueryRejectedException
+ * </p>
+ * <p>
+ * Description: Thrown for a query whose estimated cost is not admitted by the
+ * query admission policy.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class QueryRejectedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final QueryCost cost;
+
+	public QueryRejectedException(QueryCost cost) {
+		super("Query rejected [cost = " + cost + "]");
+
+		this.cost = cost;
+	}
+
+	public QueryCost getCost() {
+		return cost;
+	}
+
+}
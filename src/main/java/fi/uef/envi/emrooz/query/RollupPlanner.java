@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+/**
+ * <p>
+ * Title: RollupPlanner
+ * </p>
+ * <p>
+ * Description: Selects the rollup resolution that answers a time bucket
+ * aggregation over a time interval. A rollup answers the aggregation if its
+ * resolution divides the bucket duration and the interval is aligned to its
+ * buckets; the coarsest such rollup is selected, since it is the one with
+ * the fewest buckets to read.
+ * </p>
+ * <p>
+ * Rollups answer aggregations only if they summarize all observations. The
+ * coverage, i.e. the resolutions maintained for all observations written, is
+ * stored with the data store and updated by each writer with the resolutions
+ * it maintains. A planner is created from the coverage. Buckets whose
+ * changes are pending with a writer are not covered and are aggregated from
+ * raw observations.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class RollupPlanner {
+
+	private final List<Long> resolutions;
+
+	/**
+	 * The coverage before any observation is written, i.e. any resolution.
+	 */
+	public static final String ANY_RESOLUTION = "*";
+
+	public RollupPlanner(List<Long> resolutions) {
+		if (resolutions == null)
+			throw new NullPointerException("[resolutions = null]");
+
+		List<Long> sorted = new ArrayList<Long>(resolutions);
+
+		Collections.sort(sorted, Collections.reverseOrder());
+
+		this.resolutions = Collections.unmodifiableList(sorted);
+	}
+
+	/**
+	 * Creates the planner for the rollups of the coverage, i.e. none if the
+	 * coverage is null or no observation is written.
+	 */
+	public static RollupPlanner create(String coverage) {
+		List<Long> resolutions = new ArrayList<Long>();
+
+		if (coverage != null && !coverage.equals(ANY_RESOLUTION)) {
+			for (String resolution : coverage.split(",")) {
+				if (!resolution.isEmpty())
+					resolutions.add(Long.valueOf(resolution));
+			}
+		}
+
+		return new RollupPlanner(resolutions);
+	}
+
+	/**
+	 * Returns the coverage once observations are written by a writer that
+	 * maintains the resolutions, i.e. the resolutions covered so far that the
+	 * writer maintains. A null coverage is unknown, e.g. for observations
+	 * written before coverage was stored, and covers no resolution.
+	 */
+	public static String cover(String coverage, List<Long> resolutions) {
+		if (resolutions == null)
+			throw new NullPointerException("[resolutions = null]");
+
+		List<Long> covered = new ArrayList<Long>(resolutions);
+
+		if (coverage == null)
+			covered.clear();
+		else if (!coverage.equals(ANY_RESOLUTION))
+			covered.retainAll(create(coverage).getResolutions());
+
+		Collections.sort(covered);
+
+		StringBuffer sb = new StringBuffer();
+
+		for (Long resolution : covered) {
+			if (sb.length() > 0)
+				sb.append(",");
+
+			sb.append(resolution);
+		}
+
+		return sb.toString();
+	}
+
+	public List<Long> getResolutions() {
+		return resolutions;
+	}
+
+	/**
+	 * Returns the resolution of the coarsest rollup that answers the
+	 * aggregation of buckets of the given duration over the interval, or -1
+	 * if the aggregation needs to be computed from raw observations.
+	 */
+	public long getResolution(long duration, DateTime timeFrom,
+			DateTime timeTo) {
+		if (timeFrom == null || timeTo == null)
+			return -1;
+
+		for (Long resolution : resolutions) {
+			if (resolution <= 0)
+				continue;
+			if (duration % resolution != 0)
+				continue;
+			if (timeFrom.getMillis() % resolution != 0)
+				continue;
+			if (timeTo.getMillis() % resolution != 0)
+				continue;
+
+			return resolution;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the buckets of the rollup of the resolution over the interval
+	 * that the rollup does not cover, i.e. the pending buckets whose changes
+	 * are not yet written, sorted by time. Such buckets are aggregated from
+	 * raw observations instead.
+	 */
+	public static List<Long> getUncovered(long resolution, DateTime timeFrom,
+			DateTime timeTo, Collection<Long> pending) {
+		if (pending == null)
+			throw new NullPointerException("[pending = null]");
+
+		List<Long> ret = new ArrayList<Long>();
+
+		if (resolution <= 0 || timeFrom == null || timeTo == null)
+			return ret;
+
+		for (Long bucket : pending) {
+			if (bucket % resolution != 0)
+				continue;
+			if (bucket + resolution <= timeFrom.getMillis())
+				continue;
+			if (bucket >= timeTo.getMillis())
+				continue;
+
+			ret.add(bucket);
+		}
+
+		Collections.sort(ret);
+
+		return ret;
+	}
+
+}
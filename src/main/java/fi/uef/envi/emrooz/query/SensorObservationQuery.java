@@ -5,19 +5,25 @@
 
 package fi.uef.envi.emrooz.query;
 
-import java.util.List;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.openrdf.model.Literal;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
-import org.openrdf.query.MalformedQueryException;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.query.BindingSet;
 import org.openrdf.query.algebra.StatementPattern;
-import org.openrdf.query.algebra.TupleExpr;
 import org.openrdf.query.algebra.Var;
-import org.openrdf.query.algebra.helpers.StatementPatternCollector;
 import org.openrdf.query.parser.ParsedQuery;
-import org.openrdf.query.parser.sparql.SPARQLParser;
 
+import fi.uef.envi.emrooz.vocabulary.DUL;
 import fi.uef.envi.emrooz.vocabulary.SSN;
 import fi.uef.envi.emrooz.vocabulary.Time;
 
@@ -26,7 +32,10 @@ import fi.uef.envi.emrooz.vocabulary.Time;
  * Title: SensorObservationQuery
  * </p>
  * <p>
- * Description:
+ * Description: An immutable sensor observation query, i.e. the sensor,
+ * property and feature, the time interval and the value range, limit, order
+ * and time bucket aggregation that the data store can evaluate. Queries are
+ * created from SPARQL queries in a single walk of the query algebra.
  * </p>
  * <p>
  * Project: Emrooz
@@ -40,18 +49,54 @@ import fi.uef.envi.emrooz.vocabulary.Time;
 
 public class SensorObservationQuery extends ObservationQuery {
 
-	private URI sensorId;
-	private URI propertyId;
-	private URI featureId;
-	private DateTime timeFrom;
-	private DateTime timeTo;
-
-	private static SPARQLParser sparqlParser = new SPARQLParser();
-	private static StatementPatternCollector collector = new StatementPatternCollector();
-	private static SparqlQueryModelVisitor visitor = new SparqlQueryModelVisitor();
-
-	private SensorObservationQuery() {
-
+	private final URI sensorId;
+	private final URI propertyId;
+	private final URI featureId;
+	private final DateTime timeFrom;
+	private final DateTime timeTo;
+	private final Double valueFrom;
+	private final Double valueTo;
+	private final long limit;
+	private final boolean descending;
+	private final TimeBucketAggregation aggregation;
+	// Names of the unbound variables that are parameters of query templates
+	private final String sensorIdParameter;
+	private final String propertyIdParameter;
+	private final String featureIdParameter;
+	private final String timeFromParameter;
+	private final String timeToParameter;
+
+	private static final DateTimeFormatter dtf = ISODateTimeFormat
+			.dateTimeParser().withOffsetParsed();
+	// Predicates of patterns that do not prevent aggregation in the data store
+	private static final Set<URI> aggregatablePredicates = Collections
+			.unmodifiableSet(new HashSet<URI>(Arrays.asList(RDF.TYPE,
+					SSN.observedBy, SSN.observedProperty,
+					SSN.featureOfInterest, SSN.observationResult,
+					SSN.hasValue, DUL.hasRegionDataValue,
+					SSN.observationResultTime, Time.inXSDDateTime)));
+
+	private SensorObservationQuery(URI sensorId, URI propertyId,
+			URI featureId, DateTime timeFrom, DateTime timeTo,
+			Double valueFrom, Double valueTo, long limit, boolean descending,
+			TimeBucketAggregation aggregation, String sensorIdParameter,
+			String propertyIdParameter, String featureIdParameter,
+			String timeFromParameter, String timeToParameter) {
+		this.sensorId = sensorId;
+		this.propertyId = propertyId;
+		this.featureId = featureId;
+		this.timeFrom = timeFrom;
+		this.timeTo = timeTo;
+		this.valueFrom = valueFrom;
+		this.valueTo = valueTo;
+		this.limit = limit;
+		this.descending = descending;
+		this.aggregation = aggregation;
+		this.sensorIdParameter = sensorIdParameter;
+		this.propertyIdParameter = propertyIdParameter;
+		this.featureIdParameter = featureIdParameter;
+		this.timeFromParameter = timeFromParameter;
+		this.timeToParameter = timeToParameter;
 	}
 
 	public URI getSensorId() {
@@ -74,6 +119,56 @@ public class SensorObservationQuery extends ObservationQuery {
 		return timeTo;
 	}
 
+	/**
+	 * Returns the inclusive lower bound of the observation values matched by
+	 * the query, or null if unbounded. Values are still filtered by the query
+	 * engine; the bound only allows the data store to skip blocks of values.
+	 */
+	public Double getValueFrom() {
+		return valueFrom;
+	}
+
+	/**
+	 * Returns the inclusive upper bound of the observation values matched by
+	 * the query, or null if unbounded.
+	 */
+	public Double getValueTo() {
+		return valueTo;
+	}
+
+	public boolean hasValueRange() {
+		return valueFrom != null || valueTo != null;
+	}
+
+	/**
+	 * Returns the number of observations, earliest or latest first, that
+	 * suffice to answer the query, or -1 if all observations in the time
+	 * interval are required.
+	 */
+	public long getLimit() {
+		return limit;
+	}
+
+	public boolean hasLimit() {
+		return limit >= 0;
+	}
+
+	/**
+	 * Returns true if the limited observations are the latest in the time
+	 * interval, rather than the earliest.
+	 */
+	public boolean isDescending() {
+		return descending;
+	}
+
+	/**
+	 * Returns the time bucket aggregation of the query, or null if the query
+	 * is not a time bucket aggregate query.
+	 */
+	public TimeBucketAggregation getTimeBucketAggregation() {
+		return aggregation;
+	}
+
 	public boolean isFullySpecified() {
 		if (sensorId == null)
 			return false;
@@ -85,67 +180,134 @@ public class SensorObservationQuery extends ObservationQuery {
 		return true;
 	}
 
-	private void setSensorId(URI id) {
-		this.sensorId = id;
+	public static SensorObservationQuery create(URI sensorId, URI propertyId,
+			URI featureId, DateTime timeFrom, DateTime timeTo) {
+		return create(sensorId, propertyId, featureId, timeFrom, timeTo, null,
+				null);
 	}
 
-	private void setPropertyId(URI id) {
-		this.propertyId = id;
+	public static SensorObservationQuery create(URI sensorId, URI propertyId,
+			URI featureId, DateTime timeFrom, DateTime timeTo,
+			Double valueFrom, Double valueTo) {
+		return create(sensorId, propertyId, featureId, timeFrom, timeTo,
+				valueFrom, valueTo, -1, false);
 	}
 
-	private void setFeatureOfInterestId(URI id) {
-		this.featureId = id;
+	public static SensorObservationQuery create(URI sensorId, URI propertyId,
+			URI featureId, DateTime timeFrom, DateTime timeTo,
+			Double valueFrom, Double valueTo, long limit, boolean descending) {
+		return new SensorObservationQuery(sensorId, propertyId, featureId,
+				timeFrom, timeTo, valueFrom, valueTo, limit, descending, null,
+				null, null, null, null, null);
 	}
 
-	private void setTimeFrom(DateTime time) {
-		this.timeFrom = time;
+	public static SensorObservationQuery create(String query) {
+		return create(QueryFactory.createParsedQuery(query));
 	}
 
-	private void setTimeTo(DateTime time) {
-		this.timeTo = time;
+	public static SensorObservationQuery create(ParsedQuery query) {
+		return create(query, false);
 	}
 
-	public static SensorObservationQuery create(URI sensorId, URI propertyId,
-			URI featureId, DateTime timeFrom, DateTime timeTo) {
-		SensorObservationQuery ret = new SensorObservationQuery();
+	/**
+	 * Creates a query template, in which unbound variables may stand for
+	 * the sensor, property and feature, e.g. <code>ssn:observedBy ?sensor</code>,
+	 * and for the time interval, e.g. <code>?time &gt;= ?from</code>. The
+	 * template is analyzed once; queries are created for parameter values by
+	 * {@link #bind(BindingSet)}.
+	 */
+	public static SensorObservationQuery createTemplate(ParsedQuery query) {
+		return create(query, true);
+	}
 
-		ret.setSensorId(sensorId);
-		ret.setPropertyId(propertyId);
-		ret.setFeatureOfInterestId(featureId);
-		ret.setTimeFrom(timeFrom);
-		ret.setTimeTo(timeTo);
+	/**
+	 * Returns the query for the given parameter values of this template.
+	 * Sensor, property and feature parameters without value remain
+	 * unspecified. Time parameters require an XSD date time value.
+	 */
+	public SensorObservationQuery bind(BindingSet bindings) {
+		if (bindings == null)
+			throw new NullPointerException("[bindings = null]");
+
+		URI sensorId = bindURI(bindings, sensorIdParameter, this.sensorId);
+		URI propertyId = bindURI(bindings, propertyIdParameter,
+				this.propertyId);
+		URI featureId = bindURI(bindings, featureIdParameter, this.featureId);
+		DateTime timeFrom = bindDateTime(bindings, timeFromParameter,
+				this.timeFrom);
+		DateTime timeTo = bindDateTime(bindings, timeToParameter, this.timeTo);
+
+		TimeBucketAggregation aggregation = null;
+
+		if (this.aggregation != null)
+			aggregation = new TimeBucketAggregation(
+					this.aggregation.getBucketName(),
+					this.aggregation.getDuration(), timeFrom.getZone(),
+					this.aggregation.getAggregates(),
+					this.aggregation.getBindingNames());
+
+		return new SensorObservationQuery(sensorId, propertyId, featureId,
+				timeFrom, timeTo, valueFrom, valueTo, limit, descending,
+				aggregation, null, null, null, null, null);
+	}
+
+	private static URI bindURI(BindingSet bindings, String parameter,
+			URI value) {
+		if (parameter == null)
+			return value;
+
+		Value ret = bindings.getValue(parameter);
+
+		if (ret instanceof URI)
+			return (URI) ret;
 
-		return ret;
+		return value;
 	}
 
-	public static SensorObservationQuery create(String query) {
-		try {
-			return create(sparqlParser.parseQuery(query, null));
-		} catch (MalformedQueryException e) {
-			throw new RuntimeException(e);
-		}
+	private static DateTime bindDateTime(BindingSet bindings,
+			String parameter, DateTime value) {
+		if (parameter == null)
+			return value;
+
+		Value ret = bindings.getValue(parameter);
+
+		if (!(ret instanceof Literal))
+			throw new RuntimeException(
+					"Cannot bind query, expected XSD date time value [parameter = "
+							+ parameter + "; value = " + ret + "]");
+
+		return dtf.parseDateTime(((Literal) ret).getLabel());
 	}
 
-	public static SensorObservationQuery create(ParsedQuery query) {
+	private static SensorObservationQuery create(ParsedQuery query,
+			boolean template) {
 		if (query == null)
 			throw new RuntimeException("[query = null]");
 
-		SensorObservationQuery ret = new SensorObservationQuery();
+		SparqlQueryModelVisitor visitor = new SparqlQueryModelVisitor();
 
-		TupleExpr expr = query.getTupleExpr();
-
-		expr.visit(collector);
+		try {
+			query.getTupleExpr().visit(visitor);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
 
 		URI sensorId = null;
 		URI propertyId = null;
 		URI featureId = null;
+		String sensorIdParameter = null;
+		String propertyIdParameter = null;
+		String featureIdParameter = null;
 		Var inXSDDateTimeVar = null;
+		Var hasRegionDataValueVar = null;
+		boolean aggregatable = true;
 
-		List<StatementPattern> patterns = collector.getStatementPatterns();
-
-		for (StatementPattern pattern : patterns) {
+		for (StatementPattern pattern : visitor.getStatementPatterns()) {
 			Value predicate = pattern.getPredicateVar().getValue();
 
+			if (predicate == null || !aggregatablePredicates.contains(predicate))
+				aggregatable = false;
+
 			if (predicate == null)
 				continue;
 
@@ -160,6 +322,7 @@ public class SensorObservationQuery extends ObservationQuery {
 				Value o = object.getValue();
 				if (o == null) {
 					sensorId = null;
+					sensorIdParameter = getParameter(object);
 				} else {
 					if (o instanceof URI)
 						sensorId = (URI) o;
@@ -168,6 +331,7 @@ public class SensorObservationQuery extends ObservationQuery {
 				Value o = object.getValue();
 				if (o == null) {
 					propertyId = null;
+					propertyIdParameter = getParameter(object);
 				} else {
 					if (o instanceof URI)
 						propertyId = (URI) o;
@@ -176,12 +340,15 @@ public class SensorObservationQuery extends ObservationQuery {
 				Value o = object.getValue();
 				if (o == null) {
 					featureId = null;
+					featureIdParameter = getParameter(object);
 				} else {
 					if (o instanceof URI)
 						featureId = (URI) o;
 				}
 			} else if (p.equals(Time.inXSDDateTime)) {
 				inXSDDateTimeVar = object;
+			} else if (p.equals(DUL.hasRegionDataValue)) {
+				hasRegionDataValueVar = object;
 			}
 		}
 
@@ -191,32 +358,58 @@ public class SensorObservationQuery extends ObservationQuery {
 							+ query + "]");
 
 		visitor.setInXSDDateTimeVar(inXSDDateTimeVar);
-
-		try {
-			expr.visit(visitor);
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
+		visitor.setHasRegionDataValueVar(hasRegionDataValueVar);
 
 		DateTime timeFrom = visitor.getTimeFrom();
 		DateTime timeTo = visitor.getTimeTo();
+		String timeFromParameter = null;
+		String timeToParameter = null;
+
+		if (template) {
+			timeFromParameter = visitor.getTimeFromParameter();
+			timeToParameter = visitor.getTimeToParameter();
+		} else {
+			sensorIdParameter = null;
+			propertyIdParameter = null;
+			featureIdParameter = null;
+		}
 
-		if (timeFrom == null)
+		if (timeFrom == null && timeFromParameter == null)
 			throw new RuntimeException(
 					"Cannot create query, failed to determine time interval [timeFrom = null; queryString = "
 							+ query + "]");
-		if (timeTo == null)
+		if (timeTo == null && timeToParameter == null)
 			throw new RuntimeException(
 					"Cannot create query, failed to determine time interval [timeTo = null; queryString = "
 							+ query + "]");
 
-		ret.setSensorId(sensorId);
-		ret.setPropertyId(propertyId);
-		ret.setFeatureOfInterestId(featureId);
-		ret.setTimeFrom(timeFrom);
-		ret.setTimeTo(timeTo);
+		long limit = -1;
+		boolean descending = false;
+		TimeBucketAggregation aggregation = null;
+
+		// Patterns other than those of observations may join fewer solutions
+		if (aggregatable) {
+			limit = visitor.getLimit();
+			descending = limit >= 0 && visitor.isDescending();
+		}
 
-		return ret;
+		if (aggregatable && hasRegionDataValueVar != null)
+			aggregation = visitor
+					.getTimeBucketAggregation((timeFrom == null) ? DateTimeZone.UTC
+							: timeFrom.getZone());
+
+		return new SensorObservationQuery(sensorId, propertyId, featureId,
+				timeFrom, timeTo, visitor.getValueFrom(),
+				visitor.getValueTo(), limit, descending, aggregation,
+				sensorIdParameter, propertyIdParameter, featureIdParameter,
+				timeFromParameter, timeToParameter);
+	}
+
+	private static String getParameter(Var var) {
+		if (var.isAnonymous())
+			return null;
+
+		return var.getName();
 	}
 
 	@Override
@@ -233,6 +426,11 @@ public class SensorObservationQuery extends ObservationQuery {
 		result = prime * result
 				+ ((timeFrom == null) ? 0 : timeFrom.hashCode());
 		result = prime * result + ((timeTo == null) ? 0 : timeTo.hashCode());
+		result = prime * result
+				+ ((valueFrom == null) ? 0 : valueFrom.hashCode());
+		result = prime * result + ((valueTo == null) ? 0 : valueTo.hashCode());
+		result = prime * result + (int) (limit ^ (limit >>> 32));
+		result = prime * result + (descending ? 1231 : 1237);
 
 		return result;
 	}
@@ -278,6 +476,23 @@ public class SensorObservationQuery extends ObservationQuery {
 		} else if (!timeTo.equals(other.timeTo))
 			return false;
 
+		if (valueFrom == null) {
+			if (other.valueFrom != null)
+				return false;
+		} else if (!valueFrom.equals(other.valueFrom))
+			return false;
+
+		if (valueTo == null) {
+			if (other.valueTo != null)
+				return false;
+		} else if (!valueTo.equals(other.valueTo))
+			return false;
+
+		if (limit != other.limit)
+			return false;
+		if (descending != other.descending)
+			return false;
+
 		return true;
 	}
 
@@ -285,7 +500,9 @@ public class SensorObservationQuery extends ObservationQuery {
 	public String toString() {
 		return "SensorObservationQuery [sensorId = " + sensorId
 				+ "; propertyId = " + propertyId + "; featureId = " + featureId
-				+ "; timeFrom = " + timeFrom + "; timeTo = " + timeTo + "]";
+				+ "; timeFrom = " + timeFrom + "; timeTo = " + timeTo
+				+ "; valueFrom = " + valueFrom + "; valueTo = " + valueTo
+				+ "; limit = " + limit + "; descending = " + descending + "]";
 	}
 
 }
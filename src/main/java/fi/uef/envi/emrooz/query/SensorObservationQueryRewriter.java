@@ -91,7 +91,9 @@ public class SensorObservationQueryRewriter implements
 						continue;
 
 					ret.add(SensorObservationQuery.create(thisSensorId,
-							thisPropertyId, thisFeatureId, timeFrom, timeTo));
+							thisPropertyId, thisFeatureId, timeFrom, timeTo,
+							query.getValueFrom(), query.getValueTo(),
+							query.getLimit(), query.isDescending()));
 				}
 			}
 		}
@@ -5,16 +5,29 @@
 
 package fi.uef.envi.emrooz.query;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 import org.openrdf.model.Literal;
+import org.openrdf.model.URI;
 import org.openrdf.model.Value;
+import org.openrdf.model.datatypes.XMLDatatypeUtil;
 import org.openrdf.model.vocabulary.XMLSchema;
 import org.openrdf.query.algebra.Add;
+import org.openrdf.query.algebra.AggregateOperator;
 import org.openrdf.query.algebra.And;
 import org.openrdf.query.algebra.ArbitraryLengthPath;
 import org.openrdf.query.algebra.Avg;
@@ -91,17 +104,29 @@ import org.openrdf.query.algebra.StatementPattern;
 import org.openrdf.query.algebra.Str;
 import org.openrdf.query.algebra.Sum;
 import org.openrdf.query.algebra.Union;
+import org.openrdf.query.algebra.UnaryValueOperator;
 import org.openrdf.query.algebra.ValueConstant;
 import org.openrdf.query.algebra.ValueExpr;
 import org.openrdf.query.algebra.Var;
 import org.openrdf.query.algebra.ZeroLengthPath;
 
+import fi.uef.envi.emrooz.vocabulary.DUL;
+import fi.uef.envi.emrooz.vocabulary.EV;
+import fi.uef.envi.emrooz.vocabulary.SSN;
+import fi.uef.envi.emrooz.vocabulary.Time;
+
 /**
  * <p>
  * Title: SparqlQueryModelVisitor
  * </p>
  * <p>
- * Description:
+ * Description: Analyzes a query in a single walk of its algebra. The walk
+ * collects the statement patterns of the query and the filters, time buckets
+ * and aggregates whose analysis depends on the time and value variables.
+ * These variables are determined by the caller from the statement patterns
+ * and set after the walk; the deferred analysis runs on the first call of a
+ * getter. A visitor analyzes one query and is not shared; it keeps no static
+ * state, so that any number of queries can be analyzed concurrently.
  * </p>
  * <p>
  * Project: Emrooz
@@ -118,24 +143,227 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 	private Var inXSDDateTimeVar = null;
 	private DateTime timeFrom = null;
 	private DateTime timeTo = null;
-	
-	private DateTimeFormatter dtf = ISODateTimeFormat.dateTime().withOffsetParsed();
+	private String timeFromParameter = null;
+	private String timeToParameter = null;
+
+	private Var hasRegionDataValueVar = null;
+	private boolean aggregatable = true;
+	private int projections = 0;
+	private Group group = null;
+	private String bucketName = null;
+	private long bucketDuration = -1;
+	private Map<String, TimeBucketAggregation.Type> aggregates = new HashMap<String, TimeBucketAggregation.Type>();
+	private Map<String, String> projection = new LinkedHashMap<String, String>();
+	private List<OrderElem> order = new ArrayList<OrderElem>();
+	private Double valueFrom = null;
+	private Double valueTo = null;
+	// Whether the number of solutions is at least the number of observations
+	// read, such that a slice can be applied to the reads
+	private boolean limitable = true;
+	private long limit = -1;
+	private int slices = 0;
+	// Depth of optional, union, minus or exists expressions; filters within
+	// do not restrict the values of all observations
+	private int optional = 0;
+	// Nodes whose analysis depends on the time and value variables
+	private List<StatementPattern> patterns = new ArrayList<StatementPattern>();
+	private List<Compare> compares = new ArrayList<Compare>();
+	private List<Filter> filters = new ArrayList<Filter>();
+	private List<Filter> optionalFilters = new ArrayList<Filter>();
+	private List<ExtensionElem> timeBuckets = new ArrayList<ExtensionElem>();
+	private List<GroupElem> groupElems = new ArrayList<GroupElem>();
+	private boolean resolved = false;
+
+	// Predicates of the patterns that select the series of observations; their
+	// objects may be constant
+	private static final Set<URI> seriesPredicates = Collections
+			.unmodifiableSet(new HashSet<URI>(Arrays.asList(SSN.observedBy,
+					SSN.observedProperty, SSN.featureOfInterest)));
+	// Predicates of the patterns that structure each observation; with
+	// variable subject and object, these patterns match every observation
+	private static final Set<URI> structuralPredicates = Collections
+			.unmodifiableSet(new HashSet<URI>(Arrays.asList(
+					SSN.observationResult, SSN.hasValue,
+					DUL.hasRegionDataValue, SSN.observationResultTime,
+					Time.inXSDDateTime)));
+
+	private static final DateTimeFormatter dtf = ISODateTimeFormat.dateTime()
+			.withOffsetParsed();
 
 	private static final Logger log = Logger
 			.getLogger(SparqlQueryModelVisitor.class.getName());
 
+	/**
+	 * Returns the statement patterns of the visited query, in the order of the
+	 * walk.
+	 */
+	public List<StatementPattern> getStatementPatterns() {
+		return patterns;
+	}
+
 	public void setInXSDDateTimeVar(Var var) {
+		if (resolved)
+			throw new IllegalStateException(
+					"Cannot set variable, query already analyzed");
+
 		this.inXSDDateTimeVar = var;
 	}
 
+	public void setHasRegionDataValueVar(Var var) {
+		if (resolved)
+			throw new IllegalStateException(
+					"Cannot set variable, query already analyzed");
+
+		this.hasRegionDataValueVar = var;
+	}
+
 	public DateTime getTimeFrom() {
+		resolve();
+
 		return timeFrom;
 	}
 
 	public DateTime getTimeTo() {
+		resolve();
+
 		return timeTo;
 	}
 
+	/**
+	 * Returns the name of the unbound variable the time is compared to with
+	 * &gt;=, e.g. <code>from</code> for <code>?time &gt;= ?from</code>, or
+	 * null. Such variables are parameters of prepared queries.
+	 */
+	public String getTimeFromParameter() {
+		resolve();
+
+		return timeFromParameter;
+	}
+
+	/**
+	 * Returns the name of the unbound variable the time is compared to with
+	 * &lt;, or null.
+	 */
+	public String getTimeToParameter() {
+		resolve();
+
+		return timeToParameter;
+	}
+
+	/**
+	 * Returns the inclusive lower bound of observation values implied by the
+	 * filters of the visited query, or null if unbounded.
+	 */
+	public Double getValueFrom() {
+		resolve();
+
+		return valueFrom;
+	}
+
+	/**
+	 * Returns the inclusive upper bound of observation values implied by the
+	 * filters of the visited query, or null if unbounded.
+	 */
+	public Double getValueTo() {
+		resolve();
+
+		return valueTo;
+	}
+
+	/**
+	 * Returns the number of observations, in the order returned by
+	 * {@link #isDescending()}, that suffice to evaluate the slice of the
+	 * visited query, i.e. offset plus limit, or -1 if all observations in the
+	 * time interval are required. The slice is pushed to reads only if the
+	 * query is ordered by time alone, or not ordered, filters only on time,
+	 * and its patterns match every observation of the series, i.e. use the
+	 * predicates of observations with variable objects other than sensor,
+	 * property and feature.
+	 */
+	public long getLimit() {
+		resolve();
+
+		if (!limitable || slices != 1 || limit < 0)
+			return -1;
+
+		if (order.isEmpty())
+			return limit;
+
+		if (order.size() != 1)
+			return -1;
+
+		ValueExpr expr = order.get(0).getExpr();
+
+		if (!(expr instanceof Var) || inXSDDateTimeVar == null
+				|| !((Var) expr).getName().equals(inXSDDateTimeVar.getName()))
+			return -1;
+
+		return limit;
+	}
+
+	/**
+	 * Returns true if the visited query is ordered by descending time.
+	 */
+	public boolean isDescending() {
+		return order.size() == 1 && !order.get(0).isAscending();
+	}
+
+	/**
+	 * Returns the time bucket aggregation of the visited query, or null if the
+	 * query is not grouped by <code>ev:timeBucket</code> only or uses
+	 * constructs other than time filters and AVG, MIN, MAX, SUM or COUNT of
+	 * the observation value.
+	 */
+	public TimeBucketAggregation getTimeBucketAggregation(DateTimeZone zone) {
+		resolve();
+
+		if (!aggregatable || group == null || bucketName == null)
+			return null;
+
+		Set<String> groupBindingNames = group.getGroupBindingNames();
+
+		if (groupBindingNames.size() != 1
+				|| !groupBindingNames.contains(bucketName))
+			return null;
+
+		if (aggregates.isEmpty() || projection.isEmpty())
+			return null;
+
+		// Buckets are returned in ascending order
+		for (OrderElem elem : order) {
+			ValueExpr expr = elem.getExpr();
+
+			if (!elem.isAscending() || !(expr instanceof Var)
+					|| !((Var) expr).getName().equals(bucketName))
+				return null;
+		}
+
+		String bucket = null;
+		Map<String, TimeBucketAggregation.Type> aggregates = new LinkedHashMap<String, TimeBucketAggregation.Type>();
+		List<String> bindingNames = new ArrayList<String>();
+
+		for (Map.Entry<String, String> entry : projection.entrySet()) {
+			String source = entry.getKey();
+			String target = entry.getValue();
+
+			if (source.equals(bucketName)) {
+				bucket = target;
+			} else if (this.aggregates.containsKey(source)) {
+				aggregates.put(target, this.aggregates.get(source));
+			} else {
+				return null;
+			}
+
+			bindingNames.add(target);
+		}
+
+		if (aggregates.isEmpty())
+			return null;
+
+		return new TimeBucketAggregation(bucket, bucketDuration, zone,
+				aggregates, bindingNames);
+	}
+
 	@Override
 	public void meet(QueryRoot arg0) throws Exception {
 	}
@@ -152,6 +380,7 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(ArbitraryLengthPath arg0) throws Exception {
+		aggregatable = false;
 		arg0.visitChildren(this);
 	}
 
@@ -162,6 +391,8 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(BindingSetAssignment arg0) throws Exception {
+		limitable = false;
+		aggregatable = false;
 		arg0.visitChildren(this);
 	}
 
@@ -187,6 +418,10 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(Compare arg0) throws Exception {
+		compares.add(arg0);
+	}
+
+	private void meetCompare(Compare arg0) {
 		ValueExpr left = arg0.getLeftArg();
 
 		if (!(left instanceof Var))
@@ -200,6 +435,15 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 		CompareOp op = arg0.getOperator();
 		ValueExpr right = arg0.getRightArg();
 
+		if (isParameter(right)) {
+			if (op.equals(CompareOp.GE))
+				timeFromParameter = ((Var) right).getName();
+			else if (op.equals(CompareOp.LT))
+				timeToParameter = ((Var) right).getName();
+
+			return;
+		}
+
 		if (!(right instanceof ValueConstant)) {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe("Expected value constant for time filter [right = "
@@ -279,22 +523,32 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(Difference arg0) throws Exception {
-		arg0.visitChildren(this);
+		limitable = false;
+		aggregatable = false;
+		arg0.getLeftArg().visit(this);
+		optional++;
+		arg0.getRightArg().visit(this);
+		optional--;
 	}
 
 	@Override
 	public void meet(Distinct arg0) throws Exception {
+		limitable = false;
+		aggregatable = false;
 		arg0.visitChildren(this);
 	}
 
 	@Override
 	public void meet(EmptySet arg0) throws Exception {
+		aggregatable = false;
 		arg0.visitChildren(this);
 	}
 
 	@Override
 	public void meet(Exists arg0) throws Exception {
+		optional++;
 		arg0.visitChildren(this);
+		optional--;
 	}
 
 	@Override
@@ -304,11 +558,30 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(ExtensionElem arg0) throws Exception {
+		ValueExpr expr = arg0.getExpr();
+
+		if (expr instanceof FunctionCall
+				&& ((FunctionCall) expr).getURI().equals(
+						EV.timeBucket.stringValue())) {
+			timeBuckets.add(arg0);
+		} else if (expr instanceof Var) {
+			// Projected group binding
+			if (!((Var) expr).getName().equals(arg0.getName()))
+				aggregatable = false;
+		} else if (!(expr instanceof AggregateOperator)) {
+			aggregatable = false;
+		}
+
 		arg0.visitChildren(this);
 	}
 
 	@Override
 	public void meet(Filter arg0) throws Exception {
+		if (optional == 0)
+			filters.add(arg0);
+		else
+			optionalFilters.add(arg0);
+
 		arg0.visitChildren(this);
 	}
 
@@ -319,17 +592,56 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(Group arg0) throws Exception {
+		limitable = false;
+
+		if (group != null)
+			aggregatable = false;
+
+		group = arg0;
+
 		arg0.visitChildren(this);
 	}
 
 	@Override
 	public void meet(GroupConcat arg0) throws Exception {
+		aggregatable = false;
 		arg0.visitChildren(this);
 	}
 
 	@Override
 	public void meet(GroupElem arg0) throws Exception {
-		arg0.visitChildren(this);
+		groupElems.add(arg0);
+		arg0.visitChildren(this);
+	}
+
+	private void meetGroupElem(GroupElem arg0) {
+		AggregateOperator operator = arg0.getOperator();
+		ValueExpr arg = null;
+
+		if (operator instanceof UnaryValueOperator)
+			arg = ((UnaryValueOperator) operator).getArg();
+
+		if (operator.isDistinct()) {
+			aggregatable = false;
+		} else if (operator instanceof Count) {
+			if (arg != null && !(arg instanceof Var))
+				aggregatable = false;
+			else
+				aggregates.put(arg0.getName(),
+						TimeBucketAggregation.Type.COUNT);
+		} else if (arg == null || !arg.equals(hasRegionDataValueVar)) {
+			aggregatable = false;
+		} else if (operator instanceof Avg) {
+			aggregates.put(arg0.getName(), TimeBucketAggregation.Type.AVG);
+		} else if (operator instanceof Min) {
+			aggregates.put(arg0.getName(), TimeBucketAggregation.Type.MIN);
+		} else if (operator instanceof Max) {
+			aggregates.put(arg0.getName(), TimeBucketAggregation.Type.MAX);
+		} else if (operator instanceof Sum) {
+			aggregates.put(arg0.getName(), TimeBucketAggregation.Type.SUM);
+		} else {
+			aggregatable = false;
+		}
 	}
 
 	@Override
@@ -349,6 +661,8 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(Intersection arg0) throws Exception {
+		limitable = false;
+		aggregatable = false;
 		arg0.visitChildren(this);
 	}
 
@@ -404,7 +718,15 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(LeftJoin arg0) throws Exception {
-		arg0.visitChildren(this);
+		aggregatable = false;
+		arg0.getLeftArg().visit(this);
+		optional++;
+		arg0.getRightArg().visit(this);
+
+		if (arg0.hasCondition())
+			arg0.getCondition().visit(this);
+
+		optional--;
 	}
 
 	@Override
@@ -449,6 +771,8 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(MultiProjection arg0) throws Exception {
+		limitable = false;
+		aggregatable = false;
 		arg0.visitChildren(this);
 	}
 
@@ -469,6 +793,8 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(Order arg0) throws Exception {
+		order.addAll(arg0.getElements());
+
 		arg0.visitChildren(this);
 	}
 
@@ -479,11 +805,16 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(Projection arg0) throws Exception {
+		if (++projections > 1)
+			aggregatable = false;
+
 		arg0.visitChildren(this);
 	}
 
 	@Override
 	public void meet(ProjectionElem arg0) throws Exception {
+		projection.put(arg0.getSourceName(), arg0.getTargetName());
+
 		arg0.visitChildren(this);
 	}
 
@@ -494,6 +825,8 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(Reduced arg0) throws Exception {
+		limitable = false;
+		aggregatable = false;
 		arg0.visitChildren(this);
 	}
 
@@ -509,11 +842,14 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(Sample arg0) throws Exception {
+		aggregatable = false;
 		arg0.visitChildren(this);
 	}
 
 	@Override
 	public void meet(Service arg0) throws Exception {
+		limitable = false;
+		aggregatable = false;
 		arg0.visitChildren(this);
 	}
 
@@ -524,11 +860,23 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(Slice arg0) throws Exception {
+		aggregatable = false;
+		slices++;
+
+		if (arg0.hasLimit())
+			limit = arg0.getLimit() + Math.max(arg0.getOffset(), 0);
+
 		arg0.visitChildren(this);
 	}
 
 	@Override
 	public void meet(StatementPattern arg0) throws Exception {
+		patterns.add(arg0);
+
+		// Other patterns may match fewer solutions than observations read
+		if (!isStructural(arg0))
+			limitable = false;
+
 		arg0.visitChildren(this);
 	}
 
@@ -544,7 +892,11 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(Union arg0) throws Exception {
+		limitable = false;
+		aggregatable = false;
+		optional++;
 		arg0.visitChildren(this);
+		optional--;
 	}
 
 	@Override
@@ -564,6 +916,7 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(ZeroLengthPath arg0) throws Exception {
+		aggregatable = false;
 		arg0.visitChildren(this);
 	}
 
@@ -572,4 +925,167 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 		arg0.visitChildren(this);
 	}
 
+	private boolean isStructural(StatementPattern pattern) {
+		Value predicate = pattern.getPredicateVar().getValue();
+
+		if (pattern.getSubjectVar().hasValue() || predicate == null)
+			return false;
+
+		if (seriesPredicates.contains(predicate))
+			return true;
+
+		return structuralPredicates.contains(predicate)
+				&& !pattern.getObjectVar().hasValue();
+	}
+
+	/**
+	 * Analyzes the nodes that depend on the time and value variables, once.
+	 */
+	private void resolve() {
+		if (resolved)
+			return;
+
+		resolved = true;
+
+		for (ExtensionElem elem : timeBuckets)
+			meetTimeBucket(elem.getName(), (FunctionCall) elem.getExpr());
+
+		for (GroupElem elem : groupElems)
+			meetGroupElem(elem);
+
+		for (Filter filter : filters) {
+			if (!isTimeFilter(filter.getCondition())) {
+				aggregatable = false;
+				limitable = false;
+			}
+
+			setValueRange(filter.getCondition());
+		}
+
+		for (Filter filter : optionalFilters) {
+			if (!isTimeFilter(filter.getCondition())) {
+				aggregatable = false;
+				limitable = false;
+			}
+		}
+
+		for (Compare compare : compares)
+			meetCompare(compare);
+	}
+
+	private void meetTimeBucket(String name, FunctionCall function) {
+		List<ValueExpr> args = function.getArgs();
+
+		if (args.size() != 2 || !args.get(0).equals(inXSDDateTimeVar)
+				|| !(args.get(1) instanceof ValueConstant)) {
+			aggregatable = false;
+			return;
+		}
+
+		long duration = TimeBucketFunction.getDuration(((ValueConstant) args
+				.get(1)).getValue().stringValue());
+
+		if (duration <= 0 || bucketName != null) {
+			aggregatable = false;
+			return;
+		}
+
+		bucketName = name;
+		bucketDuration = duration;
+	}
+
+	private void setValueRange(ValueExpr expr) {
+		if (expr instanceof And) {
+			And and = (And) expr;
+
+			setValueRange(and.getLeftArg());
+			setValueRange(and.getRightArg());
+
+			return;
+		}
+
+		if (!(expr instanceof Compare) || hasRegionDataValueVar == null)
+			return;
+
+		Compare compare = (Compare) expr;
+		ValueExpr left = compare.getLeftArg();
+		ValueExpr right = compare.getRightArg();
+		CompareOp op = compare.getOperator();
+
+		// Constant on the left, e.g. 30 < ?value
+		if (right.equals(hasRegionDataValueVar)) {
+			ValueExpr tmp = left;
+			left = right;
+			right = tmp;
+
+			if (op.equals(CompareOp.LT))
+				op = CompareOp.GT;
+			else if (op.equals(CompareOp.LE))
+				op = CompareOp.GE;
+			else if (op.equals(CompareOp.GT))
+				op = CompareOp.LT;
+			else if (op.equals(CompareOp.GE))
+				op = CompareOp.LE;
+		}
+
+		if (!left.equals(hasRegionDataValueVar)
+				|| !(right instanceof ValueConstant))
+			return;
+
+		Value value = ((ValueConstant) right).getValue();
+
+		if (!(value instanceof Literal))
+			return;
+
+		Literal literal = (Literal) value;
+
+		if (literal.getDatatype() == null
+				|| !XMLDatatypeUtil.isNumericDatatype(literal.getDatatype()))
+			return;
+
+		double v;
+
+		try {
+			v = literal.doubleValue();
+		} catch (NumberFormatException e) {
+			return;
+		}
+
+		if (op.equals(CompareOp.GT) || op.equals(CompareOp.GE)
+				|| op.equals(CompareOp.EQ))
+			valueFrom = (valueFrom == null) ? v : Math.max(valueFrom, v);
+		if (op.equals(CompareOp.LT) || op.equals(CompareOp.LE)
+				|| op.equals(CompareOp.EQ))
+			valueTo = (valueTo == null) ? v : Math.min(valueTo, v);
+	}
+
+	private boolean isTimeFilter(ValueExpr expr) {
+		if (expr instanceof And) {
+			And and = (And) expr;
+
+			return isTimeFilter(and.getLeftArg())
+					&& isTimeFilter(and.getRightArg());
+		}
+
+		if (!(expr instanceof Compare))
+			return false;
+
+		Compare compare = (Compare) expr;
+		CompareOp op = compare.getOperator();
+
+		return compare.getLeftArg().equals(inXSDDateTimeVar)
+				&& (compare.getRightArg() instanceof ValueConstant || isParameter(compare
+						.getRightArg()))
+				&& (op.equals(CompareOp.GE) || op.equals(CompareOp.LT));
+	}
+
+	private boolean isParameter(ValueExpr expr) {
+		if (!(expr instanceof Var))
+			return false;
+
+		Var var = (Var) expr;
+
+		return !var.hasValue() && !var.isAnonymous();
+	}
+
 }
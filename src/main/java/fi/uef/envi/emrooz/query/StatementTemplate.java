@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import java.util.Set;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+
+/**
+ * <p>
+ * Title: StatementTemplate
+ * </p>
+ * <p>
+ * Description: The statements of the entities that observations link to,
+ * e.g. their sensor, which are not stored with each observation.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public interface StatementTemplate {
+
+	/**
+	 * Returns the statements of the object linked by the predicate, or null
+	 * if the predicate does not link to an entity of the template.
+	 */
+	public Set<Statement> getStatements(URI predicate, Resource object);
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.query.TupleQueryResultHandler;
+
+import fi.uef.envi.emrooz.api.QueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+
+/**
+ * <p>
+ * Title: StatementTemplateQueryHandler
+ * </p>
+ * <p>
+ * Description: Re-attaches the statements of a template to the statements of
+ * another query handler. For each statement whose object is an entity of the
+ * template, e.g. a sensor linked by an observation, the statements of the
+ * entity are returned once, ahead of the first statement that links to it,
+ * such that no statements are returned for entities of observations that are
+ * not returned.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class StatementTemplateQueryHandler implements QueryHandler<Statement> {
+
+	private QueryHandler<Statement> other;
+	private StatementTemplate template;
+
+	public StatementTemplateQueryHandler(QueryHandler<Statement> other,
+			StatementTemplate template) {
+		if (other == null)
+			throw new NullPointerException("[other = null]");
+		if (template == null)
+			throw new NullPointerException("[template = null]");
+
+		this.other = other;
+		this.template = template;
+	}
+
+	@Override
+	public ResultSet<Statement> evaluate() {
+		return new StatementTemplateResultSet(other.evaluate());
+	}
+
+	@Override
+	public void evaluate(TupleQueryResultHandler handler) {
+		throw new UnsupportedOperationException(
+				"Query evaluation with result handler not supported");
+	}
+
+	@Override
+	public void close() {
+		other.close();
+	}
+
+	private class StatementTemplateResultSet implements ResultSet<Statement> {
+
+		private ResultSet<Statement> other;
+		private Queue<Statement> next;
+		private Set<Statement> attached;
+
+		private StatementTemplateResultSet(ResultSet<Statement> other) {
+			this.other = other;
+			this.next = new LinkedList<Statement>();
+			this.attached = new HashSet<Statement>();
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (!next.isEmpty())
+				return true;
+
+			if (!other.hasNext())
+				return false;
+
+			Statement statement = other.next();
+			Value object = statement.getObject();
+
+			if (object instanceof Resource) {
+				Set<Statement> statements = template.getStatements(
+						statement.getPredicate(), (Resource) object);
+
+				if (statements != null) {
+					for (Statement s : statements) {
+						if (attached.add(s))
+							next.add(s);
+					}
+				}
+			}
+
+			next.add(statement);
+
+			return true;
+		}
+
+		@Override
+		public Statement next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			return next.poll();
+		}
+
+		@Override
+		public void close() {
+			other.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTimeZone;
+
+/**
+ * <p>
+ * Title: TimeBucketAggregation
+ * </p>
+ * <p>
+ * Description: Describes a sensor observation query that groups observation
+ * values by <code>ev:timeBucket</code> only and aggregates them with AVG, MIN,
+ * MAX, SUM or COUNT. Such queries can be evaluated by data stores as
+ * streaming per-bucket aggregates, without creating RDF statements. Binding
+ * names are those of the query result, i.e. after projection.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class TimeBucketAggregation {
+
+	public enum Type {
+		AVG, MIN, MAX, SUM, COUNT
+	}
+
+	private final String bucketName;
+	private final long duration;
+	private final DateTimeZone zone;
+	private final Map<String, Type> aggregates;
+	private final List<String> bindingNames;
+
+	public TimeBucketAggregation(String bucketName, long duration,
+			DateTimeZone zone, Map<String, Type> aggregates,
+			List<String> bindingNames) {
+		if (duration <= 0)
+			throw new IllegalArgumentException(
+					"Duration must be positive [duration = " + duration + "]");
+		if (zone == null)
+			throw new NullPointerException("[zone = null]");
+		if (aggregates == null)
+			throw new NullPointerException("[aggregates = null]");
+		if (bindingNames == null)
+			throw new NullPointerException("[bindingNames = null]");
+
+		this.bucketName = bucketName;
+		this.duration = duration;
+		this.zone = zone;
+		this.aggregates = Collections
+				.unmodifiableMap(new LinkedHashMap<String, Type>(aggregates));
+		this.bindingNames = Collections.unmodifiableList(new ArrayList<String>(
+				bindingNames));
+	}
+
+	/**
+	 * Returns the binding name of the bucket start time, or null if the bucket
+	 * is not projected.
+	 */
+	public String getBucketName() {
+		return bucketName;
+	}
+
+	/**
+	 * Returns the bucket duration in milliseconds.
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Returns the time zone of bucket start times.
+	 */
+	public DateTimeZone getZone() {
+		return zone;
+	}
+
+	public Map<String, Type> getAggregates() {
+		return aggregates;
+	}
+
+	public List<String> getBindingNames() {
+		return bindingNames;
+	}
+
+	@Override
+	public String toString() {
+		return "TimeBucketAggregation [bucketName = " + bucketName
+				+ "; duration = " + duration + "; zone = " + zone
+				+ "; aggregates = " + aggregates + "; bindingNames = "
+				+ bindingNames + "]";
+	}
+
+}
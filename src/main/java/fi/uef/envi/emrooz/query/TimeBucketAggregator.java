@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openrdf.model.Literal;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.impl.MapBindingSet;
+
+/**
+ * <p>
+ * Title: TimeBucketAggregator
+ * </p>
+ * <p>
+ * Description: Computes the aggregates of a time bucket aggregation from a
+ * stream of observation times and values. Per bucket, only count, sum,
+ * minimum and maximum are retained, hence memory is bounded by the number of
+ * buckets rather than the number of observations. Values are aggregated as
+ * doubles; minimum and maximum are returned as the original literals, unless
+ * added as bucket summaries.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class TimeBucketAggregator {
+
+	private final TimeBucketAggregation aggregation;
+	private final TreeMap<Long, Bucket> buckets;
+
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+	private static final Logger log = Logger
+			.getLogger(TimeBucketAggregator.class.getName());
+
+	public TimeBucketAggregator(TimeBucketAggregation aggregation) {
+		if (aggregation == null)
+			throw new NullPointerException("[aggregation = null]");
+
+		this.aggregation = aggregation;
+		this.buckets = new TreeMap<Long, Bucket>();
+	}
+
+	public void add(long time, Literal value) {
+		if (value == null)
+			return;
+
+		double v;
+
+		try {
+			v = value.doubleValue();
+		} catch (NumberFormatException e) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("Skipped non-numeric value [value = " + value
+						+ "]");
+			return;
+		}
+
+		getBucket(time).add(1, v, v, v, value, value);
+	}
+
+	/**
+	 * Adds the summary of a bucket that starts at the given time and is
+	 * contained in one bucket of the aggregation, e.g. a rollup of finer
+	 * resolution.
+	 */
+	public void add(long time, BucketSummary summary) {
+		if (summary == null || summary.isEmpty())
+			return;
+
+		getBucket(time).add(summary.getCount(), summary.getSum(),
+				summary.getMin(), summary.getMax(), null, null);
+	}
+
+	private Bucket getBucket(long time) {
+		long start = TimeBucketFunction.floor(time, aggregation.getDuration());
+
+		Bucket ret = buckets.get(start);
+
+		if (ret == null) {
+			ret = new Bucket();
+			buckets.put(start, ret);
+		}
+
+		return ret;
+	}
+
+	public int size() {
+		return buckets.size();
+	}
+
+	/**
+	 * Returns one binding set per bucket, ordered by bucket start time.
+	 */
+	public List<BindingSet> getBindingSets() {
+		List<BindingSet> ret = new ArrayList<BindingSet>(buckets.size());
+		String bucketName = aggregation.getBucketName();
+
+		for (Map.Entry<Long, Bucket> entry : buckets.entrySet()) {
+			Bucket bucket = entry.getValue();
+			MapBindingSet bs = new MapBindingSet();
+
+			if (bucketName != null)
+				bs.addBinding(bucketName, TimeBucketFunction.createLiteral(vf,
+						entry.getKey(), aggregation.getZone()));
+
+			for (Map.Entry<String, TimeBucketAggregation.Type> aggregate : aggregation
+					.getAggregates().entrySet()) {
+				bs.addBinding(aggregate.getKey(),
+						bucket.get(aggregate.getValue()));
+			}
+
+			ret.add(bs);
+		}
+
+		return Collections.unmodifiableList(ret);
+	}
+
+	private class Bucket {
+
+		private long count = 0;
+		private double sum = 0;
+		private double minValue;
+		private double maxValue;
+		private Literal min;
+		private Literal max;
+
+		private void add(long count, double sum, double minValue,
+				double maxValue, Literal min, Literal max) {
+			if (this.count == 0 || minValue < this.minValue) {
+				this.minValue = minValue;
+				this.min = (min == null) ? vf.createLiteral(minValue) : min;
+			}
+			if (this.count == 0 || maxValue > this.maxValue) {
+				this.maxValue = maxValue;
+				this.max = (max == null) ? vf.createLiteral(maxValue) : max;
+			}
+
+			this.count += count;
+			this.sum += sum;
+		}
+
+		private Literal get(TimeBucketAggregation.Type type) {
+			switch (type) {
+			case AVG:
+				return vf.createLiteral(sum / count);
+			case MIN:
+				return min;
+			case MAX:
+				return max;
+			case SUM:
+				return vf.createLiteral(sum);
+			case COUNT:
+				return vf.createLiteral(String.valueOf(count),
+						XMLSchema.INTEGER);
+			default:
+				throw new RuntimeException("Unsupported aggregate [type = "
+						+ type + "]");
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.joda.time.format.ISOPeriodFormat;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.query.algebra.evaluation.ValueExprEvaluationException;
+import org.openrdf.query.algebra.evaluation.function.Function;
+
+import fi.uef.envi.emrooz.vocabulary.EV;
+
+/**
+ * <p>
+ * Title: TimeBucketFunction
+ * </p>
+ * <p>
+ * Description: The SPARQL function <code>ev:timeBucket(?time, "PT1M")</code>
+ * that returns the start of the bucket of the given duration (ISO 8601, fixed
+ * length) that contains an XSD date time. Buckets are aligned to the epoch
+ * and the start is returned in the time zone of the given time. Emrooz
+ * evaluates queries grouped by this function in the data store where
+ * possible; this implementation is used by Sesame for all other queries.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class TimeBucketFunction implements Function {
+
+	private static final DateTimeFormatter dtf = ISODateTimeFormat.dateTime()
+			.withOffsetParsed();
+
+	@Override
+	public String getURI() {
+		return EV.timeBucket.stringValue();
+	}
+
+	@Override
+	public Value evaluate(ValueFactory vf, Value... args)
+			throws ValueExprEvaluationException {
+		if (args.length != 2)
+			throw new ValueExprEvaluationException(
+					"Expected two arguments [args = " + args.length + "]");
+
+		if (!(args[0] instanceof Literal)
+				|| !XMLSchema.DATETIME.equals(((Literal) args[0])
+						.getDatatype()))
+			throw new ValueExprEvaluationException(
+					"Expected XSD date time literal [args[0] = " + args[0]
+							+ "]");
+
+		if (!(args[1] instanceof Literal))
+			throw new ValueExprEvaluationException(
+					"Expected duration literal [args[1] = " + args[1] + "]");
+
+		long duration = getDuration(args[1].stringValue());
+
+		if (duration <= 0)
+			throw new ValueExprEvaluationException(
+					"Expected positive fixed length duration [args[1] = "
+							+ args[1] + "]");
+
+		DateTime time;
+
+		try {
+			time = dtf.parseDateTime(args[0].stringValue());
+		} catch (IllegalArgumentException e) {
+			throw new ValueExprEvaluationException(e);
+		}
+
+		return createLiteral(vf, floor(time.getMillis(), duration),
+				time.getZone());
+	}
+
+	/**
+	 * Returns the duration in milliseconds of an ISO 8601 period such as
+	 * <code>PT30M</code>, or -1 if the period is invalid or does not have a
+	 * fixed length (e.g. months).
+	 */
+	public static long getDuration(String period) {
+		try {
+			return ISOPeriodFormat.standard().parsePeriod(period)
+					.toStandardDuration().getMillis();
+		} catch (IllegalArgumentException | UnsupportedOperationException e) {
+			return -1;
+		}
+	}
+
+	public static long floor(long time, long duration) {
+		long ret = time - time % duration;
+
+		if (time < 0 && ret != time)
+			ret -= duration;
+
+		return ret;
+	}
+
+	public static Literal createLiteral(ValueFactory vf, long time,
+			DateTimeZone zone) {
+		return vf.createLiteral(dtf.print(new DateTime(time, zone)),
+				XMLSchema.DATETIME);
+	}
+
+}
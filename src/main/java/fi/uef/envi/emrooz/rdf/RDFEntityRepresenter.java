@@ -8,6 +8,7 @@ package fi.uef.envi.emrooz.rdf;
 import java.util.List;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -102,6 +103,24 @@ public class RDFEntityRepresenter {
 	private final static Logger log = Logger
 			.getLogger(RDFEntityRepresenter.class.getName());
 
+	/**
+	 * The types of the objects of the statements that link a sensor
+	 * observation to its sensor, property and feature of interest, by link
+	 * predicate. Normalized representations omit the statements of such
+	 * objects.
+	 */
+	public static final Map<URI, URI> NORMALIZED_TYPES;
+
+	static {
+		Map<URI, URI> types = new HashMap<URI, URI>();
+
+		types.put(SSN.observedBy, SSN.Sensor);
+		types.put(SSN.observedProperty, SSN.Property);
+		types.put(SSN.featureOfInterest, SSN.FeatureOfInterest);
+
+		NORMALIZED_TYPES = Collections.unmodifiableMap(types);
+	}
+
 	public RDFEntityRepresenter() {
 		entityVisitor = new RepresenterEntityVisitor();
 		observationValueVisitor = new RepresenterObservationValueVisitor();
@@ -731,6 +750,24 @@ public class RDFEntityRepresenter {
 	}
 
 	public Set<Statement> createRepresentation(SensorObservation observation) {
+		return createRepresentation(observation, true);
+	}
+
+	/**
+	 * Creates the representation of the sensor observation without the
+	 * statements of its sensor, property and feature of interest, i.e. the
+	 * statements of the observation, its links by {@link #NORMALIZED_TYPES},
+	 * its result and its result time. The statements of the sensor, property
+	 * and feature are the same for all observations of a series and are
+	 * re-attached from their specification when read.
+	 */
+	public Set<Statement> createNormalizedRepresentation(
+			SensorObservation observation) {
+		return createRepresentation(observation, false);
+	}
+
+	private Set<Statement> createRepresentation(SensorObservation observation,
+			boolean full) {
 		if (observation == null)
 			return Collections.emptySet();
 
@@ -756,12 +793,15 @@ public class RDFEntityRepresenter {
 		ret.add(_statement(id, SSN.observationResult, resultId));
 		ret.add(_statement(id, SSN.observationResultTime, resultTimeId));
 
-		ret.addAll(createRepresentation(sensor));
-		ret.addAll(createRepresentation(property));
-		ret.addAll(createRepresentation(feature));
 		ret.addAll(createRepresentation(result));
 		ret.addAll(createRepresentation(resultTime));
 
+		if (full) {
+			ret.addAll(createRepresentation(sensor));
+			ret.addAll(createRepresentation(property));
+			ret.addAll(createRepresentation(feature));
+		}
+
 		return Collections.unmodifiableSet(ret);
 	}
 
@@ -772,12 +812,21 @@ public class RDFEntityRepresenter {
 		if (statements.isEmpty())
 			return Collections.emptySet();
 
+		return createSensorObservations(new StatementIndex(statements));
+	}
+
+	public Set<SensorObservation> createSensorObservations(StatementIndex index) {
+		if (index == null)
+			return Collections.emptySet();
+		if (index.isEmpty())
+			return Collections.emptySet();
+
 		Set<SensorObservation> ret = new HashSet<SensorObservation>();
 
-		Set<URI> ids = _getIds(statements, SSN.Observation);
+		Set<URI> ids = index.getIds(SSN.Observation);
 
 		for (URI id : ids) {
-			ret.add(createSensorObservation(_matchSubject(statements, id)));
+			ret.add(createSensorObservation(index.match(id)));
 		}
 
 		return Collections.unmodifiableSet(ret);
@@ -841,10 +890,11 @@ public class RDFEntityRepresenter {
 			return Collections.emptySet();
 
 		Set<Sensor> ret = new HashSet<Sensor>();
-		Set<URI> ids = _getIds(statements, SSN.Sensor);
+		StatementIndex index = new StatementIndex(statements);
+		Set<URI> ids = index.getIds(SSN.Sensor);
 
 		for (URI id : ids) {
-			ret.add(createSensor(_matchSubject(statements, id)));
+			ret.add(createSensor(index.match(id)));
 		}
 
 		return Collections.unmodifiableSet(ret);
@@ -1383,18 +1433,6 @@ public class RDFEntityRepresenter {
 		return vf.createStatement(s, p, o);
 	}
 
-	private static Set<URI> _getIds(Set<Statement> statements, URI type) {
-		Set<URI> ret = new HashSet<URI>();
-
-		for (Statement statement : statements) {
-			if (statement.getPredicate().equals(RDF.TYPE)
-					&& statement.getObject().equals(type))
-				ret.add(vf.createURI(statement.getSubject().stringValue()));
-		}
-
-		return Collections.unmodifiableSet(ret);
-	}
-
 	private static URI _getId(Set<Statement> statements, URI type) {
 		for (Statement statement : statements) {
 			if (statement.getPredicate().equals(RDF.TYPE)
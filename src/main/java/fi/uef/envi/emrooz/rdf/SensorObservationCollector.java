@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.rdf;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.openrdf.model.Statement;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+
+import fi.uef.envi.emrooz.entity.ssn.SensorObservation;
+
+/**
+ * <p>
+ * Title: SensorObservationCollector
+ * </p>
+ * <p>
+ * Description: An RDF handler that indexes statements by subject as they are
+ * reported by an RDF parser, and creates the sensor observations from the
+ * index once the end of the RDF is reached. Statements are thus never held in
+ * an intermediate statement set.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class SensorObservationCollector extends RDFHandlerBase {
+
+	private final StatementIndex index;
+	private final RDFEntityRepresenter representer;
+	private Set<SensorObservation> observations;
+
+	public SensorObservationCollector() {
+		this(new RDFEntityRepresenter());
+	}
+
+	public SensorObservationCollector(RDFEntityRepresenter representer) {
+		if (representer == null)
+			throw new NullPointerException(
+					"Representer cannot be null [representer = null]");
+
+		this.representer = representer;
+		this.index = new StatementIndex();
+		this.observations = Collections.emptySet();
+	}
+
+	@Override
+	public void startRDF() throws RDFHandlerException {
+		index.clear();
+		observations = Collections.emptySet();
+	}
+
+	@Override
+	public void handleStatement(Statement statement) throws RDFHandlerException {
+		index.add(statement);
+	}
+
+	@Override
+	public void endRDF() throws RDFHandlerException {
+		observations = representer.createSensorObservations(index);
+		index.clear();
+	}
+
+	public Set<SensorObservation> getSensorObservations() {
+		return observations;
+	}
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.rdf;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.RDF;
+
+/**
+ * <p>
+ * Title: StatementIndex
+ * </p>
+ * <p>
+ * Description: Groups statements by subject, and subjects by type, in a
+ * single pass. Linked statements are matched by following object links
+ * through the index rather than by scanning all statements, which makes the
+ * extraction of many entities from one statement set linear in the number of
+ * statements.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class StatementIndex {
+
+	private final Map<Resource, Set<Statement>> subjects;
+	private final Map<Value, Set<URI>> types;
+	private int size = 0;
+
+	public StatementIndex() {
+		this.subjects = new HashMap<Resource, Set<Statement>>();
+		this.types = new HashMap<Value, Set<URI>>();
+	}
+
+	public StatementIndex(Collection<Statement> statements) {
+		this();
+
+		addAll(statements);
+	}
+
+	public void add(Statement statement) {
+		if (statement == null)
+			return;
+
+		Resource subject = statement.getSubject();
+		Set<Statement> statements = subjects.get(subject);
+
+		if (statements == null) {
+			statements = new HashSet<Statement>();
+			subjects.put(subject, statements);
+		}
+
+		if (!statements.add(statement))
+			return;
+
+		size++;
+
+		if (!(subject instanceof URI)
+				|| !statement.getPredicate().equals(RDF.TYPE))
+			return;
+
+		Value type = statement.getObject();
+		Set<URI> ids = types.get(type);
+
+		if (ids == null) {
+			ids = new HashSet<URI>();
+			types.put(type, ids);
+		}
+
+		ids.add((URI) subject);
+	}
+
+	public void addAll(Collection<Statement> statements) {
+		if (statements == null)
+			return;
+
+		for (Statement statement : statements)
+			add(statement);
+	}
+
+	public boolean contains(Resource subject) {
+		return subjects.containsKey(subject);
+	}
+
+	public Set<Statement> getStatements(Resource subject) {
+		Set<Statement> ret = subjects.get(subject);
+
+		if (ret == null)
+			return Collections.emptySet();
+
+		return Collections.unmodifiableSet(ret);
+	}
+
+	public Set<URI> getIds(URI type) {
+		Set<URI> ret = types.get(type);
+
+		if (ret == null)
+			return Collections.emptySet();
+
+		return Collections.unmodifiableSet(ret);
+	}
+
+	public Set<Statement> match(Resource subject) {
+		Set<Statement> ret = new HashSet<Statement>();
+
+		if (subject == null)
+			return ret;
+
+		Set<Resource> visited = new HashSet<Resource>();
+		Deque<Resource> open = new ArrayDeque<Resource>();
+
+		open.push(subject);
+
+		while (!open.isEmpty()) {
+			Resource current = open.pop();
+
+			if (!visited.add(current))
+				continue;
+
+			Set<Statement> statements = subjects.get(current);
+
+			if (statements == null)
+				continue;
+
+			for (Statement statement : statements) {
+				ret.add(statement);
+
+				Value object = statement.getObject();
+
+				if (object instanceof URI)
+					open.push((URI) object);
+			}
+		}
+
+		return ret;
+	}
+
+	public Set<Statement> remove(Resource subject) {
+		Set<Statement> ret = subjects.remove(subject);
+
+		if (ret == null)
+			return Collections.emptySet();
+
+		size -= ret.size();
+
+		for (Statement statement : ret) {
+			if (!statement.getPredicate().equals(RDF.TYPE))
+				continue;
+
+			Set<URI> ids = types.get(statement.getObject());
+
+			if (ids == null)
+				continue;
+
+			ids.remove(subject);
+
+			if (ids.isEmpty())
+				types.remove(statement.getObject());
+		}
+
+		return Collections.unmodifiableSet(ret);
+	}
+
+	public boolean isEmpty() {
+		return subjects.isEmpty();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int subjects() {
+		return subjects.size();
+	}
+
+	public void clear() {
+		subjects.clear();
+		types.clear();
+		size = 0;
+	}
+
+}
@@ -8,14 +8,17 @@ package fi.uef.envi.emrooz.rest;
 import java.io.File;
 import java.util.Set;
 
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.XMLSchema;
 import org.openrdf.query.BindingSet;
+import org.openrdf.query.impl.MapBindingSet;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.sail.nativerdf.NativeStore;
 
 import fi.uef.envi.emrooz.Emrooz;
 import fi.uef.envi.emrooz.QueryType;
-import fi.uef.envi.emrooz.api.DataStore;
 import fi.uef.envi.emrooz.api.KnowledgeStore;
 import fi.uef.envi.emrooz.api.ResultSet;
 import fi.uef.envi.emrooz.cassandra.CassandraDataStore;
@@ -23,6 +26,9 @@ import fi.uef.envi.emrooz.entity.qb.Dataset;
 import fi.uef.envi.emrooz.entity.ssn.FeatureOfInterest;
 import fi.uef.envi.emrooz.entity.ssn.Property;
 import fi.uef.envi.emrooz.entity.ssn.Sensor;
+import fi.uef.envi.emrooz.query.Cursor;
+import fi.uef.envi.emrooz.query.PagedResultSet;
+import fi.uef.envi.emrooz.query.QueryAdmissionPolicy;
 import fi.uef.envi.emrooz.sesame.SesameKnowledgeStore;
 
 /**
@@ -48,14 +54,61 @@ public class Connection {
 
 	private static String KNOWLEDGE_STORE_FILE_DIRECTORY = "/tmp/ks";
 
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+
+	// Query templates; ids and time interval are bound on evaluation
+	private static final String SENSOR_OBSERVATION_QUERY = "prefix ssn: <http://purl.oclc.org/NET/ssnx/ssn#> "
+			+ "prefix time: <http://www.w3.org/2006/time#> "
+			+ "prefix dul: <http://www.loa-cnr.it/ontologies/DUL.owl#> "
+			+ "select ?time ?value ?sensorId ?propertyId ?featureId "
+			+ "where { "
+			+ "[ "
+			+ "ssn:observedBy ?sensorId ; "
+			+ "ssn:observedProperty ?propertyId ; "
+			+ "ssn:featureOfInterest ?featureId ; "
+			+ "ssn:observationResultTime [ time:inXSDDateTime ?time ] ; "
+			+ "ssn:observationResult [ ssn:hasValue [ dul:hasRegionDataValue ?value ] ] "
+			+ "] "
+			+ "filter (?time >= ?from && ?time < ?to) "
+			+ "} order by asc (?time)";
+
+	private static final String DATASET_OBSERVATION_QUERY = "prefix qb: <http://purl.org/linked-data/cube#> "
+			+ "prefix sdmx-dimension: <http://purl.org/linked-data/sdmx/2009/dimension#> "
+			+ "prefix time: <http://www.w3.org/2006/time#> "
+			+ "prefix rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
+			+ "select ?id ?time ?property ?value "
+			+ "where { "
+			+ "?id qb:dataSet ?datasetId . "
+			+ "?id sdmx-dimension:timePeriod [ time:inXSDDateTime ?time ] . "
+			+ "?id ?property ?value . "
+			+ "?property rdf:type qb:ComponentProperty . "
+			+ "filter (?time >= ?from && ?time < ?to) "
+			+ "} order by asc (?time)";
+
+	// Closed partitions are re-read by every plot refresh
+	private static long PARTITION_CACHE_CAPACITY = 64 * 1024 * 1024;
+	// Observations loaded by other clients into closed partitions are seen
+	// once the cached partition expires
+	private static long PARTITION_CACHE_TIME_TO_LIVE = 5 * 60 * 1000;
+	// Queries that would read more are rejected rather than exhaust the heap
+	private static long MAX_QUERY_PARTITIONS = 100000;
+	private static long MAX_QUERY_ROWS = 10000000;
+	private static long QUERY_TIMEOUT = 60 * 1000;
+
 	public static void init() {
 		Repository r = new SailRepository(new NativeStore(new File(
 				KNOWLEDGE_STORE_FILE_DIRECTORY)));
 		KnowledgeStore ks = new SesameKnowledgeStore(r);
 
-		DataStore ds = new CassandraDataStore();
+		CassandraDataStore ds = new CassandraDataStore();
+
+		ds.setPartitionCache(PARTITION_CACHE_CAPACITY, false,
+				PARTITION_CACHE_TIME_TO_LIVE);
 
 		emrooz = new Emrooz(ks, ds);
+		emrooz.setQueryAdmissionPolicy(new QueryAdmissionPolicy(
+				MAX_QUERY_PARTITIONS, MAX_QUERY_ROWS,
+				QueryAdmissionPolicy.Action.DEGRADE, QUERY_TIMEOUT));
 	}
 
 	public static Set<FeatureOfInterest> getFeaturesOfInterest() {
@@ -76,66 +129,73 @@ public class Connection {
 
 	public static ResultSet<BindingSet> evaluate(String sensorId,
 			String propertyId, String featureId, String from, String to) {
-		StringBuffer query = new StringBuffer();
-
-		query.append("prefix ssn: <http://purl.oclc.org/NET/ssnx/ssn#> ");
-		query.append("prefix time: <http://www.w3.org/2006/time#> ");
-		query.append("prefix dul: <http://www.loa-cnr.it/ontologies/DUL.owl#> ");
-		query.append("select ?time ?value ");
-
-		if (sensorId == null)
-			query.append("?sensorId ");
-		if (propertyId == null)
-			query.append("?propertyId ");
-		if (featureId == null)
-			query.append("?featureId ");
-
-		query.append("where { ");
-		query.append("[ ");
-
-		if (sensorId == null)
-			query.append("ssn:observedBy ?sensorId ; ");
-		else
-			query.append("ssn:observedBy <" + sensorId + "> ; ");
-
-		if (propertyId == null)
-			query.append("ssn:observedProperty ?propertyId ; ");
-		else
-			query.append("ssn:observedProperty <" + propertyId + "> ; ");
-
-		if (featureId == null)
-			query.append("ssn:featureOfInterest ?featureId ; ");
-		else
-			query.append("ssn:featureOfInterest <" + featureId + "> ; ");
-
-		query.append("ssn:observationResultTime [ time:inXSDDateTime ?time ] ; ");
-		query.append("ssn:observationResult [ ssn:hasValue [ dul:hasRegionDataValue ?value ] ] ");
-		query.append("] ");
-		query.append("filter (?time >= \"" + from + "\"^^xsd:dateTime && ");
-		query.append("?time < \"" + to + "\"^^xsd:dateTime) ");
-		query.append("} order by asc (?time)");
-		
-		return emrooz.evaluate(QueryType.SENSOR_OBSERVATION, query.toString());
+		return emrooz.evaluate(emrooz.prepare(QueryType.SENSOR_OBSERVATION,
+				SENSOR_OBSERVATION_QUERY),
+				getBindings(sensorId, propertyId, featureId, from, to));
+	}
+
+	public static PagedResultSet<BindingSet> evaluate(String sensorId,
+			String propertyId, String featureId, String from, String to,
+			Cursor cursor, int size) {
+		return emrooz.evaluate(emrooz.prepare(QueryType.SENSOR_OBSERVATION,
+				SENSOR_OBSERVATION_QUERY),
+				getBindings(sensorId, propertyId, featureId, from, to),
+				cursor, size);
+	}
+
+	public static ResultSet<BindingSet> evaluate(String datasetId,
+			String from, String to) {
+		return emrooz.evaluate(emrooz.prepare(QueryType.DATASET_OBSERVATION,
+				DATASET_OBSERVATION_QUERY), getBindings(datasetId, from, to));
 	}
-	
-	public static ResultSet<BindingSet> evaluate(String datasetId, String from, String to) {
-		StringBuffer query = new StringBuffer();
-		
-		query.append("prefix qb: <http://purl.org/linked-data/cube#> ");
-		query.append("prefix sdmx-dimension: <http://purl.org/linked-data/sdmx/2009/dimension#> ");
-		query.append("prefix time: <http://www.w3.org/2006/time#> ");
-		query.append("prefix rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> ");
-		query.append("select ?id ?time ?property ?value ");
-		query.append("where { ");
-		query.append("?id qb:dataSet <" + datasetId + "> . ");
-		query.append("?id sdmx-dimension:timePeriod [ time:inXSDDateTime ?time ] . ");
-		query.append("?id ?property ?value . ");
-		query.append("?property rdf:type qb:ComponentProperty . ");
-		query.append("filter (?time >= \"" + from + "\"^^xsd:dateTime && ");
-	    query.append("?time < \"" + to + "\"^^xsd:dateTime) ");
-		query.append("} order by asc (?time)");
-		
-		return emrooz.evaluate(QueryType.DATASET_OBSERVATION, query.toString());
+
+	public static PagedResultSet<BindingSet> evaluate(String datasetId,
+			String from, String to, Cursor cursor, int size) {
+		return emrooz.evaluate(emrooz.prepare(QueryType.DATASET_OBSERVATION,
+				DATASET_OBSERVATION_QUERY), getBindings(datasetId, from, to),
+				cursor, size);
+	}
+
+	public static ResultSet<BindingSet> getLatestSensorObservations(
+			String sensorId, String propertyId, String featureId) {
+		return emrooz.getLatestSensorObservations(
+				(sensorId == null) ? null : vf.createURI(sensorId),
+				(propertyId == null) ? null : vf.createURI(propertyId),
+				(featureId == null) ? null : vf.createURI(featureId));
+	}
+
+	public static ResultSet<BindingSet> getLatestDatasetObservations(
+			String datasetId) {
+		return emrooz.getLatestDatasetObservations((datasetId == null) ? null
+				: vf.createURI(datasetId));
+	}
+
+	private static BindingSet getBindings(String sensorId,
+			String propertyId, String featureId, String from, String to) {
+		MapBindingSet bindings = new MapBindingSet();
+
+		if (sensorId != null)
+			bindings.addBinding("sensorId", vf.createURI(sensorId));
+		if (propertyId != null)
+			bindings.addBinding("propertyId", vf.createURI(propertyId));
+		if (featureId != null)
+			bindings.addBinding("featureId", vf.createURI(featureId));
+
+		bindings.addBinding("from", vf.createLiteral(from, XMLSchema.DATETIME));
+		bindings.addBinding("to", vf.createLiteral(to, XMLSchema.DATETIME));
+
+		return bindings;
+	}
+
+	private static BindingSet getBindings(String datasetId, String from,
+			String to) {
+		MapBindingSet bindings = new MapBindingSet();
+
+		bindings.addBinding("datasetId", vf.createURI(datasetId));
+		bindings.addBinding("from", vf.createLiteral(from, XMLSchema.DATETIME));
+		bindings.addBinding("to", vf.createLiteral(to, XMLSchema.DATETIME));
+
+		return bindings;
 	}
 
 	public static void shutdown() {
@@ -6,10 +6,10 @@
 package fi.uef.envi.emrooz.rest;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
@@ -17,9 +17,15 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Response;
 
+import org.joda.time.DateTime;
 import org.openrdf.query.BindingSet;
 
 import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.query.Cursor;
+import fi.uef.envi.emrooz.query.Downsampler;
+import fi.uef.envi.emrooz.query.PagedResultSet;
+import fi.uef.envi.emrooz.query.QueryCancelledException;
+import fi.uef.envi.emrooz.query.QueryRejectedException;
 import fi.uef.envi.emrooz.vocabulary.SDMXDimension;
 
 /**
@@ -27,7 +33,15 @@ import fi.uef.envi.emrooz.vocabulary.SDMXDimension;
  * Title: ListDatasetObservations
  * </p>
  * <p>
- * Description:
+ * Description: Lists the observations of a dataset in a time range as CSV,
+ * one row per time and one column per property. With the optional points
+ * parameter, rows are downsampled on the server to at most the given number
+ * of points. The property parameter, as URI or local name, selects the
+ * column that drives the downsampling (default: the first column); rows
+ * without a numeric value for it are then omitted. Columns are ordered by
+ * property URI. With the optional size
+ * parameter, at most size observations are listed per request; the response
+ * header Cursor then holds the cursor parameter for the next page.
  * </p>
  * <p>
  * Project: Emrooz
@@ -45,17 +59,79 @@ public class ListDatasetObservations {
 	@GET
 	@Produces("text/csv")
 	public Response getTextCsv(@QueryParam("dataset") String datasetId,
-			@QueryParam("from") String from, @QueryParam("to") String to) {
+			@QueryParam("from") String from, @QueryParam("to") String to,
+			@QueryParam("points") Integer points,
+			@QueryParam("method") String method,
+			@QueryParam("property") String propertyId,
+			@QueryParam("size") Integer size,
+			@QueryParam("cursor") String cursor) {
 		if (datasetId == null)
 			return Response.ok("dataset is null", "text/plain").build();
 		if (from == null)
 			return Response.ok("from is null", "text/plain").build();
 		if (to == null)
 			return Response.ok("to is null", "text/plain").build();
+		if (points != null && points < 3)
+			return Response.ok("points is less than 3", "text/plain").build();
+		if (size != null && size < 1)
+			return Response.ok("size is less than 1", "text/plain").build();
+		if (size != null && points != null)
+			return Response.ok("size and points are exclusive", "text/plain")
+					.build();
+		if (cursor != null && size == null)
+			return Response.ok("size is null", "text/plain").build();
 
-		ResultSet<BindingSet> rs = Connection.evaluate(datasetId, from, to);
+		Cursor c = null;
 
-		Set<String> properties = new HashSet<String>();
+		if (cursor != null) {
+			try {
+				c = Cursor.parse(cursor);
+			} catch (IllegalArgumentException e) {
+				return Response.ok("cursor is malformed", "text/plain").build();
+			}
+		}
+
+		Downsampler.Method m = Downsampler.Method.LTTB;
+		long timeFrom = 0;
+		long timeTo = 0;
+
+		if (points != null) {
+			try {
+				if (method != null)
+					m = Downsampler.Method.valueOf(method.toUpperCase());
+			} catch (IllegalArgumentException e) {
+				return Response.ok("method is unknown", "text/plain").build();
+			}
+
+			timeFrom = new DateTime(from).getMillis();
+			timeTo = new DateTime(to).getMillis();
+
+			if (timeTo <= timeFrom)
+				return Response.ok("to is not after from", "text/plain")
+						.build();
+		}
+
+		ResultSet<BindingSet> rs;
+		Cursor nextCursor = null;
+
+		try {
+			if (size == null) {
+				rs = Connection.evaluate(datasetId, from, to);
+			} else {
+				PagedResultSet<BindingSet> prs = Connection.evaluate(datasetId,
+						from, to, c, size);
+				nextCursor = prs.getNextCursor();
+				rs = prs;
+			}
+		} catch (QueryRejectedException e) {
+			return Response.ok("query is too expensive", "text/plain")
+					.build();
+		} catch (QueryCancelledException e) {
+			return Response.ok("query timed out", "text/plain").build();
+		}
+
+		// Columns, and thus the default downsampling column, in property order
+		Set<String> properties = new TreeSet<String>();
 		Map<String, Map<String, String>> results = new LinkedHashMap<String, Map<String, String>>();
 
 		while (rs.hasNext()) {
@@ -81,6 +157,44 @@ public class ListDatasetObservations {
 			result.put(SDMXDimension.timePeriod.stringValue(), time);
 		}
 		
+		if (points != null) {
+			String column = getColumn(properties, propertyId);
+
+			if (column == null)
+				return Response.ok("property is unknown", "text/plain").build();
+
+			Downsampler<String> downsampler = Downsampler.create(m, timeFrom,
+					timeTo, points);
+
+			for (Map.Entry<String, Map<String, String>> result : results
+					.entrySet()) {
+				Map<String, String> values = result.getValue();
+				String value = values.get(column);
+
+				if (value == null)
+					continue;
+
+				double v;
+
+				try {
+					v = Double.parseDouble(value);
+				} catch (NumberFormatException e) {
+					continue;
+				}
+
+				downsampler.add(
+						new DateTime(values.get(SDMXDimension.timePeriod
+								.stringValue())).getMillis(), v, result
+								.getKey());
+			}
+
+			Map<String, Map<String, String>> retained = new LinkedHashMap<String, Map<String, String>>();
+			for (String id : downsampler.getResults())
+				retained.put(id, results.get(id));
+
+			results = retained;
+		}
+
 		StringBuffer sb = new StringBuffer();
 		
 		sb.append("time");
@@ -102,6 +216,21 @@ public class ListDatasetObservations {
  		}
 		
 
-		return Response.ok(sb.toString(), "text/csv").build();
+		Response.ResponseBuilder rb = Response.ok(sb.toString(), "text/csv");
+
+		if (nextCursor != null)
+			rb.header("Cursor", nextCursor.toString());
+
+		return rb.build();
+	}
+
+	private String getColumn(Set<String> properties, String propertyId) {
+		for (String property : properties) {
+			if (propertyId == null || property.equals(propertyId)
+					|| property.endsWith("#" + propertyId))
+				return property;
+		}
+
+		return null;
 	}
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.rest;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+
+import org.openrdf.query.BindingSet;
+
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.vocabulary.SDMXDimension;
+
+/**
+ * <p>
+ * Title: ListLatestDatasetObservations
+ * </p>
+ * <p>
+ * Description: Lists the component values of the latest observation of a
+ * dataset, or of all datasets if none is given, as CSV with one line per
+ * component value.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@Path("/observations/dataset/latest")
+public class ListLatestDatasetObservations {
+
+	@GET
+	@Produces("text/csv")
+	public Response getTextCsv(@QueryParam("dataset") String datasetId) {
+		ResultSet<BindingSet> rs = Connection
+				.getLatestDatasetObservations(datasetId);
+
+		StringBuffer sb = new StringBuffer();
+
+		sb.append("time,property,value,dataset" + "\n");
+
+		while (rs.hasNext()) {
+			BindingSet bs = rs.next();
+
+			String property = bs.getValue("property").stringValue();
+
+			if (property.equals(SDMXDimension.timePeriod.stringValue()))
+				continue;
+
+			sb.append(bs.getValue("time").stringValue() + "," + property + ","
+					+ bs.getValue("value").stringValue() + ","
+					+ bs.getValue("datasetId").stringValue() + "\n");
+		}
+
+		rs.close();
+
+		return Response.ok(sb.toString(), "text/csv").build();
+	}
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.rest;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+
+import org.openrdf.query.BindingSet;
+
+import fi.uef.envi.emrooz.api.ResultSet;
+
+/**
+ * <p>
+ * Title: ListLatestSensorObservations
+ * </p>
+ * <p>
+ * Description: Lists the latest observation of each series of sensor,
+ * property and feature as CSV. Sensor, property and feature are optional; if
+ * none is given, the latest observations of all series are listed.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@Path("/observations/sensor/latest")
+public class ListLatestSensorObservations {
+
+	@GET
+	@Produces("text/csv")
+	public Response getTextCsv(@QueryParam("sensor") String sensorId,
+			@QueryParam("property") String propertyId,
+			@QueryParam("feature") String featureId) {
+		ResultSet<BindingSet> rs = Connection.getLatestSensorObservations(
+				sensorId, propertyId, featureId);
+
+		StringBuffer sb = new StringBuffer();
+
+		sb.append("time,value,sensor,property,feature" + "\n");
+
+		while (rs.hasNext()) {
+			BindingSet bs = rs.next();
+
+			sb.append(bs.getValue("time").stringValue() + ","
+					+ bs.getValue("value").stringValue() + ","
+					+ bs.getValue("sensorId").stringValue() + ","
+					+ bs.getValue("propertyId").stringValue() + ","
+					+ bs.getValue("featureId").stringValue() + "\n");
+		}
+
+		rs.close();
+
+		return Response.ok(sb.toString(), "text/csv").build();
+	}
+
+}
@@ -5,23 +5,41 @@
 
 package fi.uef.envi.emrooz.rest;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Response;
 
+import org.joda.time.DateTime;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Value;
 import org.openrdf.query.Binding;
 import org.openrdf.query.BindingSet;
 
 import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.query.Cursor;
+import fi.uef.envi.emrooz.query.Downsampler;
+import fi.uef.envi.emrooz.query.PagedResultSet;
+import fi.uef.envi.emrooz.query.QueryCancelledException;
+import fi.uef.envi.emrooz.query.QueryRejectedException;
 
 /**
  * <p>
  * Title: ListSensorObservations
  * </p>
  * <p>
- * Description:
+ * Description: Lists the observations of sensors in a time range as CSV. With
+ * the optional points parameter, each series is downsampled on the server to
+ * at most the given number of points, e.g. the pixel width of a plot, using
+ * Largest-Triangle-Three-Buckets (method=lttb, default) or min-max
+ * decimation (method=minmax). Non-numeric values are then omitted. With the
+ * optional size parameter, at most size observations are listed per request;
+ * the response header Cursor then holds the cursor parameter of the request
+ * for the next page, and is absent on the last page.
  * </p>
  * <p>
  * Project: Emrooz
@@ -41,14 +59,78 @@ public class ListSensorObservations {
 	public Response getTextCsv(@QueryParam("sensor") String sensorId,
 			@QueryParam("property") String propertyId,
 			@QueryParam("feature") String featureId,
-			@QueryParam("from") String from, @QueryParam("to") String to) {
+			@QueryParam("from") String from, @QueryParam("to") String to,
+			@QueryParam("points") Integer points,
+			@QueryParam("method") String method,
+			@QueryParam("size") Integer size,
+			@QueryParam("cursor") String cursor) {
 		if (from == null)
 			return Response.ok("from is null", "text/plain").build();
 		if (to == null)
 			return Response.ok("to is null", "text/plain").build();
-		
-		ResultSet<BindingSet> rs = Connection.evaluate(sensorId, propertyId,
-				featureId, from, to);
+		if (points != null && points < 3)
+			return Response.ok("points is less than 3", "text/plain").build();
+		if (size != null && size < 1)
+			return Response.ok("size is less than 1", "text/plain").build();
+		if (size != null && points != null)
+			return Response.ok("size and points are exclusive", "text/plain")
+					.build();
+		if (cursor != null && size == null)
+			return Response.ok("size is null", "text/plain").build();
+
+		Cursor c = null;
+
+		if (cursor != null) {
+			try {
+				c = Cursor.parse(cursor);
+			} catch (IllegalArgumentException e) {
+				return Response.ok("cursor is malformed", "text/plain").build();
+			}
+		}
+
+		Downsampler.Method m = Downsampler.Method.LTTB;
+		long timeFrom = 0;
+		long timeTo = 0;
+
+		if (points != null) {
+			try {
+				if (method != null)
+					m = Downsampler.Method.valueOf(method.toUpperCase());
+			} catch (IllegalArgumentException e) {
+				return Response.ok("method is unknown", "text/plain").build();
+			}
+
+			timeFrom = new DateTime(from).getMillis();
+			timeTo = new DateTime(to).getMillis();
+
+			if (timeTo <= timeFrom)
+				return Response.ok("to is not after from", "text/plain")
+						.build();
+		}
+
+		ResultSet<BindingSet> rs;
+		Cursor nextCursor = null;
+
+		try {
+			if (size == null) {
+				rs = Connection.evaluate(sensorId, propertyId, featureId,
+						from, to);
+			} else {
+				PagedResultSet<BindingSet> prs = Connection.evaluate(
+						sensorId, propertyId, featureId, from, to, c, size);
+				nextCursor = prs.getNextCursor();
+				rs = prs;
+			}
+		} catch (QueryRejectedException e) {
+			return Response.ok("query is too expensive", "text/plain")
+					.build();
+		} catch (QueryCancelledException e) {
+			return Response.ok("query timed out", "text/plain").build();
+		}
+
+		// Series are downsampled separately, keyed by sensor, property and
+		// feature
+		Map<String, Downsampler<String>> downsamplers = new LinkedHashMap<String, Downsampler<String>>();
 
 		StringBuffer sb = new StringBuffer();
 
@@ -57,35 +139,59 @@ public class ListSensorObservations {
 		while (rs.hasNext()) {
 			BindingSet bs = rs.next();
 
-			sb.append(bs.getBinding("time").getValue().stringValue());
-			sb.append("," + bs.getBinding("value").getValue().stringValue());
+			String time = bs.getBinding("time").getValue().stringValue();
+			Value value = bs.getBinding("value").getValue();
+			String series = getValue(bs, "sensorId", sensorId) + ","
+					+ getValue(bs, "propertyId", propertyId) + ","
+					+ getValue(bs, "featureId", featureId);
+			String line = time + "," + value.stringValue() + "," + series
+					+ "\n";
 
-			Binding b = null;
+			if (points == null) {
+				sb.append(line);
+				continue;
+			}
 
-			b = bs.getBinding("sensorId");
+			if (!(value instanceof Literal))
+				continue;
 
-			if (b == null)
-				sb.append("," + sensorId);
-			else
-				sb.append("," + b.getValue().stringValue());
+			double v;
 
-			b = bs.getBinding("propertyId");
+			try {
+				v = ((Literal) value).doubleValue();
+			} catch (NumberFormatException e) {
+				continue;
+			}
 
-			if (b == null)
-				sb.append("," + propertyId);
-			else
-				sb.append("," + b.getValue().stringValue());
+			Downsampler<String> downsampler = downsamplers.get(series);
 
-			b = bs.getBinding("featureId");
+			if (downsampler == null) {
+				downsampler = Downsampler.create(m, timeFrom, timeTo, points);
+				downsamplers.put(series, downsampler);
+			}
 
-			if (b == null)
-				sb.append("," + featureId);
-			else
-				sb.append("," + b.getValue().stringValue());
+			downsampler.add(new DateTime(time).getMillis(), v, line);
+		}
 
-			sb.append("\n");
+		for (Downsampler<String> downsampler : downsamplers.values()) {
+			for (String line : downsampler.getResults())
+				sb.append(line);
 		}
 
-		return Response.ok(sb.toString(), "text/csv").build();
+		Response.ResponseBuilder rb = Response.ok(sb.toString(), "text/csv");
+
+		if (nextCursor != null)
+			rb.header("Cursor", nextCursor.toString());
+
+		return rb.build();
+	}
+
+	private String getValue(BindingSet bs, String name, String defaultValue) {
+		Binding b = bs.getBinding(name);
+
+		if (b == null)
+			return defaultValue;
+
+		return b.getValue().stringValue();
 	}
 }
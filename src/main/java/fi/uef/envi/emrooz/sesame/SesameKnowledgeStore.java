@@ -186,6 +186,12 @@ public class SesameKnowledgeStore implements KnowledgeStore {
 		return new SesameQueryHandler(other, query);
 	}
 
+	@Override
+	public SesameQueryHandler createQueryHandler(QueryHandler<Statement> other,
+			ParsedQuery query, BindingSet bindings) {
+		return new SesameQueryHandler(other, query, bindings);
+	}
+
 	@Override
 	public void close() {
 		try {
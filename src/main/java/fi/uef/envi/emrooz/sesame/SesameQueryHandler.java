@@ -6,6 +6,7 @@
 package fi.uef.envi.emrooz.sesame;
 
 import org.openrdf.model.Statement;
+import org.openrdf.query.Binding;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.QueryEvaluationException;
@@ -13,11 +14,15 @@ import org.openrdf.query.QueryLanguage;
 import org.openrdf.query.TupleQuery;
 import org.openrdf.query.TupleQueryResultHandler;
 import org.openrdf.query.TupleQueryResultHandlerException;
+import org.openrdf.query.impl.EmptyBindingSet;
 import org.openrdf.query.parser.ParsedQuery;
+import org.openrdf.query.parser.ParsedTupleQuery;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.repository.sail.SailRepositoryConnection;
+import org.openrdf.repository.sail.SailTupleQuery;
 import org.openrdf.sail.memory.MemoryStore;
 
 import fi.uef.envi.emrooz.api.QueryHandler;
@@ -46,15 +51,24 @@ public class SesameQueryHandler implements QueryHandler<BindingSet> {
 	private RepositoryConnection conn;
 	private QueryHandler<Statement> other;
 	private ParsedQuery query;
+	private BindingSet bindings;
 
 	public SesameQueryHandler(QueryHandler<Statement> other, ParsedQuery query) {
+		this(other, query, EmptyBindingSet.getInstance());
+	}
+
+	public SesameQueryHandler(QueryHandler<Statement> other,
+			ParsedQuery query, BindingSet bindings) {
 		if (other == null)
 			throw new RuntimeException("[other = null]");
 		if (query == null)
 			throw new RuntimeException("[query = null]");
+		if (bindings == null)
+			throw new RuntimeException("[bindings = null]");
 
 		this.other = other;
 		this.query = query;
+		this.bindings = bindings;
 
 		try {
 			this.repo = new SailRepository(new MemoryStore());
@@ -103,8 +117,23 @@ public class SesameQueryHandler implements QueryHandler<BindingSet> {
 			conn.add(rs.next());
 		}
 
-		return conn.prepareTupleQuery(QueryLanguage.SPARQL,
-				query.getSourceString());
+		TupleQuery ret;
+
+		// The parsed query is evaluated as is, rather than parsed again from
+		// its source; the connection evaluates a copy of the expression
+		if (query instanceof ParsedTupleQuery
+				&& conn instanceof SailRepositoryConnection)
+			ret = new SailTupleQuery((ParsedTupleQuery) query,
+					(SailRepositoryConnection) conn) {
+			};
+		else
+			ret = conn.prepareTupleQuery(QueryLanguage.SPARQL,
+					query.getSourceString());
+
+		for (Binding binding : bindings)
+			ret.setBinding(binding.getName(), binding.getValue());
+
+		return ret;
 	}
 
 }
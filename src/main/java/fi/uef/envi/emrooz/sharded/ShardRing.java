@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.sharded;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * <p>
+ * Title: ShardRing
+ * </p>
+ * <p>
+ * Description: A consistent hash ring that assigns series keys, i.e. hex
+ * digests, to shards. Each shard is placed at a number of virtual nodes on
+ * the ring, such that series are balanced and adding a shard only moves
+ * series to the added shard.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class ShardRing {
+
+	private final int shards;
+	private final TreeMap<Long, Integer> ring;
+
+	public static final int VIRTUAL_NODES = 128;
+	// Hex digits of a digest read as position, i.e. 60 bits
+	private static final int POSITION_DIGITS = 15;
+
+	public ShardRing(int shards) {
+		if (shards < 1)
+			throw new IllegalArgumentException("[shards = " + shards + "]");
+
+		this.shards = shards;
+		this.ring = new TreeMap<Long, Integer>();
+
+		for (int i = 0; i < shards; i++) {
+			for (int j = 0; j < VIRTUAL_NODES; j++)
+				ring.put(getPosition(DigestUtils.sha256Hex("shard-" + i + "-"
+						+ j)), i);
+		}
+	}
+
+	public int getShards() {
+		return shards;
+	}
+
+	/**
+	 * Returns the index of the shard of the series key.
+	 */
+	public int getShard(String seriesKey) {
+		if (seriesKey == null)
+			throw new NullPointerException("[seriesKey = null]");
+
+		Map.Entry<Long, Integer> entry = ring
+				.ceilingEntry(getPosition(seriesKey));
+
+		if (entry == null)
+			entry = ring.firstEntry();
+
+		return entry.getValue();
+	}
+
+	private static long getPosition(String hex) {
+		if (hex.length() < POSITION_DIGITS)
+			throw new IllegalArgumentException("Key too short [key = " + hex
+					+ "]");
+
+		return Long.parseLong(hex.substring(0, POSITION_DIGITS), 16);
+	}
+
+}
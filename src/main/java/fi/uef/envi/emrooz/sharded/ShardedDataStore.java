@@ -0,0 +1,1176 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.sharded;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+
+import fi.uef.envi.emrooz.api.DataStore;
+import fi.uef.envi.emrooz.api.PagedQueryHandler;
+import fi.uef.envi.emrooz.api.QueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.cassandra.utils.RowKeyUtils;
+import fi.uef.envi.emrooz.entity.Entity;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.qudt.Unit;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.query.Cursor;
+import fi.uef.envi.emrooz.query.DatasetObservationQuery;
+import fi.uef.envi.emrooz.query.QueryContext;
+import fi.uef.envi.emrooz.query.QueryCost;
+import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.query.TimeBucketAggregation;
+import fi.uef.envi.emrooz.rdf.StatementIndex;
+import fi.uef.envi.emrooz.vocabulary.SDMXDimension;
+import fi.uef.envi.emrooz.vocabulary.SSN;
+import fi.uef.envi.emrooz.vocabulary.Time;
+
+/**
+ * <p>
+ * Title: ShardedDataStore
+ * </p>
+ * <p>
+ * Description: A data store that routes each series, by the consistent hash
+ * of its series key, to one of several data stores, e.g. Cassandra clusters
+ * or keyspaces. Queries over the series of several shards are evaluated by
+ * the shards in parallel. Aggregations over the series of several shards
+ * are evaluated over the observations read.
+ * </p>
+ * <p>
+ * A shard can be added while the data store is in use. The series whose
+ * shard changes are then moved in the background, while they are read from
+ * and written to their previous shard. A series is copied in chunks of one
+ * hour, read in pages of many observations that are split into
+ * observations by their subject. Chunks with observations written while
+ * they were copied are copied again. Writers of the series wait only while
+ * the last chunk is copied and the series is routed to its shard; the
+ * copies replace observations of equal time. The data store knows the
+ * series, and their time interval, that were added through it, and only
+ * these are moved. Cursors of paged queries are invalid once a shard is
+ * added.
+ * </p>
+ * <p>
+ * Observations are not removed from the previous shard, as data stores do
+ * not remove observations. They are no longer read once the series is
+ * moved, and expire with the retention of the previous shard, if any.
+ * </p>
+ * <p>
+ * The data store keeps its state in the metadata of the shards: the
+ * position of each shard, such that shards can be listed in any order; the
+ * number of shards, such that a shard added with {@link #addShard(DataStore)}
+ * is not left out; the series registry, each shard with the series it owns,
+ * written when flushed or closed; and the previous number of shards while
+ * series are moved, which are moved on when the data store is created
+ * again. The registry is marked incomplete if the data store is created
+ * again after observations were added and it was not flushed or closed;
+ * shards are then not added, as series would be left on their previous
+ * shard.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class ShardedDataStore implements DataStore {
+
+	private final List<DataStore> shards;
+	private final ConcurrentMap<String, Series> series;
+	private final Set<String> pending;
+	private final ReadWriteLock routingLock;
+	private final RowKeyUtils rowKeyUtils;
+	private final ExecutorService executor;
+	private final ExecutorService rebalancer;
+	private volatile Routing routing;
+	private volatile boolean dirty = false;
+	private boolean incomplete = false;
+
+	private static final int MOVE_PAGE_SIZE = 1000;
+	private static final long MOVE_CHUNK = 60 * 60 * 1000;
+	private static final String POSITION_METADATA_KEY = "sharded.position";
+	private static final String SHARDS_METADATA_KEY = "sharded.shards";
+	private static final String PREVIOUS_METADATA_KEY = "sharded.previous";
+	private static final String SERIES_METADATA_KEY = "sharded.series";
+	private static final String STATE_METADATA_KEY = "sharded.state";
+	private static final String CLEAN = "clean";
+	private static final String DIRTY = "dirty";
+	private static final String INCOMPLETE = "incomplete";
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+	private static final Logger log = Logger.getLogger(ShardedDataStore.class
+			.getName());
+
+	public ShardedDataStore(List<DataStore> shards) {
+		if (shards == null)
+			throw new NullPointerException("[shards = null]");
+		if (shards.isEmpty())
+			throw new IllegalArgumentException("No shards");
+		if (shards.size() > ShardedPagedQueryHandler.MAX_POSITIONS)
+			throw new IllegalArgumentException("Too many shards [shards = "
+					+ shards.size() + "]");
+
+		this.shards = new CopyOnWriteArrayList<DataStore>(order(shards));
+		this.series = new ConcurrentHashMap<String, Series>();
+		this.pending = Collections
+				.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		this.routingLock = new ReentrantReadWriteLock();
+		this.rowKeyUtils = new RowKeyUtils();
+		this.executor = Executors.newCachedThreadPool();
+		this.rebalancer = Executors.newSingleThreadExecutor();
+
+		int previous = load();
+
+		this.routing = new Routing(new ShardRing(shards.size()),
+				(previous == 0) ? null : new ShardRing(previous));
+
+		if (log.isLoggable(Level.INFO))
+			log.info("Created sharded data store [shards = " + shards.size()
+					+ "; series = " + series.size() + "]");
+
+		if (previous == 0)
+			return;
+
+		for (String key : series.keySet()) {
+			if (routing.previous.getShard(key) != routing.ring.getShard(key))
+				pending.add(key);
+		}
+
+		if (log.isLoggable(Level.INFO))
+			log.info("Resumed moving series [shards = " + shards.size()
+					+ "; pending = " + pending.size() + "]");
+
+		rebalance();
+	}
+
+	public int getShards() {
+		return shards.size();
+	}
+
+	/**
+	 * Adds a shard and moves the series it now holds in the background. The
+	 * returned future completes once the series are moved.
+	 */
+	public Future<?> addShard(DataStore shard) {
+		if (shard == null)
+			throw new NullPointerException("[shard = null]");
+
+		routingLock.writeLock().lock();
+
+		try {
+			if (routing.previous != null)
+				throw new IllegalStateException(
+						"Shard added before series are moved [pending = "
+								+ pending.size() + "]");
+			if (shards.size() >= ShardedPagedQueryHandler.MAX_POSITIONS)
+				throw new IllegalStateException("Too many shards [shards = "
+						+ shards.size() + "]");
+			if (incomplete)
+				throw new IllegalStateException(
+						"Series registry may be incomplete, as observations were added and the data store not flushed before it was created again");
+			if (shard.getMetadata(POSITION_METADATA_KEY) != null)
+				throw new IllegalArgumentException(
+						"Shard of a sharded data store [position = "
+								+ shard.getMetadata(POSITION_METADATA_KEY)
+								+ "]");
+
+			ShardRing previous = routing.ring;
+			ShardRing ring = new ShardRing(previous.getShards() + 1);
+
+			// The series to move are known if the data store is created again
+			persist();
+
+			shard.setMetadata(POSITION_METADATA_KEY,
+					String.valueOf(shards.size()));
+			shard.setMetadata(SHARDS_METADATA_KEY,
+					String.valueOf(ring.getShards()));
+			shard.setMetadata(PREVIOUS_METADATA_KEY,
+					String.valueOf(previous.getShards()));
+
+			for (DataStore other : shards) {
+				other.setMetadata(PREVIOUS_METADATA_KEY,
+						String.valueOf(previous.getShards()));
+				other.setMetadata(SHARDS_METADATA_KEY,
+						String.valueOf(ring.getShards()));
+			}
+
+			shards.add(shard);
+
+			for (String key : series.keySet()) {
+				if (previous.getShard(key) != ring.getShard(key))
+					pending.add(key);
+			}
+
+			routing = new Routing(ring, previous);
+
+			if (log.isLoggable(Level.INFO))
+				log.info("Added shard [shards = " + shards.size()
+						+ "; pending = " + pending.size() + "]");
+		} finally {
+			routingLock.writeLock().unlock();
+		}
+
+		return rebalance();
+	}
+
+	/**
+	 * Moves the series whose shard changed, e.g. again after a failure.
+	 */
+	public Future<?> rebalance() {
+		return rebalancer.submit(new Runnable() {
+			@Override
+			public void run() {
+				move();
+			}
+		});
+	}
+
+	public boolean isRebalancing() {
+		return routing.previous != null;
+	}
+
+	@Override
+	public void addSensorObservation(URI sensorId, URI propertyId,
+			URI featureId, Frequency frequency, DateTime resultTime,
+			Set<Statement> statements) {
+		String key = rowKeyUtils.getSeriesKey(sensorId, propertyId, featureId);
+
+		if (key == null || resultTime == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("At least one parameter is null [sensorId = "
+						+ sensorId + "; propertyId = " + propertyId
+						+ "; featureId = " + featureId + "; resultTime = "
+						+ resultTime + "]");
+			return;
+		}
+
+		Series s = series.get(key);
+
+		if (s == null)
+			s = register(key, new Series(sensorId, propertyId, featureId,
+					frequency));
+
+		routingLock.readLock().lock();
+		s.lock.readLock().lock();
+
+		try {
+			if (!dirty)
+				markDirty();
+
+			s.update(resultTime.getMillis());
+			getOwner(key).addSensorObservation(sensorId, propertyId,
+					featureId, frequency, resultTime, statements);
+			s.written(resultTime.getMillis());
+		} finally {
+			s.lock.readLock().unlock();
+			routingLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void addDatasetObservation(URI datasetId, QuantityValue frequency,
+			DateTime timePeriod, Set<Statement> statements) {
+		String key = rowKeyUtils.getSeriesKey(datasetId);
+
+		if (key == null || timePeriod == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("At least one parameter is null [datasetId = "
+						+ datasetId + "; timePeriod = " + timePeriod + "]");
+			return;
+		}
+
+		Series s = series.get(key);
+
+		if (s == null)
+			s = register(key, new Series(datasetId, frequency));
+
+		routingLock.readLock().lock();
+		s.lock.readLock().lock();
+
+		try {
+			if (!dirty)
+				markDirty();
+
+			s.update(timePeriod.getMillis());
+			getOwner(key).addDatasetObservation(datasetId, frequency,
+					timePeriod, statements);
+			s.written(timePeriod.getMillis());
+		} finally {
+			s.lock.readLock().unlock();
+			routingLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public QueryHandler<Statement> createSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries) {
+		Map<Integer, Map<SensorObservationQuery, Frequency>> groups = groupSensorQueries(queries);
+		List<QueryHandler<Statement>> handlers = new ArrayList<QueryHandler<Statement>>();
+
+		for (Map.Entry<Integer, Map<SensorObservationQuery, Frequency>> entry : groups
+				.entrySet())
+			handlers.add(shards.get(entry.getKey())
+					.createSensorObservationQueryHandler(entry.getValue()));
+
+		return create(handlers);
+	}
+
+	@Override
+	public QueryHandler<BindingSet> createSensorObservationAggregateQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation, QueryContext context) {
+		Map<Integer, Map<SensorObservationQuery, Frequency>> groups = groupSensorQueries(queries);
+
+		// Buckets of the series of several shards would not be merged
+		if (groups.size() > 1)
+			return null;
+
+		Map.Entry<Integer, Map<SensorObservationQuery, Frequency>> entry = groups
+				.entrySet().iterator().next();
+
+		return shards.get(entry.getKey())
+				.createSensorObservationAggregateQueryHandler(
+						entry.getValue(), aggregation, context);
+	}
+
+	@Override
+	public QueryCost estimateSensorObservationQueryCost(
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation) {
+		QueryCost ret = new QueryCost(0, 0);
+
+		for (Map.Entry<Integer, Map<SensorObservationQuery, Frequency>> entry : groupSensorQueries(
+				queries).entrySet()) {
+			QueryCost cost = shards.get(entry.getKey())
+					.estimateSensorObservationQueryCost(entry.getValue(),
+							aggregation);
+
+			// The cost is unknown if unknown for a shard
+			if (cost == null)
+				return null;
+
+			ret = ret.add(cost);
+		}
+
+		return ret;
+	}
+
+	@Override
+	public QueryHandler<Statement> createDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries) {
+		Map<Integer, Map<DatasetObservationQuery, QuantityValue>> groups = groupDatasetQueries(queries);
+		List<QueryHandler<Statement>> handlers = new ArrayList<QueryHandler<Statement>>();
+
+		for (Map.Entry<Integer, Map<DatasetObservationQuery, QuantityValue>> entry : groups
+				.entrySet())
+			handlers.add(shards.get(entry.getKey())
+					.createDatasetObservationQueryHandler(entry.getValue()));
+
+		return create(handlers);
+	}
+
+	@Override
+	public PagedQueryHandler<Statement> createSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries, Cursor cursor,
+			int size) {
+		List<Map.Entry<Integer, Map<SensorObservationQuery, Frequency>>> groups = new ArrayList<Map.Entry<Integer, Map<SensorObservationQuery, Frequency>>>(
+				groupSensorQueries(queries).entrySet());
+
+		if (groups.size() == 1)
+			return shards.get(groups.get(0).getKey())
+					.createSensorObservationQueryHandler(
+							groups.get(0).getValue(), cursor, size);
+
+		int position = getPosition(cursor, groups.size());
+
+		return new ShardedPagedQueryHandler(shards.get(
+				groups.get(position).getKey())
+				.createSensorObservationQueryHandler(
+						groups.get(position).getValue(),
+						ShardedPagedQueryHandler.getShardCursor(cursor), size),
+				position, position == groups.size() - 1);
+	}
+
+	@Override
+	public PagedQueryHandler<Statement> createDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries, Cursor cursor,
+			int size) {
+		List<Map.Entry<Integer, Map<DatasetObservationQuery, QuantityValue>>> groups = new ArrayList<Map.Entry<Integer, Map<DatasetObservationQuery, QuantityValue>>>(
+				groupDatasetQueries(queries).entrySet());
+
+		if (groups.size() == 1)
+			return shards.get(groups.get(0).getKey())
+					.createDatasetObservationQueryHandler(
+							groups.get(0).getValue(), cursor, size);
+
+		int position = getPosition(cursor, groups.size());
+
+		return new ShardedPagedQueryHandler(shards.get(
+				groups.get(position).getKey())
+				.createDatasetObservationQueryHandler(
+						groups.get(position).getValue(),
+						ShardedPagedQueryHandler.getShardCursor(cursor), size),
+				position, position == groups.size() - 1);
+	}
+
+	@Override
+	public QueryHandler<Statement> createLatestSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries) {
+		Map<Integer, Map<SensorObservationQuery, Frequency>> groups = groupSensorQueries(queries);
+		List<QueryHandler<Statement>> handlers = new ArrayList<QueryHandler<Statement>>();
+
+		for (Map.Entry<Integer, Map<SensorObservationQuery, Frequency>> entry : groups
+				.entrySet())
+			handlers.add(shards.get(entry.getKey())
+					.createLatestSensorObservationQueryHandler(
+							entry.getValue()));
+
+		return create(handlers);
+	}
+
+	@Override
+	public QueryHandler<Statement> createLatestDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries) {
+		Map<Integer, Map<DatasetObservationQuery, QuantityValue>> groups = groupDatasetQueries(queries);
+		List<QueryHandler<Statement>> handlers = new ArrayList<QueryHandler<Statement>>();
+
+		for (Map.Entry<Integer, Map<DatasetObservationQuery, QuantityValue>> entry : groups
+				.entrySet())
+			handlers.add(shards.get(entry.getKey())
+					.createLatestDatasetObservationQueryHandler(
+							entry.getValue()));
+
+		return create(handlers);
+	}
+
+	/**
+	 * Flushes the shards and writes the series registry.
+	 */
+	@Override
+	public void flush() {
+		for (DataStore shard : shards)
+			shard.flush();
+
+		routingLock.writeLock().lock();
+
+		try {
+			persist();
+		} finally {
+			routingLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the metadata of the first shard, which is set on all shards.
+	 */
+	@Override
+	public String getMetadata(String key) {
+		return shards.get(0).getMetadata(key);
+	}
+
+	@Override
+	public void setMetadata(String key, String value) {
+		for (DataStore shard : shards)
+			shard.setMetadata(key, value);
+	}
+
+	/**
+	 * Closes the shards, once series being moved are moved.
+	 */
+	@Override
+	public void close() {
+		rebalancer.shutdown();
+
+		try {
+			rebalancer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		executor.shutdown();
+
+		flush();
+
+		for (DataStore shard : shards)
+			shard.close();
+	}
+
+	/**
+	 * Returns the shards in the order of their positions, which are assigned
+	 * in the order of the list if no shard has one.
+	 */
+	private static List<DataStore> order(List<DataStore> shards) {
+		DataStore[] ret = new DataStore[shards.size()];
+		int positions = 0;
+		int expected = 0;
+
+		for (DataStore shard : shards) {
+			String position = shard.getMetadata(POSITION_METADATA_KEY);
+			String count = shard.getMetadata(SHARDS_METADATA_KEY);
+
+			if (count != null)
+				expected = Math.max(expected, Integer.parseInt(count));
+
+			if (position == null)
+				continue;
+
+			int i = Integer.parseInt(position);
+
+			if (i < 0 || i >= ret.length || ret[i] != null)
+				throw new IllegalArgumentException(
+						"Invalid shard position [position = " + i
+								+ "; shards = " + ret.length + "]");
+
+			ret[i] = shard;
+			positions++;
+		}
+
+		if (positions == 0) {
+			for (int i = 0; i < ret.length; i++) {
+				ret[i] = shards.get(i);
+				ret[i].setMetadata(POSITION_METADATA_KEY, String.valueOf(i));
+				ret[i].setMetadata(SHARDS_METADATA_KEY,
+						String.valueOf(ret.length));
+			}
+		} else if (positions < ret.length) {
+			throw new IllegalArgumentException(
+					"Shards without position, which are added with addShard [shards = "
+							+ ret.length + "; positions = " + positions + "]");
+		} else if (expected != ret.length) {
+			throw new IllegalArgumentException("Shards missing [shards = "
+					+ ret.length + "; expected = " + expected + "]");
+		}
+
+		return Arrays.asList(ret);
+	}
+
+	/**
+	 * Loads the series registry of the shards, marks it incomplete if it was
+	 * not written after observations were added, and returns the previous
+	 * number of shards if series are being moved, else 0.
+	 */
+	private int load() {
+		int ret = 0;
+
+		for (DataStore shard : shards) {
+			String state = shard.getMetadata(STATE_METADATA_KEY);
+			String registry = shard.getMetadata(SERIES_METADATA_KEY);
+			String previous = shard.getMetadata(PREVIOUS_METADATA_KEY);
+
+			if (state != null && !state.equals(CLEAN))
+				incomplete = true;
+
+			if (registry != null) {
+				for (String line : registry.split("\n")) {
+					if (line.isEmpty())
+						continue;
+
+					Series s = Series.parse(line);
+
+					series.put(s.getKey(rowKeyUtils), s);
+				}
+			}
+
+			if (previous != null)
+				ret = Integer.parseInt(previous);
+		}
+
+		if (!incomplete)
+			return ret;
+
+		if (log.isLoggable(Level.WARNING))
+			log.warning("Series registry may be incomplete; shards cannot be added [series = "
+					+ series.size() + "]");
+
+		for (DataStore shard : shards)
+			shard.setMetadata(STATE_METADATA_KEY, INCOMPLETE);
+
+		return ret;
+	}
+
+	/**
+	 * Marks the series registry as not written, before the first observation
+	 * is added since it was written.
+	 */
+	private synchronized void markDirty() {
+		if (dirty)
+			return;
+
+		if (!incomplete) {
+			for (DataStore shard : shards)
+				shard.setMetadata(STATE_METADATA_KEY, DIRTY);
+		}
+
+		dirty = true;
+	}
+
+	/**
+	 * Writes the series registry, each shard with the series it owns, if
+	 * observations were added since it was written. Called while no
+	 * observations are added.
+	 */
+	private void persist() {
+		if (!dirty)
+			return;
+
+		Routing r = routing;
+		Map<Integer, StringBuilder> registries = new HashMap<Integer, StringBuilder>();
+
+		for (Map.Entry<String, Series> entry : series.entrySet()) {
+			String line = entry.getValue().format();
+
+			if (line == null)
+				continue;
+
+			int shard = r.ring.getShard(entry.getKey());
+			StringBuilder registry = registries.get(shard);
+
+			if (registry == null) {
+				registry = new StringBuilder();
+				registries.put(shard, registry);
+			}
+
+			registry.append(line).append("\n");
+		}
+
+		for (int i = 0; i < shards.size(); i++) {
+			StringBuilder registry = registries.get(i);
+
+			shards.get(i).setMetadata(SERIES_METADATA_KEY,
+					(registry == null) ? "" : registry.toString());
+		}
+
+		dirty = false;
+
+		if (incomplete)
+			return;
+
+		for (DataStore shard : shards)
+			shard.setMetadata(STATE_METADATA_KEY, CLEAN);
+	}
+
+	private Series register(String key, Series s) {
+		Series ret = series.putIfAbsent(key, s);
+
+		if (ret == null)
+			return s;
+
+		return ret;
+	}
+
+	private int getShard(String key) {
+		Routing r = routing;
+
+		// Series are with their previous shard until moved
+		if (r.previous != null && pending.contains(key))
+			return r.previous.getShard(key);
+
+		return r.ring.getShard(key);
+	}
+
+	private DataStore getOwner(String key) {
+		return shards.get(getShard(key));
+	}
+
+	private Map<Integer, Map<SensorObservationQuery, Frequency>> groupSensorQueries(
+			Map<SensorObservationQuery, Frequency> queries) {
+		Map<Integer, Map<SensorObservationQuery, Frequency>> ret = new TreeMap<Integer, Map<SensorObservationQuery, Frequency>>();
+
+		for (Map.Entry<SensorObservationQuery, Frequency> entry : queries
+				.entrySet()) {
+			SensorObservationQuery query = entry.getKey();
+			URI sensorId = query.getSensorId();
+			URI propertyId = query.getPropertyId();
+			URI featureId = query.getFeatureOfInterestId();
+			// Queries without series are skipped by the first shard
+			int shard = (sensorId == null || propertyId == null || featureId == null) ? 0
+					: getShard(rowKeyUtils.getSeriesKey(sensorId, propertyId,
+							featureId));
+			Map<SensorObservationQuery, Frequency> group = ret.get(shard);
+
+			if (group == null) {
+				group = new HashMap<SensorObservationQuery, Frequency>();
+				ret.put(shard, group);
+			}
+
+			group.put(query, entry.getValue());
+		}
+
+		if (ret.isEmpty())
+			ret.put(0, queries);
+
+		return ret;
+	}
+
+	private Map<Integer, Map<DatasetObservationQuery, QuantityValue>> groupDatasetQueries(
+			Map<DatasetObservationQuery, QuantityValue> queries) {
+		Map<Integer, Map<DatasetObservationQuery, QuantityValue>> ret = new TreeMap<Integer, Map<DatasetObservationQuery, QuantityValue>>();
+
+		for (Map.Entry<DatasetObservationQuery, QuantityValue> entry : queries
+				.entrySet()) {
+			DatasetObservationQuery query = entry.getKey();
+			URI datasetId = query.getDatasetId();
+			int shard = (datasetId == null) ? 0 : getShard(rowKeyUtils
+					.getSeriesKey(datasetId));
+			Map<DatasetObservationQuery, QuantityValue> group = ret.get(shard);
+
+			if (group == null) {
+				group = new HashMap<DatasetObservationQuery, QuantityValue>();
+				ret.put(shard, group);
+			}
+
+			group.put(query, entry.getValue());
+		}
+
+		if (ret.isEmpty())
+			ret.put(0, queries);
+
+		return ret;
+	}
+
+	private <T> QueryHandler<T> create(List<QueryHandler<T>> handlers) {
+		if (handlers.size() == 1)
+			return handlers.get(0);
+
+		return new ShardedQueryHandler<T>(handlers, executor);
+	}
+
+	/**
+	 * Moves the pending series to their shard. Series that fail to move
+	 * remain pending.
+	 */
+	private void move() {
+		Routing r = routing;
+
+		if (r.previous == null)
+			return;
+
+		int failed = 0;
+
+		for (String key : new ArrayList<String>(pending)) {
+			Series s = series.get(key);
+			DataStore from = shards.get(r.previous.getShard(key));
+			DataStore to = shards.get(r.ring.getShard(key));
+
+			try {
+				long count = move(key, s, from, to);
+
+				if (log.isLoggable(Level.FINE))
+					log.fine("Moved series [key = " + key + "; count = "
+							+ count + "]");
+			} catch (RuntimeException e) {
+				failed++;
+
+				if (log.isLoggable(Level.SEVERE))
+					log.severe("Failed to move series [key = " + key
+							+ "; message = " + e.getMessage() + "]");
+			}
+		}
+
+		if (failed > 0)
+			return;
+
+		routing = new Routing(r.ring, null);
+
+		for (DataStore shard : shards)
+			shard.setMetadata(PREVIOUS_METADATA_KEY, null);
+
+		if (log.isLoggable(Level.INFO))
+			log.info("Rebalanced shards [shards = " + r.ring.getShards() + "]");
+	}
+
+	/**
+	 * Copies the series in chunks while it is written to its previous shard,
+	 * then copies the last chunk and routes the series to its shard while it
+	 * is not written.
+	 */
+	private long move(String key, Series s, DataStore from, DataStore to) {
+		long ret = 0;
+		long time = s.startMove();
+
+		try {
+			while (!s.isEmpty() && s.getTimeTo() - time >= MOVE_CHUNK) {
+				long end = time + MOVE_CHUNK;
+
+				ret += copy(s, from, to, time, end);
+				time = s.copied(end);
+			}
+
+			to.flush();
+
+			s.lock.writeLock().lock();
+
+			try {
+				time = s.copied(time);
+				ret += copy(s, from, to, time, s.getTimeTo() + 1);
+
+				to.flush();
+				pending.remove(key);
+			} finally {
+				s.lock.writeLock().unlock();
+			}
+		} finally {
+			s.endMove();
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Copies the observations of the series in the interval, split by the
+	 * subjects of their result time or time period.
+	 */
+	private long copy(Series s, DataStore from, DataStore to, long timeFrom,
+			long timeTo) {
+		long ret = 0;
+		Cursor cursor = null;
+
+		if (timeFrom >= timeTo)
+			return ret;
+
+		do {
+			PagedQueryHandler<Statement> handler = s.createPagedQueryHandler(
+					from, timeFrom, timeTo, cursor);
+			StatementIndex index = new StatementIndex();
+			Set<Resource> observations = new LinkedHashSet<Resource>();
+			ResultSet<Statement> results = handler.evaluate();
+
+			try {
+				while (results.hasNext()) {
+					Statement statement = results.next();
+					URI predicate = statement.getPredicate();
+
+					index.add(statement);
+
+					if (predicate.equals(SSN.observationResultTime)
+							|| predicate.equals(SDMXDimension.timePeriod))
+						observations.add(statement.getSubject());
+				}
+			} finally {
+				results.close();
+			}
+
+			cursor = handler.getNextCursor();
+
+			for (Resource observation : observations) {
+				Set<Statement> statements = index.match(observation);
+				DateTime time = getTime(statements);
+
+				if (time == null) {
+					if (log.isLoggable(Level.WARNING))
+						log.warning("Failed to read observation time; skipped observation [statements = "
+								+ statements + "]");
+					continue;
+				}
+
+				s.add(to, time, statements);
+				ret++;
+			}
+		} while (cursor != null);
+
+		return ret;
+	}
+
+	private static int getPosition(Cursor cursor, int positions) {
+		int ret = ShardedPagedQueryHandler.getPosition(cursor);
+
+		if (ret >= positions)
+			throw new IllegalArgumentException(
+					"Cursor does not match queries [cursor = " + cursor + "]");
+
+		return ret;
+	}
+
+	/**
+	 * Returns the time of an observation, i.e. of its result time or time
+	 * period instant.
+	 */
+	private static DateTime getTime(Set<Statement> statements) {
+		Value instant = null;
+
+		for (Statement statement : statements) {
+			URI predicate = statement.getPredicate();
+
+			if (predicate.equals(SSN.observationResultTime)
+					|| predicate.equals(SDMXDimension.timePeriod)) {
+				instant = statement.getObject();
+				break;
+			}
+		}
+
+		for (Statement statement : statements) {
+			if (statement.getPredicate().equals(Time.inXSDDateTime)
+					&& (instant == null || statement.getSubject().equals(
+							instant)))
+				return new DateTime(statement.getObject().stringValue());
+		}
+
+		return null;
+	}
+
+	private static class Routing {
+
+		private final ShardRing ring;
+		private final ShardRing previous;
+
+		private Routing(ShardRing ring, ShardRing previous) {
+			this.ring = ring;
+			this.previous = previous;
+		}
+
+	}
+
+	/**
+	 * A series added through the data store, with its time interval. Its
+	 * lock is shared by writers and exclusive to the end of a move. While the
+	 * series is moved, the earliest time written since the last copied chunk
+	 * is kept, such that chunks are copied again if written.
+	 */
+	private static class Series {
+
+		private final URI sensorId;
+		private final URI propertyId;
+		private final URI featureId;
+		private final Frequency frequency;
+		private final URI datasetId;
+		private final QuantityValue datasetFrequency;
+		private final ReadWriteLock lock;
+		private long timeFrom = Long.MAX_VALUE;
+		private long timeTo = Long.MIN_VALUE;
+		private boolean moving = false;
+		private long writtenFrom = Long.MAX_VALUE;
+
+		private Series(URI sensorId, URI propertyId, URI featureId,
+				Frequency frequency) {
+			this(sensorId, propertyId, featureId, frequency, null, null);
+		}
+
+		private Series(URI datasetId, QuantityValue frequency) {
+			this(null, null, null, null, datasetId, frequency);
+		}
+
+		private Series(URI sensorId, URI propertyId, URI featureId,
+				Frequency frequency, URI datasetId,
+				QuantityValue datasetFrequency) {
+			this.sensorId = sensorId;
+			this.propertyId = propertyId;
+			this.featureId = featureId;
+			this.frequency = frequency;
+			this.datasetId = datasetId;
+			this.datasetFrequency = datasetFrequency;
+			this.lock = new ReentrantReadWriteLock();
+		}
+
+		private synchronized void update(long time) {
+			timeFrom = Math.min(timeFrom, time);
+			timeTo = Math.max(timeTo, time);
+		}
+
+		private synchronized boolean isEmpty() {
+			return timeTo < timeFrom;
+		}
+
+		private synchronized long getTimeTo() {
+			return timeTo;
+		}
+
+		/**
+		 * Records that an observation is written, after it is added to the
+		 * shard of the series.
+		 */
+		private synchronized void written(long time) {
+			if (moving)
+				writtenFrom = Math.min(writtenFrom, time);
+		}
+
+		/**
+		 * Starts a move and returns the time it starts from.
+		 */
+		private synchronized long startMove() {
+			moving = true;
+			writtenFrom = Long.MAX_VALUE;
+
+			return timeFrom;
+		}
+
+		/**
+		 * Returns the time until which observations are copied, given that
+		 * those before the time are copied, i.e. the earlier of the time and
+		 * that of observations written since.
+		 */
+		private synchronized long copied(long time) {
+			long ret = Math.min(time, writtenFrom);
+
+			writtenFrom = Long.MAX_VALUE;
+
+			return ret;
+		}
+
+		private synchronized void endMove() {
+			moving = false;
+			writtenFrom = Long.MAX_VALUE;
+		}
+
+		private String getKey(RowKeyUtils rowKeyUtils) {
+			if (datasetId == null)
+				return rowKeyUtils.getSeriesKey(sensorId, propertyId,
+						featureId);
+
+			return rowKeyUtils.getSeriesKey(datasetId);
+		}
+
+		/**
+		 * Returns the series as a line of tab separated fields, or null if it
+		 * has no observations. Frequencies are written with the identifiers,
+		 * numeric value and unit that partition the series.
+		 */
+		private synchronized String format() {
+			if (isEmpty())
+				return null;
+
+			if (datasetId == null)
+				return format("sensor", toString(sensorId),
+						toString(propertyId), toString(featureId),
+						toString(frequency), format((frequency == null) ? null
+								: frequency.getQuantityValue()),
+						String.valueOf(timeFrom), String.valueOf(timeTo));
+
+			return format("dataset", toString(datasetId),
+					format(datasetFrequency), String.valueOf(timeFrom),
+					String.valueOf(timeTo));
+		}
+
+		private static Series parse(String line) {
+			String[] fields = line.split("\t");
+			Series ret;
+
+			if (fields[0].equals("sensor"))
+				ret = new Series(toURI(fields[1]), toURI(fields[2]),
+						toURI(fields[3]), new Frequency(toURI(fields[4]),
+								toQuantityValue(fields[5], fields[6],
+										fields[7])));
+			else if (fields[0].equals("dataset"))
+				ret = new Series(toURI(fields[1]), toQuantityValue(fields[2],
+						fields[3], fields[4]));
+			else
+				throw new IllegalArgumentException(
+						"Invalid series registry entry [line = " + line + "]");
+
+			ret.update(Long.parseLong(fields[fields.length - 2]));
+			ret.update(Long.parseLong(fields[fields.length - 1]));
+
+			return ret;
+		}
+
+		private static String format(String... fields) {
+			StringBuilder ret = new StringBuilder();
+
+			for (String field : fields) {
+				if (ret.length() > 0)
+					ret.append("\t");
+
+				ret.append(field);
+			}
+
+			return ret.toString();
+		}
+
+		private static String format(QuantityValue value) {
+			if (value == null)
+				return format("-", "-", "-");
+
+			return format(toString(value), toString(value.getNumericValue()),
+					toString(value.getUnit()));
+		}
+
+		private static String toString(Object value) {
+			if (value instanceof Entity)
+				value = ((Entity) value).getId();
+			if (value instanceof Value)
+				value = ((Value) value).stringValue();
+			if (value == null)
+				return "-";
+
+			return value.toString();
+		}
+
+		private static URI toURI(String value) {
+			if (value.equals("-"))
+				return null;
+
+			return vf.createURI(value);
+		}
+
+		private static QuantityValue toQuantityValue(String id,
+				String numericValue, String unit) {
+			if (id.equals("-") && numericValue.equals("-")
+					&& unit.equals("-"))
+				return null;
+
+			return new QuantityValue(toURI(id), (numericValue.equals("-")) ? null
+					: Double.valueOf(numericValue), (unit.equals("-")) ? null
+					: new Unit(toURI(unit)));
+		}
+
+		private PagedQueryHandler<Statement> createPagedQueryHandler(
+				DataStore ds, long timeFrom, long timeTo, Cursor cursor) {
+			DateTime from = new DateTime(timeFrom);
+			DateTime to = new DateTime(timeTo);
+
+			if (datasetId == null)
+				return ds.createSensorObservationQueryHandler(Collections
+						.singletonMap(SensorObservationQuery.create(sensorId,
+								propertyId, featureId, from, to), frequency),
+						cursor, MOVE_PAGE_SIZE);
+
+			return ds.createDatasetObservationQueryHandler(Collections
+					.singletonMap(
+							DatasetObservationQuery.create(datasetId, from, to),
+							datasetFrequency), cursor, MOVE_PAGE_SIZE);
+		}
+
+		private void add(DataStore ds, DateTime time,
+				Set<Statement> statements) {
+			if (datasetId == null)
+				ds.addSensorObservation(sensorId, propertyId, featureId,
+						frequency, time, statements);
+			else
+				ds.addDatasetObservation(datasetId, datasetFrequency, time,
+						statements);
+		}
+
+	}
+
+}
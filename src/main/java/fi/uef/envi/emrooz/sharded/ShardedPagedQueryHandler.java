@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.sharded;
+
+import java.util.UUID;
+
+import org.openrdf.model.Statement;
+import org.openrdf.query.TupleQueryResultHandler;
+
+import fi.uef.envi.emrooz.api.PagedQueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.query.Cursor;
+
+/**
+ * <p>
+ * Title: ShardedPagedQueryHandler
+ * </p>
+ * <p>
+ * Description: Reads one page of observations from one of the shards of a
+ * query, in shard order. A page ends at the end of the observations of its
+ * shard, hence may be short. The series of a cursor encodes the position of
+ * the shard and the series of the cursor of the shard; a cursor at the
+ * start of a shard has the start partition and column.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class ShardedPagedQueryHandler implements PagedQueryHandler<Statement> {
+
+	private PagedQueryHandler<Statement> handler;
+	private int position;
+	private boolean last;
+
+	public static final int MAX_POSITIONS = 256;
+	private static final long START_PARTITION = Long.MIN_VALUE;
+	private static final UUID START_COLUMN = new UUID(0, 0);
+
+	public ShardedPagedQueryHandler(PagedQueryHandler<Statement> handler,
+			int position, boolean last) {
+		if (handler == null)
+			throw new NullPointerException("[handler = null]");
+		if (position < 0 || position >= MAX_POSITIONS)
+			throw new IllegalArgumentException("[position = " + position + "]");
+
+		this.handler = handler;
+		this.position = position;
+		this.last = last;
+	}
+
+	@Override
+	public ResultSet<Statement> evaluate() {
+		return handler.evaluate();
+	}
+
+	@Override
+	public Cursor getNextCursor() {
+		Cursor cursor = handler.getNextCursor();
+
+		if (cursor != null)
+			return new Cursor(cursor.getSeries() * MAX_POSITIONS + position,
+					cursor.getPartition(), cursor.getColumn());
+
+		if (last)
+			return null;
+
+		return new Cursor(position + 1, START_PARTITION, START_COLUMN);
+	}
+
+	@Override
+	public void evaluate(TupleQueryResultHandler handler) {
+		throw new UnsupportedOperationException(
+				"Query evaluation with result handler not supported");
+	}
+
+	@Override
+	public void close() {
+		handler.close();
+	}
+
+	/**
+	 * Returns the position of the shard of the cursor, 0 if null.
+	 */
+	public static int getPosition(Cursor cursor) {
+		if (cursor == null)
+			return 0;
+
+		return cursor.getSeries() % MAX_POSITIONS;
+	}
+
+	/**
+	 * Returns the cursor of the shard, null if at its start.
+	 */
+	public static Cursor getShardCursor(Cursor cursor) {
+		if (cursor == null)
+			return null;
+		if (cursor.getPartition() == START_PARTITION
+				&& cursor.getColumn().equals(START_COLUMN))
+			return null;
+
+		return new Cursor(cursor.getSeries() / MAX_POSITIONS,
+				cursor.getPartition(), cursor.getColumn());
+	}
+
+}
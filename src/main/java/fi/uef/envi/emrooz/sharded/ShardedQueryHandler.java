@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.sharded;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.openrdf.query.TupleQueryResultHandler;
+
+import fi.uef.envi.emrooz.api.QueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.query.IteratorResultSet;
+import fi.uef.envi.emrooz.tiered.TieredQueryHandler;
+
+/**
+ * <p>
+ * Title: ShardedQueryHandler
+ * </p>
+ * <p>
+ * Description: Evaluates the query handlers of shards in parallel and
+ * concatenates their results, in the given order. The results of each shard
+ * are read in full before they are returned.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class ShardedQueryHandler<T> implements QueryHandler<T> {
+
+	private List<QueryHandler<T>> handlers;
+	private ExecutorService executor;
+
+	public ShardedQueryHandler(List<QueryHandler<T>> handlers,
+			ExecutorService executor) {
+		if (handlers == null)
+			throw new NullPointerException("[handlers = null]");
+		if (executor == null)
+			throw new NullPointerException("[executor = null]");
+
+		this.handlers = handlers;
+		this.executor = executor;
+	}
+
+	@Override
+	public ResultSet<T> evaluate() {
+		List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>();
+
+		for (final QueryHandler<T> handler : handlers) {
+			futures.add(executor.submit(new Callable<List<T>>() {
+				@Override
+				public List<T> call() throws Exception {
+					List<T> ret = new ArrayList<T>();
+					ResultSet<T> results = handler.evaluate();
+
+					try {
+						while (results.hasNext())
+							ret.add(results.next());
+					} finally {
+						results.close();
+					}
+
+					return ret;
+				}
+			}));
+		}
+
+		List<T> ret = new ArrayList<T>();
+
+		try {
+			for (Future<List<T>> future : futures)
+				ret.addAll(future.get());
+		} catch (InterruptedException e) {
+			for (Future<List<T>> future : futures)
+				future.cancel(true);
+
+			Thread.currentThread().interrupt();
+
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			for (Future<List<T>> future : futures)
+				future.cancel(true);
+
+			throw new RuntimeException(e.getCause());
+		}
+
+		return new IteratorResultSet<T>(ret.iterator());
+	}
+
+	@Override
+	public void evaluate(TupleQueryResultHandler handler) {
+		// Solutions are passed to the handler one shard after the other
+		new TieredQueryHandler<T>(handlers).evaluate(handler);
+	}
+
+	@Override
+	public void close() {
+		for (QueryHandler<T> handler : handlers)
+			handler.close();
+	}
+
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.tiered;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.query.BindingSet;
+
+import fi.uef.envi.emrooz.api.DataStore;
+import fi.uef.envi.emrooz.api.PagedQueryHandler;
+import fi.uef.envi.emrooz.api.QueryHandler;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.memory.MemoryDataStore;
+import fi.uef.envi.emrooz.query.Cursor;
+import fi.uef.envi.emrooz.query.DatasetObservationQuery;
+import fi.uef.envi.emrooz.query.QueryContext;
+import fi.uef.envi.emrooz.query.QueryCost;
+import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.query.TimeBucketAggregation;
+import fi.uef.envi.emrooz.query.TimeBucketFunction;
+
+/**
+ * <p>
+ * Title: TieredDataStore
+ * </p>
+ * <p>
+ * Description: A data store that keeps a recent time window of observations
+ * in memory, the hot tier, in front of another data store, the cold tier,
+ * e.g. Cassandra. Observations are written through to the cold tier and,
+ * if within the window, added to the hot tier. Queries are split at the
+ * boundary of the window: the part before it is evaluated by the cold tier,
+ * the part after it by the hot tier, and the results are concatenated.
+ * </p>
+ * <p>
+ * The hot tier holds the observations at or after the boundary, i.e. the
+ * later of the time the window reaches back to and the time the data store
+ * was created, provided observations are added through this data store
+ * only. Limited queries are limited in each tier, which may return more
+ * observations than the limit but never miss one of the slice. Aggregations
+ * are split at the start of a bucket. Paged and latest observation queries
+ * are evaluated by the cold tier. The memory, local and Cassandra data stores
+ * replace an observation added again with the series and time of a stored
+ * one, so observations sent twice are returned once by either tier.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class TieredDataStore implements DataStore {
+
+	private final MemoryDataStore hot;
+	private final DataStore cold;
+	private final long window;
+	private final long created;
+	private final long evictionInterval;
+	private final AtomicLong nextEviction;
+
+	private static final long MAX_EVICTION_INTERVAL = 60 * 1000;
+	private static final Logger log = Logger.getLogger(TieredDataStore.class
+			.getName());
+
+	public TieredDataStore(DataStore cold, long window) {
+		this(new MemoryDataStore(), cold, window);
+	}
+
+	public TieredDataStore(MemoryDataStore hot, DataStore cold, long window) {
+		if (hot == null)
+			throw new NullPointerException("[hot = null]");
+		if (cold == null)
+			throw new NullPointerException("[cold = null]");
+		if (window <= 0)
+			throw new IllegalArgumentException(
+					"Window must be positive [window = " + window + "]");
+
+		this.hot = hot;
+		this.cold = cold;
+		this.window = window;
+		this.created = System.currentTimeMillis();
+		this.evictionInterval = Math.min(window, MAX_EVICTION_INTERVAL);
+		this.nextEviction = new AtomicLong(created + evictionInterval);
+
+		if (log.isLoggable(Level.INFO))
+			log.info("Created tiered data store [window = " + window + "]");
+	}
+
+	/**
+	 * Returns the time from which on observations are in the hot tier.
+	 */
+	public DateTime getBoundary() {
+		return new DateTime(getBoundaryMillis());
+	}
+
+	@Override
+	public void addSensorObservation(URI sensorId, URI propertyId,
+			URI featureId, Frequency frequency, DateTime resultTime,
+			Set<Statement> statements) {
+		cold.addSensorObservation(sensorId, propertyId, featureId, frequency,
+				resultTime, statements);
+
+		if (resultTime != null && resultTime.getMillis() >= getBoundaryMillis())
+			hot.addSensorObservation(sensorId, propertyId, featureId,
+					frequency, resultTime, statements);
+
+		evict(false);
+	}
+
+	@Override
+	public void addDatasetObservation(URI datasetId, QuantityValue frequency,
+			DateTime timePeriod, Set<Statement> statements) {
+		cold.addDatasetObservation(datasetId, frequency, timePeriod,
+				statements);
+
+		if (timePeriod != null && timePeriod.getMillis() >= getBoundaryMillis())
+			hot.addDatasetObservation(datasetId, frequency, timePeriod,
+					statements);
+
+		evict(false);
+	}
+
+	@Override
+	public QueryHandler<Statement> createSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries) {
+		Map<SensorObservationQuery, Frequency> coldQueries = new HashMap<SensorObservationQuery, Frequency>();
+		Map<SensorObservationQuery, Frequency> hotQueries = new HashMap<SensorObservationQuery, Frequency>();
+
+		split(queries, getBoundaryMillis(), coldQueries, hotQueries);
+
+		List<QueryHandler<Statement>> handlers = new ArrayList<QueryHandler<Statement>>();
+
+		if (!coldQueries.isEmpty())
+			handlers.add(cold.createSensorObservationQueryHandler(coldQueries));
+		if (!hotQueries.isEmpty() || handlers.isEmpty())
+			handlers.add(hot.createSensorObservationQueryHandler(hotQueries));
+
+		return create(handlers);
+	}
+
+	@Override
+	public QueryHandler<BindingSet> createSensorObservationAggregateQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation, QueryContext context) {
+		Map<SensorObservationQuery, Frequency> coldQueries = new HashMap<SensorObservationQuery, Frequency>();
+		Map<SensorObservationQuery, Frequency> hotQueries = new HashMap<SensorObservationQuery, Frequency>();
+
+		split(queries, getBoundaryMillis(aggregation), coldQueries, hotQueries);
+
+		List<QueryHandler<BindingSet>> handlers = new ArrayList<QueryHandler<BindingSet>>();
+
+		if (!coldQueries.isEmpty()) {
+			QueryHandler<BindingSet> handler = cold
+					.createSensorObservationAggregateQueryHandler(coldQueries,
+							aggregation, context);
+
+			// The aggregation is evaluated over the statements of both tiers
+			if (handler == null)
+				return null;
+
+			handlers.add(handler);
+		}
+
+		if (!hotQueries.isEmpty() || handlers.isEmpty())
+			handlers.add(hot.createSensorObservationAggregateQueryHandler(
+					hotQueries, aggregation, context));
+
+		return create(handlers);
+	}
+
+	@Override
+	public QueryCost estimateSensorObservationQueryCost(
+			Map<SensorObservationQuery, Frequency> queries,
+			TimeBucketAggregation aggregation) {
+		Map<SensorObservationQuery, Frequency> coldQueries = new HashMap<SensorObservationQuery, Frequency>();
+		Map<SensorObservationQuery, Frequency> hotQueries = new HashMap<SensorObservationQuery, Frequency>();
+
+		split(queries, (aggregation == null) ? getBoundaryMillis()
+				: getBoundaryMillis(aggregation), coldQueries, hotQueries);
+
+		QueryCost ret = hot.estimateSensorObservationQueryCost(hotQueries,
+				aggregation);
+
+		if (coldQueries.isEmpty())
+			return ret;
+
+		QueryCost coldCost = cold.estimateSensorObservationQueryCost(
+				coldQueries, aggregation);
+
+		// The cost is unknown if unknown for the cold tier
+		if (coldCost == null)
+			return null;
+
+		return coldCost.add(ret);
+	}
+
+	@Override
+	public QueryHandler<Statement> createDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries) {
+		Map<DatasetObservationQuery, QuantityValue> coldQueries = new HashMap<DatasetObservationQuery, QuantityValue>();
+		Map<DatasetObservationQuery, QuantityValue> hotQueries = new HashMap<DatasetObservationQuery, QuantityValue>();
+		long boundary = getBoundaryMillis();
+
+		for (Map.Entry<DatasetObservationQuery, QuantityValue> entry : queries
+				.entrySet()) {
+			DatasetObservationQuery query = entry.getKey();
+			DateTime timeFrom = query.getTimeFrom();
+			DateTime timeTo = query.getTimeTo();
+
+			if (timeFrom == null || timeTo == null
+					|| timeTo.getMillis() <= boundary) {
+				coldQueries.put(query, entry.getValue());
+			} else if (timeFrom.getMillis() >= boundary) {
+				hotQueries.put(query, entry.getValue());
+			} else {
+				DateTime time = new DateTime(boundary, timeFrom.getZone());
+
+				coldQueries.put(DatasetObservationQuery.create(
+						query.getDatasetId(), timeFrom, time), entry.getValue());
+				hotQueries.put(DatasetObservationQuery.create(
+						query.getDatasetId(), time, timeTo), entry.getValue());
+			}
+		}
+
+		List<QueryHandler<Statement>> handlers = new ArrayList<QueryHandler<Statement>>();
+
+		if (!coldQueries.isEmpty())
+			handlers.add(cold.createDatasetObservationQueryHandler(coldQueries));
+		if (!hotQueries.isEmpty() || handlers.isEmpty())
+			handlers.add(hot.createDatasetObservationQueryHandler(hotQueries));
+
+		return create(handlers);
+	}
+
+	@Override
+	public PagedQueryHandler<Statement> createSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries, Cursor cursor,
+			int size) {
+		// Cursors are those of the cold tier, which holds all observations
+		return cold.createSensorObservationQueryHandler(queries, cursor, size);
+	}
+
+	@Override
+	public PagedQueryHandler<Statement> createDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries, Cursor cursor,
+			int size) {
+		return cold.createDatasetObservationQueryHandler(queries, cursor, size);
+	}
+
+	@Override
+	public QueryHandler<Statement> createLatestSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries) {
+		return cold.createLatestSensorObservationQueryHandler(queries);
+	}
+
+	@Override
+	public QueryHandler<Statement> createLatestDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries) {
+		return cold.createLatestDatasetObservationQueryHandler(queries);
+	}
+
+	@Override
+	public void flush() {
+		cold.flush();
+		evict(true);
+	}
+
+	/**
+	 * Returns the metadata of the cold tier, which is durable.
+	 */
+	@Override
+	public String getMetadata(String key) {
+		return cold.getMetadata(key);
+	}
+
+	@Override
+	public void setMetadata(String key, String value) {
+		cold.setMetadata(key, value);
+	}
+
+	@Override
+	public void close() {
+		hot.close();
+		cold.close();
+	}
+
+	private long getBoundaryMillis() {
+		return Math.max(created, System.currentTimeMillis() - window);
+	}
+
+	/**
+	 * Returns the boundary moved forward to the start of a bucket of the
+	 * aggregation, such that no bucket spans both tiers.
+	 */
+	private long getBoundaryMillis(TimeBucketAggregation aggregation) {
+		long duration = aggregation.getDuration();
+
+		return TimeBucketFunction.floor(getBoundaryMillis() + duration - 1,
+				duration);
+	}
+
+	/**
+	 * Removes observations before the boundary from the hot tier, if forced
+	 * or once per eviction interval.
+	 */
+	private void evict(boolean force) {
+		long now = System.currentTimeMillis();
+		long next = nextEviction.get();
+
+		if (!force && now < next)
+			return;
+		if (!nextEviction.compareAndSet(next, now + evictionInterval))
+			return;
+
+		DateTime boundary = getBoundary();
+
+		hot.removeBefore(boundary);
+
+		if (log.isLoggable(Level.FINE))
+			log.fine("Evicted hot tier [boundary = " + boundary + "]");
+	}
+
+	private static void split(Map<SensorObservationQuery, Frequency> queries,
+			long boundary, Map<SensorObservationQuery, Frequency> coldQueries,
+			Map<SensorObservationQuery, Frequency> hotQueries) {
+		for (Map.Entry<SensorObservationQuery, Frequency> entry : queries
+				.entrySet()) {
+			SensorObservationQuery query = entry.getKey();
+			DateTime timeFrom = query.getTimeFrom();
+			DateTime timeTo = query.getTimeTo();
+
+			// Queries without interval are skipped by the cold tier
+			if (timeFrom == null || timeTo == null
+					|| timeTo.getMillis() <= boundary) {
+				coldQueries.put(query, entry.getValue());
+			} else if (timeFrom.getMillis() >= boundary) {
+				hotQueries.put(query, entry.getValue());
+			} else {
+				DateTime time = new DateTime(boundary, timeFrom.getZone());
+
+				coldQueries.put(SensorObservationQuery.create(
+						query.getSensorId(), query.getPropertyId(),
+						query.getFeatureOfInterestId(), timeFrom, time,
+						query.getValueFrom(), query.getValueTo(),
+						query.getLimit(), query.isDescending()), entry
+						.getValue());
+				hotQueries.put(SensorObservationQuery.create(
+						query.getSensorId(), query.getPropertyId(),
+						query.getFeatureOfInterestId(), time, timeTo,
+						query.getValueFrom(), query.getValueTo(),
+						query.getLimit(), query.isDescending()), entry
+						.getValue());
+			}
+		}
+	}
+
+	private static <T> QueryHandler<T> create(List<QueryHandler<T>> handlers) {
+		if (handlers.size() == 1)
+			return handlers.get(0);
+
+		return new TieredQueryHandler<T>(handlers);
+	}
+
+}
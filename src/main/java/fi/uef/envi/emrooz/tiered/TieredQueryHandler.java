@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.tiered;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryResultHandlerException;
+import org.openrdf.query.TupleQueryResultHandler;
+import org.openrdf.query.TupleQueryResultHandlerException;
+
+import fi.uef.envi.emrooz.api.QueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+
+/**
+ * <p>
+ * Title: TieredQueryHandler
+ * </p>
+ * <p>
+ * Description: Concatenates the results of the query handlers of the tiers
+ * of a data store, in the given order. A handler is evaluated once the
+ * results of the handlers before it have been consumed.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class TieredQueryHandler<T> implements QueryHandler<T> {
+
+	private List<QueryHandler<T>> handlers;
+
+	public TieredQueryHandler(List<QueryHandler<T>> handlers) {
+		if (handlers == null)
+			throw new NullPointerException("[handlers = null]");
+
+		this.handlers = handlers;
+	}
+
+	@Override
+	public ResultSet<T> evaluate() {
+		return new TieredResultSet<T>(handlers.iterator());
+	}
+
+	@Override
+	public void evaluate(TupleQueryResultHandler handler) {
+		if (handler == null)
+			throw new NullPointerException("[handler = null]");
+
+		for (int i = 0; i < handlers.size(); i++)
+			handlers.get(i).evaluate(
+					new TierResultHandler(handler, i == 0,
+							i == handlers.size() - 1));
+	}
+
+	@Override
+	public void close() {
+		for (QueryHandler<T> handler : handlers)
+			handler.close();
+	}
+
+	private static class TieredResultSet<T> implements ResultSet<T> {
+
+		private Iterator<QueryHandler<T>> handlers;
+		private ResultSet<T> current = null;
+
+		private TieredResultSet(Iterator<QueryHandler<T>> handlers) {
+			this.handlers = handlers;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (current == null || !current.hasNext()) {
+				if (!handlers.hasNext())
+					return false;
+
+				if (current != null)
+					current.close();
+
+				current = handlers.next().evaluate();
+			}
+
+			return true;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			return current.next();
+		}
+
+		@Override
+		public void close() {
+			if (current != null)
+				current.close();
+		}
+
+	}
+
+	/**
+	 * Passes the solutions of a tier to the handler, and the start and end of
+	 * the query result only for the first and last tier, respectively.
+	 */
+	private static class TierResultHandler implements TupleQueryResultHandler {
+
+		private final TupleQueryResultHandler handler;
+		private final boolean first;
+		private final boolean last;
+
+		private TierResultHandler(TupleQueryResultHandler handler,
+				boolean first, boolean last) {
+			this.handler = handler;
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		public void handleBoolean(boolean value)
+				throws QueryResultHandlerException {
+			handler.handleBoolean(value);
+		}
+
+		@Override
+		public void handleLinks(List<String> linkUrls)
+				throws QueryResultHandlerException {
+			if (first)
+				handler.handleLinks(linkUrls);
+		}
+
+		@Override
+		public void startQueryResult(List<String> bindingNames)
+				throws TupleQueryResultHandlerException {
+			if (first)
+				handler.startQueryResult(bindingNames);
+		}
+
+		@Override
+		public void endQueryResult() throws TupleQueryResultHandlerException {
+			if (last)
+				handler.endQueryResult();
+		}
+
+		@Override
+		public void handleSolution(BindingSet bindingSet)
+				throws TupleQueryResultHandlerException {
+			handler.handleSolution(bindingSet);
+		}
+
+	}
+
+}
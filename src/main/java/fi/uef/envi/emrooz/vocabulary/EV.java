@@ -41,5 +41,8 @@ public class EV extends AbstractVocabulary {
 	
 	/** http://envi.uef.fi/emrooz#defaultDataStructureDefinition */
 	public static final URI defaultDataStructureDefinition = _("defaultDataStructureDefinition");
+	
+	/** http://envi.uef.fi/emrooz#timeBucket */
+	public static final URI timeBucket = _("timeBucket");
 
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import fi.uef.envi.emrooz.cassandra.CassandraBulkWriter;
+import fi.uef.envi.emrooz.cassandra.PartitionCache;
+import fi.uef.envi.emrooz.cassandra.PartitionCache.Partition;
+
+/**
+ * <p>
+ * Title: CassandraBulkWriterTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class CassandraBulkWriterTest {
+
+	private static final String FAIL = "fail";
+
+	@Test
+	public void testFlush() {
+		AtomicInteger batches = new AtomicInteger();
+		CassandraBulkWriter writer = new CassandraBulkWriter(
+				createSession(batches), 2, 4);
+
+		for (int i = 0; i < 5; i++)
+			writer.add("k" + (i % 2), new SimpleStatement("ok"));
+
+		writer.flush();
+
+		// One full batch per partition, then the pending statement
+		assertEquals(3, batches.get());
+	}
+
+	@Test
+	public void testInvalidateWhenWritten() {
+		CassandraBulkWriter writer = new CassandraBulkWriter(
+				createSession(new AtomicInteger()), 2, 4);
+		PartitionCache cache = new PartitionCache(1024, false);
+
+		writer.setPartitionCache(cache);
+		cache.put("k1", createPartition(cache));
+		cache.put("k2", createPartition(cache));
+
+		writer.add("k1", new SimpleStatement("ok"));
+
+		// Buffered, not yet written
+		assertNotNull(cache.get("k1"));
+
+		writer.add("k1", new SimpleStatement("ok"));
+
+		assertNull(cache.get("k1"));
+		assertNotNull(cache.get("k2"));
+
+		writer.add("k2", new SimpleStatement("ok"));
+		writer.flush();
+
+		assertNull(cache.get("k2"));
+	}
+
+	@Test
+	public void testFailureReportedToEachThread() throws Exception {
+		final CassandraBulkWriter writer = new CassandraBulkWriter(
+				createSession(new AtomicInteger()), 1, 4);
+
+		writer.add("k1", new SimpleStatement(FAIL));
+
+		assertNotNull(flush(writer));
+		// Reported to this thread already
+		assertNull(flush(writer));
+
+		final AtomicReference<RuntimeException> other = new AtomicReference<RuntimeException>();
+
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				// The failed batch may have held statements of this thread
+				other.set(flush(writer));
+
+				if (flush(writer) != null)
+					other.set(null);
+			}
+		});
+
+		thread.start();
+		thread.join();
+
+		assertNotNull(other.get());
+	}
+
+	@Test
+	public void testFailureStopsAdd() {
+		CassandraBulkWriter writer = new CassandraBulkWriter(
+				createSession(new AtomicInteger()), 1, 4);
+		RuntimeException e = null;
+
+		writer.add("k1", new SimpleStatement(FAIL));
+
+		try {
+			writer.add("k1", new SimpleStatement("ok"));
+		} catch (RuntimeException t) {
+			e = t;
+		}
+
+		assertNotNull(e);
+		assertNull(flush(writer));
+	}
+
+	private Partition createPartition(PartitionCache cache) {
+		return cache.createPartition(Collections.singletonList(0L),
+				Collections.singletonList(ByteBuffer.allocate(16)));
+	}
+
+	private RuntimeException flush(CassandraBulkWriter writer) {
+		try {
+			writer.flush();
+		} catch (RuntimeException e) {
+			return e;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Creates a session that counts the batches executed and fails those
+	 * with a statement whose query string is {@link #FAIL}.
+	 */
+	private Session createSession(final AtomicInteger batches) {
+		return (Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { Session.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if (!method.getName().equals("executeAsync"))
+							throw new UnsupportedOperationException(method
+									.getName());
+
+						SettableFuture<ResultSet> future = SettableFuture
+								.create();
+
+						batches.incrementAndGet();
+
+						if (fails((BatchStatement) args[0]))
+							future.setException(new RuntimeException(FAIL));
+						else
+							future.set(null);
+
+						return createFuture(future);
+					}
+				});
+	}
+
+	private boolean fails(BatchStatement batch) {
+		for (Statement statement : batch.getStatements()) {
+			if (((SimpleStatement) statement).getQueryString().equals(FAIL))
+				return true;
+		}
+
+		return false;
+	}
+
+	private ResultSetFuture createFuture(final SettableFuture<ResultSet> future) {
+		return (ResultSetFuture) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class<?>[] { ResultSetFuture.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if (method.getName().equals("getUninterruptibly"))
+							return Uninterruptibles.getUninterruptibly(future);
+
+						try {
+							return method.invoke(future, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import fi.uef.envi.emrooz.cassandra.CassandraConfiguration;
+
+/**
+ * <p>
+ * Title: CassandraConfigurationTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class CassandraConfigurationTest {
+
+	@Test
+	@FileParameters("src/test/resources/CassandraConfigurationTest.csv")
+	public void test(String properties, String contactPoints,
+			String readConsistency, String writeConsistency,
+			String compression, int replicationFactor,
+			String dataCenterReplication) {
+		// Properties are separated by space, commas in values are written as
+		// semicolons
+		Properties p = new Properties();
+
+		if (!properties.equals("-")) {
+			for (String property : properties.split(" ")) {
+				String[] entry = property.split("=");
+
+				p.setProperty(entry[0], entry[1].replace(';', ','));
+			}
+		}
+
+		CassandraConfiguration a = CassandraConfiguration.create(p);
+
+		assertEquals(Arrays.asList(contactPoints.split(";")),
+				a.getContactPoints());
+		assertEquals(readConsistency, a.getReadConsistency().name());
+		assertEquals(writeConsistency, a.getWriteConsistency().name());
+		assertEquals(compression, a.getCompression().name());
+		assertEquals(replicationFactor, a.getReplicationFactor());
+
+		Map<String, Integer> e = new LinkedHashMap<String, Integer>();
+
+		if (!dataCenterReplication.equals("-")) {
+			for (String entry : dataCenterReplication.split(";"))
+				e.put(entry.split(":")[0], Integer.valueOf(entry.split(":")[1]));
+		}
+
+		assertEquals(e, a.getDataCenterReplication());
+		assertEquals(e.isEmpty(),
+				a.getReplication().contains("SimpleStrategy"));
+	}
+
+	@Test
+	@FileParameters("src/test/resources/CassandraConfigurationTest-testDataCompaction.csv")
+	public void testDataCompaction(String compaction, String window, String e) {
+		Properties p = new Properties();
+
+		// The default compaction if not given
+		if (!compaction.equals("-"))
+			p.setProperty("compaction", compaction.toLowerCase());
+
+		p.setProperty("compactionWindow", window.toLowerCase());
+
+		String a = CassandraConfiguration.create(p).getDataCompaction();
+
+		for (String value : e.split(";"))
+			assertTrue(a, a.contains(value + "'"));
+	}
+
+	@Test
+	public void testReplication() {
+		CassandraConfiguration c = new CassandraConfiguration("h1", "h2");
+		Map<String, Integer> replication = new LinkedHashMap<String, Integer>();
+
+		assertEquals(
+				"{ 'class' : 'org.apache.cassandra.locator.SimpleStrategy', 'replication_factor': '1' }",
+				c.getReplication());
+
+		replication.put("dc1", 3);
+		replication.put("dc2", 2);
+		c.setDataCenterReplication(replication);
+
+		assertEquals(
+				"{ 'class' : 'org.apache.cassandra.locator.NetworkTopologyStrategy', 'dc1': '3', 'dc2': '2' }",
+				c.getReplication());
+	}
+
+}
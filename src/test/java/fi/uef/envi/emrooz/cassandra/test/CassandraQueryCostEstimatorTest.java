@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.test;
+
+import static org.junit.Assert.assertEquals;
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import java.util.Collections;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+import fi.uef.envi.emrooz.cassandra.CassandraQueryCostEstimator;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.qudt.Unit;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.query.QueryCost;
+import fi.uef.envi.emrooz.query.RollupPlanner;
+import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.query.TimeBucketAggregation;
+import fi.uef.envi.emrooz.vocabulary.QUDTUnit;
+
+/**
+ * <p>
+ * Title: CassandraQueryCostEstimatorTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class CassandraQueryCostEstimatorTest {
+
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+	private static final URI sensorId = vf.createURI("http://example.org#s1");
+	private static final URI propertyId = vf
+			.createURI("http://example.org#p1");
+	private static final URI featureId = vf.createURI("http://example.org#f1");
+
+	@Test
+	@FileParameters("src/test/resources/CassandraQueryCostEstimatorTest.csv")
+	public void testEstimate(String coverage, double hertz, String timeFrom,
+			String timeTo, String duration, long partitionsE, long rowsE) {
+		CassandraQueryCostEstimator estimator = new CassandraQueryCostEstimator(
+				RollupPlanner.create(toCoverage(coverage)));
+		Frequency frequency = new Frequency(
+				vf.createURI("http://example.org#mp1"), new QuantityValue(
+						vf.createURI("http://example.org#qv1"), hertz,
+						new Unit(QUDTUnit.Hertz)));
+		TimeBucketAggregation aggregation = null;
+
+		if (!duration.equals("-"))
+			aggregation = new TimeBucketAggregation("bucket",
+					Long.parseLong(duration), DateTimeZone.UTC,
+					Collections.singletonMap("avg",
+							TimeBucketAggregation.Type.AVG),
+					Collections.singletonList("avg"));
+
+		QueryCost a = estimator.estimate(Collections.singletonMap(
+				SensorObservationQuery.create(sensorId, propertyId, featureId,
+						DateTime.parse(timeFrom), DateTime.parse(timeTo)),
+				frequency), aggregation);
+
+		assertEquals(partitionsE, a.getPartitions());
+		assertEquals(rowsE, a.getRows());
+	}
+
+	private String toCoverage(String coverage) {
+		if (coverage.equals("-"))
+			return null;
+
+		return coverage.replace(";", ",");
+	}
+
+}
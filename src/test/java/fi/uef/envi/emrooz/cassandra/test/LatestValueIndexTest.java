@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import fi.uef.envi.emrooz.cassandra.LatestValueIndex;
+
+/**
+ * <p>
+ * Title: LatestValueIndexTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class LatestValueIndexTest {
+
+	@Test
+	@FileParameters("src/test/resources/LatestValueIndexTest.csv")
+	public void testPut(String times, String retsE, long timeE, int valueE) {
+		LatestValueIndex index = new LatestValueIndex();
+		String[] t = times.split(";");
+		String[] r = retsE.split(";");
+
+		// The value of an observation is its position in the sequence
+		for (int i = 0; i < t.length; i++) {
+			ByteBuffer value = ByteBuffer.wrap(new byte[] { (byte) i });
+
+			assertEquals("put " + i, Boolean.parseBoolean(r[i]),
+					index.put("s", Long.parseLong(t[i]), value));
+		}
+
+		LatestValueIndex.Entry entry = index.get("s");
+
+		assertEquals(timeE, entry.getTime());
+		assertEquals(valueE, entry.getValue().get());
+		assertEquals(1, index.size());
+	}
+
+	@Test
+	public void testRemove() {
+		LatestValueIndex index = new LatestValueIndex();
+
+		index.put("s", 1, ByteBuffer.wrap(new byte[] { 1 }));
+
+		LatestValueIndex.Entry entry = index.get("s");
+
+		index.put("s", 2, ByteBuffer.wrap(new byte[] { 2 }));
+
+		// Replaced since got
+		assertFalse(index.remove("s", entry));
+		assertEquals(2, index.get("s").getTime());
+		assertTrue(index.remove("s", index.get("s")));
+		assertNull(index.get("s"));
+		assertTrue(index.keySet().isEmpty());
+	}
+
+}
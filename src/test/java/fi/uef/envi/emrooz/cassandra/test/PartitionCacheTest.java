@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import fi.uef.envi.emrooz.cassandra.PartitionCache;
+import fi.uef.envi.emrooz.cassandra.PartitionCache.Partition;
+
+/**
+ * <p>
+ * Title: PartitionCacheTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class PartitionCacheTest {
+
+	/**
+	 * The size of a partition of one observation of 16 bytes.
+	 */
+	private static final long SIZE = 32;
+
+	@Test
+	@FileParameters("src/test/resources/PartitionCacheTest-testEviction.csv")
+	public void testEviction(long capacity, String ops, String cachedE,
+			long sizeE) {
+		PartitionCache cache = new PartitionCache(capacity, false);
+		Set<String> keys = new HashSet<String>();
+
+		for (String op : ops.split(";")) {
+			String key = op.substring(1);
+
+			keys.add(key);
+
+			if (op.startsWith("+"))
+				cache.put(key, createPartition(cache, 16));
+			else if (op.startsWith("?"))
+				cache.get(key);
+			else if (op.startsWith("-"))
+				cache.invalidate(key);
+		}
+
+		assertEquals(sizeE, cache.getSize());
+
+		Set<String> cached = new HashSet<String>();
+
+		if (!cachedE.equals("-")) {
+			for (String key : cachedE.split(";"))
+				cached.add(key);
+		}
+
+		for (String key : keys) {
+			if (cached.contains(key))
+				assertNotNull(key, cache.get(key));
+			else
+				assertNull(key, cache.get(key));
+		}
+	}
+
+	@Test
+	public void testSize() {
+		PartitionCache cache = new PartitionCache(1024, true);
+		Partition partition = createPartition(cache, 16, 8);
+
+		assertEquals(2, partition.getCount());
+		// Values, times and offsets
+		assertEquals(24 + 16 + 12, partition.getSize());
+
+		cache.put("a", partition);
+		cache.put("a", partition);
+
+		assertEquals(partition.getSize(), cache.getSize());
+
+		cache.put("b", createPartition(cache, 2048));
+
+		assertNull(cache.get("b"));
+		assertEquals(partition.getSize(), cache.getSize());
+
+		cache.clear();
+
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testInvalidateDuringLoad() {
+		PartitionCache cache = new PartitionCache(1024, false);
+		long generation = cache.beginLoad("a");
+
+		cache.invalidate("a");
+		cache.endLoad("a", generation, createPartition(cache, 16));
+
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.getSize());
+
+		generation = cache.beginLoad("a");
+		cache.endLoad("a", generation, createPartition(cache, 16));
+
+		assertNotNull(cache.get("a"));
+		assertEquals(SIZE, cache.getSize());
+	}
+
+	@Test
+	public void testInvalidateDuringConcurrentLoads() {
+		PartitionCache cache = new PartitionCache(1024, false);
+		long generation1 = cache.beginLoad("a");
+		long generation2 = cache.beginLoad("a");
+
+		cache.invalidate("a");
+
+		long generation3 = cache.beginLoad("a");
+
+		cache.endLoad("a", generation1, createPartition(cache, 16));
+
+		assertNull(cache.get("a"));
+
+		cache.endLoad("a", generation3, createPartition(cache, 16));
+
+		assertNotNull(cache.get("a"));
+
+		cache.endLoad("a", generation2, createPartition(cache, 8));
+
+		// The partition of the stale load does not replace the cached one
+		assertEquals(SIZE, cache.getSize());
+	}
+
+	@Test
+	public void testFailedLoad() {
+		PartitionCache cache = new PartitionCache(1024, false);
+		long generation = cache.beginLoad("a");
+
+		cache.endLoad("a", generation, null);
+
+		assertNull(cache.get("a"));
+
+		generation = cache.beginLoad("a");
+		cache.endLoad("a", generation, createPartition(cache, 16));
+
+		assertNotNull(cache.get("a"));
+	}
+
+	@Test
+	public void testTimeToLive() throws InterruptedException {
+		PartitionCache cache = new PartitionCache(1024, false, 50);
+
+		cache.put("a", createPartition(cache, 16));
+
+		assertNotNull(cache.get("a"));
+
+		Thread.sleep(100);
+
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.getSize());
+
+		cache = new PartitionCache(1024, false);
+		cache.put("a", createPartition(cache, 16));
+
+		Thread.sleep(100);
+
+		assertNotNull(cache.get("a"));
+	}
+
+	@Test
+	public void testGetValues() {
+		PartitionCache cache = new PartitionCache(1024, false);
+		List<Long> times = new ArrayList<Long>();
+		List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+
+		for (int i = 0; i < 4; i++) {
+			times.add(i * 10L);
+			values.add(ByteBuffer.wrap(new byte[] { (byte) i }));
+		}
+
+		Iterator<ByteBuffer> it = cache.createPartition(times, values)
+				.getValues(10, 30);
+
+		assertEquals(1, it.next().get());
+		assertEquals(2, it.next().get());
+		assertFalse(it.hasNext());
+	}
+
+	private Partition createPartition(PartitionCache cache, int... lengths) {
+		List<Long> times = new ArrayList<Long>();
+		List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+
+		for (int i = 0; i < lengths.length; i++) {
+			times.add((long) i);
+			values.add(ByteBuffer.allocate(lengths[i]));
+		}
+
+		return cache.createPartition(times, values);
+	}
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.test;
+
+import static org.junit.Assert.assertEquals;
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import org.joda.time.Duration;
+import org.joda.time.Period;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import fi.uef.envi.emrooz.cassandra.RetentionPolicy;
+
+/**
+ * <p>
+ * Title: RetentionPolicyTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class RetentionPolicyTest {
+
+	private static final long now = 1433152800000L;
+
+	@Test
+	@FileParameters("src/test/resources/RetentionPolicyTest.csv")
+	public void test(String raw, String rollups, long age, int rawE,
+			int rollupE) {
+		RetentionPolicy policy = new RetentionPolicy(toDuration(raw),
+				toDuration(rollups));
+
+		assertEquals(rawE, policy.getRawTimeToLive(now - age, now));
+		assertEquals(rollupE, policy.getRollupTimeToLive(now - age, now));
+	}
+
+	private Duration toDuration(String period) {
+		if (period.equals("-"))
+			return null;
+
+		return Period.parse(period).toStandardDuration();
+	}
+
+}
@@ -6,6 +6,8 @@
 package fi.uef.envi.emrooz.cassandra.utils.test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
 import java.util.Set;
 
 import junitparams.FileParameters;
@@ -52,4 +54,25 @@ public class StatementUtilsTest {
 				StatementUtils.toStatements(StatementUtils.toByteArray(e)));
 	}
 
+	@Test
+	@FileParameters("src/test/resources/StatementUtilsTest-testToByteArray.csv")
+	public void testToByteBuffer(
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> e)
+			throws RDFParseException, RDFHandlerException, IOException {
+		byte[] bytes = StatementUtils.toByteArray(e);
+		// Offset the content, as in buffers of driver response frames
+		ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 3);
+
+		buffer.position(3);
+		buffer.put(bytes);
+		buffer.position(3);
+
+		// Decode twice with the same parser, without consuming the buffer
+		assertEquals(e,
+				new HashSet<Statement>(StatementUtils.toStatements(buffer)));
+		assertEquals(e,
+				new HashSet<Statement>(StatementUtils.toStatements(buffer)));
+		assertEquals(3, buffer.position());
+	}
+
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.io.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import fi.uef.envi.emrooz.io.Checkpoint;
+
+/**
+ * <p>
+ * Title: CheckpointTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class CheckpointTest {
+
+	@Test
+	@FileParameters("src/test/resources/CheckpointTest.csv")
+	public void test(String completed, String checked, boolean modified,
+			String assertType) throws IOException {
+		File directory = Files.createTempDirectory("checkpoint").toFile();
+
+		try {
+			File checkpointFile = new File(directory, "checkpoint.txt");
+			Checkpoint checkpoint = new Checkpoint(checkpointFile);
+
+			for (String name : completed.split(";")) {
+				File file = new File(directory, name);
+				FileUtils.writeStringToFile(file, name);
+				checkpoint.complete(file);
+			}
+
+			File file = new File(directory, checked);
+
+			if (modified)
+				FileUtils.writeStringToFile(file, checked, true);
+
+			// The checkpoint is read again, as when a load is resumed
+			boolean a = new Checkpoint(checkpointFile).isCompleted(file);
+
+			if (assertType.equals("assertTrue")) {
+				assertTrue(a);
+				return;
+			}
+
+			assertFalse(a);
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+}
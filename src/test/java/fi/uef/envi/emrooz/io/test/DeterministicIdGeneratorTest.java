@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.io.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+import junitparams.converters.ConvertParam;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.URI;
+
+import fi.uef.envi.emrooz.api.IdGenerator;
+import fi.uef.envi.emrooz.io.DeterministicIdGenerator;
+import fi.uef.envi.emrooz.test.ParamsConverterTest;
+
+/**
+ * <p>
+ * Title: DeterministicIdGeneratorTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class DeterministicIdGeneratorTest {
+
+	@Test
+	@FileParameters("src/test/resources/DeterministicIdGeneratorTest.csv")
+	public void test(
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI ns,
+			String seriesA,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime timeA,
+			String roleA,
+			String seriesE,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime timeE,
+			String roleE, String assertType) {
+		IdGenerator g = new DeterministicIdGenerator();
+
+		URI a = g.generate(ns, seriesA, timeA, roleA);
+		URI e = new DeterministicIdGenerator().generate(ns, seriesE, timeE,
+				roleE);
+
+		if (assertType.equals("assertEquals")) {
+			assertEquals(e, a);
+			return;
+		}
+
+		assertNotEquals(e, a);
+	}
+
+}
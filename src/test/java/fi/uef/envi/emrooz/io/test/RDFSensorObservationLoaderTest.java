@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.io.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Literal;
+import org.openrdf.query.BindingSet;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.sail.memory.MemoryStore;
+
+import fi.uef.envi.emrooz.Emrooz;
+import fi.uef.envi.emrooz.QueryType;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.io.RDFSensorObservationLoader;
+import fi.uef.envi.emrooz.memory.MemoryDataStore;
+import fi.uef.envi.emrooz.sesame.SesameKnowledgeStore;
+
+/**
+ * <p>
+ * Title: RDFSensorObservationLoaderTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class RDFSensorObservationLoaderTest {
+
+	private static final String ex = "http://example.org#";
+	private static final String rdf = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+	private static final String ssn = "http://purl.oclc.org/NET/ssnx/ssn#";
+	private static final String dul = "http://www.loa-cnr.it/ontologies/DUL.owl#";
+	private static final String time = "http://www.w3.org/2006/time#";
+	private static final String xsd = "http://www.w3.org/2001/XMLSchema#";
+	private static final String query = "prefix ssn: <http://purl.oclc.org/NET/ssnx/ssn#> prefix time: <http://www.w3.org/2006/time#> prefix dul: <http://www.loa-cnr.it/ontologies/DUL.owl#> prefix xsd: <http://www.w3.org/2001/XMLSchema#> select ?value where { ?o ssn:observedBy <http://example.org#s1> . ?o ssn:observedProperty <http://example.org#p1> . ?o ssn:featureOfInterest <http://example.org#f1> . ?o ssn:observationResultTime ?t . ?t time:inXSDDateTime ?time . ?o ssn:observationResult ?so . ?so ssn:hasValue ?ov . ?ov dul:hasRegionDataValue ?value . filter (?time >= \"2015-05-05T00:00:00.000+03:00\"^^xsd:dateTime && ?time < \"2015-05-06T00:00:00.000+03:00\"^^xsd:dateTime)}";
+
+	@Test
+	@FileParameters("src/test/resources/RDFSensorObservationLoaderTest.csv")
+	public void test(String values, int late, long numOfObservations,
+			long numOfLateStatements, String e) {
+		Emrooz em = new Emrooz(new SesameKnowledgeStore(new SailRepository(
+				new MemoryStore())), new MemoryDataStore());
+		em.loadKnowledgeBase(new File("src/test/resources/kb/kb-1.rdf"));
+
+		RDFSensorObservationLoader loader = new RDFSensorObservationLoader(em,
+				2);
+
+		long a = loader.load(
+				new ByteArrayInputStream(createNTriples(values.split(";"),
+						late).getBytes(StandardCharsets.UTF_8)), ex,
+				RDFFormat.NTRIPLES);
+
+		assertEquals(numOfObservations, a);
+		assertEquals(numOfLateStatements, loader.getNumOfLateStatements());
+		assertEquals(toValues(e), toValues(em.evaluate(
+				QueryType.SENSOR_OBSERVATION, query)));
+
+		em.close();
+	}
+
+	/**
+	 * Returns the observations grouped by observation, followed by a late
+	 * statement about the value of each of the first late observations.
+	 */
+	private String createNTriples(String[] values, int late) {
+		StringBuilder sb = new StringBuilder();
+
+		triple(sb, ex + "s1", rdf + "type", "<" + ssn + "Sensor>");
+		triple(sb, ex + "p1", rdf + "type", "<" + ssn + "Property>");
+		triple(sb, ex + "f1", rdf + "type", "<" + ssn + "FeatureOfInterest>");
+
+		for (int i = 0; i < values.length; i++) {
+			triple(sb, ex + "o" + i, rdf + "type", "<" + ssn + "Observation>");
+			triple(sb, ex + "o" + i, ssn + "observedBy", "<" + ex + "s1>");
+			triple(sb, ex + "o" + i, ssn + "observedProperty", "<" + ex
+					+ "p1>");
+			triple(sb, ex + "o" + i, ssn + "featureOfInterest", "<" + ex
+					+ "f1>");
+			triple(sb, ex + "o" + i, ssn + "observationResult", "<" + ex
+					+ "so" + i + ">");
+			triple(sb, ex + "so" + i, rdf + "type", "<" + ssn
+					+ "SensorOutput>");
+			triple(sb, ex + "so" + i, ssn + "hasValue", "<" + ex + "ov" + i
+					+ ">");
+			triple(sb, ex + "ov" + i, rdf + "type", "<" + ssn
+					+ "ObservationValue>");
+			triple(sb, ex + "ov" + i, dul + "hasRegionDataValue", "\""
+					+ values[i] + ".0\"^^<" + xsd + "double>");
+			triple(sb, ex + "o" + i, ssn + "observationResultTime", "<" + ex
+					+ "i" + i + ">");
+			triple(sb, ex + "i" + i, rdf + "type", "<" + time + "Instant>");
+			triple(sb, ex + "i" + i, time + "inXSDDateTime", "\"2015-05-05T0"
+					+ i + ":00:00.000+03:00\"^^<" + xsd + "dateTime>");
+		}
+
+		for (int i = 0; i < late; i++)
+			triple(sb, ex + "ov" + i, ex + "note", "\"late\"");
+
+		return sb.toString();
+	}
+
+	private void triple(StringBuilder sb, String subject, String predicate,
+			String object) {
+		sb.append("<" + subject + "> <" + predicate + "> " + object + " .\n");
+	}
+
+	private List<Integer> toValues(ResultSet<BindingSet> results) {
+		List<Integer> ret = new ArrayList<Integer>();
+
+		while (results.hasNext())
+			ret.add((int) ((Literal) results.next().getValue("value"))
+					.doubleValue());
+
+		Collections.sort(ret);
+
+		return ret;
+	}
+
+	private List<Integer> toValues(String values) {
+		List<Integer> ret = new ArrayList<Integer>();
+
+		for (String value : values.split(";"))
+			ret.add(Integer.valueOf(value));
+
+		return ret;
+	}
+
+}
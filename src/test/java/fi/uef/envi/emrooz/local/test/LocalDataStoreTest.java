@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.local.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+import fi.uef.envi.emrooz.api.PagedQueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.qudt.Unit;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.local.LocalDataStore;
+import fi.uef.envi.emrooz.query.Cursor;
+import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.vocabulary.DUL;
+import fi.uef.envi.emrooz.vocabulary.QUDTUnit;
+
+/**
+ * <p>
+ * Title: LocalDataStoreTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class LocalDataStoreTest {
+
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+	private static final String ns = "http://example.org#";
+	private static final URI sensorId = vf.createURI(ns + "s1");
+	private static final URI propertyId = vf.createURI(ns + "p1");
+	private static final URI featureId = vf.createURI(ns + "f1");
+	// 1 Hz, i.e. partitioned by day
+	private static final Frequency frequency = new Frequency(
+			vf.createURI(ns + "mp1"), new QuantityValue(vf.createURI(ns
+					+ "qv1"), 1.0, new Unit(QUDTUnit.Hertz)));
+	// Observation i has value i; the third is added out of time order
+	private static final String[] times = new String[] {
+			"2015-06-01T10:00:00Z", "2015-06-01T12:00:00Z",
+			"2015-06-01T11:00:00Z", "2015-06-02T09:00:00Z",
+			"2015-06-02T10:00:00Z", "2015-06-03T08:00:00Z" };
+
+	@Test
+	@FileParameters("src/test/resources/LocalDataStoreTest.csv")
+	public void test(String timeFrom, String timeTo, String valueFrom,
+			String valueTo, long limit, boolean descending, boolean reopen,
+			String e) throws IOException {
+		File directory = Files.createTempDirectory("local").toFile();
+
+		try {
+			LocalDataStore ds = create(directory, reopen);
+			SensorObservationQuery query = SensorObservationQuery.create(
+					sensorId, propertyId, featureId, new DateTime(timeFrom),
+					new DateTime(timeTo), toDouble(valueFrom),
+					toDouble(valueTo), limit, descending);
+
+			List<Integer> a = toValues(ds.createSensorObservationQueryHandler(
+					Collections.singletonMap(query, frequency)).evaluate());
+
+			ds.close();
+
+			assertEquals(toValues(e), a);
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	@FileParameters("src/test/resources/LocalDataStoreTest-testPaging.csv")
+	public void testPaging(int size, boolean reopen, String e)
+			throws IOException {
+		File directory = Files.createTempDirectory("local").toFile();
+
+		try {
+			LocalDataStore ds = create(directory, reopen);
+			Map<SensorObservationQuery, Frequency> queries = Collections
+					.singletonMap(SensorObservationQuery.create(sensorId,
+							propertyId, featureId, new DateTime(
+									"2015-06-01T00:00:00Z"), new DateTime(
+									"2015-06-04T00:00:00Z")), frequency);
+			List<Integer> a = new ArrayList<Integer>();
+			Cursor cursor = null;
+
+			do {
+				// The cursor is resumed from its token, as by clients
+				PagedQueryHandler<Statement> handler = ds
+						.createSensorObservationQueryHandler(queries,
+								(cursor == null) ? null : Cursor.parse(cursor
+										.toString()), size);
+
+				a.addAll(toValues(handler.evaluate()));
+				cursor = handler.getNextCursor();
+			} while (cursor != null);
+
+			ds.close();
+
+			assertEquals(toValues(e), a);
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	@FileParameters("src/test/resources/LocalDataStoreTest-testReplace.csv")
+	public void testReplace(String time, boolean reopen, String e)
+			throws IOException {
+		File directory = Files.createTempDirectory("local").toFile();
+
+		try {
+			LocalDataStore ds = create(directory, false);
+			Set<Statement> statements = new HashSet<Statement>();
+
+			statements.add(vf.createStatement(vf.createURI(ns + "o"
+					+ times.length), DUL.hasRegionDataValue, vf
+					.createLiteral((double) times.length)));
+			ds.addSensorObservation(sensorId, propertyId, featureId,
+					frequency, new DateTime(time), statements);
+
+			if (reopen) {
+				ds.close();
+				ds = new LocalDataStore(directory);
+			}
+
+			SensorObservationQuery query = SensorObservationQuery.create(
+					sensorId, propertyId, featureId, new DateTime(
+							"2015-06-01T00:00:00Z"), new DateTime(
+							"2015-06-04T00:00:00Z"));
+
+			List<Integer> a = toValues(ds.createSensorObservationQueryHandler(
+					Collections.singletonMap(query, frequency)).evaluate());
+
+			ds.close();
+
+			assertEquals(toValues(e), a);
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	@FileParameters("src/test/resources/LocalDataStoreTest-testLatest.csv")
+	public void testLatest(boolean reopen, String e) throws IOException {
+		File directory = Files.createTempDirectory("local").toFile();
+
+		try {
+			LocalDataStore ds = create(directory, reopen);
+
+			List<Integer> a = toValues(ds
+					.createLatestSensorObservationQueryHandler(
+							Collections.singletonMap(SensorObservationQuery
+									.create(sensorId, propertyId, featureId,
+											null, null), frequency))
+					.evaluate());
+
+			ds.close();
+
+			assertEquals(toValues(e), a);
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	@FileParameters("src/test/resources/LocalDataStoreTest-testMetadata.csv")
+	public void testMetadata(boolean reopen, String key, String value,
+			String e) throws IOException {
+		File directory = Files.createTempDirectory("local").toFile();
+
+		try {
+			LocalDataStore ds = create(directory, false);
+
+			ds.setMetadata(key, toString(value));
+
+			if (reopen) {
+				ds.close();
+				ds = new LocalDataStore(directory);
+			}
+
+			String a = ds.getMetadata(key);
+
+			ds.close();
+
+			assertEquals(toString(e), a);
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	@FileParameters("src/test/resources/LocalDataStoreTest-testMaxOpenSegments.csv")
+	public void testMaxOpenSegments(int maxOpenSegments, String e)
+			throws IOException {
+		File directory = Files.createTempDirectory("local").toFile();
+
+		try {
+			LocalDataStore ds = create(directory, false, maxOpenSegments);
+			SensorObservationQuery query = SensorObservationQuery.create(
+					sensorId, propertyId, featureId, new DateTime(
+							"2015-06-01T00:00:00Z"), new DateTime(
+							"2015-06-04T00:00:00Z"));
+
+			// Closed segments are opened again by reads and appends
+			List<Integer> a = toValues(ds.createSensorObservationQueryHandler(
+					Collections.singletonMap(query, frequency)).evaluate());
+
+			create(ds, times.length);
+
+			a.addAll(toValues(ds.createSensorObservationQueryHandler(
+					Collections.singletonMap(query, frequency)).evaluate()));
+
+			ds.close();
+
+			assertEquals(toValues(e), a);
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	private LocalDataStore create(File directory, boolean reopen) {
+		return create(directory, reopen,
+				LocalDataStore.DEFAULT_MAX_OPEN_SEGMENTS);
+	}
+
+	private LocalDataStore create(File directory, boolean reopen,
+			int maxOpenSegments) {
+		LocalDataStore ret = create(new LocalDataStore(directory,
+				maxOpenSegments), 0);
+
+		if (!reopen)
+			return ret;
+
+		// Segments are read again from their files
+		ret.close();
+
+		return new LocalDataStore(directory);
+	}
+
+	/**
+	 * Adds the observations, with values starting at the offset.
+	 */
+	private LocalDataStore create(LocalDataStore ret, int offset) {
+
+		for (int i = 0; i < times.length; i++) {
+			Set<Statement> statements = new HashSet<Statement>();
+
+			statements.add(vf.createStatement(vf.createURI(ns + "o"
+					+ (offset + i)), DUL.hasRegionDataValue, vf
+					.createLiteral((double) (offset + i))));
+			ret.addSensorObservation(sensorId, propertyId, featureId,
+					frequency, new DateTime(times[i]), statements);
+		}
+
+		return ret;
+	}
+
+	private List<Integer> toValues(ResultSet<Statement> results) {
+		List<Integer> ret = new ArrayList<Integer>();
+
+		while (results.hasNext()) {
+			Statement statement = results.next();
+
+			if (statement.getPredicate().equals(DUL.hasRegionDataValue))
+				ret.add((int) ((Literal) statement.getObject()).doubleValue());
+		}
+
+		return ret;
+	}
+
+	private List<Integer> toValues(String values) {
+		List<Integer> ret = new ArrayList<Integer>();
+
+		if (values.equals("-"))
+			return ret;
+
+		for (String value : values.split(";"))
+			ret.add(Integer.valueOf(value));
+
+		return ret;
+	}
+
+	private String toString(String value) {
+		if (value.equals("-"))
+			return null;
+
+		return value;
+	}
+
+	private Double toDouble(String value) {
+		if (value.isEmpty())
+			return null;
+
+		return Double.valueOf(value);
+	}
+
+}
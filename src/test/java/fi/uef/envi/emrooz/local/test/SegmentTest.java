@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.local.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import fi.uef.envi.emrooz.local.Segment;
+
+/**
+ * <p>
+ * Title: SegmentTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class SegmentTest {
+
+	// Records of 120 bytes, i.e. about 34 records per index interval
+	private static final int LENGTH = 100;
+
+	@Test
+	@FileParameters("src/test/resources/SegmentTest-testRead.csv")
+	public void testRead(int records, int readEvery, boolean reopen,
+			long timeFrom, long timeTo, String e) throws IOException {
+		File directory = Files.createTempDirectory("segment").toFile();
+
+		try {
+			File file = new File(directory, "s.seg");
+			Segment segment = new Segment(file);
+
+			for (int i = 0; i < records; i++) {
+				segment.append(i, i, new byte[LENGTH]);
+
+				// Reads between appends map the file in several regions
+				if (readEvery > 0 && i % readEvery == 0)
+					segment.read(0, records);
+			}
+
+			if (reopen) {
+				segment.close();
+				segment = new Segment(file);
+			}
+
+			assertEquals(e, toString(segment.read(timeFrom, timeTo)));
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	@FileParameters("src/test/resources/SegmentTest-testTruncate.csv")
+	public void testTruncate(int records, int cut, long eCount, String e)
+			throws IOException {
+		File directory = Files.createTempDirectory("segment").toFile();
+
+		try {
+			File file = new File(directory, "s.seg");
+			Segment segment = new Segment(file);
+
+			for (int i = 0; i < records; i++)
+				segment.append(i, i, new byte[LENGTH]);
+
+			segment.close();
+
+			// A record cut short, as by a crash while writing
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(raf.length() - cut);
+			}
+
+			segment = new Segment(file);
+
+			assertEquals(eCount, segment.getCount());
+			assertEquals(eCount * (Segment.HEADER_SIZE + LENGTH), file.length());
+
+			// Appends follow the last complete record
+			segment.append(records, records, new byte[LENGTH]);
+
+			assertEquals(e, toString(segment.read(records - 2, records + 1)));
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	private String toString(List<Segment.Record> records) {
+		StringBuilder sb = new StringBuilder();
+
+		for (Segment.Record record : records) {
+			assertEquals(LENGTH, record.getValue().remaining());
+
+			if (sb.length() > 0)
+				sb.append(";");
+
+			sb.append(record.getTime());
+		}
+
+		if (sb.length() == 0)
+			return "-";
+
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.memory.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+
+import fi.uef.envi.emrooz.api.PagedQueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.qudt.Unit;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.memory.MemoryDataStore;
+import fi.uef.envi.emrooz.query.Cursor;
+import fi.uef.envi.emrooz.query.QueryCancelledException;
+import fi.uef.envi.emrooz.query.QueryContext;
+import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.query.TimeBucketAggregation;
+import fi.uef.envi.emrooz.vocabulary.DUL;
+import fi.uef.envi.emrooz.vocabulary.QUDTUnit;
+
+/**
+ * <p>
+ * Title: MemoryDataStoreTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class MemoryDataStoreTest {
+
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+	private static final String ns = "http://example.org#";
+	private static final URI sensorId = vf.createURI(ns + "s1");
+	private static final URI propertyId = vf.createURI(ns + "p1");
+	private static final URI featureId = vf.createURI(ns + "f1");
+	private static final Frequency frequency = new Frequency(
+			vf.createURI(ns + "mp1"), new QuantityValue(vf.createURI(ns
+					+ "qv1"), 1.0, new Unit(QUDTUnit.Hertz)));
+	// Observation i has value i; the third is added out of time order
+	private static final String[] times = new String[] {
+			"2015-06-01T10:00:00Z", "2015-06-01T12:00:00Z",
+			"2015-06-01T11:00:00Z", "2015-06-02T09:00:00Z",
+			"2015-06-02T10:00:00Z", "2015-06-03T08:00:00Z" };
+
+	@Test
+	@FileParameters("src/test/resources/MemoryDataStoreTest.csv")
+	public void test(String timeFrom, String timeTo, long limit,
+			boolean descending, String e) {
+		MemoryDataStore ds = create();
+		SensorObservationQuery query = SensorObservationQuery.create(sensorId,
+				propertyId, featureId, new DateTime(timeFrom), new DateTime(
+						timeTo), null, null, limit, descending);
+
+		List<Integer> a = toValues(ds.createSensorObservationQueryHandler(
+				Collections.singletonMap(query, frequency)).evaluate());
+
+		assertEquals(toValues(e), a);
+	}
+
+	@Test
+	@FileParameters("src/test/resources/MemoryDataStoreTest-testReplace.csv")
+	public void testReplace(String time, String e) {
+		MemoryDataStore ds = create();
+
+		add(ds, new DateTime(time), times.length);
+
+		SensorObservationQuery query = SensorObservationQuery.create(sensorId,
+				propertyId, featureId, new DateTime("2015-06-01T00:00:00Z"),
+				new DateTime("2015-06-04T00:00:00Z"));
+
+		assertEquals(toValues(e), toValues(ds
+				.createSensorObservationQueryHandler(
+						Collections.singletonMap(query, frequency)).evaluate()));
+	}
+
+	@Test
+	@FileParameters("src/test/resources/MemoryDataStoreTest-testPaging.csv")
+	public void testPaging(int size, String e) {
+		MemoryDataStore ds = create();
+		Map<SensorObservationQuery, Frequency> queries = Collections
+				.singletonMap(SensorObservationQuery.create(sensorId,
+						propertyId, featureId, new DateTime(
+								"2015-06-01T00:00:00Z"), new DateTime(
+								"2015-06-04T00:00:00Z")), frequency);
+		List<Integer> a = new ArrayList<Integer>();
+		Cursor cursor = null;
+
+		do {
+			PagedQueryHandler<Statement> handler = ds
+					.createSensorObservationQueryHandler(queries,
+							(cursor == null) ? null : Cursor.parse(cursor
+									.toString()), size);
+
+			a.addAll(toValues(handler.evaluate()));
+			cursor = handler.getNextCursor();
+		} while (cursor != null);
+
+		assertEquals(toValues(e), a);
+	}
+
+	@Test
+	@FileParameters("src/test/resources/MemoryDataStoreTest-testAggregate.csv")
+	public void testAggregate(long duration, String e) {
+		MemoryDataStore ds = create();
+		TimeBucketAggregation aggregation = new TimeBucketAggregation(null,
+				duration, DateTimeZone.UTC,
+				Collections.singletonMap("sum", TimeBucketAggregation.Type.SUM),
+				Collections.singletonList("sum"));
+		ResultSet<BindingSet> results = ds
+				.createSensorObservationAggregateQueryHandler(
+						Collections.singletonMap(SensorObservationQuery.create(
+								sensorId, propertyId, featureId, new DateTime(
+										"2015-06-01T00:00:00Z"), new DateTime(
+										"2015-06-04T00:00:00Z")), frequency),
+						aggregation, null).evaluate();
+		List<Integer> a = new ArrayList<Integer>();
+
+		while (results.hasNext())
+			a.add((int) ((Literal) results.next().getValue("sum"))
+					.doubleValue());
+
+		assertEquals(toValues(e), a);
+	}
+
+	@Test(expected = QueryCancelledException.class)
+	public void testAggregateCancelled() {
+		MemoryDataStore ds = create();
+		TimeBucketAggregation aggregation = new TimeBucketAggregation(null,
+				86400000, DateTimeZone.UTC,
+				Collections.singletonMap("sum", TimeBucketAggregation.Type.SUM),
+				Collections.singletonList("sum"));
+		QueryContext context = new QueryContext();
+
+		context.cancel();
+
+		ds.createSensorObservationAggregateQueryHandler(
+				Collections.singletonMap(SensorObservationQuery.create(
+						sensorId, propertyId, featureId, new DateTime(
+								"2015-06-01T00:00:00Z"), new DateTime(
+								"2015-06-04T00:00:00Z")), frequency),
+				aggregation, context).evaluate();
+	}
+
+	@Test
+	@FileParameters("src/test/resources/MemoryDataStoreTest-testConcurrent.csv")
+	public void testConcurrent(final int count, int threads)
+			throws InterruptedException {
+		final MemoryDataStore ds = new MemoryDataStore();
+		final long start = new DateTime("2015-06-01T00:00:00Z").getMillis();
+		List<Thread> writers = new ArrayList<Thread>();
+
+		// Writer t adds observations t, t + threads, ... in random order
+		for (int t = 0; t < threads; t++) {
+			final List<Integer> values = new ArrayList<Integer>();
+
+			for (int i = t; i < count * threads; i += threads)
+				values.add(i);
+
+			Collections.shuffle(values, new Random(t));
+
+			Thread writer = new Thread() {
+				@Override
+				public void run() {
+					for (Integer value : values)
+						add(ds, new DateTime(start + value * 1000L), value);
+				}
+			};
+
+			writers.add(writer);
+			writer.start();
+		}
+
+		for (Thread writer : writers)
+			writer.join();
+
+		List<Integer> e = new ArrayList<Integer>();
+
+		for (int i = 0; i < count * threads; i++)
+			e.add(i);
+
+		SensorObservationQuery query = SensorObservationQuery.create(sensorId,
+				propertyId, featureId, new DateTime(start), new DateTime(start
+						+ count * threads * 1000L));
+
+		assertEquals(e, toValues(ds.createSensorObservationQueryHandler(
+				Collections.singletonMap(query, frequency)).evaluate()));
+	}
+
+	@Test
+	public void testLatest() {
+		MemoryDataStore ds = create();
+
+		List<Integer> a = toValues(ds
+				.createLatestSensorObservationQueryHandler(
+						Collections.singletonMap(SensorObservationQuery.create(
+								sensorId, propertyId, featureId, null, null),
+								frequency)).evaluate());
+
+		assertEquals(Collections.singletonList(5), a);
+	}
+
+	private MemoryDataStore create() {
+		MemoryDataStore ret = new MemoryDataStore();
+
+		for (int i = 0; i < times.length; i++)
+			add(ret, new DateTime(times[i]), i);
+
+		return ret;
+	}
+
+	private static void add(MemoryDataStore ds, DateTime time, int value) {
+		Set<Statement> statements = new HashSet<Statement>();
+
+		statements.add(vf.createStatement(vf.createURI(ns + "o" + value),
+				DUL.hasRegionDataValue, vf.createLiteral((double) value)));
+		ds.addSensorObservation(sensorId, propertyId, featureId, frequency,
+				time, statements);
+	}
+
+	private List<Integer> toValues(ResultSet<Statement> results) {
+		List<Integer> ret = new ArrayList<Integer>();
+
+		while (results.hasNext()) {
+			Statement statement = results.next();
+
+			if (statement.getPredicate().equals(DUL.hasRegionDataValue))
+				ret.add((int) ((Literal) statement.getObject()).doubleValue());
+		}
+
+		return ret;
+	}
+
+	private List<Integer> toValues(String values) {
+		List<Integer> ret = new ArrayList<Integer>();
+
+		if (values.equals("-"))
+			return ret;
+
+		for (String value : values.split(";"))
+			ret.add(Integer.valueOf(value));
+
+		return ret;
+	}
+
+}
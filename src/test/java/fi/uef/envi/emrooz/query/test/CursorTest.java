@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.UUID;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import fi.uef.envi.emrooz.query.Cursor;
+
+/**
+ * <p>
+ * Title: CursorTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class CursorTest {
+
+	@Test
+	@FileParameters("src/test/resources/CursorTest.csv")
+	public void testParse(int series, long partition, String column, String e) {
+		Cursor cursor = new Cursor(series, partition, UUID.fromString(column));
+
+		assertEquals(e, cursor.toString());
+		assertEquals(cursor, Cursor.parse(e));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseMalformed() {
+		Cursor.parse("0_1420070400000");
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import fi.uef.envi.emrooz.query.Downsampler;
+
+/**
+ * <p>
+ * Title: DownsamplerTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class DownsamplerTest {
+
+	@Test
+	@FileParameters("src/test/resources/DownsamplerTest.csv")
+	public void testGetResults(String method, long from, long to, int points,
+			String values, String e) {
+		Downsampler<String> downsampler = Downsampler.create(
+				Downsampler.Method.valueOf(method), from, to, points);
+		String[] timeValues = values.split(";");
+
+		for (int i = 0; i < timeValues.length; i++) {
+			String[] timeValue = timeValues[i].split(":");
+
+			downsampler.add(Long.valueOf(timeValue[0]),
+					Double.valueOf(timeValue[1]), String.valueOf(i));
+		}
+
+		assertEquals(Arrays.asList(e.split(";")), downsampler.getResults());
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+import junitparams.converters.ConvertParam;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import fi.uef.envi.emrooz.query.RollupPlanner;
+import fi.uef.envi.emrooz.test.ParamsConverterTest;
+
+/**
+ * <p>
+ * Title: RollupPlannerTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class RollupPlannerTest {
+
+	@Test
+	@FileParameters("src/test/resources/RollupPlannerTest.csv")
+	public void testGetResolution(
+			String resolutions,
+			long duration,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime timeFrom,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime timeTo,
+			long e) {
+		assertEquals(e, new RollupPlanner(toList(resolutions)).getResolution(
+				duration, timeFrom, timeTo));
+	}
+
+	@Test
+	@FileParameters("src/test/resources/RollupPlannerTest-testCover.csv")
+	public void testCover(String coverage, String resolutions, String e,
+			String planned) {
+		String a = RollupPlanner.cover(toCoverage(coverage),
+				toList(resolutions));
+
+		assertEquals(toCoverage(e), a);
+		assertEquals(toList(planned), RollupPlanner.create(a)
+				.getResolutions());
+	}
+
+	@Test
+	@FileParameters("src/test/resources/RollupPlannerTest-testGetUncovered.csv")
+	public void testGetUncovered(
+			long resolution,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime timeFrom,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime timeTo,
+			String pending, String e) {
+		assertEquals(toList(e), RollupPlanner.getUncovered(resolution,
+				timeFrom, timeTo, toList(pending)));
+	}
+
+	private List<Long> toList(String resolutions) {
+		List<Long> ret = new ArrayList<Long>();
+
+		if (resolutions.isEmpty())
+			return ret;
+
+		for (String resolution : resolutions.split(";"))
+			ret.add(Long.valueOf(resolution));
+
+		return ret;
+	}
+
+	private String toCoverage(String coverage) {
+		if (coverage.equals("-"))
+			return null;
+
+		return coverage.replace(";", ",");
+	}
+
+}
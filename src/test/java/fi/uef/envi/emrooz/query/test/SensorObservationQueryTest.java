@@ -8,8 +8,14 @@ package fi.uef.envi.emrooz.query.test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import junitparams.FileParameters;
 import junitparams.JUnitParamsRunner;
@@ -19,7 +25,12 @@ import org.joda.time.DateTime;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.query.impl.MapBindingSet;
 
+import fi.uef.envi.emrooz.query.PreparedQuery;
 import fi.uef.envi.emrooz.query.SensorObservationQuery;
 import fi.uef.envi.emrooz.test.ParamsConverterTest;
 
@@ -43,6 +54,8 @@ import fi.uef.envi.emrooz.test.ParamsConverterTest;
 @RunWith(JUnitParamsRunner.class)
 public class SensorObservationQueryTest {
 
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+
 	@Test
 	@FileParameters("src/test/resources/SensorObservationQueryTest-1.csv")
 	public void testSensorObservationQuery1(
@@ -82,4 +95,75 @@ public class SensorObservationQueryTest {
 		assertNotEquals(e, a);
 	}
 
+	@Test
+	@FileParameters("src/test/resources/SensorObservationQueryTest-3.csv")
+	public void testSensorObservationQueryValueRange(String query,
+			String valueFrom, String valueTo) {
+		SensorObservationQuery a = SensorObservationQuery.create(query);
+
+		assertEquals(valueFrom.equals("?") ? null : Double.valueOf(valueFrom),
+				a.getValueFrom());
+		assertEquals(valueTo.equals("?") ? null : Double.valueOf(valueTo),
+				a.getValueTo());
+	}
+
+	@Test
+	@FileParameters("src/test/resources/SensorObservationQueryTest-4.csv")
+	public void testSensorObservationQueryTemplate(
+			String query,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI sensorId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI propertyId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI featureId,
+			String timeFrom, String timeTo) {
+		SensorObservationQuery template = (SensorObservationQuery) PreparedQuery
+				.createSensorObservationQuery(query).getTemplate();
+
+		MapBindingSet bindings = new MapBindingSet();
+		bindings.addBinding("sensorId", sensorId);
+		bindings.addBinding("propertyId", propertyId);
+		bindings.addBinding("featureId", featureId);
+		bindings.addBinding("from",
+				vf.createLiteral(timeFrom, XMLSchema.DATETIME));
+		bindings.addBinding("to", vf.createLiteral(timeTo, XMLSchema.DATETIME));
+
+		assertEquals(SensorObservationQuery.create(sensorId, propertyId,
+				featureId, DateTime.parse(timeFrom), DateTime.parse(timeTo)),
+				template.bind(bindings));
+	}
+
+	@Test
+	@FileParameters("src/test/resources/SensorObservationQueryTest-5.csv")
+	public void testSensorObservationQueryLimit(String query, long limit,
+			boolean descending) {
+		SensorObservationQuery a = SensorObservationQuery.create(query);
+
+		assertEquals(limit, a.getLimit());
+		assertEquals(descending, a.isDescending());
+	}
+
+	@Test
+	@FileParameters("src/test/resources/SensorObservationQueryTest-5.csv")
+	public void testSensorObservationQueryConcurrent(final String query,
+			long limit, boolean descending) throws Exception {
+		final SensorObservationQuery e = SensorObservationQuery.create(query);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<SensorObservationQuery>> futures = new ArrayList<Future<SensorObservationQuery>>();
+
+		for (int i = 0; i < 64; i++) {
+			futures.add(executor.submit(new Callable<SensorObservationQuery>() {
+				@Override
+				public SensorObservationQuery call() {
+					return SensorObservationQuery.create(query);
+				}
+			}));
+		}
+
+		try {
+			for (Future<SensorObservationQuery> future : futures)
+				assertEquals(e, future.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
 }
@@ -42,6 +42,7 @@ import fi.uef.envi.emrooz.entity.ssn.SensorObservation;
 import fi.uef.envi.emrooz.entity.ssn.SensorOutput;
 import fi.uef.envi.emrooz.entity.time.Instant;
 import fi.uef.envi.emrooz.rdf.RDFEntityRepresenter;
+import fi.uef.envi.emrooz.rdf.SensorObservationCollector;
 import fi.uef.envi.emrooz.test.ParamsConverterTest;
 import fi.uef.envi.emrooz.vocabulary.QB;
 import fi.uef.envi.emrooz.vocabulary.QUDTSchema;
@@ -340,6 +341,28 @@ public class RDFEntityRepresenterTest {
 		assertNotEquals(observationE, observationA);
 	}
 
+	@Test
+	@FileParameters("src/test/resources/RDFEntityRepresenterTest-testSensorObservations.csv")
+	public void testSensorObservations(
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> statements,
+			int size) throws Exception {
+		Set<SensorObservation> observationsE = representer
+				.createSensorObservations(statements);
+
+		assertEquals(size, observationsE.size());
+
+		SensorObservationCollector collector = new SensorObservationCollector();
+
+		collector.startRDF();
+
+		for (Statement statement : statements)
+			collector.handleStatement(statement);
+
+		collector.endRDF();
+
+		assertEquals(observationsE, collector.getSensorObservations());
+	}
+
 	@Test
 	@FileParameters("src/test/resources/RDFEntityRepresenterTest-testSensor-1.csv")
 	public void testSensor1(
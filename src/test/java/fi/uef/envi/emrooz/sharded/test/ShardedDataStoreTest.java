@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.sharded.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.XMLSchema;
+
+import fi.uef.envi.emrooz.api.DataStore;
+import fi.uef.envi.emrooz.api.PagedQueryHandler;
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.qudt.Unit;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.local.LocalDataStore;
+import fi.uef.envi.emrooz.memory.MemoryDataStore;
+import fi.uef.envi.emrooz.query.Cursor;
+import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.sharded.ShardedDataStore;
+import fi.uef.envi.emrooz.vocabulary.DUL;
+import fi.uef.envi.emrooz.vocabulary.QUDTUnit;
+import fi.uef.envi.emrooz.vocabulary.SSN;
+import fi.uef.envi.emrooz.vocabulary.Time;
+
+/**
+ * <p>
+ * Title: ShardedDataStoreTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class ShardedDataStoreTest {
+
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+	private static final String ns = "http://example.org#";
+	private static final URI propertyId = vf.createURI(ns + "p1");
+	private static final URI featureId = vf.createURI(ns + "f1");
+	private static final Frequency frequency = new Frequency(
+			vf.createURI(ns + "mp1"), new QuantityValue(vf.createURI(ns
+					+ "qv1"), 1.0, new Unit(QUDTUnit.Hertz)));
+	private static final DateTime start = new DateTime("2015-06-01T00:00:00Z");
+	// Observation j of series i has value 10 * i + j, at hour j
+	private static final int observations = 4;
+
+	@Test
+	@FileParameters("src/test/resources/ShardedDataStoreTest.csv")
+	public void test(int shards, int series) {
+		ShardedDataStore ds = create(shards, new ArrayList<DataStore>(),
+				series);
+
+		List<Integer> a = toValues(ds.createSensorObservationQueryHandler(
+				createQueries(series)).evaluate());
+
+		ds.close();
+
+		Collections.sort(a);
+
+		assertEquals(getValues(series), a);
+	}
+
+	@Test
+	@FileParameters("src/test/resources/ShardedDataStoreTest.csv")
+	public void testPaging(int shards, int series) {
+		ShardedDataStore ds = create(shards, new ArrayList<DataStore>(),
+				series);
+		Map<SensorObservationQuery, Frequency> queries = createQueries(series);
+		List<Integer> a = new ArrayList<Integer>();
+		Cursor cursor = null;
+
+		do {
+			PagedQueryHandler<Statement> handler = ds
+					.createSensorObservationQueryHandler(queries,
+							(cursor == null) ? null : Cursor.parse(cursor
+									.toString()), 3);
+
+			a.addAll(toValues(handler.evaluate()));
+			cursor = handler.getNextCursor();
+		} while (cursor != null);
+
+		ds.close();
+
+		Collections.sort(a);
+
+		assertEquals(getValues(series), a);
+	}
+
+	@Test
+	@FileParameters("src/test/resources/ShardedDataStoreTest.csv")
+	public void testAddShard(int shards, int series)
+			throws InterruptedException, ExecutionException {
+		List<DataStore> backends = new ArrayList<DataStore>();
+		ShardedDataStore ds = create(shards, backends, series);
+		MemoryDataStore shard = new MemoryDataStore();
+
+		ds.addShard(shard).get();
+
+		assertFalse(ds.isRebalancing());
+
+		// The added shard holds the moved series
+		List<Integer> moved = toValues(shard
+				.createSensorObservationQueryHandler(createQueries(series))
+				.evaluate());
+
+		assertTrue(moved.size() > 0);
+		assertEquals(0, moved.size() % observations);
+
+		List<Integer> a = toValues(ds.createSensorObservationQueryHandler(
+				createQueries(series)).evaluate());
+
+		ds.close();
+
+		Collections.sort(a);
+
+		assertEquals(getValues(series), a);
+	}
+
+	@Test
+	@FileParameters("src/test/resources/ShardedDataStoreTest.csv")
+	public void testAddShardWritten(int shards, final int series)
+			throws InterruptedException, ExecutionException {
+		final ShardedDataStore ds = create(shards, new ArrayList<DataStore>(),
+				series);
+
+		// Observations are written while series are moved, before and after
+		// the observations added, and again at the time of one of them
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < series; i++) {
+					add(ds, i, observations);
+					add(ds, i, -1);
+					add(ds, i, 0);
+				}
+			}
+		};
+
+		Future<?> moved = ds.addShard(new MemoryDataStore());
+
+		writer.start();
+		writer.join();
+		moved.get();
+
+		List<Integer> e = new ArrayList<Integer>();
+
+		for (int i = 0; i < series; i++) {
+			for (int j = -1; j <= observations; j++)
+				e.add(10 * i + j);
+		}
+
+		Collections.sort(e);
+
+		Map<SensorObservationQuery, Frequency> queries = new HashMap<SensorObservationQuery, Frequency>();
+
+		for (int i = 0; i < series; i++)
+			queries.put(SensorObservationQuery.create(getSensorId(i),
+					propertyId, featureId, start.minusHours(1),
+					start.plusDays(1)), frequency);
+
+		List<Integer> a = toValues(ds.createSensorObservationQueryHandler(
+				queries).evaluate());
+
+		ds.close();
+
+		Collections.sort(a);
+
+		assertEquals(e, a);
+	}
+
+	@Test
+	@FileParameters("src/test/resources/ShardedDataStoreTest.csv")
+	public void testRestart(int shards, int series) throws IOException,
+			InterruptedException, ExecutionException {
+		File directory = Files.createTempDirectory("sharded").toFile();
+
+		try {
+			ShardedDataStore ds = add(
+					new ShardedDataStore(open(directory, shards)), series);
+
+			ds.close();
+
+			// The shards are listed in reverse, which the ring does not follow
+			List<DataStore> backends = open(directory, shards);
+
+			Collections.reverse(backends);
+
+			ds = new ShardedDataStore(backends);
+
+			LocalDataStore shard = new LocalDataStore(new File(directory, "s"
+					+ shards));
+
+			ds.addShard(shard).get();
+
+			// The added shard holds the moved series of the registry
+			List<Integer> moved = toValues(shard
+					.createSensorObservationQueryHandler(createQueries(series))
+					.evaluate());
+
+			assertTrue(moved.size() > 0);
+			assertEquals(0, moved.size() % observations);
+
+			List<Integer> a = toValues(ds.createSensorObservationQueryHandler(
+					createQueries(series)).evaluate());
+
+			ds.close();
+
+			Collections.sort(a);
+
+			assertEquals(getValues(series), a);
+
+			// The added shard is not left out
+			try {
+				new ShardedDataStore(open(directory, shards));
+				fail();
+			} catch (IllegalArgumentException e) {
+			}
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	@FileParameters("src/test/resources/ShardedDataStoreTest.csv")
+	public void testRestartUnflushed(int shards, int series)
+			throws IOException {
+		File directory = Files.createTempDirectory("sharded").toFile();
+
+		try {
+			// Not flushed, as if the process ended
+			add(new ShardedDataStore(open(directory, shards)), series);
+
+			ShardedDataStore ds = new ShardedDataStore(
+					open(directory, shards));
+
+			try {
+				ds.addShard(new LocalDataStore(new File(directory, "s"
+						+ shards)));
+				fail();
+			} catch (IllegalStateException e) {
+			}
+
+			// Flushing does not complete the registry
+			ds.close();
+
+			try {
+				new ShardedDataStore(open(directory, shards))
+						.addShard(new LocalDataStore(new File(directory, "s"
+								+ shards)));
+				fail();
+			} catch (IllegalStateException e) {
+			}
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	private List<DataStore> open(File directory, int shards) {
+		List<DataStore> ret = new ArrayList<DataStore>();
+
+		for (int i = 0; i < shards; i++)
+			ret.add(new LocalDataStore(new File(directory, "s" + i)));
+
+		return ret;
+	}
+
+	private ShardedDataStore create(int shards, List<DataStore> backends,
+			int series) {
+		for (int i = 0; i < shards; i++)
+			backends.add(new MemoryDataStore());
+
+		return add(new ShardedDataStore(backends), series);
+	}
+
+	private ShardedDataStore add(ShardedDataStore ret, int series) {
+
+		for (int i = 0; i < series; i++) {
+			for (int j = 0; j < observations; j++)
+				add(ret, i, j);
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Adds observation j of series i, at hour j.
+	 */
+	private void add(ShardedDataStore ds, int i, int j) {
+		URI id = vf.createURI(ns + "o" + i + "-" + j);
+		URI timeId = vf.createURI(ns + "t" + i + "-" + j);
+		DateTime time = start.plusHours(j);
+		Set<Statement> statements = new HashSet<Statement>();
+
+		statements.add(vf.createStatement(id, SSN.observationResultTime,
+				timeId));
+		statements.add(vf.createStatement(timeId, Time.inXSDDateTime,
+				vf.createLiteral(time.toString(), XMLSchema.DATETIME)));
+		statements.add(vf.createStatement(id, DUL.hasRegionDataValue,
+				vf.createLiteral((double) (10 * i + j))));
+		ds.addSensorObservation(getSensorId(i), propertyId, featureId,
+				frequency, time, statements);
+	}
+
+	private Map<SensorObservationQuery, Frequency> createQueries(int series) {
+		Map<SensorObservationQuery, Frequency> ret = new HashMap<SensorObservationQuery, Frequency>();
+
+		for (int i = 0; i < series; i++)
+			ret.put(SensorObservationQuery.create(getSensorId(i), propertyId,
+					featureId, start, start.plusDays(1)), frequency);
+
+		return ret;
+	}
+
+	private URI getSensorId(int i) {
+		return vf.createURI(ns + "s" + i);
+	}
+
+	private List<Integer> getValues(int series) {
+		List<Integer> ret = new ArrayList<Integer>();
+
+		for (int i = 0; i < series; i++) {
+			for (int j = 0; j < observations; j++)
+				ret.add(10 * i + j);
+		}
+
+		return ret;
+	}
+
+	private List<Integer> toValues(ResultSet<Statement> results) {
+		List<Integer> ret = new ArrayList<Integer>();
+
+		while (results.hasNext()) {
+			Statement statement = results.next();
+
+			if (statement.getPredicate().equals(DUL.hasRegionDataValue))
+				ret.add((int) ((Literal) statement.getObject()).doubleValue());
+		}
+
+		return ret;
+	}
+
+}
@@ -26,24 +26,38 @@ import org.junit.runner.RunWith;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import org.openrdf.model.Literal;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.query.Binding;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.TupleQueryResultHandler;
+import org.openrdf.query.impl.EmptyBindingSet;
 import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.sail.memory.MemoryStore;
 
 import fi.uef.envi.emrooz.Emrooz;
 import fi.uef.envi.emrooz.QueryType;
 import fi.uef.envi.emrooz.api.DataStore;
+import fi.uef.envi.emrooz.api.PagedQueryHandler;
 import fi.uef.envi.emrooz.api.QueryHandler;
 import fi.uef.envi.emrooz.api.ResultSet;
 import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
 import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.query.Cursor;
 import fi.uef.envi.emrooz.query.DatasetObservationQuery;
+import fi.uef.envi.emrooz.query.IteratorResultSet;
+import fi.uef.envi.emrooz.query.QueryAdmissionPolicy;
+import fi.uef.envi.emrooz.query.QueryCancelledException;
+import fi.uef.envi.emrooz.query.QueryContext;
+import fi.uef.envi.emrooz.query.QueryCost;
+import fi.uef.envi.emrooz.query.QueryRejectedException;
 import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.query.TimeBucketAggregation;
+import fi.uef.envi.emrooz.query.TimeBucketAggregator;
 import fi.uef.envi.emrooz.sesame.SesameKnowledgeStore;
+import fi.uef.envi.emrooz.vocabulary.DUL;
+import fi.uef.envi.emrooz.vocabulary.SSN;
 
 /**
  * <p>
@@ -74,20 +88,247 @@ public class EmroozTest {
 			String query,
 			@ConvertParam(value = ParamsConverterTest.StringToBindingMapSet.class) Set<Map<String, String>> e,
 			String assertType) {
+		test(kb, statements, query, e, assertType, false, false);
+	}
+
+	@Test
+	@FileParameters("src/test/resources/EmroozTest.csv")
+	public void testEmroozNormalized(
+			String kb,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI specificationId,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> statements,
+			String query,
+			@ConvertParam(value = ParamsConverterTest.StringToBindingMapSet.class) Set<Map<String, String>> e,
+			String assertType) {
+		test(kb, statements, query, e, assertType, true, false);
+	}
+
+	@Test
+	@FileParameters("src/test/resources/EmroozTest-testEmroozNormalizedEquivalent.csv")
+	public void testEmroozNormalizedEquivalent(
+			String kb,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> statements,
+			String query) {
+		Set<Map<String, String>> raw = evaluate(kb, statements, query, false);
+		Set<Map<String, String>> normalized = evaluate(kb, statements, query,
+				true);
+
+		assertFalse(raw.isEmpty());
+		// Observations are stored with the same statements
+		assertTrue(normalized.containsAll(withoutEntities(raw, statements)));
+
+		// The statements of the sensor are those of the knowledge base
+		boolean capability = false;
+
+		for (Map<String, String> m : normalized) {
+			if (getEntities(statements).contains(m.get("s"))
+					&& m.get("p").equals(
+							SSN.hasMeasurementCapability.stringValue()))
+				capability = true;
+		}
+
+		assertTrue(capability);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	@FileParameters("src/test/resources/EmroozTest-testEmroozNormalizedEquivalent.csv")
+	public void testEmroozNormalizedMismatch(
+			String kb,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> statements,
+			String query) {
+		ThisDataStore ds = new ThisDataStore(false);
+
+		Emrooz em = new Emrooz(new SesameKnowledgeStore(new SailRepository(
+				new MemoryStore())), ds);
+		em.setNormalized(true);
+		em.loadKnowledgeBase(new File(kb));
+		em.addSensorObservations(statements);
+		em.close();
+
+		em = new Emrooz(new SesameKnowledgeStore(new SailRepository(
+				new MemoryStore())), ds);
+		em.loadKnowledgeBase(new File(kb));
+
+		try {
+			em.evaluate(QueryType.SENSOR_OBSERVATION, query);
+		} finally {
+			em.close();
+		}
+	}
+
+	@Test
+	@FileParameters("src/test/resources/EmroozTest-testEmroozAggregate.csv")
+	public void testEmroozAggregate(
+			String kb,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> statements,
+			String query,
+			@ConvertParam(value = ParamsConverterTest.StringToBindingMapSet.class) Set<Map<String, String>> e,
+			String assertType) {
+		test(kb, statements, query, e, assertType, false, true);
+	}
+
+	@Test
+	@FileParameters("src/test/resources/EmroozTest-testEmroozAggregate.csv")
+	public void testEmroozAggregateFallback(
+			String kb,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> statements,
+			String query,
+			@ConvertParam(value = ParamsConverterTest.StringToBindingMapSet.class) Set<Map<String, String>> e,
+			String assertType) {
+		test(kb, statements, query, e, assertType, false, false);
+	}
+
+	@Test
+	@FileParameters("src/test/resources/EmroozTest-testEmroozLatest.csv")
+	public void testEmroozLatest(
+			String kb,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> statements,
+			@ConvertParam(value = ParamsConverterTest.StringToBindingMapSet.class) Set<Map<String, String>> e,
+			String assertType) {
+		for (boolean normalized : new boolean[] { false, true }) {
+			Emrooz em = new Emrooz(new SesameKnowledgeStore(new SailRepository(
+					new MemoryStore())), new ThisDataStore(false));
+			em.setNormalized(normalized);
+			em.loadKnowledgeBase(new File(kb));
+			em.addSensorObservations(statements);
+
+			assertResults(
+					em.getLatestSensorObservations(null, null, null), e,
+					assertType);
+
+			em.close();
+		}
+	}
+
+	@Test(expected = QueryRejectedException.class)
+	@FileParameters("src/test/resources/EmroozTest-testEmroozAggregate.csv")
+	public void testEmroozRejected(
+			String kb,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> statements,
+			String query,
+			@ConvertParam(value = ParamsConverterTest.StringToBindingMapSet.class) Set<Map<String, String>> e,
+			String assertType) {
 		Emrooz em = new Emrooz(new SesameKnowledgeStore(new SailRepository(
-				new MemoryStore())), new ThisDataStore());
+				new MemoryStore())), new ThisDataStore(true));
+		em.setQueryAdmissionPolicy(new QueryAdmissionPolicy(-1, 1,
+				QueryAdmissionPolicy.Action.REJECT, 0));
+		em.loadKnowledgeBase(new File(kb));
+		em.addSensorObservations(statements);
+
+		try {
+			em.evaluate(QueryType.SENSOR_OBSERVATION, query);
+		} finally {
+			em.close();
+		}
+	}
+
+	@Test(expected = QueryCancelledException.class)
+	@FileParameters("src/test/resources/EmroozTest-testEmroozAggregate.csv")
+	public void testEmroozCancelled(
+			String kb,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> statements,
+			String query,
+			@ConvertParam(value = ParamsConverterTest.StringToBindingMapSet.class) Set<Map<String, String>> e,
+			String assertType) {
+		Emrooz em = new Emrooz(new SesameKnowledgeStore(new SailRepository(
+				new MemoryStore())), new ThisDataStore(false));
+		em.loadKnowledgeBase(new File(kb));
+		em.addSensorObservations(statements);
+
+		QueryContext context = new QueryContext();
+		context.cancel();
+
+		try {
+			em.evaluate(em.prepare(QueryType.SENSOR_OBSERVATION, query),
+					EmptyBindingSet.getInstance(), context);
+		} finally {
+			em.close();
+		}
+	}
+
+	private void test(String kb, Set<Statement> statements, String query,
+			Set<Map<String, String>> e, String assertType, boolean normalized,
+			boolean aggregate) {
+		Emrooz em = new Emrooz(new SesameKnowledgeStore(new SailRepository(
+				new MemoryStore())), new ThisDataStore(aggregate));
+		em.setNormalized(normalized);
 		em.loadKnowledgeBase(new File(kb));
 		em.addSensorObservations(statements);
 		ResultSet<BindingSet> rs = em.evaluate(QueryType.SENSOR_OBSERVATION,
 				query);
 
+		assertResults(rs, e, assertType);
+
+		em.close();
+	}
+
+	private Set<Map<String, String>> evaluate(String kb,
+			Set<Statement> statements, String query, boolean normalized) {
+		Emrooz em = new Emrooz(new SesameKnowledgeStore(new SailRepository(
+				new MemoryStore())), new ThisDataStore(false));
+		em.setNormalized(normalized);
+		em.loadKnowledgeBase(new File(kb));
+		em.addSensorObservations(statements);
+
+		Set<Map<String, String>> ret = toSet(em.evaluate(
+				QueryType.SENSOR_OBSERVATION, query));
+
+		em.close();
+
+		return ret;
+	}
+
+	private void assertResults(ResultSet<BindingSet> rs,
+			Set<Map<String, String>> e, String assertType) {
+		Set<Map<String, String>> a = toSet(rs);
+
+		if (assertType.equals("assertEquals")) {
+			assertTrue(CollectionUtils.isEqualCollection(e, a));
+			return;
+		}
+
+		assertFalse(CollectionUtils.isEqualCollection(e, a));
+	}
+
+	/**
+	 * Returns the results without those of the sensors, properties and
+	 * features the observations link to.
+	 */
+	private Set<Map<String, String>> withoutEntities(
+			Set<Map<String, String>> results, Set<Statement> statements) {
+		Set<Map<String, String>> ret = new HashSet<Map<String, String>>();
+		Set<String> entities = getEntities(statements);
+
+		for (Map<String, String> m : results) {
+			if (!entities.contains(m.get("s")))
+				ret.add(m);
+		}
+
+		return ret;
+	}
+
+	private Set<String> getEntities(Set<Statement> statements) {
+		Set<String> ret = new HashSet<String>();
+
+		for (Statement statement : statements) {
+			URI predicate = statement.getPredicate();
+
+			if (predicate.equals(SSN.observedBy)
+					|| predicate.equals(SSN.observedProperty)
+					|| predicate.equals(SSN.featureOfInterest))
+				ret.add(statement.getObject().stringValue());
+		}
+
+		return ret;
+	}
+
+	private Set<Map<String, String>> toSet(ResultSet<BindingSet> rs) {
 		Set<Map<String, String>> a = new HashSet<Map<String, String>>();
 
 		while (rs.hasNext()) {
 			BindingSet bs = rs.next();
 
 			Map<String, String> m = new HashMap<String, String>();
-			a.add(m);
 
 			Iterator<Binding> it = bs.iterator();
 
@@ -95,26 +336,25 @@ public class EmroozTest {
 				Binding b = it.next();
 				m.put(b.getName(), b.getValue().stringValue());
 			}
-		}
 
-		if (assertType.equals("assertEquals")) {
-			assertTrue(CollectionUtils.isEqualCollection(e, a));
-			return;
+			a.add(m);
 		}
 
-		assertFalse(CollectionUtils.isEqualCollection(e, a));
-
-		em.close();
+		return a;
 	}
 
 	private class ThisDataStore implements DataStore {
 
 		Map<URI, Map<URI, Map<URI, Map<DateTime, Set<Statement>>>>> sensorObservationStore;
 		Map<URI, Map<DateTime, Set<Statement>>> datasetObservationStore;
+		Map<String, String> metadata;
+		boolean aggregate;
 
-		public ThisDataStore() {
+		public ThisDataStore(boolean aggregate) {
+			this.aggregate = aggregate;
 			this.sensorObservationStore = new HashMap<URI, Map<URI, Map<URI, Map<DateTime, Set<Statement>>>>>();
 			this.datasetObservationStore = new HashMap<URI, Map<DateTime, Set<Statement>>>();
+			this.metadata = new HashMap<String, String>();
 		}
 
 		@Override
@@ -161,6 +401,51 @@ public class EmroozTest {
 					queries);
 		}
 
+		@Override
+		public QueryHandler<BindingSet> createSensorObservationAggregateQueryHandler(
+				Map<SensorObservationQuery, Frequency> queries,
+				TimeBucketAggregation aggregation, QueryContext context) {
+			if (!aggregate)
+				return null;
+
+			return new ThisSensorObservationAggregateQueryHandler(
+					Collections.unmodifiableMap(sensorObservationStore),
+					queries, aggregation);
+		}
+
+		@Override
+		public QueryCost estimateSensorObservationQueryCost(
+				Map<SensorObservationQuery, Frequency> queries,
+				TimeBucketAggregation aggregation) {
+			long rows = 0;
+
+			for (SensorObservationQuery query : queries.keySet()) {
+				Map<DateTime, Set<Statement>> observations = getObservations(
+						query.getSensorId(), query.getPropertyId(),
+						query.getFeatureOfInterestId());
+
+				for (DateTime time : observations.keySet()) {
+					if (!time.isBefore(query.getTimeFrom())
+							&& time.isBefore(query.getTimeTo()))
+						rows++;
+				}
+			}
+
+			return new QueryCost(queries.size(), rows);
+		}
+
+		private Map<DateTime, Set<Statement>> getObservations(URI sensorId,
+				URI propertyId, URI featureId) {
+			Map<URI, Map<URI, Map<DateTime, Set<Statement>>>> m1 = sensorObservationStore
+					.get(sensorId);
+
+			if (m1 == null || m1.get(propertyId) == null
+					|| m1.get(propertyId).get(featureId) == null)
+				return Collections.emptyMap();
+
+			return m1.get(propertyId).get(featureId);
+		}
+
 		@Override
 		public QueryHandler<Statement> createDatasetObservationQueryHandler(
 				Map<DatasetObservationQuery, QuantityValue> queries) {
@@ -169,6 +454,96 @@ public class EmroozTest {
 					queries);
 		}
 
+		@Override
+		public PagedQueryHandler<Statement> createSensorObservationQueryHandler(
+				Map<SensorObservationQuery, Frequency> queries, Cursor cursor,
+				int size) {
+			return null;
+		}
+
+		@Override
+		public PagedQueryHandler<Statement> createDatasetObservationQueryHandler(
+				Map<DatasetObservationQuery, QuantityValue> queries,
+				Cursor cursor, int size) {
+			return null;
+		}
+
+		@Override
+		public QueryHandler<Statement> createLatestSensorObservationQueryHandler(
+				Map<SensorObservationQuery, Frequency> queries) {
+			Set<Statement> ret = new HashSet<Statement>();
+
+			for (SensorObservationQuery query : queries.keySet()) {
+				Map<URI, Map<URI, Map<DateTime, Set<Statement>>>> m1 = sensorObservationStore
+						.get(query.getSensorId());
+
+				if (m1 == null)
+					continue;
+
+				Map<URI, Map<DateTime, Set<Statement>>> m2 = m1.get(query
+						.getPropertyId());
+
+				if (m2 == null)
+					continue;
+
+				TreeMap<DateTime, Set<Statement>> m3 = (TreeMap<DateTime, Set<Statement>>) m2
+						.get(query.getFeatureOfInterestId());
+
+				if (m3 == null || m3.isEmpty())
+					continue;
+
+				ret.addAll(m3.lastEntry().getValue());
+			}
+
+			return new ThisStatementQueryHandler(ret);
+		}
+
+		@Override
+		public QueryHandler<Statement> createLatestDatasetObservationQueryHandler(
+				Map<DatasetObservationQuery, QuantityValue> queries) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void flush() {
+			// Nothing to flush
+		}
+
+		@Override
+		public String getMetadata(String key) {
+			return metadata.get(key);
+		}
+
+		@Override
+		public void setMetadata(String key, String value) {
+			metadata.put(key, value);
+		}
+
+		@Override
+		public void close() {
+			// Nothing to close
+		}
+
+	}
+
+	private class ThisStatementQueryHandler implements QueryHandler<Statement> {
+
+		private Set<Statement> statements;
+
+		public ThisStatementQueryHandler(Set<Statement> statements) {
+			this.statements = statements;
+		}
+
+		@Override
+		public ResultSet<Statement> evaluate() {
+			return new ThisResultSet(statements.iterator());
+		}
+
+		@Override
+		public void evaluate(TupleQueryResultHandler handler) {
+			throw new UnsupportedOperationException();
+		}
+
 		@Override
 		public void close() {
 			// Nothing to close
@@ -272,6 +647,78 @@ public class EmroozTest {
 
 	}
 
+	private class ThisSensorObservationAggregateQueryHandler implements
+			QueryHandler<BindingSet> {
+
+		private Map<URI, Map<URI, Map<URI, Map<DateTime, Set<Statement>>>>> store;
+		private Map<SensorObservationQuery, Frequency> queries;
+		private TimeBucketAggregation aggregation;
+
+		public ThisSensorObservationAggregateQueryHandler(
+				Map<URI, Map<URI, Map<URI, Map<DateTime, Set<Statement>>>>> store,
+				Map<SensorObservationQuery, Frequency> queries,
+				TimeBucketAggregation aggregation) {
+			this.store = store;
+			this.queries = queries;
+			this.aggregation = aggregation;
+		}
+
+		@Override
+		public ResultSet<BindingSet> evaluate() {
+			TimeBucketAggregator aggregator = new TimeBucketAggregator(
+					aggregation);
+
+			for (SensorObservationQuery query : queries.keySet()) {
+				Map<URI, Map<URI, Map<DateTime, Set<Statement>>>> m1 = store
+						.get(query.getSensorId());
+
+				if (m1 == null)
+					continue;
+
+				Map<URI, Map<DateTime, Set<Statement>>> m2 = m1.get(query
+						.getPropertyId());
+
+				if (m2 == null)
+					continue;
+
+				Map<DateTime, Set<Statement>> m3 = m2.get(query
+						.getFeatureOfInterestId());
+
+				if (m3 == null)
+					continue;
+
+				for (Map.Entry<DateTime, Set<Statement>> e : m3.entrySet()) {
+					DateTime dateTime = e.getKey();
+
+					if (dateTime.isBefore(query.getTimeFrom())
+							|| !dateTime.isBefore(query.getTimeTo()))
+						continue;
+
+					for (Statement statement : e.getValue()) {
+						if (statement.getPredicate().equals(
+								DUL.hasRegionDataValue))
+							aggregator.add(dateTime.getMillis(),
+									(Literal) statement.getObject());
+					}
+				}
+			}
+
+			return new IteratorResultSet<BindingSet>(aggregator
+					.getBindingSets().iterator());
+		}
+
+		@Override
+		public void evaluate(TupleQueryResultHandler handler) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			// Nothing to close
+		}
+
+	}
+
 	private class ThisResultSet implements ResultSet<Statement> {
 
 		private Iterator<Statement> iterator;
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.tiered.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.qudt.Unit;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.memory.MemoryDataStore;
+import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.tiered.TieredDataStore;
+import fi.uef.envi.emrooz.vocabulary.DUL;
+import fi.uef.envi.emrooz.vocabulary.QUDTUnit;
+
+/**
+ * <p>
+ * Title: TieredDataStoreTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class TieredDataStoreTest {
+
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+	private static final String ns = "http://example.org#";
+	private static final URI sensorId = vf.createURI(ns + "s1");
+	private static final URI propertyId = vf.createURI(ns + "p1");
+	private static final URI featureId = vf.createURI(ns + "f1");
+	private static final Frequency frequency = new Frequency(
+			vf.createURI(ns + "mp1"), new QuantityValue(vf.createURI(ns
+					+ "qv1"), 1.0, new Unit(QUDTUnit.Hertz)));
+	// Observation i has value i, at the minutes relative to now; the first
+	// two are before the data store is created, hence in the cold tier only
+	private static final int[] minutes = new int[] { -120, -30, 1, 2 };
+	private static final long window = 60 * 60 * 1000;
+
+	@Test
+	@FileParameters("src/test/resources/TieredDataStoreTest.csv")
+	public void test(int minutesFrom, int minutesTo, boolean clearCold,
+			String e) {
+		DateTime now = DateTime.now();
+		MemoryDataStore hot = new MemoryDataStore();
+		MemoryDataStore cold = new MemoryDataStore();
+		TieredDataStore ds = new TieredDataStore(hot, cold, window);
+
+		for (int i = 0; i < minutes.length; i++)
+			add(ds, now.plusMinutes(minutes[i]), i);
+
+		// Observations remain in the hot tier only
+		if (clearCold)
+			cold.close();
+
+		SensorObservationQuery query = SensorObservationQuery.create(sensorId,
+				propertyId, featureId, now.plusMinutes(minutesFrom),
+				now.plusMinutes(minutesTo));
+
+		assertEquals(toValues(e), toValues(ds
+				.createSensorObservationQueryHandler(
+						Collections.singletonMap(query, frequency)).evaluate()));
+	}
+
+	@Test
+	@FileParameters("src/test/resources/TieredDataStoreTest-testReplace.csv")
+	public void testReplace(int index, int minutesFrom, int minutesTo,
+			String e) {
+		DateTime now = DateTime.now();
+		MemoryDataStore hot = new MemoryDataStore();
+		MemoryDataStore cold = new MemoryDataStore();
+		TieredDataStore ds = new TieredDataStore(hot, cold, window);
+
+		for (int i = 0; i < minutes.length; i++)
+			add(ds, now.plusMinutes(minutes[i]), i);
+
+		// The observation is sent again with another value
+		add(ds, now.plusMinutes(minutes[index]), minutes.length);
+
+		SensorObservationQuery query = SensorObservationQuery.create(sensorId,
+				propertyId, featureId, now.plusMinutes(minutesFrom),
+				now.plusMinutes(minutesTo));
+
+		assertEquals(toValues(e), toValues(ds
+				.createSensorObservationQueryHandler(
+						Collections.singletonMap(query, frequency)).evaluate()));
+	}
+
+	private static void add(TieredDataStore ds, DateTime time, int value) {
+		Set<Statement> statements = new HashSet<Statement>();
+
+		statements.add(vf.createStatement(vf.createURI(ns + "o" + value),
+				DUL.hasRegionDataValue, vf.createLiteral((double) value)));
+		ds.addSensorObservation(sensorId, propertyId, featureId, frequency,
+				time, statements);
+	}
+
+	private List<Integer> toValues(ResultSet<Statement> results) {
+		List<Integer> ret = new ArrayList<Integer>();
+
+		while (results.hasNext()) {
+			Statement statement = results.next();
+
+			if (statement.getPredicate().equals(DUL.hasRegionDataValue))
+				ret.add((int) ((Literal) statement.getObject()).doubleValue());
+		}
+
+		return ret;
+	}
+
+	private List<Integer> toValues(String values) {
+		List<Integer> ret = new ArrayList<Integer>();
+
+		if (values.equals("-"))
+			return ret;
+
+		for (String value : values.split(";"))
+			ret.add(Integer.valueOf(value));
+
+		return ret;
+	}
+
+}